@@ -0,0 +1,82 @@
+package com.lily.metadataProcessingService.cdc;
+
+import com.lily.metadataProcessingService.config.CdcConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff of a wide record against its previous state.
+ * Every tenth field is a nested object with a list of contacts, so the walk goes a few levels deep.
+ * {@code changedPercent} of the top level fields differ, 0 is the common case of an event repeating the state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CdcDiffEngineBenchmark {
+
+    @Param({"50", "500"})
+    private int fields;
+
+    @Param({"0", "1", "10"})
+    private int changedPercent;
+
+    @Param({"FULL", "CHANGES_ONLY"})
+    private CdcOutputMode mode;
+
+    private final CdcDiffEngine engine = new CdcDiffEngine(new CdcConfig());
+    private Map<String, Object> oldState;
+    private Map<String, Object> newState;
+
+    @Setup
+    public void setUp() {
+        oldState = record(fields, -1);
+        int every = changedPercent == 0 ? Integer.MAX_VALUE : 100 / changedPercent;
+        newState = record(fields, every);
+    }
+
+    @Benchmark
+    public CdcDiff diff() {
+        return engine.diff(oldState, newState, mode);
+    }
+
+    /**
+     * @param changeEvery Change every n-th field, -1 for none
+     */
+    private static Map<String, Object> record(int fields, int changeEvery) {
+        Map<String, Object> state = new LinkedHashMap<>();
+        for (int i = 0; i < fields; i++) {
+            boolean changed = changeEvery > 0 && i % changeEvery == 0;
+            String suffix = changed ? "-changed" : "";
+            if (i % 10 == 9) {
+                List<Object> contacts = new ArrayList<>();
+                for (int c = 0; c < 3; c++) {
+                    contacts.add(Map.of("name", "contact-" + c, "email", "contact-" + c + "@example.com" + suffix));
+                }
+                state.put("nested_" + i, Map.of("owner", "owner-" + i, "contacts", contacts, "size", i * 1000L));
+            } else if (i % 3 == 0) {
+                state.put("count_" + i, changed ? i + 1 : i);
+            } else {
+                state.put("column_" + i, "value-" + i + suffix);
+            }
+        }
+        return state;
+    }
+}
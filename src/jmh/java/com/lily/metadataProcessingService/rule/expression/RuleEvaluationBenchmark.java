@@ -0,0 +1,117 @@
+package com.lily.metadataProcessingService.rule.expression;
+
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import com.lily.metadataProcessingService.model.rules.MetadataRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event cost of rule conditions: single expressions, the same condition written by hand as a baseline,
+ * and a whole rule picking its route and masks. Each call evaluates the next of 1024 payloads so branches
+ * go both ways. Compiling is measured too, it happens once per rule load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuleEvaluationBenchmark {
+
+    private static final String TABLE_AND_SIZE = "table startsWith 'fin_' && size > 1000";
+    private static final String CLASSIFICATION = "classification == 'PII'";
+    private static final String IN_OR_MATCHES =
+        "lower(schema) in ['sales', 'finance', 'hr', 'ops'] or owner.email matches '.*@finance\\\\.example\\\\.com'";
+    private static final int PAYLOADS = 1024;
+
+    private CompiledExpression tableAndSize;
+    private CompiledExpression classification;
+    private CompiledExpression inOrMatches;
+    private CompiledRule rule;
+    private Map<String, ?>[] payloads;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        tableAndSize = ExpressionCompiler.compile(TABLE_AND_SIZE);
+        classification = ExpressionCompiler.compile(CLASSIFICATION);
+        inOrMatches = ExpressionCompiler.compile(IN_OR_MATCHES);
+        rule = CompiledRule.compile(MetadataRule.builder()
+            .id("benchmark")
+            .configuration(Map.of(
+                CompiledRule.ROUTES_KEY, List.of(
+                    Map.of("when", TABLE_AND_SIZE, "topic", "finance-metadata"),
+                    Map.of("when", IN_OR_MATCHES, "topic", "internal-metadata"),
+                    Map.of("topic", "default-metadata")),
+                CompiledRule.MASKS_KEY, List.of(
+                    Map.of("when", CLASSIFICATION, "fields", "email,phone"),
+                    Map.of("fields", "ssn"))))
+            .build());
+
+        payloads = new Map[PAYLOADS];
+        String[] schemas = {"Sales", "marketing", "finance", "eng"};
+        for (int i = 0; i < PAYLOADS; i++) {
+            payloads[i] = Map.of(
+                "table", (i % 3 == 0 ? "fin_" : "crm_") + "table_" + i,
+                "size", i * 7L,
+                "schema", schemas[i % schemas.length],
+                "classification", i % 5 == 0 ? "PII" : "PUBLIC",
+                "owner", Map.of("email", "user" + i + (i % 4 == 0 ? "@finance.example.com" : "@example.com")));
+        }
+    }
+
+    private Map<String, ?> nextPayload() {
+        return payloads[next++ & (PAYLOADS - 1)];
+    }
+
+    @Benchmark
+    public boolean tableAndSize() {
+        return tableAndSize.test(nextPayload());
+    }
+
+    @Benchmark
+    public boolean classification() {
+        return classification.test(nextPayload());
+    }
+
+    @Benchmark
+    public boolean inOrMatches() {
+        return inOrMatches.test(nextPayload());
+    }
+
+    /** The first condition written in Java, what a compiled expression is compared against */
+    @Benchmark
+    public boolean tableAndSizeHandWritten() {
+        Map<String, ?> payload = nextPayload();
+        return payload.get("table") instanceof String table && table.startsWith("fin_")
+            && payload.get("size") instanceof Number size && size.doubleValue() > 1000;
+    }
+
+    @Benchmark
+    public void routeAndMasks(Blackhole blackhole) {
+        Map<String, ?> payload = nextPayload();
+        blackhole.consume(rule.routeFor(payload));
+        for (CompiledRule.Mask mask : rule.getMasks()) {
+            blackhole.consume(mask.appliesTo(payload));
+        }
+    }
+
+    @Benchmark
+    public CompiledExpression compile() {
+        return ExpressionCompiler.compile(IN_OR_MATCHES);
+    }
+}
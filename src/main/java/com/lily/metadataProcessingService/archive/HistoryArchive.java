@@ -0,0 +1,92 @@
+package com.lily.metadataProcessingService.archive;
+
+import com.lily.metadataProcessingService.config.HistoryConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Local archive of metadata_history partitions that were detached from the database.
+ * Each partition becomes one segment file {@code <partition>.seg} under {@code archiveDirectory},
+ * indexed by entity key, so the lineage of an entity can still be read after its rows left PostgreSQL.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HistoryArchive {
+
+    public static final String ENTITY_KEY = "entity_key";
+    public static final String TIMESTAMP = "timestamp";
+
+    /** Columns of archived history rows, timestamps are epoch millis. */
+    public static final List<SegmentColumn> COLUMNS = List.of(
+        SegmentColumn.string("event_id"),
+        SegmentColumn.string(ENTITY_KEY),
+        SegmentColumn.string("tenant_id"),
+        SegmentColumn.string("operation"),
+        SegmentColumn.longColumn("version"),
+        SegmentColumn.longColumn(TIMESTAMP),
+        SegmentColumn.string("user"),
+        SegmentColumn.string("before_state"),
+        SegmentColumn.string("after_state"),
+        SegmentColumn.string("changes"));
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final HistoryConfig config;
+
+    public boolean contains(String partition) {
+        return Files.exists(segmentPath(partition));
+    }
+
+    /**
+     * Starts the segment of a partition, it becomes visible once {@link HistorySegmentWriter#finish()} returns.
+     */
+    public HistorySegmentWriter newSegment(String partition) {
+        return new HistorySegmentWriter(segmentPath(partition), COLUMNS, ENTITY_KEY, TIMESTAMP);
+    }
+
+    /**
+     * Archived rows of an entity with a timestamp in [fromMillis, toMillis).
+     *
+     * @return Rows with values in {@link #COLUMNS} order
+     */
+    public List<Object[]> findByEntityKey(String entityKey, long fromMillis, long toMillis) {
+        Path directory = Paths.get(config.getArchiveDirectory());
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        int timestampColumn = COLUMNS.indexOf(SegmentColumn.longColumn(TIMESTAMP));
+        List<Object[]> rows = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList()) {
+                HistorySegmentReader segment = HistorySegmentReader.open(file);
+                if (!segment.overlaps(fromMillis, toMillis)) {
+                    continue;
+                }
+                for (Object[] row : segment.findByKey(entityKey)) {
+                    Long timestamp = (Long) row[timestampColumn];
+                    if (timestamp != null && timestamp >= fromMillis && timestamp < toMillis) {
+                        rows.add(row);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list history archive " + directory, e);
+        }
+        return rows;
+    }
+
+    private Path segmentPath(String partition) {
+        return Paths.get(config.getArchiveDirectory(), partition + SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,216 @@
+package com.lily.metadataProcessingService.archive;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads an archive segment written by {@link HistorySegmentWriter}.
+ * Opening only reads the footer. A key lookup inflates the index, then streams each column block
+ * just far enough to reach the last matching row, so memory stays flat regardless of segment size.
+ */
+public final class HistorySegmentReader {
+
+    private final Path path;
+    private final long rowCount;
+    private final long minTime;
+    private final long maxTime;
+    private final String indexColumn;
+    private final List<SegmentColumn> columns = new ArrayList<>();
+    private final List<long[]> blocks = new ArrayList<>();
+    private final long indexOffset;
+    private final long indexLength;
+
+    private HistorySegmentReader(Path path, DataInputStream footer) throws IOException {
+        this.path = path;
+        if (footer.readLong() != SegmentFormat.MAGIC || footer.readInt() != SegmentFormat.VERSION) {
+            throw new IOException("Not an archive segment: " + path);
+        }
+        this.rowCount = footer.readLong();
+        this.minTime = footer.readLong();
+        this.maxTime = footer.readLong();
+        this.indexColumn = footer.readUTF();
+        footer.readUTF();
+        int columnCount = footer.readInt();
+        for (int i = 0; i < columnCount; i++) {
+            String name = footer.readUTF();
+            SegmentColumn.Type type = SegmentColumn.Type.values()[footer.readByte()];
+            columns.add(new SegmentColumn(name, type));
+            blocks.add(new long[] {footer.readLong(), footer.readLong()});
+        }
+        this.indexOffset = footer.readLong();
+        this.indexLength = footer.readLong();
+    }
+
+    public static HistorySegmentReader open(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer tail = ByteBuffer.allocate(Long.BYTES);
+            channel.read(tail, channel.size() - Long.BYTES);
+            long footerOffset = tail.flip().getLong();
+            ByteBuffer footer = ByteBuffer.allocate((int) (channel.size() - Long.BYTES - footerOffset));
+            channel.read(footer, footerOffset);
+            return new HistorySegmentReader(path,
+                new DataInputStream(new ByteArrayInputStream(footer.array())));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open archive segment " + path, e);
+        }
+    }
+
+    /**
+     * @return Whether the segment has rows with a time in [from, to)
+     */
+    public boolean overlaps(long from, long to) {
+        return rowCount > 0 && minTime < to && maxTime >= from;
+    }
+
+    /**
+     * Rows whose index column equals the key, in the order they were written.
+     *
+     * @return One value array per row, in column order
+     */
+    public List<Object[]> findByKey(String key) {
+        int[] rows = rowsOf(key);
+        if (rows.length == 0) {
+            return List.of();
+        }
+        List<Object[]> result = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            result.add(new Object[columns.size()]);
+        }
+        try {
+            for (int column = 0; column < columns.size(); column++) {
+                readColumn(column, rows, result);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive segment " + path, e);
+        }
+        return result;
+    }
+
+    private int[] rowsOf(String key) {
+        try (DataInputStream index = inflated(indexOffset, indexLength)) {
+            long keys = SegmentFormat.readVarLong(index);
+            for (long i = 0; i < keys; i++) {
+                String candidate = SegmentFormat.readString(index);
+                int count = (int) SegmentFormat.readVarLong(index);
+                int comparison = candidate.compareTo(key);
+                if (comparison == 0) {
+                    int[] rows = new int[count];
+                    int row = 0;
+                    for (int r = 0; r < count; r++) {
+                        row += (int) SegmentFormat.readVarLong(index);
+                        rows[r] = row;
+                    }
+                    return rows;
+                }
+                if (comparison > 0) {
+                    // Keys are sorted, the key is not in this segment
+                    break;
+                }
+                for (int r = 0; r < count; r++) {
+                    SegmentFormat.readVarLong(index);
+                }
+            }
+            return new int[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive index " + path, e);
+        }
+    }
+
+    private void readColumn(int column, int[] rows, List<Object[]> result) throws IOException {
+        boolean isString = columns.get(column).type() == SegmentColumn.Type.STRING;
+        long[] block = blocks.get(column);
+        try (DataInputStream in = inflated(block[0], block[1])) {
+            long previous = 0;
+            int next = 0;
+            for (int row = 0; row <= rows[rows.length - 1]; row++) {
+                boolean wanted = row == rows[next];
+                if (isString) {
+                    if (wanted) {
+                        result.get(next)[column] = SegmentFormat.readString(in);
+                    } else {
+                        SegmentFormat.skipString(in);
+                    }
+                } else {
+                    previous += SegmentFormat.unZigZag(SegmentFormat.readVarLong(in));
+                    if (wanted) {
+                        result.get(next)[column] = previous == SegmentFormat.NULL_LONG ? null : previous;
+                    }
+                }
+                if (wanted) {
+                    next++;
+                }
+            }
+        }
+    }
+
+    private DataInputStream inflated(long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channel.position(offset);
+        InputStream block = new BoundedInputStream(Channels.newInputStream(channel), length);
+        return new DataInputStream(new BufferedInputStream(new InflaterInputStream(block), 1 << 16));
+    }
+
+    public List<SegmentColumn> getColumns() {
+        return columns;
+    }
+
+    public String getIndexColumn() {
+        return indexColumn;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /** Stops at the end of a block, closing it closes the file. */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
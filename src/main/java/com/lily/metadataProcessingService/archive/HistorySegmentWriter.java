@@ -0,0 +1,233 @@
+package com.lily.metadataProcessingService.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes rows into an archive segment, see {@link SegmentFormat} for the layout.
+ * Rows are streamed: every column is deflated into its own temp file as rows arrive, so only the
+ * key index is held in memory. {@link #finish()} stitches the blocks into the segment and moves it
+ * into place atomically, a segment file therefore either is complete or does not exist.
+ */
+public final class HistorySegmentWriter implements AutoCloseable {
+
+    private final Path target;
+    private final List<SegmentColumn> columns;
+    private final int indexColumn;
+    private final int timeColumn;
+    private final Path[] blockFiles;
+    private final DataOutputStream[] blocks;
+    private final long[] previousLongs;
+    private final Map<String, List<Integer>> index = new TreeMap<>();
+    private long rowCount;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+
+    /**
+     * @param target Segment file to create
+     * @param columns Columns of every row, in order
+     * @param indexColumn String column to build the key index on
+     * @param timeColumn Long column whose range is recorded in the footer
+     */
+    public HistorySegmentWriter(Path target, List<SegmentColumn> columns, String indexColumn, String timeColumn) {
+        this.target = target;
+        this.columns = List.copyOf(columns);
+        this.indexColumn = columnIndex(indexColumn);
+        this.timeColumn = columnIndex(timeColumn);
+        this.blockFiles = new Path[columns.size()];
+        this.blocks = new DataOutputStream[columns.size()];
+        this.previousLongs = new long[columns.size()];
+        try {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            for (int i = 0; i < columns.size(); i++) {
+                blockFiles[i] = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + ".", ".col");
+                blocks[i] = deflating(Files.newOutputStream(blockFiles[i]));
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException("Failed to start archive segment " + target, e);
+        }
+    }
+
+    private int columnIndex(String name) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).name().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown segment column " + name);
+    }
+
+    /**
+     * @param values One value per column, String or Long, null allowed
+     */
+    public void append(Object[] values) {
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (columns.get(i).type() == SegmentColumn.Type.STRING) {
+                    SegmentFormat.writeString(blocks[i], (String) values[i]);
+                } else {
+                    long value = values[i] != null ? (Long) values[i] : SegmentFormat.NULL_LONG;
+                    SegmentFormat.writeVarLong(blocks[i], SegmentFormat.zigZag(value - previousLongs[i]));
+                    previousLongs[i] = value;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write archive segment " + target, e);
+        }
+        String key = (String) values[indexColumn];
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new ArrayList<>(2)).add((int) rowCount);
+        }
+        Long time = (Long) values[timeColumn];
+        if (time != null) {
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+        }
+        rowCount++;
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Assembles the segment and moves it to its target path.
+     */
+    public void finish() {
+        Path assembling = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            for (DataOutputStream block : blocks) {
+                block.close();
+            }
+            long[] offsets = new long[columns.size()];
+            long[] lengths = new long[columns.size()];
+            long indexOffset;
+            long indexLength;
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(assembling), 1 << 16)) {
+                long position = 0;
+                for (int i = 0; i < columns.size(); i++) {
+                    offsets[i] = position;
+                    try (InputStream block = Files.newInputStream(blockFiles[i])) {
+                        lengths[i] = block.transferTo(file);
+                    }
+                    position += lengths[i];
+                }
+
+                indexOffset = position;
+                CountingOutputStream counting = new CountingOutputStream(file);
+                try (DataOutputStream indexOut = deflating(counting)) {
+                    SegmentFormat.writeVarLong(indexOut, index.size());
+                    for (Map.Entry<String, List<Integer>> entry : index.entrySet()) {
+                        SegmentFormat.writeString(indexOut, entry.getKey());
+                        SegmentFormat.writeVarLong(indexOut, entry.getValue().size());
+                        int previous = 0;
+                        for (int row : entry.getValue()) {
+                            SegmentFormat.writeVarLong(indexOut, row - previous);
+                            previous = row;
+                        }
+                    }
+                }
+                indexLength = counting.count;
+                position += indexLength;
+
+                DataOutputStream footer = new DataOutputStream(file);
+                footer.writeLong(SegmentFormat.MAGIC);
+                footer.writeInt(SegmentFormat.VERSION);
+                footer.writeLong(rowCount);
+                footer.writeLong(rowCount > 0 ? minTime : 0);
+                footer.writeLong(rowCount > 0 ? maxTime : 0);
+                footer.writeUTF(columns.get(indexColumn).name());
+                footer.writeUTF(columns.get(timeColumn).name());
+                footer.writeInt(columns.size());
+                for (int i = 0; i < columns.size(); i++) {
+                    footer.writeUTF(columns.get(i).name());
+                    footer.writeByte(columns.get(i).type().ordinal());
+                    footer.writeLong(offsets[i]);
+                    footer.writeLong(lengths[i]);
+                }
+                footer.writeLong(indexOffset);
+                footer.writeLong(indexLength);
+                footer.writeLong(position);
+                footer.flush();
+            }
+            Files.move(assembling, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to finish archive segment " + target, e);
+        } finally {
+            close();
+            try {
+                Files.deleteIfExists(assembling);
+            } catch (IOException ignored) {
+                // best effort, a leftover .tmp file is never read
+            }
+        }
+    }
+
+    /**
+     * Drops the temp files of the column blocks.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < blocks.length; i++) {
+            try {
+                if (blocks[i] != null) {
+                    blocks[i].close();
+                }
+                if (blockFiles[i] != null) {
+                    Files.deleteIfExists(blockFiles[i]);
+                }
+            } catch (IOException ignored) {
+                // best effort cleanup of temp files
+            }
+        }
+    }
+
+    private static DataOutputStream deflating(OutputStream out) {
+        return new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(out), 1 << 16));
+    }
+
+    /** Counts bytes, closing it leaves the underlying stream open. */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
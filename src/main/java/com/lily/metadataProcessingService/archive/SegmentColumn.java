@@ -0,0 +1,18 @@
+package com.lily.metadataProcessingService.archive;
+
+/**
+ * Column of an archive segment. Strings are stored as UTF-8 with a length prefix,
+ * longs as zig-zag varint deltas to the previous row, which packs sorted timestamps and versions tightly.
+ */
+public record SegmentColumn(String name, Type type) {
+
+    public enum Type { STRING, LONG }
+
+    public static SegmentColumn string(String name) {
+        return new SegmentColumn(name, Type.STRING);
+    }
+
+    public static SegmentColumn longColumn(String name) {
+        return new SegmentColumn(name, Type.LONG);
+    }
+}
@@ -0,0 +1,84 @@
+package com.lily.metadataProcessingService.archive;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout shared by {@link HistorySegmentWriter} and {@link HistorySegmentReader}.
+ *
+ * A segment is one deflated block per column followed by a deflated key index and a footer:
+ * magic, format version, row count, min/max of the time column, the columns with the offset and
+ * length of their block, the index block position, and as the last 8 bytes the footer offset.
+ * The index lists every distinct key of the index column, sorted, with the rows it appears in.
+ */
+final class SegmentFormat {
+
+    static final long MAGIC = 0x4D44485345473031L;
+    static final int VERSION = 1;
+    static final long NULL_LONG = Long.MIN_VALUE;
+
+    private SegmentFormat() {}
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Length + 1 as varint (0 for null), then the UTF-8 bytes. */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = (int) readVarLong(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void skipString(DataInput in) throws IOException {
+        int remaining = (int) readVarLong(in) - 1;
+        while (remaining > 0) {
+            // skipBytes on an inflating stream may stop early, never at the end of a valid block
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -1,26 +1,147 @@
 package com.lily.metadataProcessingService.cache;
 
-import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.lily.metadataProcessingService.config.StateStoreConfig;
+import com.lily.metadataProcessingService.service.MetadataStoreWriter;
+import com.lily.metadataProcessingService.state.PreviousStateStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import static com.lily.metadataProcessingService.util.CommonUtil.estimatePayloadBytes;
+
+/**
+ * Previous-state store with Caffeine in front of metadata_store, read through the states the
+ * {@link MetadataStoreWriter} has not flushed yet, so an evicted state never comes back older.
+ * Misses of a whole batch are loaded with one query, and concurrent lookups of the same entity
+ * share one load. Entities that have no row are cached as an empty state, so new entities do not
+ * go to the database on every event. The cache is bounded by the estimated heap size of the states.
+ * Hit/miss and load metrics are exported under {@code cache.*{cache=metadata.previousState}},
+ * bulk load latency under {@code metadata.state.load} and keys per load under {@code metadata.state.load.keys}.
+ */
+@Slf4j
 @Service
-public class MetadataCache {
-    private final Cache<String, Map<String, String>> previousMetadataCache;
-    
-    public MetadataCache() {
+@ConditionalOnProperty(prefix = "metadata.state", name = "store", havingValue = "caffeine", matchIfMissing = true)
+public class MetadataCache implements PreviousStateStore {
+
+    private static final String CACHE_NAME = "metadata.previousState";
+
+    private final MetadataStoreWriter storeWriter;
+    private final StateStoreConfig config;
+    private final AsyncLoadingCache<String, Map<String, Object>> previousMetadataCache;
+    private final Timer loadTimer;
+    private final DistributionSummary loadSize;
+
+    public MetadataCache(MetadataStoreWriter storeWriter, StateStoreConfig config, MeterRegistry meterRegistry) {
+        this.storeWriter = storeWriter;
+        this.config = config;
+        // Loads block on JDBC, so they run on virtual threads instead of the common pool
+        Executor loadExecutor = Executors.newVirtualThreadPerTaskExecutor();
         this.previousMetadataCache = Caffeine.newBuilder()
-            .maximumSize(10_000)
-            .build();
+            .maximumWeight(config.getCacheMaxWeightBytes())
+            .weigher((String key, Map<String, Object> value) ->
+                (int) Math.min(Integer.MAX_VALUE, 2L * key.length() + estimatePayloadBytes(value)))
+            .expireAfterAccess(Duration.ofMinutes(config.getExpireAfterAccessMinutes()))
+            .executor(loadExecutor)
+            .recordStats()
+            .buildAsync(new StateLoader());
+        CaffeineCacheMetrics.monitor(meterRegistry, previousMetadataCache, CACHE_NAME);
+        this.loadTimer = Timer.builder("metadata.state.load").register(meterRegistry);
+        this.loadSize = DistributionSummary.builder("metadata.state.load.keys").register(meterRegistry);
+    }
+
+    @Override
+    public Map<String, Object> get(String key) {
+        return await(previousMetadataCache.get(key));
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getAll(Collection<String> keys) {
+        Map<String, Map<String, Object>> states = await(previousMetadataCache.getAll(keys));
+        Map<String, Map<String, Object>> known = new HashMap<>(states.size());
+        states.forEach((key, state) -> {
+            if (!state.isEmpty()) {
+                known.put(key, state);
+            }
+        });
+        return known;
+    }
+
+    @Override
+    public void put(String key, Map<String, Object> value) {
+        previousMetadataCache.put(key, CompletableFuture.completedFuture(value));
     }
-    
-    public Map<String, String> getPreviousMetadata(String key) {
-        return previousMetadataCache.getIfPresent(key);
+
+    @Override
+    public void rollback(String key, Map<String, Object> value) {
+        // Only drop our own write, the next lookup then reloads the last persisted state
+        previousMetadataCache.synchronous().asMap().remove(key, value);
     }
-    
-    public void putMetadata(String key, Map<String, String> value) {
-        previousMetadataCache.put(key, value);
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(config.getLoadTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading previous state", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load previous state", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out after " + config.getLoadTimeoutMs() + "ms loading previous state", e);
+        }
+    }
+
+    /**
+     * Loads missing entities in chunks, one query per chunk for the ones that are not waiting for a flush.
+     */
+    private class StateLoader implements AsyncCacheLoader<String, Map<String, Object>> {
+
+        @Override
+        public CompletableFuture<? extends Map<String, Object>> asyncLoad(String key, Executor executor) {
+            return asyncLoadAll(Set.of(key), executor).thenApply(states -> states.get(key));
+        }
+
+        @Override
+        public CompletableFuture<? extends Map<? extends String, ? extends Map<String, Object>>> asyncLoadAll(
+                Set<? extends String> keys, Executor executor) {
+            return CompletableFuture.supplyAsync(() -> loadAll(keys), executor);
+        }
+
+        private Map<String, Map<String, Object>> loadAll(Set<? extends String> keys) {
+            long start = System.nanoTime();
+            List<String> pending = new ArrayList<>(keys);
+            Map<String, Map<String, Object>> states = new HashMap<>(pending.size());
+            int chunkSize = Math.max(1, config.getLoadChunkSize());
+            for (int from = 0; from < pending.size(); from += chunkSize) {
+                states.putAll(storeWriter.findLatestStates(pending.subList(from, Math.min(from + chunkSize, pending.size()))));
+            }
+            // Cache unknown entities as empty so they are not looked up again
+            pending.forEach(key -> states.putIfAbsent(key, Map.of()));
+
+            loadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            loadSize.record(pending.size());
+            log.debug("Loaded previous state of {} entities", pending.size());
+            return states;
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,20 @@
+package com.lily.metadataProcessingService.cdc;
+
+import com.lily.metadataProcessingService.dto.FieldChange;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of diffing two entity states.
+ * Before/after are only filled in {@link CdcOutputMode#FULL}, changes is empty when nothing changed.
+ */
+@Getter
+@AllArgsConstructor
+public class CdcDiff {
+    private final List<FieldChange> changes;
+    private final Map<String, String> before;
+    private final Map<String, String> after;
+}
@@ -0,0 +1,289 @@
+package com.lily.metadataProcessingService.cdc;
+
+import com.lily.metadataProcessingService.config.CdcConfig;
+import com.lily.metadataProcessingService.dto.FieldChange;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Field level diff of two entity states in a single pass over both.
+ * Nested maps and lists are walked down to their leaves, so a change deep inside a wide record
+ * is reported as one {@link FieldChange} with its path (e.g. {@code owner.contacts[1].email}).
+ * Lists are compared by position.
+ *
+ * Equal entries allocate nothing: the change list and the path strings are only created once
+ * something actually differs. In {@link CdcOutputMode#FULL} the before/after states are filled
+ * during the same pass instead of copying the maps and stripping the ignored fields afterwards.
+ */
+@Component
+@RequiredArgsConstructor
+public class CdcDiffEngine {
+
+    private final CdcConfig cdcConfig;
+
+    /**
+     * Diffs the previous state of an entity against its new state.
+     *
+     * @param oldState Previous state, null or empty for new entities
+     * @param newState New state
+     * @param mode Whether to also build the before/after states
+     * @return The changed fields, and the states in FULL mode
+     */
+    public CdcDiff diff(Map<String, ?> oldState, Map<String, ?> newState, CdcOutputMode mode) {
+        if (oldState == null) {
+            oldState = Map.of();
+        }
+        if (newState == null) {
+            newState = Map.of();
+        }
+        Set<String> ignored = cdcConfig.getIgnoredFields();
+        boolean full = mode == CdcOutputMode.FULL;
+        Map<String, String> before = full && !oldState.isEmpty() ? new HashMap<>(oldState.size()) : null;
+        Map<String, String> after = full ? new HashMap<>(newState.size()) : null;
+        DiffContext context = new DiffContext();
+        int matched = 0;
+
+        for (Map.Entry<String, ?> entry : newState.entrySet()) {
+            String key = entry.getKey();
+            if (ignored.contains(key)) {
+                continue;
+            }
+            Object newValue = entry.getValue();
+            if (after != null) {
+                after.put(key, String.valueOf(newValue));
+            }
+            context.push(key);
+            Object oldValue = oldState.get(key);
+            if (oldValue == null && !oldState.containsKey(key)) {
+                context.added(newValue);
+            } else {
+                matched++;
+                context.diffValue(oldValue, newValue);
+            }
+            context.pop();
+        }
+
+        // Every old field was matched above, so the second pass is only needed to build the before state
+        if (before == null && matched == oldState.size() - countPresent(oldState, ignored)) {
+            return new CdcDiff(context.changes != null ? context.changes : List.of(), null, after);
+        }
+
+        for (Map.Entry<String, ?> entry : oldState.entrySet()) {
+            String key = entry.getKey();
+            if (ignored.contains(key)) {
+                continue;
+            }
+            if (before != null) {
+                before.put(key, String.valueOf(entry.getValue()));
+            }
+            if (!newState.containsKey(key)) {
+                context.push(key);
+                context.removed(entry.getValue());
+                context.pop();
+            }
+        }
+
+        return new CdcDiff(context.changes != null ? context.changes : List.of(), before, after);
+    }
+
+    private static int countPresent(Map<String, ?> state, Set<String> keys) {
+        int count = 0;
+        for (String key : keys) {
+            if (state.containsKey(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Per diff state: the path to the current node, kept as a stack of segments so descending
+     * does not build strings, and the change list, created on the first change.
+     */
+    private static class DiffContext {
+        private static final int MAP_KEY = -1;
+
+        private String[] keys = new String[8];
+        private int[] indexes = new int[8];
+        private int depth;
+        private List<FieldChange> changes;
+
+        void push(String key) {
+            ensureCapacity();
+            keys[depth] = key;
+            indexes[depth++] = MAP_KEY;
+        }
+
+        void push(int index) {
+            ensureCapacity();
+            keys[depth] = null;
+            indexes[depth++] = index;
+        }
+
+        void pop() {
+            depth--;
+        }
+
+        void diffValue(Object oldValue, Object newValue) {
+            if (oldValue == newValue) {
+                return;
+            }
+            // Scalars first: these are class checks, the Map/List checks below are interface checks
+            // and noticeably slower when done for every leaf of a wide record
+            if (isScalar(oldValue) && isScalar(newValue)) {
+                if (!leafEquals(oldValue, newValue)) {
+                    emit(FieldChange.Type.CHANGED, oldValue, newValue);
+                }
+                return;
+            }
+            if (oldValue instanceof Map<?, ?> oldMap && newValue instanceof Map<?, ?> newMap) {
+                diffMaps(oldMap, newMap);
+            } else if (oldValue instanceof List<?> oldList && newValue instanceof List<?> newList) {
+                diffLists(oldList, newList);
+            } else if (isContainer(oldValue) || isContainer(newValue)) {
+                // Shape changed, e.g. a string became an object
+                removed(oldValue);
+                added(newValue);
+            } else if (!leafEquals(oldValue, newValue)) {
+                emit(FieldChange.Type.CHANGED, oldValue, newValue);
+            }
+        }
+
+        private void diffMaps(Map<?, ?> oldMap, Map<?, ?> newMap) {
+            for (Map.Entry<?, ?> entry : newMap.entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                Object oldValue = oldMap.get(entry.getKey());
+                push(key);
+                if (oldValue == null && !oldMap.containsKey(entry.getKey())) {
+                    added(entry.getValue());
+                } else {
+                    diffValue(oldValue, entry.getValue());
+                }
+                pop();
+            }
+            for (Map.Entry<?, ?> entry : oldMap.entrySet()) {
+                if (!newMap.containsKey(entry.getKey())) {
+                    push(String.valueOf(entry.getKey()));
+                    removed(entry.getValue());
+                    pop();
+                }
+            }
+        }
+
+        private void diffLists(List<?> oldList, List<?> newList) {
+            int common = Math.min(oldList.size(), newList.size());
+            for (int i = 0; i < common; i++) {
+                push(i);
+                diffValue(oldList.get(i), newList.get(i));
+                pop();
+            }
+            for (int i = common; i < newList.size(); i++) {
+                push(i);
+                added(newList.get(i));
+                pop();
+            }
+            for (int i = common; i < oldList.size(); i++) {
+                push(i);
+                removed(oldList.get(i));
+                pop();
+            }
+        }
+
+        void added(Object value) {
+            walkLeaves(value, FieldChange.Type.ADDED);
+        }
+
+        void removed(Object value) {
+            walkLeaves(value, FieldChange.Type.REMOVED);
+        }
+
+        private void walkLeaves(Object value, FieldChange.Type type) {
+            if (isScalar(value)) {
+                emit(type, type == FieldChange.Type.ADDED ? null : value, type == FieldChange.Type.ADDED ? value : null);
+            } else if (value instanceof Map<?, ?> map && !map.isEmpty()) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    push(String.valueOf(entry.getKey()));
+                    walkLeaves(entry.getValue(), type);
+                    pop();
+                }
+            } else if (value instanceof List<?> list && !list.isEmpty()) {
+                for (int i = 0; i < list.size(); i++) {
+                    push(i);
+                    walkLeaves(list.get(i), type);
+                    pop();
+                }
+            } else if (type == FieldChange.Type.ADDED) {
+                emit(type, null, value);
+            } else {
+                emit(type, value, null);
+            }
+        }
+
+        private void emit(FieldChange.Type type, Object oldValue, Object newValue) {
+            if (changes == null) {
+                changes = new ArrayList<>();
+            }
+            changes.add(new FieldChange(currentPath(), type, oldValue, newValue));
+        }
+
+        private String currentPath() {
+            StringBuilder path = new StringBuilder();
+            for (int i = 0; i < depth; i++) {
+                if (indexes[i] == MAP_KEY) {
+                    if (i > 0) {
+                        path.append('.');
+                    }
+                    path.append(keys[i]);
+                } else {
+                    path.append('[').append(indexes[i]).append(']');
+                }
+            }
+            return path.toString();
+        }
+
+        private void ensureCapacity() {
+            if (depth == keys.length) {
+                keys = Arrays.copyOf(keys, depth * 2);
+                indexes = Arrays.copyOf(indexes, depth * 2);
+            }
+        }
+
+        private static boolean isScalar(Object value) {
+            return value == null || value instanceof String || value instanceof Number || value instanceof Boolean;
+        }
+
+        private static boolean isContainer(Object value) {
+            return value instanceof Map<?, ?> || value instanceof List<?>;
+        }
+
+        /**
+         * Leaf equality that tolerates the type drift of stored states, e.g. 1 vs 1L or "1" vs 1.
+         * Only values of different types pay for the conversion.
+         */
+        private static boolean leafEquals(Object oldValue, Object newValue) {
+            if (oldValue == null || newValue == null) {
+                return false;
+            }
+            if (oldValue.getClass() == newValue.getClass()) {
+                return oldValue.equals(newValue);
+            }
+            if (oldValue instanceof Number oldNumber && newValue instanceof Number newNumber) {
+                try {
+                    return new BigDecimal(oldNumber.toString()).compareTo(new BigDecimal(newNumber.toString())) == 0;
+                } catch (NumberFormatException e) {
+                    // NaN and infinities
+                    return oldNumber.toString().equals(newNumber.toString());
+                }
+            }
+            return oldValue.toString().equals(newValue.toString());
+        }
+    }
+}
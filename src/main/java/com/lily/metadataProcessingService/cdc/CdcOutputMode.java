@@ -0,0 +1,10 @@
+package com.lily.metadataProcessingService.cdc;
+
+/**
+ * What a CDC event carries.
+ * FULL sends the before/after states along with the changed fields, CHANGES_ONLY sends just the changed fields.
+ */
+public enum CdcOutputMode {
+    FULL,
+    CHANGES_ONLY
+}
@@ -0,0 +1,15 @@
+package com.lily.metadataProcessingService.common;
+
+/**
+ * Kafka header names carried by records on the retry and dead-letter topics.
+ */
+public final class RetryHeaders {
+    public static final String ORIGINAL_TOPIC = "x-original-topic";
+    public static final String ATTEMPT = "x-retry-attempt";
+    public static final String DUE_AT = "x-retry-due-at";
+    public static final String EXCEPTION_CLASS = "x-exception-class";
+    public static final String EXCEPTION_MESSAGE = "x-exception-message";
+    public static final String FAILED_AT = "x-failed-at";
+
+    private RetryHeaders() {}
+}
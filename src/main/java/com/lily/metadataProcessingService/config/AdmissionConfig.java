@@ -0,0 +1,28 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Limits for admitting work into the ingestion executor.
+ * The concurrency limit adapts between min and max based on observed latency,
+ * the byte budget caps the payload held in memory by in-flight requests.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.admission")
+@Data
+public class AdmissionConfig {
+    private int initialLimit = 64;
+    private int minLimit = 8;
+    private int maxLimit = 1024;
+    private long targetLatencyMs = 500;
+    private double backoffRatio = 0.9;
+    private long maxInFlightBytes = 128L * 1024 * 1024;
+    private double resumeRatio = 0.75;
+    private long retryAfterSeconds = 1;
+    /** Ids of the inbound listeners paused while admission is full. Retry tier and rule change listeners keep running. */
+    private List<String> pausedListenerIds = List.of("inboundListener", "largeVolumeListener", "internalServiceListener");
+}
@@ -4,6 +4,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -11,22 +13,62 @@ import java.util.Map;
 @Component
 @ConfigurationProperties(prefix = "app")
 public class ApplicationProperties {
-    private KafkaConfig kafka;
+    private KafkaConfig kafka = new KafkaConfig();
 
     @Data
     public static class KafkaConfig {
-        private BatchConfig batch;
+        private BatchConfig batch = new BatchConfig();
+        private ProducerSettings producer = new ProducerSettings();
+    }
+
+    @Data
+    public static class ProducerSettings {
+        private ProducerTopicConfig defaults = new ProducerTopicConfig();
+        private Map<String, ProducerTopicConfig> topics = new HashMap<>();
+
+        public ProducerTopicConfig forTopic(String topic) {
+            return topics.getOrDefault(topic, defaults);
+        }
+    }
+
+    /**
+     * Producer batching settings of an outbound topic.
+     * With a {@code coalesceWindowMs} above 0, updates of the same entity within the window are merged into
+     * one CDC event, the window closes early once it holds {@code coalesceMaxUpdates} updates.
+     */
+    @Data
+    public static class ProducerTopicConfig {
+        private int lingerMs = 20;
+        private int batchSize = 128 * 1024;
+        private String compressionType = "lz4";
+        private String acks = "all";
+        private long coalesceWindowMs = 0;
+        private int coalesceMaxUpdates = 100;
     }
 
     @Data
     public static class BatchConfig {
-        private List<String> enabledTopics;
-        private Map<String, TopicConfig> configurations;
+        private List<String> enabledTopics = new ArrayList<>();
+        private Map<String, TopicConfig> configurations = new HashMap<>();
+        /** Optional properties file with topic config overrides, re-read at runtime when it changes. */
+        private String overrideFile;
     }
 
+    /**
+     * Micro-batch settings of a topic. A batch is flushed when it reaches {@code batchSize} records,
+     * {@code maxBytes} of serialized values or has waited {@code timeoutMs}, whichever comes first.
+     * When adaptive, the record limit moves between {@code minBatchSize} and {@code batchSize}
+     * to keep flush latency under {@code targetLatencyMs}. Once {@code maxPendingBatches} flushed batches
+     * of the topic wait to be processed, its partitions are paused until the backlog shrinks.
+     */
     @Data
     public static class TopicConfig {
         private int batchSize;
         private int timeoutMs;
+        private long maxBytes = 4L * 1024 * 1024;
+        private int minBatchSize = 10;
+        private long targetLatencyMs = 1000;
+        private boolean adaptive = true;
+        private int maxPendingBatches = 4;
     }
-} 
\ No newline at end of file
+}
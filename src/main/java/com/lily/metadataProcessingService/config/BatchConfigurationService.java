@@ -1,18 +1,81 @@
 package com.lily.metadataProcessingService.config;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves batch settings per topic.
+ * Settings from application properties can be overridden at runtime, either through
+ * {@link #updateConfigForTopic} or by editing the optional {@code app.kafka.batch.override-file}.
+ */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class BatchConfigurationService {
+    private static final String OVERRIDE_PREFIX = "app.kafka.batch.configurations";
+
     private final ApplicationProperties applicationProperties;
+    private final Map<String, ApplicationProperties.TopicConfig> overrides = new ConcurrentHashMap<>();
+    private volatile long overrideFileModifiedAt;
     
     public boolean isBatchEnabled(String topic) {
         return applicationProperties.getKafka().getBatch().getEnabledTopics().contains(topic);
     }
     
     public ApplicationProperties.TopicConfig getConfigForTopic(String topic) {
-        return applicationProperties.getKafka().getBatch().getConfigurations().get(topic);
+        ApplicationProperties.TopicConfig override = overrides.get(topic);
+        return override != null ? override : applicationProperties.getKafka().getBatch().getConfigurations().get(topic);
+    }
+
+    public void updateConfigForTopic(String topic, ApplicationProperties.TopicConfig config) {
+        overrides.put(topic, config);
+        log.info("Updated batch config for topic {}: batchSize={}, timeoutMs={}, maxBytes={}",
+            topic, config.getBatchSize(), config.getTimeoutMs(), config.getMaxBytes());
+    }
+
+    /**
+     * Re-reads the override file when it changed since the last check.
+     * Keys use the same format as application properties, e.g.
+     * {@code app.kafka.batch.configurations.large-volume-source.batch-size=500}.
+     */
+    @Scheduled(fixedDelayString = "${app.kafka.batch.reload-interval-ms:10000}")
+    public void reloadOverrides() {
+        String overrideFile = applicationProperties.getKafka().getBatch().getOverrideFile();
+        if (overrideFile == null) {
+            return;
+        }
+        Path path = Path.of(overrideFile);
+        try {
+            if (!Files.exists(path)) {
+                return;
+            }
+            long modifiedAt = Files.getLastModifiedTime(path).toMillis();
+            if (modifiedAt == overrideFileModifiedAt) {
+                return;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(path)) {
+                properties.load(reader);
+            }
+            Map<String, ApplicationProperties.TopicConfig> loaded = new Binder(new MapConfigurationPropertySource(properties))
+                .bind(OVERRIDE_PREFIX, Bindable.mapOf(String.class, ApplicationProperties.TopicConfig.class))
+                .orElse(Map.of());
+            loaded.forEach(this::updateConfigForTopic);
+            overrideFileModifiedAt = modifiedAt;
+        } catch (Exception e) {
+            log.error("Failed to reload batch config overrides from {}: {}", overrideFile, e.getMessage());
+        }
     }
 }
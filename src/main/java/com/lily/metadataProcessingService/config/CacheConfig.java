@@ -1,21 +0,0 @@
-package com.lily.metadataProcessingService.config;
-
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.lily.metadataProcessingService.model.rules.MetadataRule;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-
-import java.util.concurrent.TimeUnit;
-
-@Configuration
-public class CacheConfig {
-
-    @Bean
-    public Cache<String, MetadataRule> ruleCache() {
-        return Caffeine.newBuilder()
-            .maximumSize(1000)
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .build();
-    }
-} 
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.lily.metadataProcessingService.config;
+
+import com.lily.metadataProcessingService.cdc.CdcOutputMode;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Set;
+
+/**
+ * Settings for CDC generation.
+ * The output mode can be overridden per rule with the {@code cdcOutputMode} configuration key,
+ * ignored fields are top level fields that are never part of the diff or the states.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.cdc")
+@Data
+public class CdcConfig {
+    private CdcOutputMode outputMode = CdcOutputMode.FULL;
+    private Set<String> ignoredFields = Set.of("operation", "timestamp", "user");
+}
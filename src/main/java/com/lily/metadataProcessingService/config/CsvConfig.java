@@ -0,0 +1,25 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for reading CSV content.
+ * The delimiter is taken from the request descriptor ({@code metadata.delimiter}), else sniffed from the
+ * first lines, else {@code delimiter}. Files are read through a {@code bufferSize} buffer, a single row
+ * may not be larger than {@code maxRowBytes} (an unterminated quote would otherwise swallow the file).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.csv")
+@Data
+public class CsvConfig {
+    private char delimiter = ',';
+    private char quote = '"';
+    /** Escape character inside quoted fields besides the doubled quote, none when not set */
+    private Character escape;
+    private boolean header = true;
+    private boolean inferTypes = true;
+    private int bufferSize = 64 * 1024;
+    private int maxRowBytes = 8 * 1024 * 1024;
+}
@@ -0,0 +1,20 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for detecting the format of raw event content.
+ * Only the first {@code sniffBytes} of the content are looked at, however large it is.
+ * Detected formats are cached for up to {@code maxCachedFormats} (tenant, event type) pairs.
+ * File events ({@code payload.contentPath}) may only point below {@code contentDir}, they are refused when it is not set.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.format")
+@Data
+public class FormatDetectionConfig {
+    private int sniffBytes = 512;
+    private long maxCachedFormats = 10_000;
+    private String contentDir;
+}
@@ -0,0 +1,37 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for the write-behind history writer.
+ * CDC events are buffered in a queue holding up to {@code maxQueuedBytes} of estimated entry size and written
+ * to metadata_history {@code flushBatchSize} rows at a time, or after {@code flushIntervalMs} when fewer are waiting.
+ * A full queue blocks the processing thread for up to {@code offerTimeoutMs}, then fails the event.
+ * Failed writes are retried with a backoff growing from {@code retryBackoffMs} to {@code maxRetryBackoffMs}.
+ *
+ * metadata_history can be partitioned by month (off by default, rows then stay in the default partition).
+ * Partitions are created {@code partitionMonthsAhead} months ahead, partitions older than {@code retentionMonths}
+ * are detached, and only when {@code archiveOnPersistentVolume} is set exported to {@code archiveDirectory} and dropped.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.history")
+@Data
+public class HistoryConfig {
+    private boolean enabled = true;
+    /** Entries carry full entity states, so the queue is bounded by their estimated size rather than their count */
+    private long maxQueuedBytes = 32L * 1024 * 1024;
+    private int flushBatchSize = 1000;
+    private long flushIntervalMs = 200;
+    private long offerTimeoutMs = 5000;
+    private long retryBackoffMs = 500;
+    private long maxRetryBackoffMs = 30_000;
+    private boolean partitioningEnabled = false;
+    private int partitionMonthsAhead = 2;
+    private int retentionMonths = 6;
+    private String archiveDirectory = "history-archive";
+    /** Set only when archiveDirectory is a mounted persistent volume, otherwise dropped partitions would be lost with the pod */
+    private boolean archiveOnPersistentVolume = false;
+    private int exportFetchSize = 5000;
+}
@@ -1,10 +1,15 @@
 package com.lily.metadataProcessingService.config;
 
-import com.lily.metadataProcessingService.model.MetadataRequest;
+import com.lily.metadataProcessingService.consumer.KeyOrderedProcessor;
+import com.lily.metadataProcessingService.consumer.MicroBatchAggregator;
+import com.lily.metadataProcessingService.dto.MetadataRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,8 +17,12 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,6 +34,8 @@ import java.util.Map;
 @Configuration
 @RequiredArgsConstructor
 public class KafkaConfig {
+
+    private static final long IDLE_COMMIT_INTERVAL_MS = 1000;
     
     private final ApplicationProperties applicationProperties;
     
@@ -34,56 +45,105 @@ public class KafkaConfig {
     /**
      * Creates a Kafka listener container factory for processing single records.
      * This factory is used for topics that don't require batch processing.
+     * Records are processed out of order on key-ordered lanes, so the container never commits
+     * on its own; the listener commits offsets through the {@link KeyOrderedProcessor}.
      *
      * @return
      */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, MetadataRequest> 
-            kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, MetadataRequest> factory =
+    public ConcurrentKafkaListenerContainerFactory<String, String> 
+            kafkaListenerContainerFactory(KeyOrderedProcessor keyOrderedProcessor) {
+        ConcurrentKafkaListenerContainerFactory<String, String> factory =
             new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
         factory.setBatchListener(false);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setIdleEventInterval(IDLE_COMMIT_INTERVAL_MS);
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+                                                        Collection<TopicPartition> partitions) {
+                keyOrderedProcessor.onPartitionsRevoked(consumer, partitions);
+            }
+        });
         return factory;
     }
 
     /**
      * Creates a Kafka listener container factory for batch processing.
      * This factory is configured to process multiple records at once for improved throughput.
+     * Records are buffered across polls by the {@link MicroBatchAggregator}, which commits
+     * offsets only once a flushed batch is processed.
      *
      * @return
      */
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, MetadataRequest> 
-            batchKafkaListenerContainerFactory() {
+            batchKafkaListenerContainerFactory(MicroBatchAggregator microBatchAggregator) {
         ConcurrentKafkaListenerContainerFactory<String, MetadataRequest> factory =
             new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(batchConsumerFactory());
         factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setIdleEventInterval(IDLE_COMMIT_INTERVAL_MS);
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+                                                        Collection<TopicPartition> partitions) {
+                microBatchAggregator.onPartitionsRevoked(consumer, partitions);
+            }
+        });
+        return factory;
+    }
+
+    /**
+     * Creates a Kafka listener container factory for rule change events.
+     * Every replica has to see every change, so the listener is assigned all partitions without a consumer group
+     * and starts at the latest offset; rules changed before startup are loaded fresh anyway.
+     *
+     * @return
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> ruleChangeListenerContainerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+            new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setBatchListener(false);
+        // No group id: partitions are assigned, and with manual acks that never come nothing is committed
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
         return factory;
     }
 
     /**
      * Creates a consumer factory for single record processing.
      * Configures basic consumer properties including deserializers and group ID.
+     * Values are kept as raw strings since the listener validates the token before parsing.
      *
      * @return
      */
     @Bean
-    public ConsumerFactory<String, MetadataRequest> consumerFactory() {
+    public ConsumerFactory<String, String> consumerFactory() {
         log.info("Setting up Kafka consumer factory");
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, "metadata-group");
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
-        return new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(),
-            new JsonDeserializer<>(MetadataRequest.class));
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        return new DefaultKafkaConsumerFactory<>(props);
     }
 
     /**
      * Creates a consumer factory specifically for batch processing.
      * Configures consumer properties with batch-specific settings like MAX_POLL_RECORDS.
+     * A value that is not a valid request reaches the listener empty, with the failure in its headers,
+     * instead of failing every poll of its partition.
      *
      * @return
      */
@@ -93,10 +153,11 @@ public class KafkaConfig {
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, "metadata-batch-group");
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
         props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 100);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
         return new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(),
-            new JsonDeserializer<>(MetadataRequest.class));
+            new ErrorHandlingDeserializer<>(new JsonDeserializer<>(MetadataRequest.class)));
     }
 
     /**
@@ -108,13 +169,40 @@ public class KafkaConfig {
     @Bean
     public ProducerFactory<String, String> producerFactory() {
         log.info("Setting up Kafka producer factory");
-        Map<String, Object> configProps = new HashMap<>();
-        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        Map<String, Object> configProps = producerProps(applicationProperties.getKafka().getProducer().getDefaults());
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         return new DefaultKafkaProducerFactory<>(configProps);
     }
 
+    /**
+     * Creates a producer factory for an outbound topic.
+     * Values are pre-encoded bytes, and linger, batch size and compression come from
+     * {@code app.kafka.producer.topics.<topic>}, falling back to {@code app.kafka.producer.defaults}.
+     *
+     * @param topic The outbound topic
+     * @return
+     */
+    public ProducerFactory<String, byte[]> outboundProducerFactory(String topic) {
+        ApplicationProperties.ProducerTopicConfig topicConfig = applicationProperties.getKafka().getProducer().forTopic(topic);
+        log.info("Setting up outbound producer for topic {}: linger={}ms, batchSize={}, compression={}",
+            topic, topicConfig.getLingerMs(), topicConfig.getBatchSize(), topicConfig.getCompressionType());
+        Map<String, Object> configProps = producerProps(topicConfig);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        return new DefaultKafkaProducerFactory<>(configProps);
+    }
+
+    private Map<String, Object> producerProps(ApplicationProperties.ProducerTopicConfig topicConfig) {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, topicConfig.getLingerMs());
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, topicConfig.getBatchSize());
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, topicConfig.getCompressionType());
+        configProps.put(ProducerConfig.ACKS_CONFIG, topicConfig.getAcks());
+        return configProps;
+    }
+
     /**
      * Creates a KafkaTemplate using the configured producer factory.
      * This template is used for sending messages to Kafka topics.
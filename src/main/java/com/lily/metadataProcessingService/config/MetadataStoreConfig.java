@@ -0,0 +1,22 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for writing the latest entity states to metadata_store.
+ * Batches are upserted {@code upsertChunkSize} rows per statement, states of single events are
+ * collected and written every {@code flushIntervalMs}.
+ * Queries stream through a cursor fetching {@code queryFetchSize} rows at a time, a page is at most
+ * {@code queryMaxLimit} rows.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.store")
+@Data
+public class MetadataStoreConfig {
+    private int upsertChunkSize = 1000;
+    private long flushIntervalMs = 500;
+    private int queryFetchSize = 1000;
+    private int queryMaxLimit = 100_000;
+}
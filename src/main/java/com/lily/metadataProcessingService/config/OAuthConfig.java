@@ -0,0 +1,33 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for validating OAuth tokens on inbound Kafka records.
+ * Tokens are either introspected remotely or, for signed JWTs, verified locally against a cached key set.
+ * The tenant of a request is bound to the {@code tenantClaim} of its token. Tokens without that claim
+ * can only name their tenant in a header when {@code allowUnscopedTokens} is set.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "auth.oauth")
+@Data
+public class OAuthConfig {
+    private String introspectionUrl = "https://auth.example.com/introspect";
+    private long introspectionTimeoutMs = 2000;
+    private boolean localJwtVerification = false;
+    private String jwksUri;
+    private long jwksRefreshMs = 300_000;
+    private String issuer;
+    private String audience;
+    private long cacheMaxSize = 100_000;
+    private long maxCacheTtlSeconds = 300;
+    private long negativeCacheTtlSeconds = 30;
+    private List<String> stubTokens = new ArrayList<>();
+    private String tenantClaim = "tenant_id";
+    private boolean allowUnscopedTokens = false;
+}
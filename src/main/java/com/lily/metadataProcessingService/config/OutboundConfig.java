@@ -0,0 +1,19 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for outbound message encoding.
+ * A rule picks its format with the {@code outputFormat} configuration key, rules without one use the default format.
+ * A sample of non-JSON messages is also encoded as JSON so the size and encode time of both can be compared.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.outbound")
+@Data
+public class OutboundConfig {
+    private String defaultFormat = "json";
+    private double compareSampleRate = 0.01;
+    private String schemaRegistryDir = "schemas";
+}
@@ -15,6 +15,12 @@ public class ProcessingConfig {
     private int maxRetries = 3;
     private int batchSize = 100;
     private long retryDelayMs = 1000;
+    private double retryBackoffMultiplier = 2.0;
+    private int keyOrderedConcurrency = 256;
+    /** How long a send to a retry tier, the dead-letter topic or a replay target may take before it counts as failed */
+    private long publishTimeoutMs = 30000;
+    /** Records of an event carrying many of them (CSV files) go through the batch pipeline this many at a time */
+    private int recordChunkSize = 1000;
     private Map<String, String> rules = new HashMap<>();
     
     @Data
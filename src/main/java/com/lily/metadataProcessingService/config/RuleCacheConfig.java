@@ -0,0 +1,26 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for the processing rule cache.
+ * Every rule in metadata_rules is loaded at startup, cached rules are
+ * reloaded in the background {@code refreshAfterWriteMinutes} after they were loaded, and a rule change
+ * published on {@code changeTopic} (or written to the dev {@code changeFile}) reloads the rule right away.
+ * {@code expireAfterWriteMinutes} only drops rules whose refreshes keep failing.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.rules")
+@Data
+public class RuleCacheConfig {
+    private long maxSize = 10_000;
+    private long refreshAfterWriteMinutes = 5;
+    private long expireAfterWriteMinutes = 24 * 60;
+    private boolean changeListenerEnabled = true;
+    private String changeTopic = "atlan-metadata-rule-changes";
+    /** Optional file listing changed rules, one {@code tenantId:sourceId} per line, {@code *} for all. */
+    private String changeFile;
+    private long changeFileCheckIntervalMs = 2000;
+}
@@ -0,0 +1,21 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for the priority scheduler.
+ * Weights set the share of dequeues each priority gets while all queues have work,
+ * aging promotes work that waited longer than the threshold regardless of weight.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.scheduler")
+@Data
+public class SchedulerConfig {
+    private int workers = 128;
+    private int highWeight = 6;
+    private int mediumWeight = 3;
+    private int lowWeight = 1;
+    private long agingThresholdMs = 5000;
+}
@@ -0,0 +1,33 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for the previous-state store used by CDC generation.
+ * With {@code store=caffeine} the cache is bounded by the estimated heap size of the cached states,
+ * with {@code store=offheap} states live in memory mapped files under {@code off-heap.directory}.
+ * Either way, entities the store does not know are loaded from the latest metadata_store row in bulk.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.state")
+@Data
+public class StateStoreConfig {
+    private long cacheMaxWeightBytes = 64L * 1024 * 1024;
+    private long expireAfterAccessMinutes = 60;
+    private long loadTimeoutMs = 5000;
+    private int loadChunkSize = 1000;
+    private String store = "caffeine";
+    private OffHeap offHeap = new OffHeap();
+
+    @Data
+    public static class OffHeap {
+        private String directory = "state";
+        private int segmentSizeBytes = 64 * 1024 * 1024;
+        private long initialIndexCapacity = 1 << 20;
+        private double compactionThreshold = 0.5;
+        private long syncIntervalMs = 1000;
+        private long compactionIntervalMs = 30_000;
+    }
+}
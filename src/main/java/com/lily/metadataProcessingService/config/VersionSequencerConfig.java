@@ -0,0 +1,21 @@
+package com.lily.metadataProcessingService.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for per-entity CDC versions.
+ * Up to {@code maxTrackedEntities} entities keep their sequence in memory, versions are reserved from
+ * entity_version {@code reservationSize} at a time (the rest of a range is skipped when the instance stops).
+ * Latest event timestamps are written every {@code flushIntervalMs}, {@code flushBatchSize} rows per JDBC batch.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "metadata.versions")
+@Data
+public class VersionSequencerConfig {
+    private long maxTrackedEntities = 1_000_000;
+    private long reservationSize = 100;
+    private long flushIntervalMs = 1000;
+    private int flushBatchSize = 1000;
+}
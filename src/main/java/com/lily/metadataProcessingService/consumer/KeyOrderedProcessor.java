@@ -0,0 +1,145 @@
+package com.lily.metadataProcessingService.consumer;
+
+import com.lily.metadataProcessingService.config.ProcessingConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+import com.lily.metadataProcessingService.service.PriorityScheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs records of a partition in parallel while keeping per-key ordering.
+ * Records with the same key are chained on one lane and run strictly in order,
+ * records with different keys run at the same time on the priority scheduler, up to
+ * {@code metadata.processing.key-ordered-concurrency} records in flight.
+ * Offsets are committed only up to the point below which every record is done. The work of a record hands
+ * its output over and returns a future for it: the lane moves on to the next record of the key right away,
+ * the record is done once that future completes. A record whose work failed is not done: its partition is
+ * rewound to it and read again.
+ */
+@Slf4j
+@Component
+public class KeyOrderedProcessor {
+
+    private final PriorityScheduler priorityScheduler;
+    private final Map<String, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>();
+    private final PartitionOffsetTracker offsetTracker = new PartitionOffsetTracker();
+    private final Semaphore inFlight;
+
+    public KeyOrderedProcessor(ProcessingConfig processingConfig, PriorityScheduler priorityScheduler) {
+        this.priorityScheduler = priorityScheduler;
+        this.inFlight = new Semaphore(processingConfig.getKeyOrderedConcurrency());
+    }
+
+    /**
+     * Queues a record on the lane of its key. Blocks the listener thread while the
+     * in-flight limit is reached, which holds back the next poll.
+     *
+     * @param record The consumed record, used for offset tracking
+     * @param orderingKey Key records must be ordered by, or null when the record has no ordering requirement
+     * @param priority Scheduling priority of the record
+     * @param task The processing work for the record. Returns a future completed once the output of the record
+     *             is published, or it was handed to a retry tier; completed exceptionally when neither happened
+     */
+    public void submit(ConsumerRecord<?, ?> record, String orderingKey, ProcessingPriority priority,
+                       Supplier<CompletableFuture<?>> task) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        String laneKey = orderingKey != null
+            ? partition + "|" + orderingKey
+            : partition + "@" + record.offset();
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a processing slot", e);
+        }
+        offsetTracker.register(partition, record.offset());
+
+        // The work is queued by whichever thread completes the previous step of the lane, so the context is captured here
+        RequestContext context = TenantContext.current();
+        AtomicReference<CompletableFuture<?>> output = new AtomicReference<>();
+        // A step that failed must not skip the steps queued behind it on the lane
+        CompletableFuture<Void> step = lanes.compute(laneKey, (key, tail) ->
+            (tail == null ? CompletableFuture.<Void>completedFuture(null) : tail)
+                .handle((ignored, error) -> null)
+                .thenCompose(ignored -> priorityScheduler.submit(priority, context, () -> output.set(task.get()))));
+        step.whenComplete((ignored, error) -> lanes.remove(laneKey, step));
+
+        step.thenCompose(ignored -> output.get().thenApply(result -> null)).whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.error("Processing of record {}-{}@{} failed, the partition is read again from it: {}",
+                    record.topic(), record.partition(), record.offset(), error.getMessage(), error);
+                offsetTracker.fail(partition, record.offset());
+            } else {
+                offsetTracker.complete(partition, record.offset());
+            }
+            inFlight.release();
+        });
+    }
+
+    /**
+     * Marks a record as done without processing it, so its offset does not hold back commits.
+     */
+    public void skip(ConsumerRecord<?, ?> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        offsetTracker.register(partition, record.offset());
+        offsetTracker.complete(partition, record.offset());
+    }
+
+    /**
+     * Marks a record that could not be handled on the listener thread, its partition is read again from it.
+     */
+    public void fail(ConsumerRecord<?, ?> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        offsetTracker.register(partition, record.offset());
+        offsetTracker.fail(partition, record.offset());
+    }
+
+    /**
+     * Rewinds partitions with failed records and commits offsets that are safe to commit.
+     * Must be called on the consumer thread.
+     */
+    public void commitReady(Consumer<?, ?> consumer) {
+        offsetTracker.drainRewinds().forEach((partition, offset) -> {
+            log.warn("Reading {} again from offset {}", partition, offset);
+            consumer.seek(partition, offset);
+        });
+        Map<TopicPartition, OffsetAndMetadata> committable = offsetTracker.drainCommittable();
+        if (committable.isEmpty()) {
+            return;
+        }
+        consumer.commitAsync(committable, (offsets, error) -> {
+            if (error != null) {
+                log.warn("Failed to commit offsets {}: {}", offsets, error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Commits what is done for revoked partitions and drops their tracking state.
+     * Records still in flight for those partitions will be redelivered to the new owner.
+     */
+    public void onPartitionsRevoked(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> committable = offsetTracker.drainCommittable();
+        committable.keySet().retainAll(partitions);
+        if (!committable.isEmpty()) {
+            consumer.commitSync(committable);
+        }
+        offsetTracker.forget(partitions);
+        log.info("Partitions revoked: {}. Records still in flight: {}", partitions, offsetTracker.pendingCount());
+    }
+}
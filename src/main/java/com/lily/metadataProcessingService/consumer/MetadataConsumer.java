@@ -2,82 +2,261 @@ package com.lily.metadataProcessingService.consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lily.metadataProcessingService.config.BatchConfigurationService;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
 import com.lily.metadataProcessingService.dto.MetadataRequest;
+import com.lily.metadataProcessingService.dto.TokenValidation;
+import com.lily.metadataProcessingService.exception.TenantAccessException;
+import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+import com.lily.metadataProcessingService.producer.FailedRecordPublisher;
+import com.lily.metadataProcessingService.service.AdmissionController;
 import com.lily.metadataProcessingService.service.IngestionService;
-import com.lily.metadataProcessingService.service.ProcessingService;
+import com.lily.metadataProcessingService.service.PriorityScheduler;
 import com.lily.metadataProcessingService.util.OAuthTokenValidator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.log.LogAccessor;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.SerializationUtils;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class MetadataConsumer {
+    private static final String LARGE_VOLUME_SOURCE = "large-volume-source";
+    private static final String INTERNAL_SERVICE = "internal-service";
+    private static final LogAccessor LOG_ACCESSOR = new LogAccessor(MetadataConsumer.class);
+
     private final IngestionService ingestionService;
-    private final ProcessingService processingService;
     private final OAuthTokenValidator tokenValidator;
     private final BatchConfigurationService batchConfig;
+    private final KeyOrderedProcessor keyOrderedProcessor;
+    private final MicroBatchAggregator microBatchAggregator;
+    private final FailedRecordPublisher failedRecordPublisher;
+    private final PriorityScheduler priorityScheduler;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    /**
+     * Consumes inbound records and hands them to the key-ordered processor.
+     * Records of the same entity run in order, different entities run in parallel,
+     * and offsets are committed here on the consumer thread once they are safe to commit.
+     * The tenant comes from the token of the record, the {@value TenantContext#TENANT_HEADER} header may only repeat it
+     * (see {@link OAuthTokenValidator#resolveTenant}). It is bound for the record's work.
+     */
     @KafkaListener(
+        id = "inboundListener",
         topics = "${spring.kafka.topic.inbound}",
         groupId = "${spring.kafka.consumer.group-id}"
     )
-    public void consume(ConsumerRecord<String, String> record,
-    Acknowledgment acknowledgment) {
+    public void consume(ConsumerRecord<String, String> record, Consumer<?, ?> consumer) {
         try {
             // Extract OAuth Token from Kafka Header
             String authToken = record.headers().lastHeader("Authorization") != null
                     ? new String(record.headers().lastHeader("Authorization").value(), StandardCharsets.UTF_8)
                     : null;
 
-            if (authToken == null || !tokenValidator.validateToken(authToken)) {
+            TokenValidation validation = tokenValidator.validate(authToken);
+            if (!validation.isActive()) {
                 log.error("Invalid or missing OAuth token. Rejecting message.");
+                keyOrderedProcessor.skip(record);
+                return;
+            }
+            String tenantId;
+            try {
+                tenantId = tokenValidator.resolveTenant(validation, TenantContext.tenantOf(record.headers()));
+            } catch (TenantAccessException e) {
+                log.error("Rejecting message {}-{}@{}: {}", record.topic(), record.partition(), record.offset(), e.getMessage());
+                keyOrderedProcessor.skip(record);
                 return;
             }
 
             log.info("Received Kafka Message: Key={}, Value={}", record.key(), record.value());
 
             // Deserialize JSON into MetadataRequestDTO
-            MetadataRequest metadataRequest = objectMapper.readValue(record.value(), MetadataRequest.class);
-            ingestionService.ingestMetadata(metadataRequest);
-            acknowledgment.acknowledge();
+            MetadataRequest metadataRequest;
+            try {
+                metadataRequest = objectMapper.readValue(record.value(), MetadataRequest.class);
+            } catch (Exception e) {
+                // A malformed record will never parse, so retrying it is pointless
+                try {
+                    TenantContext.run(RequestContext.of(tenantId, null), () ->
+                        failedRecordPublisher.publishToDeadLetter(record.topic(), record.key(), record.value(), 0, e));
+                    keyOrderedProcessor.skip(record);
+                } catch (RuntimeException publishError) {
+                    keyOrderedProcessor.fail(record);
+                }
+                return;
+            }
+            // Admission is waited for here on the listener thread, the scheduler worker running the lane never blocks on it
+            AdmissionController.Permit permit = ingestionService.admit(metadataRequest);
+            try {
+                ProcessingPriority priority = ingestionService.resolvePriority(metadataRequest);
+                TenantContext.run(RequestContext.of(tenantId, metadataRequest.getEventId()), () ->
+                    keyOrderedProcessor.submit(record, orderingKey(record, metadataRequest), priority,
+                        () -> processOrRetry(record, metadataRequest, permit, priority)));
+            } catch (RuntimeException e) {
+                permit.release(false);
+                throw e;
+            }
         } catch (Exception e) {
             log.error("Error processing Kafka message: {}", e.getMessage(), e);
+            keyOrderedProcessor.skip(record);
+        } finally {
+            keyOrderedProcessor.commitReady(consumer);
         }
     }
 
+    /**
+     * Processes a record on its lane.
+     *
+     * @return Future completed once the output of the record is published, or the record went to a retry tier
+     */
+    private CompletableFuture<Void> processOrRetry(ConsumerRecord<String, String> record, MetadataRequest request,
+                                                   AdmissionController.Permit permit, ProcessingPriority priority) {
+        CompletableFuture<Void> published;
+        try {
+            published = ingestionService.processAdmitted(request, permit);
+        } catch (Exception e) {
+            published = CompletableFuture.failedFuture(e);
+        }
+        // A failed send completes on the producer thread, waiting there for the retry tier send would block it
+        RequestContext context = TenantContext.current();
+        return published.exceptionallyCompose(error -> priorityScheduler.submit(priority, context, () ->
+            failedRecordPublisher.publishFailure(record.topic(), record.key(), record.value(), 0, unwrap(error))));
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Commits offsets of records that finished after the last poll returned.
+     * Idle events are published on the consumer thread, so committing here is safe.
+     */
+    @EventListener(condition = "event.listenerId.startsWith('inboundListener')")
+    public void onIdle(ListenerContainerIdleEvent event) {
+        keyOrderedProcessor.commitReady(event.getConsumer());
+    }
+
+    private String orderingKey(ConsumerRecord<String, String> record, MetadataRequest request) {
+        Map<String, Object> payload = request.getPayload();
+        if (payload != null && payload.get("primaryKeyValue") != null) {
+            return String.valueOf(payload.get("primaryKeyValue"));
+        }
+        return record.key();
+    }
+
     @KafkaListener(
+        id = "largeVolumeListener",
         topics = "${spring.kafka.topic.large-volume-source}",
         groupId = "${spring.kafka.consumer.group-id}",
         containerFactory = "batchKafkaListenerContainerFactory"
     )
-    public void consumeMonteCarloBatch(List<ConsumerRecord<String, MetadataRequest>> records) {
-        processBatch(records, "monte-carlo");
+    public void consumeMonteCarloBatch(List<ConsumerRecord<String, MetadataRequest>> records,
+                                       Consumer<?, ?> consumer) {
+        processBatch(records, LARGE_VOLUME_SOURCE, consumer);
     }
 
     @KafkaListener(
+        id = "internalServiceListener",
         topics = "${spring.kafka.topic.internal-service}",
         groupId = "${spring.kafka.consumer.group-id}",
         containerFactory = "batchKafkaListenerContainerFactory"
     )
-    public void consumeSlackBatch(List<ConsumerRecord<String, MetadataRequest>> records) {
-        processBatch(records, "slack");
+    public void consumeSlackBatch(List<ConsumerRecord<String, MetadataRequest>> records,
+                                  Consumer<?, ?> consumer) {
+        processBatch(records, INTERNAL_SERVICE, consumer);
+    }
+
+    /**
+     * Commits offsets of micro-batches flushed by the linger timer while no records arrived.
+     */
+    @EventListener(condition = "!event.listenerId.startsWith('inboundListener')")
+    public void onBatchIdle(ListenerContainerIdleEvent event) {
+        microBatchAggregator.commitReady(event.getConsumer());
+    }
+
+    private void processBatch(List<ConsumerRecord<String, MetadataRequest>> polled, String topicKey,
+                              Consumer<?, ?> consumer) {
+        try {
+            microBatchAggregator.register(polled);
+            List<ConsumerRecord<String, MetadataRequest>> records = deadLetterMalformed(polled);
+            var config = batchConfig.getConfigForTopic(topicKey);
+            if (batchConfig.isBatchEnabled(topicKey) && config != null) {
+                microBatchAggregator.add(topicKey, records);
+            } else {
+                List<CompletableFuture<Void>> published = new ArrayList<>(records.size());
+                records.forEach(record -> published.add(TenantContext.get(contextOf(record), () -> {
+                    try {
+                        return ingestionService.ingestAndProcess(record.value());
+                    } catch (Exception e) {
+                        return CompletableFuture.<Void>failedFuture(e);
+                    }
+                })));
+                // Offsets are only marked once every output was acknowledged or its record went to a retry tier
+                List<ConsumerRecord<String, MetadataRequest>> unrouted = new ArrayList<>();
+                for (int i = 0; i < records.size(); i++) {
+                    ConsumerRecord<String, MetadataRequest> record = records.get(i);
+                    try {
+                        published.get(i).join();
+                    } catch (Exception e) {
+                        if (!microBatchAggregator.retryFailed(record, e)) {
+                            unrouted.add(record);
+                        }
+                    }
+                }
+                microBatchAggregator.markDone(records.stream().filter(record -> !unrouted.contains(record)).toList());
+                unrouted.forEach(microBatchAggregator::markFailed);
+            }
+        } finally {
+            microBatchAggregator.commitReady(consumer);
+        }
     }
 
-    private void processBatch(List<ConsumerRecord<String, MetadataRequest>> records, String sourceType) {
-        var config = batchConfig.getConfigForTopic(sourceType);
-        if (config != null) {
-            processingService.processBatch(records, config);
-        } else {
-            records.forEach(record -> processingService.processMetadata(record.value()));
+    /**
+     * Sends records whose value could not be read as a request straight to the dead-letter topic,
+     * retrying them cannot fix the value.
+     *
+     * @return The readable records
+     */
+    private List<ConsumerRecord<String, MetadataRequest>> deadLetterMalformed(
+            List<ConsumerRecord<String, MetadataRequest>> records) {
+        List<ConsumerRecord<String, MetadataRequest>> readable = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, MetadataRequest> record : records) {
+            if (record.value() != null) {
+                readable.add(record);
+                continue;
+            }
+            DeserializationException error = SerializationUtils.getExceptionFromHeader(
+                record, SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER, LOG_ACCESSOR);
+            String value = error != null && error.getData() != null ? new String(error.getData(), StandardCharsets.UTF_8) : null;
+            Exception cause = error != null ? error : new IllegalArgumentException("Record has no value");
+            try {
+                failedRecordPublisher.publishToDeadLetter(record.topic(), record.key(), value, 0, cause);
+                microBatchAggregator.markDone(List.of(record));
+            } catch (Exception e) {
+                log.error("Failed to dead-letter malformed record {}-{}@{}: {}",
+                    record.topic(), record.partition(), record.offset(), e.getMessage());
+                microBatchAggregator.markFailed(record);
+            }
         }
+        return readable;
+    }
+
+    private static RequestContext contextOf(ConsumerRecord<String, MetadataRequest> record) {
+        return RequestContext.of(TenantContext.tenantOf(record.headers()), record.value().getEventId());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,382 @@
+package com.lily.metadataProcessingService.consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.config.ApplicationProperties.TopicConfig;
+import com.lily.metadataProcessingService.config.BatchConfigurationService;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.dto.MetadataRequest;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import com.lily.metadataProcessingService.producer.FailedRecordPublisher;
+import com.lily.metadataProcessingService.service.IngestionService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects batch listener records across polls and flushes them per topic.
+ * A topic batch is flushed when it reaches the record limit, the byte limit or the
+ * linger time of its {@link TopicConfig}, whichever comes first. The record limit adapts
+ * to flush latency when the topic config is adaptive.
+ * Flushed batches are processed on virtual threads, one at a time and in poll order per topic, so neither
+ * the listener nor the linger check waits for the pipeline. When too many flushed batches of a topic are
+ * waiting, its partitions are paused until the backlog shrinks.
+ * Offsets are committed only once the records of a flushed batch are processed;
+ * records that failed are handed to the retry tiers first. A record the retry tier did not take
+ * is never committed, its partition is read again from it.
+ */
+@Slf4j
+@Component
+public class MicroBatchAggregator {
+
+    private static final long LINGER_CHECK_INTERVAL_MS = 10;
+
+    private final IngestionService ingestionService;
+    private final BatchConfigurationService batchConfig;
+    private final FailedRecordPublisher failedRecordPublisher;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PartitionOffsetTracker offsetTracker = new PartitionOffsetTracker();
+    private final Map<String, TopicBatcher> batchers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService lingerScheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("micro-batch-linger").daemon().factory());
+    private final ExecutorService flushExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public MicroBatchAggregator(IngestionService ingestionService,
+                                BatchConfigurationService batchConfig,
+                                FailedRecordPublisher failedRecordPublisher,
+                                KafkaListenerEndpointRegistry listenerRegistry) {
+        this.ingestionService = ingestionService;
+        this.batchConfig = batchConfig;
+        this.failedRecordPublisher = failedRecordPublisher;
+        this.listenerRegistry = listenerRegistry;
+        lingerScheduler.scheduleWithFixedDelay(this::flushExpired,
+            LINGER_CHECK_INTERVAL_MS, LINGER_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds polled records to the batch of a topic, handing the batch off for processing when a limit is reached.
+     *
+     * @param topicKey Batch config key of the topic
+     * @param records The records of the current poll
+     */
+    public void add(String topicKey, List<ConsumerRecord<String, MetadataRequest>> records) {
+        TopicBatcher batcher = batchers.computeIfAbsent(topicKey, TopicBatcher::new);
+        for (ConsumerRecord<String, MetadataRequest> record : records) {
+            offsetTracker.register(new TopicPartition(record.topic(), record.partition()), record.offset());
+            if (batcher.append(record)) {
+                batcher.dispatch();
+            }
+        }
+    }
+
+    /**
+     * Tracks the offsets of polled records before any of them is handed out, so records the listener
+     * handles on its own are never committed past by records of the same poll that finish first.
+     */
+    public void register(List<? extends ConsumerRecord<?, ?>> records) {
+        records.forEach(record ->
+            offsetTracker.register(new TopicPartition(record.topic(), record.partition()), record.offset()));
+    }
+
+    /**
+     * Marks records processed outside of a batch as done so their offsets can be committed.
+     */
+    public void markDone(List<? extends ConsumerRecord<?, ?>> records) {
+        records.forEach(record -> {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            offsetTracker.register(partition, record.offset());
+            offsetTracker.complete(partition, record.offset());
+        });
+    }
+
+    /**
+     * Marks a record processed outside of a batch that could not be handed to a retry tier,
+     * its partition is read again from it.
+     */
+    public void markFailed(ConsumerRecord<?, ?> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        offsetTracker.register(partition, record.offset());
+        offsetTracker.fail(partition, record.offset());
+    }
+
+    /**
+     * Rewinds partitions with records that could not be retried and commits offsets of flushed batches.
+     * Must be called on the consumer thread.
+     */
+    public void commitReady(Consumer<?, ?> consumer) {
+        offsetTracker.drainRewinds().forEach((partition, offset) -> {
+            log.warn("Reading {} again from offset {}", partition, offset);
+            consumer.seek(partition, offset);
+        });
+        Map<TopicPartition, OffsetAndMetadata> committable = offsetTracker.drainCommittable();
+        if (committable.isEmpty()) {
+            return;
+        }
+        consumer.commitAsync(committable, (offsets, error) -> {
+            if (error != null) {
+                log.warn("Failed to commit batch offsets {}: {}", offsets, error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered records and waits for them before partitions move to another consumer, then commits them.
+     */
+    public void onPartitionsRevoked(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        drainAll();
+        Map<TopicPartition, OffsetAndMetadata> committable = offsetTracker.drainCommittable();
+        committable.keySet().retainAll(partitions);
+        if (!committable.isEmpty()) {
+            consumer.commitSync(committable);
+        }
+        offsetTracker.forget(partitions);
+    }
+
+    /**
+     * Sends a failed record to the first retry tier so the batch and its offsets can move on.
+     *
+     * @return False when the retry tier did not take the record, its offset must not be committed
+     */
+    boolean retryFailed(ConsumerRecord<String, MetadataRequest> record, Exception cause) {
+        try {
+            String value = objectMapper.writeValueAsString(record.value());
+            // Flushes run off the listener thread, the tenant header of the record is carried over from here
+            TenantContext.run(RequestContext.of(TenantContext.tenantOf(record.headers()), record.value().getEventId()),
+                () -> failedRecordPublisher.publishFailure(record.topic(), record.key(), value, 0, cause));
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to route record {}-{}@{} to retry: {}",
+                record.topic(), record.partition(), record.offset(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void flushExpired() {
+        batchers.values().forEach(batcher -> {
+            if (batcher.isLingerExpired()) {
+                batcher.dispatch();
+            }
+        });
+    }
+
+    private void drainAll() {
+        batchers.values().forEach(TopicBatcher::dispatch);
+        batchers.values().forEach(batcher -> batcher.tail().join());
+    }
+
+    /**
+     * Pauses or resumes the partitions through their listener container, so an admission pause or
+     * resume of the whole container does not undo it.
+     */
+    private void setPartitionsPaused(Set<TopicPartition> partitions, boolean paused) {
+        for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+            Collection<TopicPartition> assigned = container.getAssignedPartitions();
+            if (assigned == null) {
+                continue;
+            }
+            partitions.stream().filter(assigned::contains).forEach(partition -> {
+                if (paused) {
+                    container.pausePartition(partition);
+                } else {
+                    container.resumePartition(partition);
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lingerScheduler.shutdown();
+        drainAll();
+        flushExecutor.shutdown();
+    }
+
+    /**
+     * Buffer of one topic. A flushed batch is chained after the previous one of the topic, so the listener
+     * keeps filling the next batch while earlier ones are processed, but batches never overlap
+     * and records of the same topic are processed in poll order.
+     */
+    private class TopicBatcher {
+        private final String topicKey;
+        private final ReentrantLock bufferLock = new ReentrantLock();
+        private final Set<TopicPartition> partitions = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger pendingBatches = new AtomicInteger();
+        private List<ConsumerRecord<String, MetadataRequest>> buffer = new ArrayList<>();
+        private long bufferedBytes;
+        private long firstRecordAt;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private boolean backlogPaused;
+        private volatile int effectiveBatchSize = -1;
+
+        private TopicBatcher(String topicKey) {
+            this.topicKey = topicKey;
+        }
+
+        /**
+         * @return true when the batch reached its record or byte limit and should be flushed
+         */
+        private boolean append(ConsumerRecord<String, MetadataRequest> record) {
+            TopicConfig config = batchConfig.getConfigForTopic(topicKey);
+            bufferLock.lock();
+            try {
+                if (buffer.isEmpty()) {
+                    firstRecordAt = System.currentTimeMillis();
+                }
+                buffer.add(record);
+                partitions.add(new TopicPartition(record.topic(), record.partition()));
+                bufferedBytes += Math.max(0, record.serializedValueSize());
+                return buffer.size() >= batchSizeLimit(config) || bufferedBytes >= config.getMaxBytes();
+            } finally {
+                bufferLock.unlock();
+            }
+        }
+
+        private boolean isLingerExpired() {
+            TopicConfig config = batchConfig.getConfigForTopic(topicKey);
+            bufferLock.lock();
+            try {
+                return !buffer.isEmpty() && System.currentTimeMillis() - firstRecordAt >= config.getTimeoutMs();
+            } finally {
+                bufferLock.unlock();
+            }
+        }
+
+        private CompletableFuture<Void> tail() {
+            bufferLock.lock();
+            try {
+                return tail;
+            } finally {
+                bufferLock.unlock();
+            }
+        }
+
+        /**
+         * Hands the buffered records off to the flush executor without waiting for them.
+         */
+        private void dispatch() {
+            TopicConfig config = batchConfig.getConfigForTopic(topicKey);
+            bufferLock.lock();
+            try {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                List<ConsumerRecord<String, MetadataRequest>> batch = buffer;
+                buffer = new ArrayList<>(batch.size());
+                bufferedBytes = 0;
+                tail = tail.thenRunAsync(() -> process(batch), flushExecutor);
+                if (pendingBatches.incrementAndGet() >= config.getMaxPendingBatches() && !backlogPaused) {
+                    log.warn("{} flushed batches of {} are waiting. Pausing its partitions", pendingBatches.get(), topicKey);
+                    backlogPaused = true;
+                    setPartitionsPaused(partitions, true);
+                }
+            } finally {
+                bufferLock.unlock();
+            }
+        }
+
+        private void process(List<ConsumerRecord<String, MetadataRequest>> batch) {
+            try {
+                flush(batch);
+            } catch (Exception e) {
+                log.error("Failed to flush micro-batch of {} records for {}: {}", batch.size(), topicKey, e.getMessage(), e);
+            } finally {
+                TopicConfig config = batchConfig.getConfigForTopic(topicKey);
+                bufferLock.lock();
+                try {
+                    if (pendingBatches.decrementAndGet() < config.getMaxPendingBatches() && backlogPaused) {
+                        log.info("Backlog of {} shrank. Resuming its partitions", topicKey);
+                        backlogPaused = false;
+                        setPartitionsPaused(partitions, false);
+                    }
+                } finally {
+                    bufferLock.unlock();
+                }
+            }
+        }
+
+        private void flush(List<ConsumerRecord<String, MetadataRequest>> batch) {
+            TopicConfig config = batchConfig.getConfigForTopic(topicKey);
+            long start = System.currentTimeMillis();
+            Set<ConsumerRecord<String, MetadataRequest>> unrouted = new HashSet<>();
+            try {
+                Map<String, String> failures = ingestionService.ingestBatch(batch, config);
+                for (ConsumerRecord<String, MetadataRequest> record : batch) {
+                    String error = failures.get(record.value().getEventId());
+                    if (error != null && !retryFailed(record, new ProcessingException(error))) {
+                        unrouted.add(record);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Failed to process micro-batch of {} records for {}: {}",
+                    batch.size(), topicKey, e.getMessage(), e);
+                batch.forEach(record -> {
+                    if (!retryFailed(record, e)) {
+                        unrouted.add(record);
+                    }
+                });
+            } finally {
+                batch.forEach(record -> {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    if (unrouted.contains(record)) {
+                        offsetTracker.fail(partition, record.offset());
+                    } else {
+                        offsetTracker.complete(partition, record.offset());
+                    }
+                });
+            }
+            adapt(config, batch.size(), System.currentTimeMillis() - start);
+        }
+
+        private int batchSizeLimit(TopicConfig config) {
+            int limit = effectiveBatchSize;
+            if (!config.isAdaptive() || limit <= 0 || limit > config.getBatchSize()) {
+                return config.getBatchSize();
+            }
+            return limit;
+        }
+
+        /**
+         * Shrinks the record limit when flushes are slower than the target, grows it back
+         * towards the configured size when full batches finish within the target.
+         */
+        private void adapt(TopicConfig config, int flushedSize, long latencyMs) {
+            if (!config.isAdaptive()) {
+                return;
+            }
+            int current = batchSizeLimit(config);
+            int next = current;
+            if (latencyMs > config.getTargetLatencyMs()) {
+                next = Math.max(config.getMinBatchSize(), (int) (current * 0.75));
+            } else if (flushedSize >= current) {
+                next = Math.min(config.getBatchSize(), current + Math.max(1, current / 10));
+            }
+            if (next != current) {
+                log.debug("Adjusting batch size for {} from {} to {} (flush took {}ms)",
+                    topicKey, current, next, latencyMs);
+            }
+            effectiveBatchSize = next;
+        }
+    }
+}
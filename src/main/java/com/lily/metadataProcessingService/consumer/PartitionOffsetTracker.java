@@ -0,0 +1,98 @@
+package com.lily.metadataProcessingService.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Tracks which offsets of each partition are still in flight when records complete out of order.
+ * The committable offset of a partition is the lowest offset still pending, or one past the highest
+ * offset seen when nothing is pending, so a commit never skips a record that has not finished.
+ * A record that failed stays pending and its partition is rewound to it, see {@link #drainRewinds()}.
+ * Records read again after a rewind register the same offsets, whichever copy completes first releases one.
+ */
+class PartitionOffsetTracker {
+
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    void register(TopicPartition partition, long offset) {
+        PartitionState state = partitions.computeIfAbsent(partition, tp -> new PartitionState());
+        synchronized (state) {
+            state.pending.add(offset);
+            state.highestSeen = Math.max(state.highestSeen, offset);
+        }
+    }
+
+    void complete(TopicPartition partition, long offset) {
+        PartitionState state = partitions.get(partition);
+        if (state != null) {
+            state.pending.remove(offset);
+        }
+    }
+
+    /**
+     * Marks a record that could neither be processed nor handed to a retry tier. Its offset is never
+     * committed, the partition is read again from there.
+     */
+    void fail(TopicPartition partition, long offset) {
+        PartitionState state = partitions.get(partition);
+        if (state != null) {
+            synchronized (state) {
+                state.rewindTo = state.rewindTo < 0 ? offset : Math.min(state.rewindTo, offset);
+            }
+        }
+    }
+
+    /**
+     * Returns the offset each partition with a failed record has to be read again from, since the last call.
+     */
+    Map<TopicPartition, Long> drainRewinds() {
+        Map<TopicPartition, Long> rewinds = new HashMap<>();
+        partitions.forEach((partition, state) -> {
+            synchronized (state) {
+                if (state.rewindTo >= 0) {
+                    rewinds.put(partition, state.rewindTo);
+                    state.rewindTo = -1;
+                }
+            }
+        });
+        return rewinds;
+    }
+
+    /**
+     * Returns the offsets that moved forward since the last call, ready to be committed.
+     */
+    Map<TopicPartition, OffsetAndMetadata> drainCommittable() {
+        Map<TopicPartition, OffsetAndMetadata> committable = new HashMap<>();
+        partitions.forEach((partition, state) -> {
+            synchronized (state) {
+                long next = state.pending.isEmpty() ? state.highestSeen + 1 : state.pending.first();
+                if (next > state.committed) {
+                    state.committed = next;
+                    committable.put(partition, new OffsetAndMetadata(next));
+                }
+            }
+        });
+        return committable;
+    }
+
+    void forget(Collection<TopicPartition> revoked) {
+        revoked.forEach(partitions::remove);
+    }
+
+    int pendingCount() {
+        return partitions.values().stream().mapToInt(state -> state.pending.size()).sum();
+    }
+
+    private static class PartitionState {
+        private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+        private long highestSeen = -1;
+        private long committed = -1;
+        private long rewindTo = -1;
+    }
+}
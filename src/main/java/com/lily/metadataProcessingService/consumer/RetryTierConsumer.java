@@ -0,0 +1,110 @@
+package com.lily.metadataProcessingService.consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.config.ProcessingConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.dto.MetadataRequest;
+import com.lily.metadataProcessingService.producer.FailedRecordPublisher;
+import com.lily.metadataProcessingService.service.IngestionService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.backoff.FixedBackOff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lily.metadataProcessingService.common.RetryHeaders.*;
+import static com.lily.metadataProcessingService.producer.FailedRecordPublisher.headerValue;
+
+/**
+ * Consumes the delayed retry tiers.
+ * Each tier gets its own listener container, so waiting for a record to become due only
+ * holds back the tier it belongs to, never the main topics or the other tiers.
+ * Records failing again move to the next tier, or to the dead-letter topic after the last one.
+ * When that move is not acknowledged the record is not committed and is delivered again.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RetryTierConsumer implements SmartLifecycle {
+
+    private static final String RETRY_GROUP_ID = "metadata-retry-group";
+
+    private final ConsumerFactory<String, String> consumerFactory;
+    private final ProcessingConfig processingConfig;
+    private final FailedRecordPublisher failedRecordPublisher;
+    private final IngestionService ingestionService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<ConcurrentMessageListenerContainer<String, String>> containers = new ArrayList<>();
+
+    @Override
+    public void start() {
+        for (int tier = 1; tier <= processingConfig.getMaxRetries(); tier++) {
+            ContainerProperties properties = new ContainerProperties(failedRecordPublisher.retryTopic(tier));
+            properties.setGroupId(RETRY_GROUP_ID);
+            properties.setAckMode(ContainerProperties.AckMode.RECORD);
+            properties.setMessageListener((MessageListener<String, String>) this::retry);
+
+            ConcurrentMessageListenerContainer<String, String> container =
+                new ConcurrentMessageListenerContainer<>(consumerFactory, properties);
+            // The default handler gives up after ten attempts and commits, which would drop the record
+            container.setCommonErrorHandler(new DefaultErrorHandler(
+                new FixedBackOff(processingConfig.getRetryDelayMs(), FixedBackOff.UNLIMITED_ATTEMPTS)));
+            container.setBeanName("retryTier" + tier);
+            container.start();
+            containers.add(container);
+        }
+        log.info("Started {} retry tier consumers", containers.size());
+    }
+
+    private void retry(ConsumerRecord<String, String> record) {
+        String originalTopic = headerValue(record.headers(), ORIGINAL_TOPIC);
+        String attemptHeader = headerValue(record.headers(), ATTEMPT);
+        String dueAtHeader = headerValue(record.headers(), DUE_AT);
+        int attempt = attemptHeader != null ? Integer.parseInt(attemptHeader) : 1;
+
+        waitUntilDue(dueAtHeader != null ? Long.parseLong(dueAtHeader) : 0);
+        TenantContext.run(RequestContext.of(TenantContext.tenantOf(record.headers()), null), () -> {
+            try {
+                MetadataRequest request = objectMapper.readValue(record.value(), MetadataRequest.class);
+                log.info("Retrying metadata. EventId: {}, Attempt: {}", request.getEventId(), attempt);
+                ingestionService.ingestAndProcess(request).join();
+            } catch (Exception e) {
+                failedRecordPublisher.publishFailure(originalTopic != null ? originalTopic : record.topic(),
+                    record.key(), record.value(), attempt, e);
+            }
+        });
+    }
+
+    private void waitUntilDue(long dueAt) {
+        long waitMs = dueAt - System.currentTimeMillis();
+        if (waitMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void stop() {
+        containers.forEach(ConcurrentMessageListenerContainer::stop);
+        containers.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return !containers.isEmpty();
+    }
+}
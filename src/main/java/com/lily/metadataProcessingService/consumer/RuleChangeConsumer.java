@@ -0,0 +1,101 @@
+package com.lily.metadataProcessingService.consumer;
+
+import com.lily.metadataProcessingService.config.RuleCacheConfig;
+import com.lily.metadataProcessingService.rule.ProcessingRules;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.PartitionOffset;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reloads cached processing rules when they change.
+ * Changes come from the compacted rule change topic, keyed by {@code tenantId:sourceId}
+ * (the value is not used, a tombstone is a change too), or in dev from the optional change file,
+ * which is checked every {@code metadata.rules.change-file-check-interval-ms}.
+ * Processed changes are counted in {@code metadata.rules.changes}, tagged by origin.
+ */
+@Slf4j
+@Service
+public class RuleChangeConsumer {
+
+    private final ProcessingRules processingRules;
+    private final RuleCacheConfig config;
+    private final Counter topicChanges;
+    private final Counter fileChanges;
+    private volatile long changeFileModifiedAt;
+
+    public RuleChangeConsumer(ProcessingRules processingRules, RuleCacheConfig config, MeterRegistry meterRegistry) {
+        this.processingRules = processingRules;
+        this.config = config;
+        this.topicChanges = Counter.builder("metadata.rules.changes").tag("origin", "topic").register(meterRegistry);
+        this.fileChanges = Counter.builder("metadata.rules.changes").tag("origin", "file").register(meterRegistry);
+    }
+
+    /**
+     * Every instance needs every change, so instead of a consumer group (one per pod, left behind on every restart)
+     * the listener is assigned all partitions of the topic and starts at their end, offsets are never committed.
+     * Partitions are looked up when the listener starts.
+     */
+    @KafkaListener(
+        id = "ruleChangeListener",
+        idIsGroup = false,
+        topicPartitions = @TopicPartition(
+            topic = "${metadata.rules.change-topic:atlan-metadata-rule-changes}",
+            partitionOffsets = @PartitionOffset(partition = "*", initialOffset = "0", seekPosition = "END")),
+        containerFactory = "ruleChangeListenerContainerFactory",
+        autoStartup = "${metadata.rules.change-listener-enabled:true}"
+    )
+    public void consume(ConsumerRecord<String, String> record) {
+        if (record.key() == null) {
+            log.warn("Ignoring rule change without key at offset {}", record.offset());
+            return;
+        }
+        processingRules.onRuleChanged(record.key());
+        topicChanges.increment();
+    }
+
+    /**
+     * Applies the change file when it was modified since the last check.
+     * Meant for local development, where there is no rule change topic.
+     */
+    @Scheduled(fixedDelayString = "${metadata.rules.change-file-check-interval-ms:2000}")
+    public void checkChangeFile() {
+        String changeFile = config.getChangeFile();
+        if (changeFile == null) {
+            return;
+        }
+        Path path = Path.of(changeFile);
+        try {
+            if (!Files.exists(path)) {
+                return;
+            }
+            long modifiedAt = Files.getLastModifiedTime(path).toMillis();
+            if (modifiedAt == changeFileModifiedAt) {
+                return;
+            }
+            // The first check only records the file, the rules were loaded fresh at startup
+            if (changeFileModifiedAt != 0) {
+                List<String> changes = Files.readAllLines(path);
+                for (String change : changes) {
+                    String trimmed = change.trim();
+                    if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                        processingRules.onRuleChanged(trimmed.equals("*") ? "*:*" : trimmed);
+                        fileChanges.increment();
+                    }
+                }
+            }
+            changeFileModifiedAt = modifiedAt;
+        } catch (Exception e) {
+            log.error("Failed to apply rule changes from {}: {}", changeFile, e.getMessage());
+        }
+    }
+}
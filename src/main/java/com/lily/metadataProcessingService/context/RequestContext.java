@@ -0,0 +1,21 @@
+package com.lily.metadataProcessingService.context;
+
+import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+
+/**
+ * What we know about the request being processed, bound for the duration of its work by {@link TenantContext}.
+ *
+ * @param tenantId Tenant the request belongs to, null when the source did not say
+ * @param eventId Event id of the request, null for work that covers several events (e.g. a batch)
+ * @param priority Priority the work was scheduled with, null until it is scheduled
+ */
+public record RequestContext(String tenantId, String eventId, ProcessingPriority priority) {
+
+    public static RequestContext of(String tenantId, String eventId) {
+        return new RequestContext(tenantId, eventId, null);
+    }
+
+    public RequestContext withPriority(ProcessingPriority priority) {
+        return priority == this.priority ? this : new RequestContext(tenantId, eventId, priority);
+    }
+}
@@ -1,35 +1,78 @@
 package com.lily.metadataProcessingService.context;
 
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
 /**
  * Manages tenant context for multi-tenancy support.
+ * The {@link RequestContext} is a {@link ScopedValue} bound by the entry points (HTTP, Kafka listeners)
+ * for the duration of the work, instead of a ThreadLocal that has to be set and cleared.
+ * Scoped values are not inherited by threads we hand work to, so every hand-off captures the
+ * context with {@link #current()} when work is queued and binds it again where the work runs
+ * (see {@code PriorityScheduler} and {@code KeyOrderedProcessor}).
  */
 @Component
 public class TenantContext {
-    private final ThreadLocal<String> currentTenant = new ThreadLocal<>();
 
     /**
-     * Sets the current tenant ID for the executing thread.
-     * @param tenantId The ID of the tenant to set as current
+     * Kafka header carrying the tenant of a record, kept when records are retried or replayed.
+     * On inbound records it is only a claim checked against the record's token, retry and dead-letter
+     * records get it from the bound context when they are published.
      */
-    public void setCurrentTenant(String tenantId) {
-        currentTenant.set(tenantId);
-    }
+    public static final String TENANT_HEADER = "tenant-id";
+    /** HTTP header naming the tenant of a request, checked against the request's token like {@link #TENANT_HEADER} */
+    public static final String TENANT_HTTP_HEADER = "X-Tenant-Id";
+
+    private static final ScopedValue<RequestContext> CURRENT = ScopedValue.newInstance();
 
     /**
-     * Retrieves the current tenant ID for the executing thread.
+     * Retrieves the current tenant ID of the work running on this thread.
      * @return The current tenant ID, or null if not set
      */
     public String getCurrentTenant() {
-        return currentTenant.get();
+        RequestContext context = current();
+        return context != null ? context.tenantId() : null;
+    }
+
+    /**
+     * @return Context of the work running on this thread, null when none is bound
+     */
+    public static RequestContext current() {
+        return CURRENT.orElse(null);
+    }
+
+    /**
+     * Runs work with a context bound, the binding ends when the work returns.
+     *
+     * @param context Context to bind, the work runs unbound when null
+     */
+    public static void run(RequestContext context, Runnable work) {
+        if (context == null) {
+            work.run();
+        } else {
+            ScopedValue.where(CURRENT, context).run(work);
+        }
+    }
+
+    /**
+     * Same as {@link #run} for work with a result.
+     */
+    public static <T> T get(RequestContext context, Supplier<T> work) {
+        return context == null ? work.get() : ScopedValue.where(CURRENT, context).get(work);
     }
 
     /**
-     * Clears the tenant context for the current thread.
-     * Should be called after request processing is complete.
+     * Tenant named by the header of a record. On records from outside, bind it only after checking it against
+     * the record's token ({@code OAuthTokenValidator#resolveTenant}).
+     *
+     * @return Tenant of a Kafka record from its {@value #TENANT_HEADER} header, null when missing
      */
-    public void clear() {
-        currentTenant.remove();
+    public static String tenantOf(Headers headers) {
+        Header header = headers.lastHeader(TENANT_HEADER);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
     }
-} 
\ No newline at end of file
+}
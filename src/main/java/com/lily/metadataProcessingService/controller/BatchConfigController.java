@@ -0,0 +1,44 @@
+package com.lily.metadataProcessingService.controller;
+
+import com.lily.metadataProcessingService.config.ApplicationProperties.TopicConfig;
+import com.lily.metadataProcessingService.config.BatchConfigurationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Reads and updates per-topic micro-batch settings at runtime.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/metadata/batch-config")
+@RequiredArgsConstructor
+public class BatchConfigController {
+
+    private final BatchConfigurationService batchConfigurationService;
+
+    /**
+     * Get the batch settings currently applied to a topic.
+     * @return
+     */
+    @GetMapping("/{topic}")
+    public ResponseEntity<TopicConfig> getConfig(@PathVariable String topic) {
+        TopicConfig config = batchConfigurationService.getConfigForTopic(topic);
+        return config != null ? ResponseEntity.ok(config) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Replace the batch settings of a topic. Applies to the next record added to its batch.
+     * @return
+     */
+    @PutMapping("/{topic}")
+    public ResponseEntity<TopicConfig> updateConfig(@PathVariable String topic, @RequestBody TopicConfig config) {
+        if (config.getBatchSize() <= 0 || config.getTimeoutMs() <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        log.info("Updating batch config for topic: {}", topic);
+        batchConfigurationService.updateConfigForTopic(topic, config);
+        return ResponseEntity.ok(config);
+    }
+}
@@ -0,0 +1,33 @@
+package com.lily.metadataProcessingService.controller;
+
+import com.lily.metadataProcessingService.service.DeadLetterReplayService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Operations on the dead-letter topic.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/metadata/dlq")
+@RequiredArgsConstructor
+public class DeadLetterController {
+
+    private final DeadLetterReplayService deadLetterReplayService;
+
+    /**
+     * Replay dead-letter records back to their original topic.
+     * @return number of records replayed
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<Map<String, Integer>> replay(@RequestParam(defaultValue = "1000") int maxRecords,
+                                                       @RequestParam(required = false) String topic) {
+        log.info("Replaying up to {} dead-letter records. Topic filter: {}", maxRecords, topic);
+        int replayed = deadLetterReplayService.replay(maxRecords, topic);
+        return ResponseEntity.ok(Map.of("replayed", replayed));
+    }
+}
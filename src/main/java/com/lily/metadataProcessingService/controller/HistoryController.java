@@ -0,0 +1,37 @@
+package com.lily.metadataProcessingService.controller;
+
+import com.lily.metadataProcessingService.dto.MetadataHistoryEntry;
+import com.lily.metadataProcessingService.service.HistoryQueryService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Lineage queries over the CDC history, including archived partitions.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/metadata/history")
+@RequiredArgsConstructor
+public class HistoryController {
+
+    private final HistoryQueryService historyQueryService;
+
+    /**
+     * History of one entity, e.g. {@code /api/metadata/history/tenant:table:42?from=2026-01-01T00:00:00Z}.
+     * @return changes ordered by version
+     */
+    @GetMapping("/{entityKey}")
+    public ResponseEntity<List<MetadataHistoryEntry>> getHistory(@PathVariable String entityKey,
+                                                                 @RequestParam(required = false) Instant from,
+                                                                 @RequestParam(required = false) Instant to) {
+        log.info("Fetching history of {} from {} to {}", entityKey, from, to);
+        return ResponseEntity.ok(historyQueryService.findHistory(entityKey,
+            from != null ? from : Instant.EPOCH,
+            to != null ? to : Instant.now()));
+    }
+}
@@ -1,10 +1,18 @@
 package com.lily.metadataProcessingService.controller;
 
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
 import com.lily.metadataProcessingService.dto.MetadataRequest;
 import com.lily.metadataProcessingService.dto.MetadataStatusResponse;
+import com.lily.metadataProcessingService.dto.TokenValidation;
+import com.lily.metadataProcessingService.exception.AdmissionRejectedException;
+import com.lily.metadataProcessingService.exception.TenantAccessException;
 import com.lily.metadataProcessingService.service.IngestionService;
+import com.lily.metadataProcessingService.util.OAuthTokenValidator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -20,6 +28,7 @@ import org.springframework.web.bind.annotation.*;
 public class MetadataController {
 
     private final IngestionService ingestionService;
+    private final OAuthTokenValidator tokenValidator;
 
     /**
      * Simple health check endpoint
@@ -32,18 +41,40 @@ public class MetadataController {
 
     /**
      * Entry point for metadata processing.
+     * Requires a bearer token, the tenant comes from the token. The {@value TenantContext#TENANT_HTTP_HEADER} header
+     * may only repeat it, or name the tenant of a token without a tenant claim when unscoped tokens are allowed.
      * @return
      */
     @PostMapping("/process")
-    public ResponseEntity<String> processMetadata(@RequestBody MetadataRequest request) {
+    public ResponseEntity<String> processMetadata(@RequestBody MetadataRequest request,
+                                                  @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                                  @RequestHeader(value = TenantContext.TENANT_HTTP_HEADER, required = false) String requestedTenant) {
         log.info("Received metadata request for processing. EventId: {}, Type: {}", 
             request.getEventId(), request.getEventType());
-        
+
+        TokenValidation validation = tokenValidator.validate(bearerToken(authorization));
+        if (!validation.isActive()) {
+            log.warn("Invalid or missing OAuth token. Rejecting request. EventId: {}", request.getEventId());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid or missing token");
+        }
+        String tenantId;
+        try {
+            tenantId = tokenValidator.resolveTenant(validation, requestedTenant);
+        } catch (TenantAccessException e) {
+            log.warn("Rejecting request. EventId: {}, Error: {}", request.getEventId(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Tenant not allowed for this token");
+        }
+
         try {
-            ingestionService.ingestMetadata(request);
+            TenantContext.run(RequestContext.of(tenantId, request.getEventId()), () -> ingestionService.ingestMetadata(request));
             log.info("Successfully queued metadata for processing. EventId: {}", 
                 request.getEventId());
             return ResponseEntity.accepted().body("Processing started");
+        } catch (AdmissionRejectedException e) {
+            log.warn("Metadata request rejected, service at capacity. EventId: {}", request.getEventId());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body("Too many requests, retry later");
         } catch (Exception e) {
             log.error("Failed to process metadata request. EventId: {}, Error: {}", 
                 request.getEventId(), e.getMessage());
@@ -51,6 +82,13 @@ public class MetadataController {
         }
     }
 
+    private static String bearerToken(String authorization) {
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).trim();
+        }
+        return authorization;
+    }
+
     /**
      * Get the status of a metadata request.
      * @return
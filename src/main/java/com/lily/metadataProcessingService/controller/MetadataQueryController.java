@@ -0,0 +1,61 @@
+package com.lily.metadataProcessingService.controller;
+
+import com.lily.metadataProcessingService.dto.MetadataQuery;
+import com.lily.metadataProcessingService.service.MetadataQueryService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.Instant;
+
+/**
+ * Read access to the latest entity states in metadata_store.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/metadata/query")
+@RequiredArgsConstructor
+public class MetadataQueryController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final MetadataQueryService metadataQueryService;
+
+    /**
+     * Streams the entities of a tenant as NDJSON, e.g.
+     * {@code /api/metadata/query?tenantId=t1&contains={"table":"orders"}&limit=1000}.
+     * Without a limit every match is streamed, with one the last line carries the cursor of the next page.
+     * @return matching entities, one JSON object per line
+     */
+    @GetMapping
+    public ResponseEntity<?> query(@RequestParam String tenantId,
+                                   @RequestParam(required = false) String eventType,
+                                   @RequestParam(required = false) String contains,
+                                   @RequestParam(required = false) Instant from,
+                                   @RequestParam(required = false) Instant to,
+                                   @RequestParam(required = false) String cursor,
+                                   @RequestParam(required = false) Integer limit) {
+        MetadataQuery query = MetadataQuery.builder()
+            .tenantId(tenantId)
+            .eventType(eventType)
+            .contains(contains)
+            .updatedFrom(from)
+            .updatedTo(to)
+            .limit(limit)
+            .build();
+        try {
+            if (cursor != null) {
+                MetadataQueryService.applyCursor(query, cursor);
+            }
+            metadataQueryService.validate(query);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        log.info("Streaming metadata query for tenant {}. EventType: {}, Limit: {}", tenantId, eventType, limit);
+        StreamingResponseBody body = output -> metadataQueryService.stream(query, output);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+}
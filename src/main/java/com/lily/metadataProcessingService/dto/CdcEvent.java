@@ -0,0 +1,32 @@
+package com.lily.metadataProcessingService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Change data capture event for one entity, published as the outbound message.
+ * Before/after carry the full states and are left out in changes-only mode, changes lists the changed fields.
+ * Version counts up per entity, out of order marks an event that is older than one already published for the entity.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CdcEvent {
+    private String operation;
+    private String table;
+    private String primaryKey;
+    private String primaryKeyValue;
+    private String timestamp;
+    private String user;
+    private String version;
+    private Map<String, String> before;
+    private Map<String, String> after;
+    private List<FieldChange> changes;
+    private Boolean outOfOrder;
+}
@@ -0,0 +1,21 @@
+package com.lily.metadataProcessingService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Latest state of an entity as kept in metadata_store, with the CDC version it was published with.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class EntityState {
+    private String entityKey;
+    private String tenantId;
+    private String eventType;
+    private long version;
+    private Map<String, Object> state;
+}
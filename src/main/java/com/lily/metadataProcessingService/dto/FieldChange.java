@@ -0,0 +1,22 @@
+package com.lily.metadataProcessingService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One changed leaf of an entity, e.g. {@code address.city} or {@code tags[2]}.
+ * Old value is null for added fields, new value is null for removed fields.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FieldChange {
+
+    public enum Type { ADDED, REMOVED, CHANGED }
+
+    private String path;
+    private Type type;
+    private Object oldValue;
+    private Object newValue;
+}
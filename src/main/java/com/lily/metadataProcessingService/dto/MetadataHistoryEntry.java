@@ -0,0 +1,31 @@
+package com.lily.metadataProcessingService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One change of an entity as recorded in metadata_history.
+ * States are the full entity states, independent of the CDC output mode.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MetadataHistoryEntry {
+    private String eventId;
+    private String entityKey;
+    private String tenantId;
+    private String operation;
+    private long version;
+    private Map<String, Object> beforeState;
+    private Map<String, Object> afterState;
+    private List<FieldChange> changes;
+    private Instant timestamp;
+    private String user;
+}
@@ -0,0 +1,29 @@
+package com.lily.metadataProcessingService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Filters and page position of a metadata_store query.
+ * {@code contains} is a JSON object the metadata must contain (JSONB {@code @>}),
+ * {@code afterUpdatedAt}/{@code afterId} is the keyset position of the last row of the previous page.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MetadataQuery {
+    private String tenantId;
+    private String eventType;
+    private String contains;
+    private Instant updatedFrom;
+    private Instant updatedTo;
+    private Instant afterUpdatedAt;
+    private UUID afterId;
+    private Integer limit;
+}
@@ -0,0 +1,28 @@
+package com.lily.metadataProcessingService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Result of validating a token.
+ * The tenant is the tenant claim of the token, null when the token is not scoped to a tenant.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TokenValidation {
+    private boolean active;
+    private Instant expiresAt;
+    private String tenantId;
+
+    public TokenValidation(boolean active, Instant expiresAt) {
+        this(active, expiresAt, null);
+    }
+
+    public static TokenValidation inactive() {
+        return new TokenValidation(false, null);
+    }
+}
@@ -0,0 +1,16 @@
+package com.lily.metadataProcessingService.exception;
+
+import lombok.Getter;
+
+/**
+ * Thrown when the service is at its concurrency or memory limit and cannot take more work.
+ */
+@Getter
+public class AdmissionRejectedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
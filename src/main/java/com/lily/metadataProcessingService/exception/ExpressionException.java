@@ -0,0 +1,11 @@
+package com.lily.metadataProcessingService.exception;
+
+/**
+ * Thrown when a rule expression cannot be compiled.
+ */
+public class ExpressionException extends IllegalArgumentException {
+
+    public ExpressionException(String message, String expression, int position) {
+        super(message + " at position " + position + " of expression: " + expression);
+    }
+}
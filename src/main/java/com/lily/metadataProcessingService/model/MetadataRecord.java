@@ -2,16 +2,33 @@ package com.lily.metadataProcessingService.model;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Row of metadata_store, the latest state of one entity.
+ * Only read through JPA, writes go through {@link com.lily.metadataProcessingService.service.MetadataStoreWriter}.
+ */
 @Entity
-@Table(name = "metadata")
+@Table(name = "metadata_store")
 @Data
 public class MetadataRecord {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
 
-    private String key;
-    private String value;
+    private String entityKey;
     private String tenantId;
+    private String eventType;
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    private Map<String, Object> metadata;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private Long version;
 }
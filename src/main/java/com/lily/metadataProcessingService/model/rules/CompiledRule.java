@@ -0,0 +1,225 @@
+package com.lily.metadataProcessingService.model.rules;
+
+import com.lily.metadataProcessingService.cdc.CdcOutputMode;
+import com.lily.metadataProcessingService.rule.expression.CompiledExpression;
+import com.lily.metadataProcessingService.rule.expression.ExpressionCompiler;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, pre-parsed form of a {@link MetadataRule}, built once when the rule is loaded and cached.
+ * The comma separated lists are split into sets, the formats are lower cased, and the configuration
+ * keys read on every event are converted to typed fields, so evaluating a rule does no parsing.
+ * Field names are indexed into one map of flags, a single lookup tells whether a field is PII and/or required.
+ *
+ * Conditions in the configuration are compiled with {@link ExpressionCompiler} as well:
+ * <pre>
+ * routes: [{when: "table startsWith 'fin_' && size > 1000", topic: "finance-metadata"}]
+ * masks:  [{when: "classification == 'PII'", fields: "email,phone"}]
+ * </pre>
+ * The first route whose condition holds picks the outbound topic. Every mask whose condition holds
+ * (or that has none) masks its top level fields.
+ */
+@Getter
+public final class CompiledRule {
+
+    public static final String OUTPUT_FORMAT_KEY = "outputFormat";
+    public static final String CDC_OUTPUT_MODE_KEY = "cdcOutputMode";
+    public static final String ROUTES_KEY = "routes";
+    public static final String MASKS_KEY = "masks";
+
+    private static final int PII = 1;
+    private static final int REQUIRED = 1 << 1;
+
+    private final String id;
+    private final String sourceId;
+    private final String sourceType;
+    private final String tenantId;
+    /** Lower cased, in the order of the rule. Empty means any format. */
+    private final Set<String> allowedInputFormats;
+    /** Lower cased, in the order of the rule so the first one can be used as fallback. Empty means any format. */
+    private final Set<String> allowedOutputFormats;
+    private final Set<String> requiredFields;
+    private final Set<String> piiFields;
+    private final ProcessingPriority priority;
+    private final boolean batchingAllowed;
+    private final int maxBatchSize;
+    /** Lower cased {@code outputFormat} configuration, null when not set */
+    private final String outputFormat;
+    /** {@code cdcOutputMode} configuration, null when not set */
+    private final CdcOutputMode cdcOutputMode;
+    private final List<Route> routes;
+    private final List<Mask> masks;
+    private final Map<String, Object> configuration;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Integer> fieldFlags;
+
+    private CompiledRule(MetadataRule rule) {
+        this.id = rule.getId();
+        this.sourceId = rule.getSourceId();
+        this.sourceType = rule.getSourceType();
+        this.tenantId = rule.getTenantId();
+        this.allowedInputFormats = parse(rule.getAllowedInputFormats(), true);
+        this.allowedOutputFormats = parse(rule.getAllowedOutputFormats(), true);
+        this.requiredFields = parse(rule.getRequiredFields(), false);
+        this.piiFields = parse(rule.getPiiFields(), false);
+        this.priority = rule.getPriority();
+        this.batchingAllowed = rule.isBatchingAllowed();
+        this.maxBatchSize = rule.getMaxBatchSize();
+        this.configuration = rule.getConfiguration() != null
+            ? Collections.unmodifiableMap(new HashMap<>(rule.getConfiguration()))
+            : Map.of();
+
+        Object format = configuration.get(OUTPUT_FORMAT_KEY);
+        this.outputFormat = format != null ? format.toString().trim().toLowerCase(Locale.ROOT) : null;
+        Object mode = configuration.get(CDC_OUTPUT_MODE_KEY);
+        try {
+            this.cdcOutputMode = mode != null ? CdcOutputMode.valueOf(mode.toString().trim().toUpperCase(Locale.ROOT)) : null;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + CDC_OUTPUT_MODE_KEY + " " + mode + " in rule " + id, e);
+        }
+
+        this.routes = compileEntries(ROUTES_KEY, entry -> {
+            Object topic = entry.get("topic");
+            if (topic == null || topic.toString().isBlank()) {
+                throw new IllegalArgumentException("Route without topic in rule " + id);
+            }
+            return new Route(compileCondition(entry), topic.toString().trim());
+        });
+        this.masks = compileEntries(MASKS_KEY, entry -> new Mask(compileCondition(entry), fieldNames(entry.get("fields"))));
+
+        Map<String, Integer> flags = new HashMap<>();
+        piiFields.forEach(field -> flags.merge(field, PII, (a, b) -> a | b));
+        requiredFields.forEach(field -> flags.merge(field, REQUIRED, (a, b) -> a | b));
+        this.fieldFlags = Map.copyOf(flags);
+    }
+
+    /**
+     * Outbound topic chosen by a compiled condition, always when {@code when} is null.
+     */
+    public record Route(CompiledExpression when, String topic) {
+    }
+
+    /**
+     * Top level fields to mask, always when {@code when} is null.
+     */
+    public record Mask(CompiledExpression when, Set<String> fields) {
+
+        public boolean appliesTo(Map<String, ?> payload) {
+            return when == null || when.test(payload);
+        }
+    }
+
+    /**
+     * Compiles a rule. The rule is copied, later changes to it do not affect the compiled form.
+     *
+     * @throws IllegalArgumentException when a typed configuration value or an expression is invalid
+     */
+    public static CompiledRule compile(MetadataRule rule) {
+        return new CompiledRule(rule);
+    }
+
+    public boolean isPiiField(String field) {
+        return (flags(field) & PII) != 0;
+    }
+
+    public boolean isRequiredField(String field) {
+        return (flags(field) & REQUIRED) != 0;
+    }
+
+    /**
+     * @return Fields the rule says something about (PII or required), processors extract these up front
+     */
+    public Set<String> getFlaggedFields() {
+        return fieldFlags.keySet();
+    }
+
+    public boolean allowsInputFormat(String format) {
+        return allowedInputFormats.isEmpty() || allowedInputFormats.contains(format)
+            || allowedInputFormats.contains(format.toLowerCase(Locale.ROOT));
+    }
+
+    public boolean allowsOutputFormat(String format) {
+        return allowedOutputFormats.isEmpty() || allowedOutputFormats.contains(format);
+    }
+
+    /**
+     * @return Topic of the first route matching the payload, null when none matches
+     */
+    public String routeFor(Map<String, ?> payload) {
+        for (Route route : routes) {
+            if (route.when() == null || route.when().test(payload)) {
+                return route.topic();
+            }
+        }
+        return null;
+    }
+
+    private int flags(String field) {
+        Integer flags = fieldFlags.get(field);
+        return flags != null ? flags : 0;
+    }
+
+    private static Set<String> parse(String value, boolean lowerCase) {
+        if (value == null || value.isBlank()) {
+            return Set.of();
+        }
+        Set<String> values = new LinkedHashSet<>();
+        for (String part : value.split(",")) {
+            String trimmed = part.trim();
+            if (!trimmed.isEmpty()) {
+                values.add(lowerCase ? trimmed.toLowerCase(Locale.ROOT) : trimmed);
+            }
+        }
+        return Collections.unmodifiableSet(values);
+    }
+
+    private interface EntryCompiler<T> {
+        T compile(Map<?, ?> entry);
+    }
+
+    private <T> List<T> compileEntries(String key, EntryCompiler<T> compiler) {
+        Object value = configuration.get(key);
+        if (value == null) {
+            return List.of();
+        }
+        if (!(value instanceof Collection<?> entries)) {
+            throw new IllegalArgumentException(key + " of rule " + id + " must be a list");
+        }
+        List<T> compiled = new ArrayList<>(entries.size());
+        for (Object entry : entries) {
+            if (!(entry instanceof Map<?, ?> map)) {
+                throw new IllegalArgumentException("Entries of " + key + " in rule " + id + " must be objects");
+            }
+            compiled.add(compiler.compile(map));
+        }
+        return List.copyOf(compiled);
+    }
+
+    private static CompiledExpression compileCondition(Map<?, ?> entry) {
+        Object when = entry.get("when");
+        return when != null ? ExpressionCompiler.compile(when.toString()) : null;
+    }
+
+    private static Set<String> fieldNames(Object fields) {
+        if (fields instanceof Collection<?> list) {
+            return parse(String.join(",", list.stream().map(String::valueOf).toList()), false);
+        }
+        return parse(fields != null ? fields.toString() : null, false);
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledRule(" + id + ")";
+    }
+}
@@ -0,0 +1,154 @@
+package com.lily.metadataProcessingService.processor;
+
+import com.lily.metadataProcessingService.config.CsvConfig;
+import com.lily.metadataProcessingService.dto.Metadata;
+import com.lily.metadataProcessingService.dto.MetadataRequest;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Turns CSV events into one {@link Metadata} per row.
+ * The content (inline or a file, see {@link FormatDetector.Detection}) is streamed through a {@link CsvScanner},
+ * rows are mapped onto the header and handed over in chunks, so a file larger than the heap only ever has
+ * one chunk of rows in memory. The {@code id} column, when there is one, is the id of a row.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CsvMetadataProcessor implements MetadataProcessor {
+
+    /** Descriptor field overriding the delimiter */
+    public static final String DELIMITER_KEY = "delimiter";
+
+    private final CsvConfig csvConfig;
+    private final FormatDetector formatDetector;
+
+    /**
+     * Reads a CSV event holding a single row.
+     *
+     * @throws ProcessingException when it holds more, those events go through {@link #processAll}
+     */
+    @Override
+    public Metadata process(MetadataRequest request, Object content, CompiledRule rule) {
+        List<Metadata> rows = new ArrayList<>(1);
+        processAll(request, content, rule, 2, chunk -> {
+            if (chunk.size() > 1) {
+                throw new ProcessingException("CSV content has more than one row");
+            }
+            rows.addAll(chunk);
+        });
+        if (rows.isEmpty()) {
+            throw new ProcessingException("CSV content has no row");
+        }
+        return rows.get(0);
+    }
+
+    @Override
+    public Set<String> getSupportedTypes() {
+        return Set.of("csv", "text/csv");
+    }
+
+    @Override
+    public boolean isMultiRecord() {
+        return true;
+    }
+
+    @Override
+    public long processAll(MetadataRequest request, Object content, CompiledRule rule, int chunkSize,
+                           Consumer<List<Metadata>> sink) {
+        if (content == null) {
+            throw new ProcessingException("CSV event has no content");
+        }
+        try (CsvScanner scanner = new CsvScanner(open(content), csvConfig.getBufferSize(), delimiter(request, content),
+                (byte) csvConfig.getQuote(), csvConfig.getEscape() != null ? csvConfig.getEscape() : -1,
+                csvConfig.getMaxRowBytes())) {
+            String[] columns = csvConfig.isHeader() && scanner.next() ? header(scanner) : new String[0];
+            List<Metadata> chunk = new ArrayList<>(chunkSize);
+            long rows = 0;
+            while (scanner.next()) {
+                rows++;
+                Map<String, Object> payload = new LinkedHashMap<>(Math.max(16, scanner.size() * 4 / 3 + 1));
+                for (int i = 0; i < scanner.size(); i++) {
+                    payload.put(i < columns.length ? columns[i] : column(i),
+                        csvConfig.isInferTypes() ? scanner.value(i) : scanner.text(i));
+                }
+                Object id = payload.get(JsonMetadataProcessor.ID_FIELD);
+                chunk.add(new Metadata(id != null ? id.toString() : request.getEventId() + "#" + rows,
+                    request.getEventType(), InputFormat.CSV.getType(), payload));
+                if (chunk.size() == chunkSize) {
+                    sink.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                sink.accept(chunk);
+            }
+            log.info("Read {} CSV rows. EventId: {}", rows, request.getEventId());
+            return rows;
+        } catch (IOException e) {
+            throw new ProcessingException("Cannot read CSV content: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Column names of the header row, blank names get their position and repeated ones a suffix.
+     */
+    private static String[] header(CsvScanner scanner) {
+        String[] columns = new String[scanner.size()];
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < columns.length; i++) {
+            String name = scanner.text(i).trim();
+            if (name.isEmpty()) {
+                name = column(i);
+            }
+            String unique = name;
+            for (int n = 2; !seen.add(unique); n++) {
+                unique = name + "_" + n;
+            }
+            columns[i] = unique;
+        }
+        return columns;
+    }
+
+    private static String column(int index) {
+        return "column" + (index + 1);
+    }
+
+    /**
+     * Delimiter declared in the descriptor, else the one the first lines split on, else the configured one.
+     */
+    private byte delimiter(MetadataRequest request, Object content) {
+        if (request.getMetadata() instanceof Map<?, ?> descriptor
+                && descriptor.get(DELIMITER_KEY) instanceof String declared && declared.length() == 1) {
+            return (byte) declared.charAt(0);
+        }
+        int sniffed = formatDetector.delimiter(content);
+        return (byte) (sniffed != -1 ? sniffed : csvConfig.getDelimiter());
+    }
+
+    private static InputStream open(Object content) throws IOException {
+        if (content instanceof Path file) {
+            return Files.newInputStream(file);
+        }
+        return new ByteArrayInputStream(content instanceof byte[] bytes
+            ? bytes
+            : ((String) content).getBytes(StandardCharsets.UTF_8));
+    }
+}
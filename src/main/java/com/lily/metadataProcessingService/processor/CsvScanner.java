@@ -0,0 +1,305 @@
+package com.lily.metadataProcessingService.processor;
+
+import com.lily.metadataProcessingService.exception.ProcessingException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads CSV rows from a byte stream through a fixed size buffer.
+ * Handles quoted fields, doubled quotes and an optional escape character inside quotes, line breaks
+ * inside quotes, LF and CRLF line ends, a UTF-8 BOM and blank lines. The fields of the current row are
+ * kept as bytes in one reused buffer, values are only decoded when they are read: scanning a row
+ * allocates nothing, and numbers and booleans are inferred from the bytes without building a string.
+ * Not thread safe, one scanner reads one stream.
+ */
+final class CsvScanner implements Closeable {
+
+    private static final int EOF = -1;
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+    private final int maxRowBytes;
+    private int position;
+    private int limit;
+    private boolean started;
+
+    private byte[] row = new byte[1024];
+    private int rowLength;
+    private int[] fieldEnds = new int[32];
+    private boolean[] fieldQuoted = new boolean[32];
+    private int fieldCount;
+    private long line;
+
+    /**
+     * @param escape Escape character inside quoted fields, -1 for none
+     */
+    CsvScanner(InputStream in, int bufferSize, byte delimiter, byte quote, int escape, int maxRowBytes) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+        this.delimiter = delimiter & 0xFF;
+        this.quote = quote & 0xFF;
+        this.escape = escape;
+        this.maxRowBytes = maxRowBytes;
+    }
+
+    /**
+     * Moves to the next row, blank lines are skipped.
+     *
+     * @return False at the end of the stream
+     * @throws ProcessingException when a row is larger than the limit or a quote is never closed
+     */
+    boolean next() throws IOException {
+        if (!started) {
+            started = true;
+            skipBom();
+        }
+        do {
+            if (peek() == EOF) {
+                return false;
+            }
+            readRow();
+        } while (fieldCount == 1 && rowLength == 0 && !fieldQuoted[0]);
+        return true;
+    }
+
+    private void readRow() throws IOException {
+        rowLength = 0;
+        fieldCount = 0;
+        line++;
+        long startLine = line;
+        boolean inQuotes = false;
+        boolean quoted = false;
+        int fieldStart = 0;
+        while (true) {
+            int b = read();
+            if (inQuotes) {
+                if (b == EOF) {
+                    throw new ProcessingException("Quoted field started on line " + startLine + " is never closed");
+                } else if (b == quote) {
+                    if (peek() == quote) {
+                        read();
+                        append((byte) quote);
+                    } else {
+                        inQuotes = false;
+                    }
+                } else if (b == escape) {
+                    int next = read();
+                    if (next == EOF) {
+                        throw new ProcessingException("Quoted field started on line " + startLine + " is never closed");
+                    }
+                    append((byte) next);
+                } else {
+                    if (b == '\n') {
+                        line++;
+                    }
+                    append((byte) b);
+                }
+            } else if (b == delimiter) {
+                endField(quoted);
+                quoted = false;
+                fieldStart = rowLength;
+            } else if (b == '\n' || b == EOF) {
+                endField(quoted);
+                return;
+            } else if (b == '\r') {
+                if (peek() == '\n') {
+                    read();
+                }
+                endField(quoted);
+                return;
+            } else if (b == quote && rowLength == fieldStart && !quoted) {
+                inQuotes = true;
+                quoted = true;
+            } else {
+                append((byte) b);
+            }
+        }
+    }
+
+    /**
+     * @return Number of fields of the current row
+     */
+    int size() {
+        return fieldCount;
+    }
+
+    /**
+     * @return Line the current row ends on, 1 based
+     */
+    long line() {
+        return line;
+    }
+
+    String text(int field) {
+        int start = start(field);
+        return new String(row, start, fieldEnds[field] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Value of a field with its type inferred: empty unquoted fields are null, {@code true}/{@code false}
+     * are booleans, integers up to 18 digits are longs and decimals are doubles. Quoted fields and
+     * numbers with leading zeros (codes, zip codes) stay text.
+     */
+    Object value(int field) {
+        int start = start(field);
+        int end = fieldEnds[field];
+        if (fieldQuoted[field]) {
+            return text(field);
+        }
+        if (start == end) {
+            return null;
+        }
+        Object number = number(start, end);
+        if (number != null) {
+            return number;
+        }
+        if (matches(start, end, "true")) {
+            return Boolean.TRUE;
+        }
+        if (matches(start, end, "false")) {
+            return Boolean.FALSE;
+        }
+        return text(field);
+    }
+
+    private Object number(int start, int end) {
+        int i = start;
+        if (row[i] == '-' || row[i] == '+') {
+            i++;
+        }
+        int digitsStart = i;
+        while (i < end && row[i] >= '0' && row[i] <= '9') {
+            i++;
+        }
+        int integerDigits = i - digitsStart;
+        if (integerDigits == 0 || (integerDigits > 1 && row[digitsStart] == '0')) {
+            return null;
+        }
+        if (i == end) {
+            if (integerDigits > MAX_LONG_DIGITS) {
+                return null;
+            }
+            long value = 0;
+            for (int j = digitsStart; j < end; j++) {
+                value = value * 10 + (row[j] - '0');
+            }
+            return row[start] == '-' ? -value : value;
+        }
+        if (row[i] == '.') {
+            i++;
+            int fractionStart = i;
+            while (i < end && row[i] >= '0' && row[i] <= '9') {
+                i++;
+            }
+            if (i == fractionStart) {
+                return null;
+            }
+        }
+        if (i < end && (row[i] == 'e' || row[i] == 'E')) {
+            i++;
+            if (i < end && (row[i] == '-' || row[i] == '+')) {
+                i++;
+            }
+            int exponentStart = i;
+            while (i < end && row[i] >= '0' && row[i] <= '9') {
+                i++;
+            }
+            if (i == exponentStart) {
+                return null;
+            }
+        }
+        return i == end ? Double.parseDouble(new String(row, start, end - start, StandardCharsets.US_ASCII)) : null;
+    }
+
+    private boolean matches(int start, int end, String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(row[start + i]) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int start(int field) {
+        return field == 0 ? 0 : fieldEnds[field - 1];
+    }
+
+    private void endField(boolean quoted) {
+        if (fieldCount == fieldEnds.length) {
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, fieldCount * 2);
+        }
+        fieldEnds[fieldCount] = rowLength;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private void append(byte b) {
+        if (rowLength == row.length) {
+            if (rowLength >= maxRowBytes) {
+                throw new ProcessingException("Row on line " + line + " is larger than " + maxRowBytes + " bytes");
+            }
+            row = Arrays.copyOf(row, Math.min(rowLength * 2, maxRowBytes));
+        }
+        row[rowLength++] = b;
+    }
+
+    private void skipBom() throws IOException {
+        if (peek() == 0xEF && fill(3) && buffer[position + 1] == (byte) 0xBB && buffer[position + 2] == (byte) 0xBF) {
+            position += 3;
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill(1)) {
+            return EOF;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill(1)) {
+            return EOF;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Makes sure at least {@code count} unread bytes are buffered, unread bytes are moved to the front first.
+     *
+     * @return False when the stream ends before
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        int unread = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, unread);
+        position = 0;
+        limit = unread;
+        while (limit < count) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == EOF) {
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
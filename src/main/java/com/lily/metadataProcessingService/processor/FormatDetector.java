@@ -0,0 +1,387 @@
+package com.lily.metadataProcessingService.processor;
+
+import com.lily.metadataProcessingService.config.FormatDetectionConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.dto.MetadataRequest;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Tells the format of an inbound event without reading its whole body.
+ * Events whose payload is already structured are JSON (they came inside the JSON envelope). File style
+ * events carry their raw body in {@code payload.content} (a string or bytes), or point at a file under
+ * {@code metadata.format.content-dir} with {@code payload.contentPath}, and only a bounded prefix of it
+ * is looked at: magic numbers of binary formats, then BOM and leading whitespace, then the first
+ * significant byte, and for plain text whether the first lines split on a common delimiter.
+ * A format declared in the request descriptor ({@code metadata.format} or {@code metadata.contentType})
+ * is taken when the prefix agrees with it.
+ *
+ * The decision is cached per (tenant, event type), a source keeps sending the same format. A cached
+ * format is only re-checked against the prefix of each event (the magic number, JSON against NDJSON,
+ * whether text still splits on a delimiter), and sniffed again when it no longer fits. Tenants and event types come from the events, so the cache is bounded to
+ * {@code metadata.format.max-cached-formats} entries.
+ * A request is detected once, the {@link Detection} carries its format and raw body to the processors.
+ */
+@Slf4j
+@Component
+public class FormatDetector {
+
+    /** Payload field carrying the raw body of a file style event */
+    public static final String CONTENT_KEY = "content";
+    /** Payload field pointing at a file holding the raw body, relative to the content directory */
+    public static final String CONTENT_PATH_KEY = "contentPath";
+    /** Descriptor fields of {@link MetadataRequest#getMetadata()} */
+    public static final String FORMAT_KEY = "format";
+    public static final String CONTENT_TYPE_KEY = "contentType";
+
+    private static final byte[] PARQUET_MAGIC = {'P', 'A', 'R', '1'};
+    private static final byte[] AVRO_MAGIC = {'O', 'b', 'j', 1};
+    private static final byte[] ORC_MAGIC = {'O', 'R', 'C'};
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1F, (byte) 0x8B};
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    private static final byte[] CSV_DELIMITERS = {',', ';', '\t', '|'};
+
+    private final FormatDetectionConfig config;
+    private final Cache<String, InputFormat> formats;
+
+    public FormatDetector(FormatDetectionConfig config) {
+        this.config = config;
+        this.formats = Caffeine.newBuilder()
+            .maximumSize(config.getMaxCachedFormats())
+            .build();
+    }
+
+    /**
+     * Detects the format of a request and resolves its raw body.
+     *
+     * @param request The metadata request
+     * @return The format, {@link InputFormat#UNKNOWN} when the content matches none we know, and the content
+     * @throws ProcessingException when the event points at a file outside the content directory
+     */
+    public Detection detect(MetadataRequest request) {
+        Object content = content(request);
+        return new Detection(detect(request, content), content);
+    }
+
+    private InputFormat detect(MetadataRequest request, Object content) {
+        Prefix prefix = prefixOf(content, config.getSniffBytes());
+        if (prefix == null) {
+            return InputFormat.JSON;
+        }
+        String key = key(request.getEventType());
+        InputFormat cached = formats.getIfPresent(key);
+        if (cached != null && accepts(cached, prefix)) {
+            return cached;
+        }
+        InputFormat detected = declaredFormat(request);
+        if (detected == null || !accepts(detected, prefix)) {
+            detected = sniff(prefix);
+        }
+        if (detected != InputFormat.UNKNOWN && detected != cached) {
+            if (cached != null) {
+                log.info("Format of {} changed from {} to {}", key, cached, detected);
+            }
+            formats.put(key, detected);
+        }
+        return detected;
+    }
+
+    /**
+     * @return The raw body of a file style event: a string, bytes or the {@link Path} of the file holding it,
+     * null when the payload is structured
+     */
+    private Object content(MetadataRequest request) {
+        Map<String, Object> payload = request.getPayload();
+        if (payload == null) {
+            return null;
+        }
+        Object content = payload.get(CONTENT_KEY);
+        if (content instanceof String || content instanceof byte[]) {
+            return content;
+        }
+        return payload.get(CONTENT_PATH_KEY) instanceof String location ? resolve(location) : null;
+    }
+
+    /**
+     * @return Delimiter the first lines of delimited content split on, -1 when they do not
+     */
+    public int delimiter(Object content) {
+        return delimiterOf(prefixOf(content, config.getSniffBytes()));
+    }
+
+    private Path resolve(String location) {
+        if (config.getContentDir() == null) {
+            throw new ProcessingException("File content is not enabled, metadata.format.content-dir is not set");
+        }
+        // Real paths, a symbolic link below the content directory must not lead out of it
+        try {
+            Path root = Path.of(config.getContentDir()).toRealPath();
+            Path file = root.resolve(location).toRealPath();
+            if (file.startsWith(root) && Files.isRegularFile(file)) {
+                return file;
+            }
+        } catch (IOException e) {
+            // Missing file or directory, reported the same way as a file outside the directory
+        }
+        throw new ProcessingException("Content file not found: " + location);
+    }
+
+    /**
+     * Sniffs the format from the prefix alone.
+     */
+    static InputFormat sniff(Prefix prefix) {
+        InputFormat binary = binaryFormat(prefix);
+        if (binary != null) {
+            return binary;
+        }
+        return switch (prefix.first()) {
+            case -1 -> InputFormat.UNKNOWN;
+            case '<' -> InputFormat.XML;
+            case '{', '[' -> isNdjson(prefix) ? InputFormat.NDJSON : InputFormat.JSON;
+            default -> delimiterOf(prefix) != -1 ? InputFormat.CSV : InputFormat.UNKNOWN;
+        };
+    }
+
+    /**
+     * Cheap check that a prefix can be of a format. Binary formats only look at the magic number, JSON and NDJSON
+     * at whether a second value follows the first, CSV at whether the first lines split on a delimiter.
+     */
+    static boolean accepts(InputFormat format, Prefix prefix) {
+        int first = prefix.first();
+        return switch (format) {
+            case PARQUET -> prefix.startsWith(PARQUET_MAGIC);
+            case AVRO -> prefix.startsWith(AVRO_MAGIC);
+            case ORC -> prefix.startsWith(ORC_MAGIC);
+            case GZIP -> prefix.startsWith(GZIP_MAGIC);
+            case ZIP -> prefix.startsWith(ZIP_MAGIC);
+            case JSON -> (first == '{' || first == '[') && secondValue(prefix) != Boolean.TRUE;
+            case NDJSON -> (first == '{' || first == '[') && secondValue(prefix) != Boolean.FALSE;
+            case XML -> first == '<';
+            case CSV -> first != -1 && first != '{' && first != '[' && first != '<' && binaryFormat(prefix) == null
+                && delimiterOf(prefix) != -1;
+            case UNKNOWN -> false;
+        };
+    }
+
+    private static InputFormat binaryFormat(Prefix prefix) {
+        if (prefix.startsWith(PARQUET_MAGIC)) {
+            return InputFormat.PARQUET;
+        } else if (prefix.startsWith(AVRO_MAGIC)) {
+            return InputFormat.AVRO;
+        } else if (prefix.startsWith(ORC_MAGIC)) {
+            return InputFormat.ORC;
+        } else if (prefix.startsWith(GZIP_MAGIC)) {
+            return InputFormat.GZIP;
+        } else if (prefix.startsWith(ZIP_MAGIC)) {
+            return InputFormat.ZIP;
+        }
+        return null;
+    }
+
+    /**
+     * A JSON value followed by a line break and another value is NDJSON. When the first value does not
+     * end inside the prefix we cannot tell, and a single document is the safer guess.
+     */
+    private static boolean isNdjson(Prefix prefix) {
+        return secondValue(prefix) == Boolean.TRUE;
+    }
+
+    /**
+     * NDJSON values sit on one line each. A first value spread over several lines, or followed by something
+     * on its own line, rules NDJSON out. A single one-line value can be either, as can a prefix that ends
+     * before the first value does.
+     *
+     * @return Whether the first JSON value is followed by a line break and another value,
+     * null when the prefix cannot tell
+     */
+    private static Boolean secondValue(Prefix prefix) {
+        byte[] bytes = prefix.bytes();
+        int depth = 0;
+        boolean inString = false;
+        boolean multiLine = false;
+        for (int i = prefix.start(); i < prefix.length(); i++) {
+            byte b = bytes[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '\n') {
+                multiLine = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                if (multiLine) {
+                    return Boolean.FALSE;
+                }
+                boolean newLine = false;
+                for (int j = i + 1; j < prefix.length(); j++) {
+                    byte next = bytes[j];
+                    if (next == '\n') {
+                        newLine = true;
+                    } else if (next != ' ' && next != '\t' && next != '\r') {
+                        return newLine && (next == '{' || next == '[');
+                    }
+                }
+                return null;
+            }
+        }
+        return multiLine ? Boolean.FALSE : null;
+    }
+
+    /**
+     * Text is delimited when its first line splits on one of the usual delimiters, and the next line
+     * (when it is complete within the prefix) splits into as many fields.
+     *
+     * @return The delimiter, -1 when the text is not delimited
+     */
+    static int delimiterOf(Prefix prefix) {
+        int headerEnd = lineEnd(prefix, prefix.start());
+        int secondEnd = headerEnd < prefix.length() ? lineEnd(prefix, headerEnd + 1) : -1;
+        boolean secondComplete = secondEnd > headerEnd && (secondEnd < prefix.length() || prefix.complete());
+        for (byte delimiter : CSV_DELIMITERS) {
+            int fields = countDelimiters(prefix, prefix.start(), headerEnd, delimiter);
+            if (fields > 0 && (!secondComplete || countDelimiters(prefix, headerEnd + 1, secondEnd, delimiter) == fields)) {
+                return delimiter;
+            }
+        }
+        return -1;
+    }
+
+    private static int lineEnd(Prefix prefix, int from) {
+        byte[] bytes = prefix.bytes();
+        boolean quoted = false;
+        for (int i = from; i < prefix.length(); i++) {
+            if (bytes[i] == '"') {
+                quoted = !quoted;
+            } else if (bytes[i] == '\n' && !quoted) {
+                return i;
+            }
+        }
+        return prefix.length();
+    }
+
+    private static int countDelimiters(Prefix prefix, int from, int to, byte delimiter) {
+        byte[] bytes = prefix.bytes();
+        boolean quoted = false;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '"') {
+                quoted = !quoted;
+            } else if (bytes[i] == delimiter && !quoted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static InputFormat declaredFormat(MetadataRequest request) {
+        if (!(request.getMetadata() instanceof Map<?, ?> descriptor)) {
+            return null;
+        }
+        Object format = descriptor.get(FORMAT_KEY);
+        InputFormat declared = format != null ? InputFormat.fromType(format.toString()) : null;
+        if (declared == null) {
+            Object contentType = descriptor.get(CONTENT_TYPE_KEY);
+            declared = contentType != null ? InputFormat.fromContentType(contentType.toString()) : null;
+        }
+        return declared;
+    }
+
+    private static String key(String eventType) {
+        RequestContext context = TenantContext.current();
+        return (context != null ? context.tenantId() : null) + ":" + eventType;
+    }
+
+    /**
+     * Copies at most {@code limit} leading bytes of the content, a string is cut before it is encoded
+     * and only that many bytes are read from a file.
+     * UTF-16 content (with a BOM) is re-encoded as UTF-8 so the checks only deal with one encoding.
+     */
+    static Prefix prefixOf(Object content, int limit) {
+        if (content instanceof Path file) {
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] head = in.readNBytes(limit);
+                if (in.read() == -1) {
+                    return prefixOf(head, limit);
+                }
+                Prefix prefix = prefixOf(head, limit);
+                return new Prefix(prefix.bytes(), prefix.length(), prefix.start(), false);
+            } catch (IOException e) {
+                throw new ProcessingException("Cannot read content file " + file.getFileName(), e);
+            }
+        }
+        byte[] bytes;
+        boolean complete;
+        if (content instanceof String text) {
+            complete = text.length() <= limit;
+            bytes = (complete ? text : text.substring(0, limit)).getBytes(StandardCharsets.UTF_8);
+        } else if (content instanceof byte[] raw) {
+            complete = raw.length <= limit;
+            bytes = raw;
+            if (raw.length >= 2 && ((raw[0] == (byte) 0xFE && raw[1] == (byte) 0xFF) || (raw[0] == (byte) 0xFF && raw[1] == (byte) 0xFE))) {
+                int length = Math.min(raw.length, limit) & ~1;
+                bytes = new String(raw, 0, length, StandardCharsets.UTF_16).getBytes(StandardCharsets.UTF_8);
+            }
+        } else {
+            return null;
+        }
+        int length = Math.min(bytes.length, bytes == content ? limit : bytes.length);
+        return new Prefix(bytes, length, significantStart(bytes, length), complete);
+    }
+
+    private static int significantStart(byte[] bytes, int length) {
+        int i = length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF ? 3 : 0;
+        while (i < length && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r' || bytes[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Format of a request and its raw body.
+     *
+     * @param content String, bytes or {@link Path} of the raw body, null when the payload is structured
+     */
+    public record Detection(InputFormat format, Object content) {
+    }
+
+    /**
+     * Leading bytes of the content.
+     *
+     * @param start First byte after the BOM and leading whitespace
+     * @param complete Whether the prefix holds the whole content
+     */
+    record Prefix(byte[] bytes, int length, int start, boolean complete) {
+
+        int first() {
+            return start < length ? bytes[start] & 0xFF : -1;
+        }
+
+        boolean startsWith(byte[] magic) {
+            if (length < magic.length) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (bytes[i] != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.lily.metadataProcessingService.processor;
+
+import java.util.Locale;
+
+/**
+ * Formats an inbound event can carry, as told apart by {@link FormatDetector}.
+ * The type is the name used by rules ({@code allowedInputFormats}) and by {@link ProcessorRegistry}.
+ */
+public enum InputFormat {
+    JSON("json"),
+    NDJSON("ndjson"),
+    CSV("csv"),
+    XML("xml"),
+    AVRO("avro"),
+    PARQUET("parquet"),
+    ORC("orc"),
+    GZIP("gzip"),
+    ZIP("zip"),
+    UNKNOWN("unknown");
+
+    private final String type;
+
+    InputFormat(String type) {
+        this.type = type;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return The format with the given type, null when there is none
+     */
+    public static InputFormat fromType(String type) {
+        if (type == null) {
+            return null;
+        }
+        String normalized = type.trim().toLowerCase(Locale.ROOT);
+        for (InputFormat format : values()) {
+            if (format.type.equals(normalized)) {
+                return format;
+            }
+        }
+        return "jsonl".equals(normalized) ? NDJSON : null;
+    }
+
+    /**
+     * @return The format of a MIME content type (parameters ignored), null when it is not one we know
+     */
+    public static InputFormat fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int params = contentType.indexOf(';');
+        String mime = (params >= 0 ? contentType.substring(0, params) : contentType).trim().toLowerCase(Locale.ROOT);
+        return switch (mime) {
+            case "application/json", "text/json" -> JSON;
+            case "application/x-ndjson", "application/ndjson", "application/jsonl", "application/x-jsonlines" -> NDJSON;
+            case "text/csv", "application/csv" -> CSV;
+            case "application/xml", "text/xml" -> XML;
+            case "application/avro", "avro/binary" -> AVRO;
+            case "application/vnd.apache.parquet", "application/x-parquet" -> PARQUET;
+            case "application/gzip", "application/x-gzip" -> GZIP;
+            case "application/zip" -> ZIP;
+            default -> mime.endsWith("+json") ? JSON : mime.endsWith("+xml") ? XML : null;
+        };
+    }
+}
@@ -1,24 +1,110 @@
 package com.lily.metadataProcessingService.processor;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lily.metadataProcessingService.dto.Metadata;
 import com.lily.metadataProcessingService.dto.MetadataRequest;
-import com.lily.metadataProcessingService.model.rules.MetadataRule;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
+/**
+ * Turns JSON events into {@link Metadata}.
+ * A structured payload was already parsed with the envelope and is used as is. Raw JSON content (inline
+ * or in a file, see {@link FormatDetector.Detection}) is read with the streaming parser: only the fields the
+ * pipeline and the rule need (id, table, primary key, required and PII fields) are pulled out of the top level
+ * object, other values are skipped without building them, and the scan stops once all of them were found.
+ * The rest of the document is only parsed when a later stage reads it, see {@link LazyJsonPayload}.
+ */
 @Component
 public class JsonMetadataProcessor implements MetadataProcessor {
-    
+
+    public static final String ID_FIELD = "id";
+    public static final String TABLE_FIELD = "table";
+    public static final String PRIMARY_KEY_FIELD = "primaryKeyValue";
+
+    /** Fields every event is keyed on, whatever the rule says */
+    private static final Set<String> KEY_FIELDS = Set.of(ID_FIELD, TABLE_FIELD, PRIMARY_KEY_FIELD);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     @Override
-    public Metadata process(MetadataRequest request, MetadataRule rule) {
-        // JSON processing logic
-        return new Metadata("id", "CREATE", "USER_INFO", new HashMap<>());
+    public Metadata process(MetadataRequest request, Object content, CompiledRule rule) {
+        Map<String, Object> payload = content != null ? extract(content, rule) : request.getPayload();
+        Object id = payload != null ? payload.get(ID_FIELD) : null;
+        return new Metadata(id != null ? id.toString() : request.getEventId(), request.getEventType(),
+            InputFormat.JSON.getType(), payload);
     }
 
     @Override
     public Set<String> getSupportedTypes() {
         return Set.of("json", "application/json");
     }
+
+    /**
+     * Pulls the needed fields out of a JSON document in one pass.
+     */
+    private LazyJsonPayload extract(Object content, CompiledRule rule) {
+        Set<String> ruleFields = rule.getFlaggedFields();
+        Predicate<String> needed = field -> KEY_FIELDS.contains(field) || ruleFields.contains(field);
+        int remaining = KEY_FIELDS.size();
+        for (String field : ruleFields) {
+            if (!KEY_FIELDS.contains(field)) {
+                remaining++;
+            }
+        }
+
+        Map<String, Object> extracted = new HashMap<>();
+        try (JsonParser parser = parser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new ProcessingException("JSON content must be an object");
+            }
+            while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!needed.test(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (!extracted.containsKey(field)) {
+                    remaining--;
+                }
+                extracted.put(field, readValue(parser, value));
+            }
+        } catch (IOException e) {
+            throw new ProcessingException("Invalid JSON content: " + e.getMessage(), e);
+        }
+        return new LazyJsonPayload(objectMapper, content, extracted, needed);
+    }
+
+    private JsonParser parser(Object content) throws IOException {
+        if (content instanceof Path file) {
+            return objectMapper.getFactory().createParser(file.toFile());
+        }
+        return content instanceof byte[] bytes
+            ? objectMapper.getFactory().createParser(bytes)
+            : objectMapper.getFactory().createParser((String) content);
+    }
+
+    /**
+     * Reads the current value the way {@link ObjectMapper} reads an untyped one, containers are only built for needed fields.
+     */
+    private Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getNumberValue();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case VALUE_NULL -> null;
+            default -> objectMapper.readValue(parser, Object.class);
+        };
+    }
 }
@@ -0,0 +1,104 @@
+package com.lily.metadataProcessingService.processor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Payload of a JSON document that is only parsed as far as it is used.
+ * The fields a rule needs were pulled out by {@link JsonMetadataProcessor} in a single streaming pass,
+ * reads of those are answered from them. Anything else (another field, iterating, size) parses the whole
+ * document once, the same way {@link ObjectMapper} would, and the map behaves like that tree from then on.
+ * Read only, stages that change the payload copy it first. Safe to read from several threads,
+ * the payload is shared with the coalescer and the state cache once it leaves the processing thread.
+ */
+public final class LazyJsonPayload extends AbstractMap<String, Object> {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    /** The document, a string, UTF encoded bytes or a file. Dropped once parsed, the payload may be kept as previous state. */
+    private Object content;
+    private volatile Map<String, Object> extracted;
+    /** Fields the extraction looked for, a field it did not find is not in the document */
+    private final Predicate<String> extractedField;
+    private volatile Map<String, Object> materialized;
+
+    LazyJsonPayload(ObjectMapper objectMapper, Object content, Map<String, Object> extracted, Predicate<String> extractedField) {
+        this.objectMapper = objectMapper;
+        this.content = content;
+        this.extracted = extracted;
+        this.extractedField = extractedField;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Map<String, Object> fields = extracted;
+        if (fields != null && key instanceof String field && extractedField.test(field)) {
+            return fields.get(field);
+        }
+        return materialize().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Map<String, Object> fields = extracted;
+        if (fields != null && key instanceof String field && extractedField.test(field)) {
+            return fields.containsKey(field);
+        }
+        return materialize().containsKey(key);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return materialize().entrySet();
+    }
+
+    @Override
+    public int size() {
+        return materialize().size();
+    }
+
+    /**
+     * @return Whether the whole document has been parsed
+     */
+    public boolean isMaterialized() {
+        return materialized != null;
+    }
+
+    private Map<String, Object> materialize() {
+        Map<String, Object> tree = materialized;
+        if (tree != null) {
+            return tree;
+        }
+        synchronized (this) {
+            if (materialized != null) {
+                return materialized;
+            }
+            try {
+                if (content instanceof Path file) {
+                    tree = objectMapper.readValue(file.toFile(), MAP_TYPE);
+                } else if (content instanceof byte[] bytes) {
+                    tree = objectMapper.readValue(bytes, MAP_TYPE);
+                } else {
+                    tree = objectMapper.readValue((String) content, MAP_TYPE);
+                }
+                materialized = Collections.unmodifiableMap(tree);
+                // Readers fall back to the parsed tree once the extracted fields are gone
+                extracted = null;
+                content = null;
+                return materialized;
+            } catch (IOException e) {
+                throw new ProcessingException("Invalid JSON content", e);
+            }
+        }
+    }
+}
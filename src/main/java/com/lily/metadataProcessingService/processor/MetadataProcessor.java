@@ -2,11 +2,37 @@ package com.lily.metadataProcessingService.processor;
 
 import com.lily.metadataProcessingService.dto.Metadata;
 import com.lily.metadataProcessingService.dto.MetadataRequest;
-import com.lily.metadataProcessingService.model.rules.MetadataRule;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
 
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
+/**
+ * Turns events of the formats it supports into {@link Metadata}.
+ * The {@code content} argument is the raw body resolved by {@link FormatDetector}, null when the payload is structured.
+ */
 public interface MetadataProcessor {
-    Metadata process(MetadataRequest request, MetadataRule rule);
+    Metadata process(MetadataRequest request, Object content, CompiledRule rule);
     Set<String> getSupportedTypes();
-}
\ No newline at end of file
+
+    /**
+     * @return Whether an event of this format carries many records (e.g. a CSV file), those are read with {@link #processAll}
+     */
+    default boolean isMultiRecord() {
+        return false;
+    }
+
+    /**
+     * Reads every record of an event and hands them to the sink in chunks of at most {@code chunkSize}, in order.
+     * The sink is done with a chunk when it returns, so only one chunk has to be in memory at a time.
+     * Single record formats hand over what {@link #process} returns.
+     *
+     * @return Number of records read
+     */
+    default long processAll(MetadataRequest request, Object content, CompiledRule rule, int chunkSize,
+                            Consumer<List<Metadata>> sink) {
+        sink.accept(List.of(process(request, content, rule)));
+        return 1;
+    }
+}
@@ -25,6 +25,10 @@ public class ProcessorRegistry {
         });
     }
 
+    public MetadataProcessor getProcessor(InputFormat format) {
+        return getProcessor(format.getType());
+    }
+
     public MetadataProcessor getProcessor(String dataType) {
         MetadataProcessor processor = processors.get(dataType.toLowerCase());
         if (processor == null) {
@@ -0,0 +1,120 @@
+package com.lily.metadataProcessingService.producer;
+
+import com.lily.metadataProcessingService.dto.CdcEvent;
+import com.lily.metadataProcessingService.dto.FieldChange;
+import com.lily.metadataProcessingService.schema.CdcSchema;
+import com.lily.metadataProcessingService.schema.CdcSchemaCache;
+import lombok.RequiredArgsConstructor;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the outbound CDC envelope as Avro binary using the single object encoding:
+ * a two byte marker, the 8 byte schema fingerprint (little endian) and the record.
+ * The schema comes from {@link CdcSchemaCache}, consumers resolve it by fingerprint in the schema registry.
+ * Fields are written straight from the event in schema order, no intermediate Avro records are built.
+ */
+@Component
+@RequiredArgsConstructor
+public class AvroOutboundSerializer implements OutboundSerializer {
+
+    public static final String FORMAT = "avro";
+
+    private static final byte[] SINGLE_OBJECT_MARKER = {(byte) 0xC3, (byte) 0x01};
+
+    private final CdcSchemaCache schemaCache;
+    private final OutputBufferPool bufferPool;
+
+    @Override
+    public String format() {
+        return FORMAT;
+    }
+
+    @Override
+    public String contentType() {
+        return "avro/binary";
+    }
+
+    @Override
+    public byte[] serialize(String eventId, String tenantId, CdcEvent cdc) {
+        CdcSchema schema = schemaCache.schemaFor(tenantId, cdc.getTable(), cdc.getBefore(), cdc.getAfter());
+        OutputBufferPool.PooledBuffer buffer = bufferPool.borrow();
+        try {
+            buffer.write(SINGLE_OBJECT_MARKER);
+            long fingerprint = schema.getFingerprint();
+            for (int i = 0; i < Long.BYTES; i++) {
+                buffer.write((int) (fingerprint >>> (8 * i)));
+            }
+
+            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(buffer, null);
+            writeNullable(encoder, eventId);
+            writeNullable(encoder, cdc.getOperation());
+            writeNullable(encoder, cdc.getTable());
+            writeNullable(encoder, cdc.getPrimaryKey());
+            writeNullable(encoder, cdc.getPrimaryKeyValue());
+            writeNullable(encoder, cdc.getTimestamp());
+            writeNullable(encoder, cdc.getUser());
+            writeNullable(encoder, cdc.getVersion());
+            writeState(encoder, schema.getColumns(), cdc.getBefore());
+            writeState(encoder, schema.getColumns(), cdc.getAfter());
+            writeChanges(encoder, cdc.getChanges());
+            if (cdc.getOutOfOrder() == null) {
+                encoder.writeIndex(0);
+            } else {
+                encoder.writeIndex(1);
+                encoder.writeBoolean(cdc.getOutOfOrder());
+            }
+            encoder.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error encoding CDC envelope as avro", e);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void writeState(BinaryEncoder encoder, List<String> columns, Map<String, String> state) throws IOException {
+        if (state == null) {
+            encoder.writeIndex(0);
+            return;
+        }
+        encoder.writeIndex(1);
+        for (String column : columns) {
+            writeNullable(encoder, state.get(column));
+        }
+    }
+
+    private void writeChanges(BinaryEncoder encoder, List<FieldChange> changes) throws IOException {
+        if (changes == null) {
+            encoder.writeIndex(0);
+            return;
+        }
+        encoder.writeIndex(1);
+        encoder.writeArrayStart();
+        encoder.setItemCount(changes.size());
+        for (FieldChange change : changes) {
+            encoder.startItem();
+            encoder.writeString(change.getPath());
+            encoder.writeEnum(change.getType().ordinal());
+            writeNullable(encoder, change.getOldValue() != null ? change.getOldValue().toString() : null);
+            writeNullable(encoder, change.getNewValue() != null ? change.getNewValue().toString() : null);
+        }
+        encoder.writeArrayEnd();
+    }
+
+    private void writeNullable(BinaryEncoder encoder, String value) throws IOException {
+        if (value == null) {
+            encoder.writeIndex(0);
+            encoder.writeNull();
+        } else {
+            encoder.writeIndex(1);
+            encoder.writeString(value);
+        }
+    }
+}
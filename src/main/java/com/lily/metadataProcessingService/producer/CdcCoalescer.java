@@ -0,0 +1,232 @@
+package com.lily.metadataProcessingService.producer;
+
+import com.lily.metadataProcessingService.cdc.CdcDiff;
+import com.lily.metadataProcessingService.cdc.CdcDiffEngine;
+import com.lily.metadataProcessingService.cdc.CdcOutputMode;
+import com.lily.metadataProcessingService.common.MetadataStatus;
+import com.lily.metadataProcessingService.config.ApplicationProperties;
+import com.lily.metadataProcessingService.config.ApplicationProperties.ProducerTopicConfig;
+import com.lily.metadataProcessingService.dto.CdcEvent;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import com.lily.metadataProcessingService.service.StatusTrackingService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges rapid successive updates of an entity into one CDC event before it is published.
+ * The first update of an entity opens a window on its outbound topic, later updates within the window are
+ * folded into it. When the window closes (after {@code coalesceWindowMs} or at {@code coalesceMaxUpdates}
+ * updates) one event is published with the net change: the state before the first update against the
+ * state after the last one, with the version, timestamp and user of the last update.
+ * A window whose updates cancel out publishes nothing.
+ *
+ * Status of every merged event follows the published one. The intermediate events are not published,
+ * anything that needs them (history) has to take them before they are submitted here.
+ * An update only lives in memory until its window is published: callers must not commit the offset of an
+ * update before the future returned by {@link #submit} completes.
+ */
+@Slf4j
+@Component
+public class CdcCoalescer {
+
+    private static final long WINDOW_CHECK_INTERVAL_MS = 10;
+
+    private final MetadataProducer metadataProducer;
+    private final StatusTrackingService statusTrackingService;
+    private final CdcDiffEngine cdcDiffEngine;
+    private final ApplicationProperties applicationProperties;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private final Counter absorbedCounter;
+    private final Counter publishedCounter;
+    private final ScheduledExecutorService windowScheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("cdc-coalesce-window").daemon().factory());
+
+    public CdcCoalescer(MetadataProducer metadataProducer,
+                        StatusTrackingService statusTrackingService,
+                        CdcDiffEngine cdcDiffEngine,
+                        ApplicationProperties applicationProperties,
+                        MeterRegistry meterRegistry) {
+        this.metadataProducer = metadataProducer;
+        this.statusTrackingService = statusTrackingService;
+        this.cdcDiffEngine = cdcDiffEngine;
+        this.applicationProperties = applicationProperties;
+        this.absorbedCounter = Counter.builder("metadata.coalesce.absorbed").register(meterRegistry);
+        this.publishedCounter = Counter.builder("metadata.coalesce.published").register(meterRegistry);
+        meterRegistry.gauge("metadata.coalesce.open_windows", windows, Map::size);
+        windowScheduler.scheduleWithFixedDelay(this::publishExpired,
+            WINDOW_CHECK_INTERVAL_MS, WINDOW_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Whether CDC events published by this service are coalesced
+     */
+    public boolean isEnabled() {
+        return topicConfig().getCoalesceWindowMs() > 0;
+    }
+
+    /**
+     * @return How long a window stays open at most before it is published
+     */
+    public long getWindowMs() {
+        return topicConfig().getCoalesceWindowMs();
+    }
+
+    /**
+     * Adds an update to the open window of its entity, opening one if there is none.
+     *
+     * @param eventId Id of the inbound event
+     * @param entityKey Key of the entity the update belongs to
+     * @param previousState State of the entity before this update
+     * @param newState State of the entity after this update
+     * @param cdc CDC event generated for this update alone
+     * @param rule The rule the event was processed with
+     * @param mode Output mode the CDC event was generated with
+     * @return Future completed once the window the update went into is published
+     */
+    public CompletableFuture<Void> submit(String eventId, String entityKey, Map<String, Object> previousState,
+                                          Map<String, Object> newState, CdcEvent cdc, CompiledRule rule, CdcOutputMode mode) {
+        ProducerTopicConfig config = topicConfig();
+        Window[] full = new Window[1];
+        Window window = windows.compute(entityKey, (key, open) -> {
+            Window current = open != null ? open : new Window(previousState, cdc.getOperation());
+            current.add(eventId, newState, cdc, rule, mode);
+            if (current.size() >= config.getCoalesceMaxUpdates()) {
+                full[0] = current;
+                return null;
+            }
+            return current;
+        });
+        if (full[0] != null) {
+            publish(full[0]);
+            return full[0].published;
+        }
+        return window.published;
+    }
+
+    private void publishExpired() {
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(topicConfig().getCoalesceWindowMs());
+        long now = System.nanoTime();
+        windows.forEach((entityKey, window) -> {
+            // Conditional remove, so a window that was just closed by its count is not published twice
+            if (now - window.openedAt >= windowNanos && windows.remove(entityKey, window)) {
+                publish(window);
+            }
+        });
+    }
+
+    private void publish(Window window) {
+        List<String> absorbedIds = window.eventIds.subList(0, window.size() - 1);
+        String eventId = window.eventIds.get(window.size() - 1);
+        try {
+            CdcEvent cdc = window.size() == 1 ? window.latest : merge(window);
+            if (cdc == null) {
+                statusTrackingService.updateStatuses(window.eventIds, MetadataStatus.COMPLETED, "No net change after coalescing");
+                absorbedCounter.increment(window.size());
+                window.published.complete(null);
+                return;
+            }
+            metadataProducer.publishMetadata(eventId, metadataProducer.createOutboundMessage(eventId, cdc, window.rule, window.latestState))
+                .whenComplete((result, error) -> {
+                    if (error == null) {
+                        statusTrackingService.updateStatuses(absorbedIds, MetadataStatus.COMPLETED, "Coalesced into " + eventId);
+                        window.published.complete(null);
+                    } else {
+                        statusTrackingService.updateStatuses(absorbedIds, MetadataStatus.FAILED, error.getMessage());
+                        window.published.completeExceptionally(error);
+                    }
+                });
+            publishedCounter.increment();
+            absorbedCounter.increment(absorbedIds.size());
+        } catch (Exception e) {
+            log.error("Failed to publish coalesced CDC of {} events. EventId: {}, Error: {}",
+                window.size(), eventId, e.getMessage(), e);
+            statusTrackingService.updateStatuses(window.eventIds, MetadataStatus.FAILED, e.getMessage());
+            window.published.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return The net change of the window, null when the updates cancel out
+     */
+    private CdcEvent merge(Window window) {
+        CdcDiff diff = cdcDiffEngine.diff(window.firstPrevious, window.latestState, window.mode);
+        if (diff.getChanges().isEmpty() && !"INSERT".equals(window.firstOperation)) {
+            return null;
+        }
+        CdcEvent latest = window.latest;
+        return CdcEvent.builder()
+            .operation(window.firstOperation)
+            .table(latest.getTable())
+            .primaryKey(latest.getPrimaryKey())
+            .primaryKeyValue(latest.getPrimaryKeyValue())
+            .timestamp(latest.getTimestamp())
+            .user(latest.getUser())
+            .version(latest.getVersion())
+            .before(diff.getBefore())
+            .after(diff.getAfter())
+            .changes(diff.getChanges())
+            .outOfOrder(window.outOfOrder)
+            .build();
+    }
+
+    private ProducerTopicConfig topicConfig() {
+        return applicationProperties.getKafka().getProducer().forTopic(metadataProducer.getOutboundTopic());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        windowScheduler.shutdown();
+        windows.forEach((entityKey, window) -> {
+            if (windows.remove(entityKey, window)) {
+                publish(window);
+            }
+        });
+    }
+
+    /**
+     * Open window of one entity. Only changed inside {@link ConcurrentHashMap#compute}, so updates of
+     * one entity are folded in one at a time and never after the window was taken out for publishing.
+     */
+    private static class Window {
+        private final long openedAt = System.nanoTime();
+        private final Map<String, Object> firstPrevious;
+        private final String firstOperation;
+        private final List<String> eventIds = new ArrayList<>();
+        private final CompletableFuture<Void> published = new CompletableFuture<>();
+        private Map<String, Object> latestState;
+        private CdcEvent latest;
+        private CompiledRule rule;
+        private CdcOutputMode mode;
+        private boolean outOfOrder;
+
+        private Window(Map<String, Object> firstPrevious, String firstOperation) {
+            this.firstPrevious = firstPrevious;
+            this.firstOperation = firstOperation;
+        }
+
+        private void add(String eventId, Map<String, Object> newState, CdcEvent cdc, CompiledRule rule, CdcOutputMode mode) {
+            eventIds.add(eventId);
+            latestState = newState;
+            latest = cdc;
+            this.rule = rule;
+            this.mode = mode;
+            outOfOrder |= Boolean.TRUE.equals(cdc.getOutOfOrder());
+        }
+
+        private int size() {
+            return eventIds.size();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.lily.metadataProcessingService.producer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.lily.metadataProcessingService.dto.CdcEvent;
+import com.lily.metadataProcessingService.dto.FieldChange;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the outbound CDC envelope as JSON bytes in a single pass.
+ * The before/after states are streamed as nested objects instead of being serialized to
+ * strings first, changes are written as a list of path/type/old/new objects, and output buffers
+ * come from the shared {@link OutputBufferPool}.
+ */
+@Component
+@RequiredArgsConstructor
+public class CdcEnvelopeEncoder implements OutboundSerializer {
+
+    public static final String FORMAT = "json";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final OutputBufferPool bufferPool;
+
+    @Override
+    public String format() {
+        return FORMAT;
+    }
+
+    @Override
+    public String contentType() {
+        return "application/json";
+    }
+
+    @Override
+    public byte[] serialize(String eventId, String tenantId, CdcEvent cdc) {
+        return encode(eventId, cdc);
+    }
+
+    /**
+     * Encodes a CDC event into the outbound envelope.
+     *
+     * @param eventId Id of the inbound event the CDC was generated for
+     * @param cdc The CDC event
+     * @return UTF-8 JSON bytes of the envelope
+     */
+    public byte[] encode(String eventId, CdcEvent cdc) {
+        OutputBufferPool.PooledBuffer buffer = bufferPool.borrow();
+        try (JsonGenerator generator = jsonFactory.createGenerator(buffer, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringField("eventId", eventId);
+            generator.writeStringField("operation", cdc.getOperation());
+            generator.writeStringField("table", cdc.getTable());
+            generator.writeStringField("primaryKey", cdc.getPrimaryKey());
+            generator.writeStringField("primaryKeyValue", cdc.getPrimaryKeyValue());
+            generator.writeStringField("timestamp", cdc.getTimestamp());
+            generator.writeStringField("user", cdc.getUser());
+            generator.writeStringField("version", cdc.getVersion());
+            writeState(generator, "before", cdc.getBefore());
+            writeState(generator, "after", cdc.getAfter());
+            writeChanges(generator, cdc.getChanges());
+            if (cdc.getOutOfOrder() != null) {
+                generator.writeBooleanField("outOfOrder", cdc.getOutOfOrder());
+            }
+            generator.writeEndObject();
+            generator.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error encoding CDC envelope", e);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void writeChanges(JsonGenerator generator, List<FieldChange> changes) throws IOException {
+        if (changes == null) {
+            return;
+        }
+        generator.writeArrayFieldStart("changes");
+        for (FieldChange change : changes) {
+            generator.writeStartObject();
+            generator.writeStringField("path", change.getPath());
+            generator.writeStringField("type", change.getType().name());
+            if (change.getType() != FieldChange.Type.ADDED) {
+                generator.writeFieldName("old");
+                writeScalar(generator, change.getOldValue());
+            }
+            if (change.getType() != FieldChange.Type.REMOVED) {
+                generator.writeFieldName("new");
+                writeScalar(generator, change.getNewValue());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeScalar(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Boolean bool) {
+            generator.writeBoolean(bool);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Number number && Double.isFinite(number.doubleValue())) {
+            generator.writeNumber(number.toString());
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    private void writeState(JsonGenerator generator, String field, Map<String, String> state) throws IOException {
+        if (state == null) {
+            generator.writeNullField(field);
+            return;
+        }
+        generator.writeObjectFieldStart(field);
+        for (Map.Entry<String, String> entry : state.entrySet()) {
+            generator.writeStringField(entry.getKey(), entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,136 @@
+package com.lily.metadataProcessingService.producer;
+
+import com.lily.metadataProcessingService.config.ProcessingConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.lily.metadataProcessingService.common.RetryHeaders.*;
+
+/**
+ * Routes records that failed processing to delayed retry tiers and, once retries run out, to the dead-letter topic.
+ * Tier {@code n} is the topic {@code <retry-prefix>-n} and delays records by
+ * {@code retryDelayMs * multiplier^(n-1)}, so each tier topic stays ordered by due time.
+ * The tenant of the current request context goes along in the {@value TenantContext#TENANT_HEADER} header.
+ * Sends wait for the broker to acknowledge, callers commit the offset of the failed record only once they return.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FailedRecordPublisher {
+
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ProcessingConfig processingConfig;
+
+    @Value("${spring.kafka.topic.retry-prefix}")
+    private String retryTopicPrefix;
+
+    @Value("${spring.kafka.topic.dlq}")
+    private String deadLetterTopic;
+
+    /**
+     * Publishes a failed record to the next retry tier, or to the dead-letter topic when retries ran out.
+     *
+     * @param originalTopic Topic the record was first consumed from
+     * @param key Kafka key of the record
+     * @param value Raw value of the record
+     * @param previousAttempts Number of retries already made, 0 for a first failure
+     * @param cause Why processing failed
+     * @throws ProcessingException when the record was not published, its offset must not be committed
+     */
+    public void publishFailure(String originalTopic, String key, String value, int previousAttempts, Throwable cause) {
+        int attempt = previousAttempts + 1;
+        if (attempt > processingConfig.getMaxRetries()) {
+            publishToDeadLetter(originalTopic, key, value, previousAttempts, cause);
+            return;
+        }
+        long delayMs = retryDelayMs(attempt);
+        ProducerRecord<String, String> retryRecord = new ProducerRecord<>(retryTopic(attempt), key, value);
+        addFailureHeaders(retryRecord.headers(), originalTopic, attempt, cause);
+        addHeader(retryRecord.headers(), DUE_AT, String.valueOf(System.currentTimeMillis() + delayMs));
+        send(retryRecord);
+        log.warn("Sent failed record to retry tier {} with delay {}ms. Topic: {}, Key: {}",
+            attempt, delayMs, originalTopic, key);
+    }
+
+    /**
+     * Publishes a record straight to the dead-letter topic, used for failures that retrying cannot fix.
+     *
+     * @throws ProcessingException when the record was not published, its offset must not be committed
+     */
+    public void publishToDeadLetter(String originalTopic, String key, String value, int attempts, Throwable cause) {
+        ProducerRecord<String, String> deadLetter = new ProducerRecord<>(deadLetterTopic, key, value);
+        addFailureHeaders(deadLetter.headers(), originalTopic, attempts, cause);
+        send(deadLetter);
+        log.error("Sent record to dead-letter topic after {} attempts. Topic: {}, Key: {}, Cause: {}",
+            attempts, originalTopic, key, cause.getMessage());
+    }
+
+    private void send(ProducerRecord<String, String> record) {
+        try {
+            kafkaTemplate.send(record).get(processingConfig.getPublishTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while publishing to " + record.topic(), e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new ProcessingException("Failed to publish to " + record.topic(), e);
+        }
+    }
+
+    public String retryTopic(int tier) {
+        return retryTopicPrefix + "-" + tier;
+    }
+
+    public long retryDelayMs(int tier) {
+        return (long) (processingConfig.getRetryDelayMs()
+            * Math.pow(processingConfig.getRetryBackoffMultiplier(), tier - 1));
+    }
+
+    public String getDeadLetterTopic() {
+        return deadLetterTopic;
+    }
+
+    public static String headerValue(Headers headers, String name) {
+        Header header = headers.lastHeader(name);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
+    private void addFailureHeaders(Headers headers, String originalTopic, int attempt, Throwable cause) {
+        RequestContext context = TenantContext.current();
+        if (context != null && context.tenantId() != null) {
+            addHeader(headers, TenantContext.TENANT_HEADER, context.tenantId());
+        }
+        Throwable rootCause = cause;
+        while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+            rootCause = rootCause.getCause();
+        }
+        String message = String.valueOf(rootCause.getMessage());
+        addHeader(headers, ORIGINAL_TOPIC, originalTopic);
+        addHeader(headers, ATTEMPT, String.valueOf(attempt));
+        addHeader(headers, EXCEPTION_CLASS, rootCause.getClass().getName());
+        addHeader(headers, EXCEPTION_MESSAGE,
+            message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message);
+        addHeader(headers, FAILED_AT, Instant.now().toString());
+    }
+
+    private void addHeader(Headers headers, String name, String value) {
+        headers.remove(name);
+        headers.add(name, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
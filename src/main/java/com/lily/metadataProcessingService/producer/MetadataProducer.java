@@ -1,81 +1,137 @@
 package com.lily.metadataProcessingService.producer;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.lily.metadataProcessingService.dto.Metadata;
+import com.lily.metadataProcessingService.common.MetadataStatus;
+import com.lily.metadataProcessingService.dto.CdcEvent;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import com.lily.metadataProcessingService.service.StatusTrackingService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-
-import static com.lily.metadataProcessingService.util.CommonUtil.convertToStringMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class MetadataProducer {
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final String UNKNOWN = "UNKNOWN";
+    public static final String CONTENT_TYPE_HEADER = "content-type";
+
+    private final OutboundTemplateRegistry templateRegistry;
+    private final OutboundSerializerRegistry serializerRegistry;
+    private final StatusTrackingService statusTrackingService;
 
     @Value("${spring.kafka.topic.outbound}")
     private String outBoundTopic;
 
-    public void publishMetadata(ProducerRecord<String, String> outBoundMessage) {
-        kafkaTemplate.send(outBoundTopic, String.valueOf(outBoundMessage));
-        log.info("Published metadata: {}", outBoundMessage);
+    public String getOutboundTopic() {
+        return outBoundTopic;
+    }
+
+    /**
+     * Sends an outbound message without waiting for the broker.
+     * The send callback records the final status of the event.
+     *
+     * @param eventId Id of the inbound event the message belongs to
+     * @param outBoundMessage The message to send
+     * @return Future completed when the broker acknowledged the message
+     */
+    public CompletableFuture<SendResult<String, byte[]>> publishMetadata(String eventId,
+                                                                        ProducerRecord<String, byte[]> outBoundMessage) {
+        return templateRegistry.forTopic(outBoundMessage.topic()).send(outBoundMessage)
+            .whenComplete((result, error) -> {
+                if (error == null) {
+                    log.info("Published metadata. EventId: {}, Topic: {}, Key: {}",
+                        eventId, outBoundMessage.topic(), outBoundMessage.key());
+                    statusTrackingService.updateStatus(eventId, MetadataStatus.COMPLETED, "Processing completed");
+                } else {
+                    log.error("Failed to publish metadata. EventId: {}, Error: {}", eventId, error.getMessage());
+                    statusTrackingService.updateStatus(eventId, MetadataStatus.FAILED, error.getMessage());
+                }
+            });
     }
 
-    public void sendOutboundKafkaMessage(Metadata metadata, String cdc) {
+    public CompletableFuture<SendResult<String, byte[]>> sendOutboundKafkaMessage(String eventId, CdcEvent cdc, CompiledRule rule,
+                                                                                 Map<String, Object> state) {
         // generate outbound message for the current topic
         // check what type of message should be created and what should be the data level
-        Map<String, String> messageMetadata = convertToStringMap(metadata.getPayload());
-        ProducerRecord<String, String> outBoundMessage = createOutboundMessage(metadata.getEventType(), messageMetadata, cdc);
-        publishMetadata(outBoundMessage);
-
+        ProducerRecord<String, byte[]> outBoundMessage = createOutboundMessage(eventId, cdc, rule, state);
+        return publishMetadata(eventId, outBoundMessage);
     }
 
-    private ProducerRecord<String, String> createOutboundMessage(String topic,
-                                                                 Map<String, String> data,
-                                                                 String previousDataJson) {
-        try {
-            Map<String, Object> kafkaMessage = new HashMap<>();
-
-            // Determine the operation type
-            boolean isInsert = (previousDataJson == null || previousDataJson.isEmpty());
-            String operation = isInsert ? "INSERT" : "UPDATE";
-
-            // Extract key attributes
-            String primaryKey = data.getOrDefault("primaryKey", UNKNOWN);
-            String primaryKeyValue = data.getOrDefault("primaryKeyValue", UNKNOWN);
-            String table = data.getOrDefault("table", UNKNOWN);
-
-            // Construct CDC structure
-            kafkaMessage.put("eventId", UUID.randomUUID().toString());
-            kafkaMessage.put("operation", operation);
-            kafkaMessage.put("table", table);
-            kafkaMessage.put("primaryKey", primaryKey);
-            kafkaMessage.put("primaryKeyValue", primaryKeyValue);
-            kafkaMessage.put("timestamp", Instant.now().toString());
-            kafkaMessage.put("before", previousDataJson); // Previous state as JSON
-            kafkaMessage.put("after", objectMapper.writeValueAsString(data));
-
-            // Serialize to JSON
-            String messageJson = objectMapper.writeValueAsString(kafkaMessage);
+    /**
+     * Sends a batch of outbound messages and waits up to {@code timeoutMs} for the broker to acknowledge them.
+     * Only the futures of this batch are waited for, the producer is not flushed: a flush blocks on the in-flight
+     * records of every thread using it, without a bound.
+     *
+     * @param outBoundMessages Messages built with {@link #createOutboundMessage(String, CdcEvent, CompiledRule, Map)}
+     * @param timeoutMs Max time to wait for all sends to complete
+     * @return Send error for each message in the same order, null when the send succeeded
+     */
+    public List<Throwable> publishBatch(List<ProducerRecord<String, byte[]>> outBoundMessages, long timeoutMs) {
+        List<CompletableFuture<SendResult<String, byte[]>>> futures = new ArrayList<>(outBoundMessages.size());
+        for (ProducerRecord<String, byte[]> message : outBoundMessages) {
+            futures.add(templateRegistry.forTopic(message.topic()).send(message));
+        }
 
-            // Kafka Key: Primary Key Value (Ensures ordering per entity)
-            String kafkaKey = primaryKeyValue;
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Timed out after {}ms waiting for batch of {} messages", timeoutMs, futures.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // individual failures are reported per message below
+        }
 
-            return new ProducerRecord<>(topic, kafkaKey, messageJson);
-        } catch (Exception e) {
-            throw new RuntimeException("Error creating Kafka message", e);
+        List<Throwable> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<SendResult<String, byte[]>> future : futures) {
+            if (!future.isDone()) {
+                results.add(new TimeoutException("Send not acknowledged within " + timeoutMs + "ms"));
+            } else if (future.isCompletedExceptionally()) {
+                results.add(future.exceptionNow());
+            } else {
+                results.add(null);
+            }
         }
+        log.info("Published batch of {} metadata messages", outBoundMessages.size());
+        return results;
+    }
+
+    /**
+     * Builds the outbound record for a CDC event.
+     * The envelope is encoded straight to bytes in the rule's output format and keyed by the
+     * primary key value, which keeps all changes of an entity on one partition and in order.
+     * The format is put on the {@value #CONTENT_TYPE_HEADER} header.
+     * The record goes to the topic of the first rule route matching the entity state, or else the outbound topic.
+     *
+     * @param eventId Id of the inbound event, a new id is generated when null
+     * @param cdc The CDC event to publish
+     * @param rule The rule the event was processed with, decides the output format and route
+     * @param state New state of the entity, routes are evaluated against it
+     * @return The record to send
+     */
+    public ProducerRecord<String, byte[]> createOutboundMessage(String eventId, CdcEvent cdc, CompiledRule rule,
+                                                                Map<String, Object> state) {
+        String envelopeId = eventId != null ? eventId : UUID.randomUUID().toString();
+        OutboundSerializer serializer = serializerRegistry.serializerFor(rule);
+        byte[] envelope = serializerRegistry.serialize(serializer, envelopeId, rule != null ? rule.getTenantId() : null, cdc);
+        String route = rule != null ? rule.routeFor(state) : null;
+        String topic = route != null ? route : outBoundTopic;
+        ProducerRecord<String, byte[]> outBoundMessage = new ProducerRecord<>(topic, cdc.getPrimaryKeyValue(), envelope);
+        outBoundMessage.headers().add(CONTENT_TYPE_HEADER, serializer.contentType().getBytes(StandardCharsets.UTF_8));
+        return outBoundMessage;
     }
 }
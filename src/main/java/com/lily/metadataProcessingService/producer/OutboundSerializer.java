@@ -0,0 +1,30 @@
+package com.lily.metadataProcessingService.producer;
+
+import com.lily.metadataProcessingService.dto.CdcEvent;
+
+/**
+ * Encodes the outbound CDC envelope in one output format.
+ * Implementations are picked up by {@link OutboundSerializerRegistry} and chosen by the rule's output format.
+ */
+public interface OutboundSerializer {
+
+    /**
+     * @return Output format name as used in {@code allowedOutputFormats}, e.g. json or avro
+     */
+    String format();
+
+    /**
+     * @return Content type put on the outbound record headers
+     */
+    String contentType();
+
+    /**
+     * Encodes a CDC event into the outbound envelope.
+     *
+     * @param eventId Id of the inbound event the CDC was generated for
+     * @param tenantId Tenant the event belongs to
+     * @param cdc The CDC event
+     * @return Encoded envelope
+     */
+    byte[] serialize(String eventId, String tenantId, CdcEvent cdc);
+}
@@ -0,0 +1,116 @@
+package com.lily.metadataProcessingService.producer;
+
+import com.lily.metadataProcessingService.config.OutboundConfig;
+import com.lily.metadataProcessingService.dto.CdcEvent;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the outbound serializer for a rule and records how big and how slow each format is.
+ * Size and encode time go to {@code metadata.outbound.size} and {@code metadata.outbound.serialize}
+ * tagged by format. A sample of non-JSON messages is also encoded as JSON (tagged {@code shadow=true})
+ * so both formats can be compared on the same traffic.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OutboundSerializerRegistry {
+
+    private final List<OutboundSerializer> serializerList;
+    private final OutboundConfig outboundConfig;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, OutboundSerializer> serializers = new HashMap<>();
+    private final Map<String, Timer> serializeTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> sizeSummaries = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void initializeRegistry() {
+        serializerList.forEach(serializer -> serializers.put(serializer.format().toLowerCase(), serializer));
+        if (!serializers.containsKey(outboundConfig.getDefaultFormat().toLowerCase())) {
+            throw new IllegalStateException("No serializer for default output format: " + outboundConfig.getDefaultFormat());
+        }
+    }
+
+    /**
+     * Resolves the serializer for a rule.
+     * The rule's {@code outputFormat} configuration wins when it is one of its allowed output formats,
+     * otherwise the default format is used when allowed, otherwise the first allowed format we can write.
+     *
+     * @param rule The rule the event was processed with, may be null
+     * @return Serializer to encode the event with
+     */
+    public OutboundSerializer serializerFor(CompiledRule rule) {
+        String defaultFormat = outboundConfig.getDefaultFormat().toLowerCase();
+        if (rule == null) {
+            return serializers.get(defaultFormat);
+        }
+        Set<String> allowed = rule.getAllowedOutputFormats();
+        String format = rule.getOutputFormat();
+        if (format != null) {
+            if (rule.allowsOutputFormat(format) && serializers.containsKey(format)) {
+                return serializers.get(format);
+            }
+            log.warn("Output format {} of rule {} is not allowed or not supported", format, rule.getId());
+        }
+        if (rule.allowsOutputFormat(defaultFormat)) {
+            return serializers.get(defaultFormat);
+        }
+        for (String allowedFormat : allowed) {
+            OutboundSerializer serializer = serializers.get(allowedFormat);
+            if (serializer != null) {
+                return serializer;
+            }
+        }
+        throw new IllegalStateException("No serializer for output formats " + allowed + " of rule " + rule.getId());
+    }
+
+    /**
+     * Encodes an event with the given serializer and records its size and encode time.
+     *
+     * @return The encoded envelope
+     */
+    public byte[] serialize(OutboundSerializer serializer, String eventId, String tenantId, CdcEvent cdc) {
+        byte[] encoded = timed(serializer, eventId, tenantId, cdc, false);
+        double sampleRate = outboundConfig.getCompareSampleRate();
+        if (!CdcEnvelopeEncoder.FORMAT.equals(serializer.format())
+                && sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            timed(serializers.get(CdcEnvelopeEncoder.FORMAT), eventId, tenantId, cdc, true);
+        }
+        return encoded;
+    }
+
+    private byte[] timed(OutboundSerializer serializer, String eventId, String tenantId, CdcEvent cdc, boolean shadow) {
+        long start = System.nanoTime();
+        byte[] encoded = serializer.serialize(eventId, tenantId, cdc);
+        long elapsed = System.nanoTime() - start;
+
+        String key = serializer.format() + ":" + shadow;
+        serializeTimers.computeIfAbsent(key, k -> Timer.builder("metadata.outbound.serialize")
+            .tag("format", serializer.format())
+            .tag("shadow", String.valueOf(shadow))
+            .register(meterRegistry))
+            .record(elapsed, TimeUnit.NANOSECONDS);
+        sizeSummaries.computeIfAbsent(key, k -> DistributionSummary.builder("metadata.outbound.size")
+            .baseUnit("bytes")
+            .tag("format", serializer.format())
+            .tag("shadow", String.valueOf(shadow))
+            .register(meterRegistry))
+            .record(encoded.length);
+        return encoded;
+    }
+}
@@ -0,0 +1,37 @@
+package com.lily.metadataProcessingService.producer;
+
+import com.lily.metadataProcessingService.config.KafkaConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds one KafkaTemplate per outbound topic, so each topic gets its own producer batching settings.
+ */
+@Component
+@RequiredArgsConstructor
+public class OutboundTemplateRegistry {
+
+    private final KafkaConfig kafkaConfig;
+    private final Map<String, KafkaTemplate<String, byte[]>> templates = new ConcurrentHashMap<>();
+
+    public KafkaTemplate<String, byte[]> forTopic(String topic) {
+        return templates.computeIfAbsent(topic, t -> new KafkaTemplate<>(kafkaConfig.outboundProducerFactory(t)));
+    }
+
+    @PreDestroy
+    public void close() {
+        templates.values().forEach(template -> {
+            ProducerFactory<String, byte[]> factory = template.getProducerFactory();
+            if (factory instanceof DefaultKafkaProducerFactory<String, byte[]> defaultFactory) {
+                defaultFactory.destroy();
+            }
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package com.lily.metadataProcessingService.producer;
+
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of output buffers shared by the outbound encoders, so encoding does not grow a new buffer per event.
+ * Buffers that grew past the max pooled size are dropped instead of being kept around.
+ */
+@Component
+public class OutputBufferPool {
+
+    private static final int POOL_SIZE = 256;
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    private final BlockingQueue<PooledBuffer> bufferPool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public PooledBuffer borrow() {
+        PooledBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : new PooledBuffer();
+    }
+
+    public void release(PooledBuffer buffer) {
+        if (buffer.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+            buffer.reset();
+            bufferPool.offer(buffer);
+        }
+    }
+
+    public static class PooledBuffer extends ByteArrayOutputStream {
+        private PooledBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+
+        @Override
+        public void close() {
+            // kept open so the buffer can be reused
+        }
+    }
+}
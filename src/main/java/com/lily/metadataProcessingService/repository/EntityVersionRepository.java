@@ -0,0 +1,71 @@
+package com.lily.metadataProcessingService.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out version ranges of every entity from entity_version, the row holds the end of the last range reserved.
+ */
+@Repository
+@RequiredArgsConstructor
+public class EntityVersionRepository {
+
+    // The row lock of the upsert makes reservations of all instances atomic, keys are sorted so two
+    // instances reserving overlapping batches lock the rows in the same order and cannot deadlock
+    private static final String RESERVE_SQL = """
+        INSERT INTO entity_version (entity_key, version, event_ts, updated_at)
+        SELECT entity_key, :count, -1, NOW() FROM unnest(ARRAY[:keys]::text[]) AS entity_key ORDER BY entity_key
+        ON CONFLICT (entity_key) DO UPDATE SET
+            version = entity_version.version + EXCLUDED.version,
+            updated_at = NOW()
+        RETURNING entity_key, version, event_ts
+        """;
+    // GREATEST keeps the timestamp from going backwards when flushes of two instances overlap
+    private static final String UPDATE_TIMESTAMP_SQL = """
+        UPDATE entity_version SET event_ts = GREATEST(event_ts, ?), updated_at = NOW()
+        WHERE entity_key = ?
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    /**
+     * Reserves the next {@code count} versions of every given entity with one statement.
+     * The range of an entity is {@code (end - count, end]}, no other reservation of any instance overlaps it.
+     *
+     * @param entityKeys Distinct entity keys
+     * @return End of the reserved range and latest event timestamp (epoch millis) per entity
+     */
+    public Map<String, long[]> reserveVersions(Collection<String> entityKeys, long count) {
+        Map<String, long[]> reserved = new HashMap<>(entityKeys.size());
+        if (entityKeys.isEmpty()) {
+            return reserved;
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("keys", entityKeys).addValue("count", count);
+        namedJdbcTemplate.query(RESERVE_SQL, params, rs -> {
+            reserved.put(rs.getString("entity_key"), new long[] {rs.getLong("version"), rs.getLong("event_ts")});
+        });
+        return reserved;
+    }
+
+    /**
+     * Writes a batch of latest event timestamps in one JDBC batch.
+     * Rows exist already, an entity gets one with its first reservation.
+     *
+     * @param timestamps Latest event timestamp per entity
+     */
+    public void saveEventTimestamps(Map<String, Long> timestamps) {
+        List<Object[]> rows = new ArrayList<>(timestamps.size());
+        timestamps.forEach((entityKey, timestamp) -> rows.add(new Object[] {timestamp, entityKey}));
+        jdbcTemplate.batchUpdate(UPDATE_TIMESTAMP_SQL, rows);
+    }
+}
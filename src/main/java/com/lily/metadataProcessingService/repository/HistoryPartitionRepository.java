@@ -0,0 +1,199 @@
+package com.lily.metadataProcessingService.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * DDL and export queries for the monthly partitions of metadata_history.
+ * Partitions are named {@code metadata_history_yYYYYmMM} and cover [first of month, first of next month).
+ */
+@Repository
+@RequiredArgsConstructor
+public class HistoryPartitionRepository {
+
+    private static final String PARENT_TABLE = "metadata_history";
+    private static final String DEFAULT_PARTITION = "metadata_history_default";
+    private static final String MAINTENANCE_LOCK = "metadata_history_partitions";
+    private static final Pattern PARTITION_NAME = Pattern.compile("metadata_history_y(\\d{4})m(\\d{2})");
+    private static final String ATTACHED_SQL = """
+        SELECT child.relname
+        FROM pg_inherits
+        JOIN pg_class parent ON parent.oid = pg_inherits.inhparent
+        JOIN pg_class child ON child.oid = pg_inherits.inhrelid
+        WHERE parent.relname = ?
+        """;
+    private static final String ALL_PARTITION_TABLES_SQL =
+        "SELECT tablename FROM pg_tables WHERE schemaname = current_schema() AND tablename LIKE 'metadata\\_history\\_y%'";
+    private static final String TABLE_EXISTS_SQL =
+        "SELECT EXISTS (SELECT 1 FROM pg_tables WHERE schemaname = current_schema() AND tablename = ?)";
+    private static final String DEFAULT_HAS_ROWS_SQL =
+        "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE timestamp >= ? AND timestamp < ?)";
+    private static final String EXPORT_COLUMNS =
+        "event_id, entity_key, tenant_id, operation, version, timestamp, \"user\", " +
+        "before_state::text AS before_state, after_state::text AS after_state, changes::text AS changes";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    public static String partitionName(YearMonth month) {
+        return String.format("metadata_history_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+
+    /**
+     * @return Month of a partition, null when the table is not a monthly partition
+     */
+    public static YearMonth monthOf(String partition) {
+        var matcher = PARTITION_NAME.matcher(partition);
+        return matcher.matches()
+            ? YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)))
+            : null;
+    }
+
+    /**
+     * Runs the task while holding the cluster-wide partition maintenance lock, a session advisory lock held
+     * on a connection of its own for the whole run. Returns right away when another instance holds it.
+     *
+     * @return False when the lock was held elsewhere and the task did not run
+     */
+    public boolean runExclusively(Runnable task) {
+        Boolean ran = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            if (!advisoryLock(connection, "pg_try_advisory_lock")) {
+                return false;
+            }
+            try {
+                task.run();
+                return true;
+            } finally {
+                advisoryLock(connection, "pg_advisory_unlock");
+            }
+        });
+        return Boolean.TRUE.equals(ran);
+    }
+
+    /**
+     * Creates the partition of a month. Rows of that month already in the default partition (written while
+     * partitioning was off or before the month was created) would make the plain CREATE fail, so then the
+     * default partition is detached, the partition created, the rows moved over and the default reattached,
+     * all in one transaction. Writers of metadata_history wait for that transaction.
+     *
+     * @return Number of rows moved out of the default partition
+     */
+    public int createPartition(YearMonth month) {
+        String partition = partitionName(month);
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(TABLE_EXISTS_SQL, Boolean.class, partition))) {
+            return 0;
+        }
+        Timestamp from = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+        Timestamp to = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+        String create = String.format("CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')",
+            partition, PARENT_TABLE, month.atDay(1), month.plusMonths(1).atDay(1));
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(DEFAULT_HAS_ROWS_SQL, Boolean.class, from, to))) {
+            jdbcTemplate.execute(create);
+            return 0;
+        }
+        Integer moved = new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.execute(String.format("ALTER TABLE %s DETACH PARTITION %s", PARENT_TABLE, DEFAULT_PARTITION));
+            jdbcTemplate.execute(create);
+            int rows = jdbcTemplate.update("INSERT INTO " + partition + " SELECT * FROM " + DEFAULT_PARTITION
+                + " WHERE timestamp >= ? AND timestamp < ?", from, to);
+            jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE timestamp >= ? AND timestamp < ?", from, to);
+            jdbcTemplate.execute(String.format("ALTER TABLE %s ATTACH PARTITION %s DEFAULT", PARENT_TABLE, DEFAULT_PARTITION));
+            return rows;
+        });
+        return moved != null ? moved : 0;
+    }
+
+    /**
+     * @return Monthly partitions currently attached to metadata_history
+     */
+    public Set<String> attachedPartitions() {
+        Set<String> attached = new HashSet<>(jdbcTemplate.queryForList(ATTACHED_SQL, String.class, PARENT_TABLE));
+        attached.removeIf(name -> monthOf(name) == null);
+        return attached;
+    }
+
+    /**
+     * @return Monthly partition tables that were detached but not dropped yet, e.g. because their export failed
+     */
+    public Set<String> detachedPartitions() {
+        Set<String> detached = new HashSet<>(jdbcTemplate.queryForList(ALL_PARTITION_TABLES_SQL, String.class));
+        detached.removeAll(attachedPartitions());
+        detached.removeIf(name -> monthOf(name) == null);
+        return detached;
+    }
+
+    public void detachPartition(String partition) {
+        requirePartition(partition);
+        jdbcTemplate.execute(String.format("ALTER TABLE %s DETACH PARTITION %s", PARENT_TABLE, partition));
+    }
+
+    public void dropPartition(String partition) {
+        requirePartition(partition);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition);
+    }
+
+    /**
+     * Streams the rows of a partition ordered by entity and version, through a server-side cursor
+     * so the partition is never held in memory.
+     *
+     * @param rowHandler Gets the values of each row in {@code HistoryArchive.COLUMNS} order, timestamps as epoch millis
+     */
+    public void exportPartition(String partition, int fetchSize, Consumer<Object[]> rowHandler) {
+        requirePartition(partition);
+        String sql = "SELECT " + EXPORT_COLUMNS + " FROM " + partition + " ORDER BY entity_key, version";
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        transaction.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            // PostgreSQL only uses a cursor for fetch sizes inside a transaction
+            var statement = connection.prepareStatement(sql);
+            statement.setFetchSize(fetchSize);
+            return statement;
+        }, rs -> {
+            Timestamp timestamp = rs.getTimestamp("timestamp");
+            Number version = (Number) rs.getObject("version");
+            rowHandler.accept(new Object[] {
+                rs.getString("event_id"),
+                rs.getString("entity_key"),
+                rs.getString("tenant_id"),
+                rs.getString("operation"),
+                version != null ? version.longValue() : null,
+                timestamp != null ? timestamp.toInstant().toEpochMilli() : null,
+                rs.getString("user"),
+                rs.getString("before_state"),
+                rs.getString("after_state"),
+                rs.getString("changes")
+            });
+        }));
+    }
+
+    private boolean advisoryLock(Connection connection, String function) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT " + function + "(hashtext(?))")) {
+            statement.setString(1, MAINTENANCE_LOCK);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static void requirePartition(String partition) {
+        // Names end up in DDL, so only generated partition names are accepted
+        if (monthOf(partition) == null) {
+            throw new IllegalArgumentException("Not a metadata_history partition: " + partition);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.lily.metadataProcessingService.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.dto.FieldChange;
+import com.lily.metadataProcessingService.dto.MetadataHistoryEntry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes CDC history to metadata_history with multi-row inserts and reads the lineage of entities back.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MetadataHistoryRepository {
+
+    /** Most rows per statement, keeps the bind parameters well under the PostgreSQL limit of 32767. */
+    public static final int MAX_ROWS_PER_INSERT = 3000;
+
+    private static final String INSERT_PREFIX = """
+        INSERT INTO metadata_history (event_id, entity_key, tenant_id, operation, version,
+            before_state, after_state, changes, timestamp, "user") VALUES
+        """;
+    private static final String ROW_VALUES = "(?, ?, ?, ?, ?, ?::jsonb, ?::jsonb, ?::jsonb, ?, ?)";
+    private static final int COLUMNS = 10;
+    private static final String FIND_BY_ENTITY_SQL = """
+        SELECT event_id, entity_key, tenant_id, operation, version, timestamp, "user",
+            before_state::text AS before_state, after_state::text AS after_state, changes::text AS changes
+        FROM metadata_history
+        WHERE entity_key = ? AND timestamp >= ? AND timestamp < ?
+        ORDER BY version
+        """;
+    private static final TypeReference<Map<String, Object>> STATE_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<FieldChange>> CHANGES_TYPE = new TypeReference<>() {};
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Batches are mostly full, so there are only a few distinct statement sizes
+    private final Map<Integer, String> insertSqlByRows = new ConcurrentHashMap<>();
+
+    /**
+     * Inserts all entries with one statement.
+     *
+     * @param entries Entries to write, at most {@link #MAX_ROWS_PER_INSERT}
+     */
+    public void insertAll(List<MetadataHistoryEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Object[] args = new Object[entries.size() * COLUMNS];
+        int i = 0;
+        for (MetadataHistoryEntry entry : entries) {
+            args[i++] = entry.getEventId();
+            args[i++] = entry.getEntityKey();
+            args[i++] = entry.getTenantId();
+            args[i++] = entry.getOperation();
+            args[i++] = entry.getVersion();
+            args[i++] = toJson(entry.getBeforeState());
+            args[i++] = toJson(entry.getAfterState() != null ? entry.getAfterState() : Map.of());
+            args[i++] = toJson(entry.getChanges());
+            args[i++] = entry.getTimestamp() != null ? Timestamp.from(entry.getTimestamp()) : null;
+            args[i++] = entry.getUser();
+        }
+        jdbcTemplate.update(insertSqlByRows.computeIfAbsent(entries.size(), MetadataHistoryRepository::insertSql), args);
+    }
+
+    /**
+     * History of an entity still in the database (attached partitions), ordered by version.
+     */
+    public List<MetadataHistoryEntry> findByEntityKey(String entityKey, Instant from, Instant to) {
+        return jdbcTemplate.query(FIND_BY_ENTITY_SQL, (rs, rowNum) -> MetadataHistoryEntry.builder()
+            .eventId(rs.getString("event_id"))
+            .entityKey(rs.getString("entity_key"))
+            .tenantId(rs.getString("tenant_id"))
+            .operation(rs.getString("operation"))
+            .version(rs.getLong("version"))
+            .timestamp(rs.getTimestamp("timestamp") != null ? rs.getTimestamp("timestamp").toInstant() : null)
+            .user(rs.getString("user"))
+            .beforeState(readState(rs.getString("before_state")))
+            .afterState(readState(rs.getString("after_state")))
+            .changes(readChanges(rs.getString("changes")))
+            .build(), entityKey, Timestamp.from(from), Timestamp.from(to));
+    }
+
+    public Map<String, Object> readState(String json) {
+        return json != null ? readJson(json, STATE_TYPE) : null;
+    }
+
+    public List<FieldChange> readChanges(String json) {
+        return json != null ? readJson(json, CHANGES_TYPE) : null;
+    }
+
+    private <T> T readJson(String json, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to read history JSON", e);
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * (ROW_VALUES.length() + 2));
+        sql.append(INSERT_PREFIX);
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                sql.append(",\n");
+            }
+            sql.append(ROW_VALUES);
+        }
+        return sql.toString();
+    }
+
+    private String toJson(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to write history state as JSON", e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.lily.metadataProcessingService.repository;
+
+import com.lily.metadataProcessingService.dto.MetadataQuery;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reads of metadata_store.
+ * Rows come through a server-side cursor in keyset order (updated_at, id), so neither the database
+ * nor this service ever holds more than one fetch of rows, however large the result.
+ * The containment filter is written as {@code metadata @> ?::jsonb} so the GIN index on metadata applies.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MetadataQueryRepository {
+
+    private static final String SELECT = """
+        SELECT id, entity_key, tenant_id, event_type, version, updated_at, metadata::text AS metadata
+        FROM metadata_store
+        WHERE tenant_id = ?
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    /**
+     * Streams the rows matching the query to the handler, in (updated_at, id) order.
+     *
+     * @param fetchSize Rows per round trip of the cursor
+     */
+    public void stream(MetadataQuery query, int fetchSize, RowCallbackHandler rowHandler) {
+        StringBuilder sql = new StringBuilder(SELECT);
+        List<Object> args = new ArrayList<>();
+        args.add(query.getTenantId());
+        if (query.getEventType() != null) {
+            sql.append(" AND event_type = ?");
+            args.add(query.getEventType());
+        }
+        if (query.getContains() != null) {
+            sql.append(" AND metadata @> ?::jsonb");
+            args.add(query.getContains());
+        }
+        if (query.getUpdatedFrom() != null) {
+            sql.append(" AND updated_at >= ?");
+            args.add(Timestamp.from(query.getUpdatedFrom()));
+        }
+        if (query.getUpdatedTo() != null) {
+            sql.append(" AND updated_at < ?");
+            args.add(Timestamp.from(query.getUpdatedTo()));
+        }
+        if (query.getAfterUpdatedAt() != null && query.getAfterId() != null) {
+            sql.append(" AND (updated_at, id) > (?, ?)");
+            args.add(Timestamp.from(query.getAfterUpdatedAt()));
+            args.add(query.getAfterId());
+        }
+        sql.append(" ORDER BY updated_at, id");
+        if (query.getLimit() != null) {
+            sql.append(" LIMIT ?");
+            args.add(query.getLimit());
+        }
+
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        transaction.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            // PostgreSQL only uses a cursor for fetch sizes inside a transaction
+            PreparedStatement statement = connection.prepareStatement(sql.toString());
+            statement.setFetchSize(fetchSize);
+            for (int i = 0; i < args.size(); i++) {
+                statement.setObject(i + 1, args.get(i));
+            }
+            return statement;
+        }, rowHandler));
+    }
+}
@@ -2,13 +2,14 @@ package com.lily.metadataProcessingService.repository;
 
 import com.lily.metadataProcessingService.model.MetadataRecord;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
+import java.util.UUID;
 
+/**
+ * JPA access to single metadata_store rows. Tenant-wide reads go through
+ * {@link MetadataQueryRepository}, which streams instead of loading every row into a list.
+ */
 @Repository
-public interface MetadataRepository extends JpaRepository<MetadataRecord, Long> {
-    @Query("SELECT m FROM MetadataRecord m WHERE m.tenantId = :tenantId")
-    List<MetadataRecord> findByTenantId(String tenantId);
+public interface MetadataRepository extends JpaRepository<MetadataRecord, UUID> {
 }
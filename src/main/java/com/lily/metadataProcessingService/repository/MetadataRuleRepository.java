@@ -0,0 +1,33 @@
+package com.lily.metadataProcessingService.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Reads which rules exist in metadata_rules, the rules themselves are loaded through the rule service.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MetadataRuleRepository {
+
+    // Global rules are only merged into tenant rules, they are never looked up on their own
+    private static final String RULE_KEYS_SQL = """
+        SELECT DISTINCT tenant_id, source_id FROM metadata_rules
+        WHERE source_id IS NOT NULL AND tenant_id <> 'global'
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @return Tenant and source of every tenant rule
+     */
+    public List<RuleKey> findAllKeys() {
+        return jdbcTemplate.query(RULE_KEYS_SQL, (rs, rowNum) -> new RuleKey(rs.getString("tenant_id"), rs.getString("source_id")));
+    }
+
+    public record RuleKey(String tenantId, String sourceId) {
+    }
+}
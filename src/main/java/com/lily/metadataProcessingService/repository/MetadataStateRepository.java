@@ -0,0 +1,119 @@
+package com.lily.metadataProcessingService.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.dto.EntityState;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and writes the latest persisted state of entities in metadata_store, one row per entity.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MetadataStateRepository {
+
+    private static final TypeReference<Map<String, Object>> STATE_TYPE = new TypeReference<>() {};
+    private static final String LATEST_STATES_SQL = """
+        SELECT entity_key, metadata::text AS metadata
+        FROM metadata_store
+        WHERE entity_key IN (:keys)
+        """;
+    private static final String UPSERT_PREFIX = """
+        INSERT INTO metadata_store (entity_key, tenant_id, event_type, metadata, version) VALUES
+        """;
+    private static final String UPSERT_ROW = "(?, ?, ?, ?::jsonb, ?)";
+    // Only newer versions win, so a late flush of an older state cannot overwrite a newer one
+    private static final String UPSERT_SUFFIX = """
+        ON CONFLICT (entity_key) DO UPDATE SET
+            tenant_id = EXCLUDED.tenant_id,
+            event_type = EXCLUDED.event_type,
+            metadata = EXCLUDED.metadata,
+            version = EXCLUDED.version,
+            updated_at = NOW()
+        WHERE metadata_store.version < EXCLUDED.version
+        """;
+    private static final int UPSERT_COLUMNS = 5;
+
+    /** Most rows per upsert, keeps the bind parameters well under the PostgreSQL limit of 32767. */
+    public static final int MAX_ROWS_PER_UPSERT = 5000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Integer, String> upsertSqlByRows = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the latest row of each entity in one query.
+     *
+     * @param entityKeys Keys to load
+     * @return Latest state per entity key, entities without rows are left out
+     */
+    public Map<String, Map<String, Object>> findLatestStates(Collection<String> entityKeys) {
+        Map<String, Map<String, Object>> states = new HashMap<>(entityKeys.size());
+        if (entityKeys.isEmpty()) {
+            return states;
+        }
+        jdbcTemplate.query(LATEST_STATES_SQL, new MapSqlParameterSource("keys", entityKeys), rs -> {
+            try {
+                states.put(rs.getString("entity_key"), objectMapper.readValue(rs.getString("metadata"), STATE_TYPE));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read state of " + rs.getString("entity_key"), e);
+            }
+        });
+        return states;
+    }
+
+    /**
+     * Upserts the states with one statement, inserting new entities and replacing older versions of known ones.
+     *
+     * @param states At most {@link #MAX_ROWS_PER_UPSERT} states, each entity at most once
+     * @return Number of rows inserted or updated
+     */
+    public int upsertLatestStates(List<EntityState> states) {
+        if (states.isEmpty()) {
+            return 0;
+        }
+        Object[] args = new Object[states.size() * UPSERT_COLUMNS];
+        int i = 0;
+        for (EntityState state : states) {
+            args[i++] = state.getEntityKey();
+            args[i++] = state.getTenantId();
+            args[i++] = state.getEventType();
+            args[i++] = toJson(state.getState());
+            args[i++] = state.getVersion();
+        }
+        String sql = upsertSqlByRows.computeIfAbsent(states.size(), MetadataStateRepository::upsertSql);
+        return jdbcTemplate.getJdbcOperations().update(sql, args);
+    }
+
+    private static String upsertSql(int rows) {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX.length() + rows * (UPSERT_ROW.length() + 2) + UPSERT_SUFFIX.length());
+        sql.append(UPSERT_PREFIX);
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                sql.append(",\n");
+            }
+            sql.append(UPSERT_ROW);
+        }
+        return sql.append('\n').append(UPSERT_SUFFIX).toString();
+    }
+
+    private String toJson(Map<String, Object> state) {
+        try {
+            return objectMapper.writeValueAsString(state != null ? state : Map.of());
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to write state as JSON", e);
+        }
+    }
+}
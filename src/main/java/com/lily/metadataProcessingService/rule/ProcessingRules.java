@@ -1,76 +1,197 @@
 package com.lily.metadataProcessingService.rule;
 
-import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.lily.metadataProcessingService.config.RuleCacheConfig;
 import com.lily.metadataProcessingService.context.TenantContext;
 import com.lily.metadataProcessingService.exception.TenantAccessException;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
 import com.lily.metadataProcessingService.model.rules.MetadataRule;
 import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+import com.lily.metadataProcessingService.repository.MetadataRuleRepository;
 import com.lily.metadataProcessingService.service.MetadataRuleService;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 
 /**
  * Manages the rules for processing different types of metadata.
  * Think of this as our config which can be customized
  * Contains the rules for processing metadata, validations, transformations, etc.
+ * Rules are cached in their compiled form, see {@link CompiledRule}, so the hot path never parses them.
+ *
+ * Every rule in metadata_rules is preloaded at startup and cached rules are reloaded in the background before
+ * they get old, the stale rule keeps being served until its reload is done. Rule changes reload the affected
+ * rules right away through {@link #onRuleChanged}, so lookups only block on a rule that was never loaded.
+ * Lookups on the listener threads use {@link #getCachedRule}, which never blocks.
  */
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class ProcessingRules {
     private static final Map<String, String> rules = new ConcurrentHashMap<>();
     private static final String defaultRule = "";
+    private static final String GLOBAL_TENANT = "global";
+    private static final String ALL = "*";
+    private static final String CACHE_NAME = "metadata.rules";
 
-    private final Cache<String, MetadataRule> ruleCache;
     private final TenantContext tenantContext;
     private final MetadataRuleService ruleService;
+    private final MetadataRuleRepository ruleRepository;
+    private final LoadingCache<RuleKey, CompiledRule> ruleCache;
+
+    /**
+     * Cache key of a rule
+     */
+    private record RuleKey(String tenantId, String sourceId) {
+    }
+
+    public ProcessingRules(TenantContext tenantContext, MetadataRuleService ruleService,
+                           MetadataRuleRepository ruleRepository, RuleCacheConfig config, MeterRegistry meterRegistry) {
+        this.tenantContext = tenantContext;
+        this.ruleService = ruleService;
+        this.ruleRepository = ruleRepository;
+        this.ruleCache = Caffeine.newBuilder()
+            .maximumSize(config.getMaxSize())
+            .refreshAfterWrite(Duration.ofMinutes(config.getRefreshAfterWriteMinutes()))
+            .expireAfterWrite(Duration.ofMinutes(config.getExpireAfterWriteMinutes()))
+            // Reloads call the rule api, keep them off the common pool
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .recordStats()
+            .build((CacheLoader<RuleKey, CompiledRule>) key -> CompiledRule.compile(loadRule(key.tenantId(), key.sourceId())));
+        CaffeineCacheMetrics.monitor(meterRegistry, ruleCache, CACHE_NAME);
+    }
+
+    /**
+     * Loads every tenant rule in metadata_rules before the listeners start.
+     * A rule that fails to load is logged and loaded again on first use.
+     */
+    @PostConstruct
+    public void preload() {
+        try {
+            List<RuleKey> keys = ruleRepository.findAllKeys().stream()
+                .map(key -> new RuleKey(key.tenantId(), key.sourceId()))
+                .toList();
+            if (keys.isEmpty()) {
+                return;
+            }
+            ruleCache.getAll(keys);
+            log.info("Preloaded {} processing rules", keys.size());
+        } catch (Exception e) {
+            log.error("Failed to preload processing rules: {}", e.getMessage());
+        }
+    }
 
     /**
      * Retrieves the processing rule for a given source ID and set the current tenant context.
      * Rules are cached and retrieved from the repository/api if not found in cache.
      *
      * @param sourceId The identifier of the source to get rules for
-     * @return MetadataRule containing the processing configuration
+     * @return CompiledRule containing the processing configuration
+     */
+    public CompiledRule getRule(String sourceId) {
+        return ruleCache.get(new RuleKey(tenantContext.getCurrentTenant(), sourceId));
+    }
+
+    /**
+     * Retrieves the processing rule for a given source ID without waiting for it to load.
+     * A rule that is not cached yet is loaded in the background for the next lookup.
+     *
+     * @param sourceId The identifier of the source to get rules for
+     * @return The cached rule, empty while it is not loaded
+     */
+    public Optional<CompiledRule> getCachedRule(String sourceId) {
+        RuleKey key = new RuleKey(tenantContext.getCurrentTenant(), sourceId);
+        CompiledRule rule = ruleCache.getIfPresent(key);
+        if (rule == null) {
+            // Refreshing a missing key loads it on the cache executor, concurrent misses share one load
+            ruleCache.refresh(key);
+        }
+        return Optional.ofNullable(rule);
+    }
+
+    /**
+     * Reloads the cached rules affected by a change, in the background.
+     * Until a reload is done lookups keep getting the previous rule. Rules that are not cached are left alone,
+     * they are loaded on first use anyway. A change of a global rule reloads that source for every tenant,
+     * as tenant rules may be merged with it.
+     *
+     * @param change {@code tenantId:sourceId}, either part may be {@code *}
+     * @return Number of cached rules reloaded
+     */
+    public int onRuleChanged(String change) {
+        RuleKey changed = parseKey(change);
+        if (changed == null) {
+            return 0;
+        }
+        boolean allTenants = ALL.equals(changed.tenantId()) || GLOBAL_TENANT.equals(changed.tenantId());
+        boolean allSources = ALL.equals(changed.sourceId());
+        int reloaded = 0;
+        for (RuleKey key : ruleCache.asMap().keySet()) {
+            if ((allTenants || changed.tenantId().equals(key.tenantId()))
+                    && (allSources || changed.sourceId().equals(key.sourceId()))) {
+                ruleCache.refresh(key);
+                reloaded++;
+            }
+        }
+        log.info("Rule change {} reloads {} cached rules", change, reloaded);
+        return reloaded;
+    }
+
+    /**
+     * @return Key of a {@code tenantId:sourceId} entry, null when the entry is malformed
      */
-    public MetadataRule getRule(String sourceId) {
-        String tenantId = tenantContext.getCurrentTenant();
-        String cacheKey = tenantId + "_" + sourceId;
-        
-        return ruleCache.get(cacheKey, key -> {
-            Optional<MetadataRule> tenantRule = ruleService
-                .findByTenantIdAndSourceId(tenantId, sourceId);
-            
-            if (tenantRule.isPresent()) {
-                MetadataRule rule = tenantRule.get();
-                if (rule.isUseGlobalDefaults()) {
-                    return mergeWithGlobalDefaults(rule);
-                }
-                return rule;
+    private static RuleKey parseKey(String entry) {
+        int separator = entry != null ? entry.indexOf(':') : -1;
+        if (separator <= 0 || separator == entry.length() - 1) {
+            log.warn("Ignoring malformed rule key {}, expected tenantId:sourceId", entry);
+            return null;
+        }
+        return new RuleKey(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+    }
+
+    private MetadataRule loadRule(String tenantId, String sourceId) {
+        Optional<MetadataRule> tenantRule = ruleService
+            .findByTenantIdAndSourceId(tenantId, sourceId);
+
+        if (tenantRule.isPresent()) {
+            MetadataRule rule = tenantRule.get();
+            if (rule.isUseGlobalDefaults()) {
+                return mergeWithGlobalDefaults(rule);
             }
-            
-            return getDefaultRule(tenantId);
-        });
+            return rule;
+        }
+
+        return getDefaultRule(tenantId);
     }
 
     /**
      * Merges tenant-specific rule overrides with global default rules.
-     * 
+     * The global rule is copied, never modified, as it may be shared with other tenants.
+     *
      * @param tenantRule The tenant-specific rule containing overrides
      * @return MetadataRule with merged configurations from global and tenant rules
      */
     private MetadataRule mergeWithGlobalDefaults(MetadataRule tenantRule) {
-        MetadataRule globalRule = getGlobalRule(tenantRule.getSourceId());
-        
+        MetadataRule.MetadataRuleBuilder merged = getGlobalRule(tenantRule.getSourceId()).toBuilder()
+            .id(tenantRule.getId())
+            .tenantId(tenantRule.getTenantId());
+
         if (tenantRule.getConfiguration() != null) {
-            applyOverrides(globalRule, tenantRule.getConfiguration());
+            applyOverrides(merged, tenantRule.getConfiguration());
         }
-        
-        return globalRule;
+
+        return merged.build();
     }
 
     /**
@@ -108,15 +229,15 @@ public class ProcessingRules {
     /**
      * Applies tenant-specific overrides to a rule configuration.
      *
-     * @param rule The base rule to apply overrides to
+     * @param rule The builder of the merged rule to apply overrides to
      * @param overrides Map of configuration keys and values to override
      */
-    private void applyOverrides(MetadataRule rule, Map<String, Object> overrides) {
+    private void applyOverrides(MetadataRule.MetadataRuleBuilder rule, Map<String, Object> overrides) {
         if (overrides.containsKey("priority")) {
-            rule.setPriority(ProcessingPriority.valueOf(overrides.get("priority").toString()));
+            rule.priority(ProcessingPriority.valueOf(overrides.get("priority").toString()));
         }
         if (overrides.containsKey("maxBatchSize")) {
-            rule.setMaxBatchSize((Integer) overrides.get("maxBatchSize"));
+            rule.maxBatchSize(Integer.parseInt(overrides.get("maxBatchSize").toString()));
         }
     }
 
@@ -130,7 +251,7 @@ public class ProcessingRules {
      */
     public void validateTenantAccess(String tenantId, String sourceId) {
         String currentTenant = tenantContext.getCurrentTenant();
-        if (!currentTenant.equals(tenantId)) {
+        if (!Objects.equals(currentTenant, tenantId)) {
             throw new TenantAccessException("Access denied to rule");
         }
     }
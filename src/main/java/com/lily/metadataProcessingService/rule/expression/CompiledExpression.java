@@ -0,0 +1,50 @@
+package com.lily.metadataProcessingService.rule.expression;
+
+import java.util.Map;
+
+/**
+ * Rule expression compiled into a tree of closures by {@link ExpressionCompiler}.
+ * Evaluation only walks the closures: field paths are split, literals converted and
+ * regexes compiled when the expression is compiled, never per event.
+ */
+public final class CompiledExpression {
+
+    /**
+     * One compiled node, evaluated against the payload.
+     */
+    @FunctionalInterface
+    interface Node {
+        Object eval(Map<String, ?> payload);
+    }
+
+    private final String source;
+    private final Node root;
+
+    CompiledExpression(String source, Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /**
+     * @return The value of the expression for a payload
+     */
+    public Object evaluate(Map<String, ?> payload) {
+        return root.eval(payload != null ? payload : Map.of());
+    }
+
+    /**
+     * @return Whether the expression is {@code true} for a payload, any other value counts as false
+     */
+    public boolean test(Map<String, ?> payload) {
+        return Boolean.TRUE.equals(evaluate(payload));
+    }
+
+    public String source() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
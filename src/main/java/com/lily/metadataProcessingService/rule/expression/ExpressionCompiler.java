@@ -0,0 +1,477 @@
+package com.lily.metadataProcessingService.rule.expression;
+
+import com.lily.metadataProcessingService.exception.ExpressionException;
+import com.lily.metadataProcessingService.rule.expression.CompiledExpression.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles the small expression language used in rule configuration into closures.
+ *
+ * Grammar, loosest binding first:
+ * <pre>
+ * expression := and (('||' | 'or') and)*
+ * and        := not (('&&' | 'and') not)*
+ * not        := ('!' | 'not') not | comparison
+ * comparison := operand (op operand)?
+ *               op: == != &lt; &lt;= &gt; &gt;= startsWith endsWith contains matches in
+ * operand    := number | 'string' | "string" | true | false | null | [literal, ...]
+ *               | path | function(expression) | (expression)
+ * </pre>
+ * A path like {@code owner.email} (optionally prefixed with {@code payload.}) reads nested maps of the payload,
+ * missing fields are null. Functions are {@code exists(path)}, {@code size(value)} and {@code lower(value)}.
+ * Numbers compare by value whatever their type, any comparison involving null or mismatched types is false,
+ * and only a boolean {@code true} counts as true.
+ *
+ * Everything that does not depend on the payload is done here: paths are split, regexes compiled,
+ * {@code in} lists turned into hash sets and constant sub-expressions folded.
+ */
+public final class ExpressionCompiler {
+
+    private static final String PAYLOAD_PREFIX = "payload";
+    private static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+    private enum TokenType { NUMBER, STRING, IDENT, SYMBOL, END }
+
+    private record Token(TokenType type, String text, Object value, int position) {
+    }
+
+    /** A value known at compile time */
+    private record Constant(Object value) implements Node {
+        @Override
+        public Object eval(Map<String, ?> payload) {
+            return value;
+        }
+    }
+
+    /** A path into the payload, split into its segments */
+    private record PathNode(String[] segments) implements Node {
+        @Override
+        public Object eval(Map<String, ?> payload) {
+            Object current = payload;
+            for (String segment : segments) {
+                if (!(current instanceof Map<?, ?> map)) {
+                    return null;
+                }
+                current = map.get(segment);
+            }
+            return current;
+        }
+
+        boolean exists(Map<String, ?> payload) {
+            Object current = payload;
+            for (int i = 0; i < segments.length; i++) {
+                if (!(current instanceof Map<?, ?> map) || !map.containsKey(segments[i])) {
+                    return false;
+                }
+                current = map.get(segments[i]);
+            }
+            return true;
+        }
+    }
+
+    private final String source;
+    private final List<Token> tokens;
+    private int index;
+
+    private ExpressionCompiler(String source) {
+        this.source = source;
+        this.tokens = tokenize(source);
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @throws ExpressionException when the expression is not valid
+     */
+    public static CompiledExpression compile(String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new ExpressionException("Empty expression", String.valueOf(expression), 0);
+        }
+        ExpressionCompiler compiler = new ExpressionCompiler(expression);
+        Node root = compiler.parseOr();
+        compiler.expect(TokenType.END, null);
+        return new CompiledExpression(expression, root);
+    }
+
+    private Node parseOr() {
+        Node left = parseAnd();
+        while (acceptKeyword("||", "or")) {
+            Node l = left;
+            Node r = parseAnd();
+            left = fold(payload -> isTrue(l.eval(payload)) || isTrue(r.eval(payload)), l, r);
+        }
+        return left;
+    }
+
+    private Node parseAnd() {
+        Node left = parseNot();
+        while (acceptKeyword("&&", "and")) {
+            Node l = left;
+            Node r = parseNot();
+            left = fold(payload -> isTrue(l.eval(payload)) && isTrue(r.eval(payload)), l, r);
+        }
+        return left;
+    }
+
+    private Node parseNot() {
+        if (acceptKeyword("!", "not")) {
+            Node operand = parseNot();
+            return fold(payload -> !isTrue(operand.eval(payload)), operand);
+        }
+        return parseComparison();
+    }
+
+    private Node parseComparison() {
+        Node left = parseOperand();
+        Token operator = peek();
+        if (operator.type() != TokenType.SYMBOL && operator.type() != TokenType.IDENT) {
+            return left;
+        }
+        switch (operator.text()) {
+            case "==", "!=", "<", "<=", ">", ">=", "startsWith", "endsWith", "contains", "matches", "in" -> index++;
+            default -> {
+                return left;
+            }
+        }
+        Node right = parseOperand();
+        Node comparison = switch (operator.text()) {
+            case "==" -> right instanceof Constant constant
+                ? payload -> valueEquals(left.eval(payload), constant.value())
+                : payload -> valueEquals(left.eval(payload), right.eval(payload));
+            case "!=" -> right instanceof Constant constant
+                ? payload -> !valueEquals(left.eval(payload), constant.value())
+                : payload -> !valueEquals(left.eval(payload), right.eval(payload));
+            case "<" -> ordered(left, right, order -> order < 0);
+            case "<=" -> ordered(left, right, order -> order <= 0);
+            case ">" -> ordered(left, right, order -> order > 0);
+            case ">=" -> ordered(left, right, order -> order >= 0);
+            case "startsWith" -> payload -> left.eval(payload) instanceof String value
+                && right.eval(payload) instanceof String prefix && value.startsWith(prefix);
+            case "endsWith" -> payload -> left.eval(payload) instanceof String value
+                && right.eval(payload) instanceof String suffix && value.endsWith(suffix);
+            case "contains" -> payload -> contains(left.eval(payload), right.eval(payload));
+            case "matches" -> matches(left, right, operator);
+            default -> in(left, right);
+        };
+        return fold(comparison, left, right);
+    }
+
+    private static Node ordered(Node left, Node right, IntPredicate test) {
+        return payload -> {
+            int order = compare(left.eval(payload), right.eval(payload));
+            return order != INCOMPARABLE && test.test(order);
+        };
+    }
+
+    private Node matches(Node left, Node right, Token operator) {
+        if (!(right instanceof Constant constant) || !(constant.value() instanceof String regex)) {
+            throw new ExpressionException("'matches' needs a string literal", source, operator.position());
+        }
+        try {
+            Pattern pattern = Pattern.compile(regex);
+            return payload -> left.eval(payload) instanceof String value && pattern.matcher(value).matches();
+        } catch (PatternSyntaxException e) {
+            throw new ExpressionException("Invalid regex " + regex, source, operator.position());
+        }
+    }
+
+    private Node in(Node left, Node right) {
+        if (right instanceof Constant constant && constant.value() instanceof List<?> values) {
+            Set<Object> set = new HashSet<>();
+            values.forEach(value -> set.add(normalize(value)));
+            return payload -> set.contains(normalize(left.eval(payload)));
+        }
+        return payload -> right.eval(payload) instanceof Collection<?> values && containsValue(values, left.eval(payload));
+    }
+
+    private Node parseOperand() {
+        Token token = next();
+        switch (token.type()) {
+            case NUMBER, STRING -> {
+                return new Constant(token.value());
+            }
+            case IDENT -> {
+                switch (token.text()) {
+                    case "true" -> {
+                        return new Constant(Boolean.TRUE);
+                    }
+                    case "false" -> {
+                        return new Constant(Boolean.FALSE);
+                    }
+                    case "null" -> {
+                        return new Constant(null);
+                    }
+                    default -> {
+                        if (peek().text().equals("(")) {
+                            return parseFunction(token);
+                        }
+                        return path(token);
+                    }
+                }
+            }
+            case SYMBOL -> {
+                switch (token.text()) {
+                    case "(" -> {
+                        Node inner = parseOr();
+                        expect(TokenType.SYMBOL, ")");
+                        return inner;
+                    }
+                    case "[" -> {
+                        return parseList();
+                    }
+                    case "-" -> {
+                        Token number = expect(TokenType.NUMBER, null);
+                        return new Constant(number.value() instanceof Long value ? (Object) (-value) : (Object) (-(Double) number.value()));
+                    }
+                    default -> throw new ExpressionException("Unexpected '" + token.text() + "'", source, token.position());
+                }
+            }
+            default -> throw new ExpressionException("Unexpected end", source, token.position());
+        }
+    }
+
+    private Node parseList() {
+        List<Object> values = new ArrayList<>();
+        if (!peek().text().equals("]")) {
+            do {
+                Token start = peek();
+                if (!(parseOperand() instanceof Constant constant)) {
+                    throw new ExpressionException("List elements must be literals", source, start.position());
+                }
+                values.add(constant.value());
+            } while (acceptKeyword(",", null));
+        }
+        expect(TokenType.SYMBOL, "]");
+        return new Constant(Collections.unmodifiableList(values));
+    }
+
+    private Node parseFunction(Token name) {
+        expect(TokenType.SYMBOL, "(");
+        Node argument = parseOr();
+        expect(TokenType.SYMBOL, ")");
+        return switch (name.text()) {
+            case "exists" -> {
+                if (!(argument instanceof PathNode path)) {
+                    throw new ExpressionException("exists() needs a field path", source, name.position());
+                }
+                yield payload -> path.exists(payload);
+            }
+            case "size" -> fold(payload -> size(argument.eval(payload)), argument);
+            case "lower" -> fold(payload -> argument.eval(payload) instanceof String value
+                ? value.toLowerCase(Locale.ROOT) : null, argument);
+            default -> throw new ExpressionException("Unknown function " + name.text(), source, name.position());
+        };
+    }
+
+    private Node path(Token token) {
+        String[] segments = token.text().split("\\.");
+        if (segments.length > 1 && PAYLOAD_PREFIX.equals(segments[0])) {
+            String[] stripped = new String[segments.length - 1];
+            System.arraycopy(segments, 1, stripped, 0, stripped.length);
+            segments = stripped;
+        }
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                throw new ExpressionException("Invalid field path " + token.text(), source, token.position());
+            }
+        }
+        return new PathNode(segments);
+    }
+
+    /**
+     * Replaces a node by its value when all its operands are constants.
+     */
+    private static Node fold(Node node, Node... operands) {
+        for (Node operand : operands) {
+            if (!(operand instanceof Constant)) {
+                return node;
+            }
+        }
+        return new Constant(node.eval(Map.of()));
+    }
+
+    private static boolean isTrue(Object value) {
+        return Boolean.TRUE.equals(value);
+    }
+
+    private static boolean valueEquals(Object left, Object right) {
+        if (left == right) {
+            return true;
+        }
+        if (left == null || right == null) {
+            return false;
+        }
+        if (left instanceof Number leftNumber && right instanceof Number rightNumber) {
+            return compareNumbers(leftNumber, rightNumber) == 0;
+        }
+        return left.equals(right);
+    }
+
+    /**
+     * @return The order of two numbers or two strings, {@link #INCOMPARABLE} for anything else
+     */
+    private static int compare(Object left, Object right) {
+        if (left instanceof Number leftNumber && right instanceof Number rightNumber) {
+            return Integer.signum(compareNumbers(leftNumber, rightNumber));
+        }
+        if (left instanceof String leftString && right instanceof String rightString) {
+            return Integer.signum(leftString.compareTo(rightString));
+        }
+        return INCOMPARABLE;
+    }
+
+    private static int compareNumbers(Number left, Number right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            return Long.compare(left.longValue(), right.longValue());
+        }
+        return Double.compare(left.doubleValue(), right.doubleValue());
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    /**
+     * Integral numbers as Long and other numbers as Double, so set lookups match whatever type the payload has.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Number number && !(value instanceof Long) && !(value instanceof Double)) {
+            return isIntegral(number) ? (Object) number.longValue() : (Object) number.doubleValue();
+        }
+        if (value instanceof Double number && number == Math.rint(number) && !Double.isInfinite(number)) {
+            return number.longValue();
+        }
+        return value;
+    }
+
+    private static boolean contains(Object container, Object value) {
+        if (container instanceof String string) {
+            return value instanceof String part && string.contains(part);
+        }
+        if (container instanceof Collection<?> collection) {
+            return containsValue(collection, value);
+        }
+        return container instanceof Map<?, ?> map && value != null && map.containsKey(value.toString());
+    }
+
+    private static boolean containsValue(Collection<?> values, Object value) {
+        for (Object candidate : values) {
+            if (valueEquals(candidate, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object size(Object value) {
+        if (value instanceof String string) {
+            return (long) string.length();
+        }
+        if (value instanceof Collection<?> collection) {
+            return (long) collection.size();
+        }
+        if (value instanceof Map<?, ?> map) {
+            return (long) map.size();
+        }
+        return null;
+    }
+
+    private Token peek() {
+        return tokens.get(index);
+    }
+
+    private Token next() {
+        Token token = tokens.get(index);
+        if (token.type() != TokenType.END) {
+            index++;
+        }
+        return token;
+    }
+
+    private boolean acceptKeyword(String symbol, String word) {
+        Token token = peek();
+        if ((token.type() == TokenType.SYMBOL && token.text().equals(symbol))
+                || (word != null && token.type() == TokenType.IDENT && token.text().equals(word))) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private Token expect(TokenType type, String text) {
+        Token token = next();
+        if (token.type() != type || (text != null && !text.equals(token.text()))) {
+            String expected = text != null ? "'" + text + "'" : type.name().toLowerCase(Locale.ROOT);
+            throw new ExpressionException("Expected " + expected + " but found '" + token.text() + "'", source, token.position());
+        }
+        return token;
+    }
+
+    private List<Token> tokenize(String expression) {
+        List<Token> result = new ArrayList<>();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < expression.length() && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+                    i++;
+                }
+                String text = expression.substring(start, i);
+                try {
+                    Object value = text.contains(".") ? (Object) Double.parseDouble(text) : (Object) Long.parseLong(text);
+                    result.add(new Token(TokenType.NUMBER, text, value, start));
+                } catch (NumberFormatException e) {
+                    throw new ExpressionException("Invalid number " + text, expression, start);
+                }
+            } else if (c == '\'' || c == '"') {
+                int start = i++;
+                StringBuilder value = new StringBuilder();
+                while (i < expression.length() && expression.charAt(i) != c) {
+                    if (expression.charAt(i) == '\\' && i + 1 < expression.length()) {
+                        i++;
+                    }
+                    value.append(expression.charAt(i++));
+                }
+                if (i >= expression.length()) {
+                    throw new ExpressionException("Unterminated string", expression, start);
+                }
+                i++;
+                result.add(new Token(TokenType.STRING, expression.substring(start, i), value.toString(), start));
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i))
+                        || expression.charAt(i) == '_' || expression.charAt(i) == '.')) {
+                    i++;
+                }
+                result.add(new Token(TokenType.IDENT, expression.substring(start, i), null, start));
+            } else {
+                String two = i + 1 < expression.length() ? expression.substring(i, i + 2) : "";
+                String symbol = switch (two) {
+                    case "==", "!=", "<=", ">=", "&&", "||" -> two;
+                    default -> switch (c) {
+                        case '<', '>', '!', '(', ')', '[', ']', ',', '-' -> String.valueOf(c);
+                        default -> throw new ExpressionException("Unexpected character '" + c + "'", expression, i);
+                    };
+                };
+                result.add(new Token(TokenType.SYMBOL, symbol, null, i));
+                i += symbol.length();
+            }
+        }
+        result.add(new Token(TokenType.END, "<end>", null, expression.length()));
+        return result;
+    }
+}
@@ -0,0 +1,177 @@
+package com.lily.metadataProcessingService.schema;
+
+import com.lily.metadataProcessingService.dto.FieldChange;
+import org.apache.avro.JsonProperties;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Avro schema of the CDC envelope for one (tenant, table).
+ * The before/after states are records with one nullable string field per column, in a fixed order,
+ * so encoding is a walk over {@link #getColumns()}. New columns are only ever appended with a null
+ * default, which keeps every version readable with the previous one.
+ */
+public final class CdcSchema {
+
+    /** Field property holding the original column name, since Avro field names are restricted. */
+    public static final String COLUMN_PROPERTY = "column";
+
+    private static final String NAMESPACE_PREFIX = "com.lily.metadata.cdc";
+    private static final List<String> ENVELOPE_FIELDS = List.of(
+        "eventId", "operation", "table", "primaryKey", "primaryKeyValue", "timestamp", "user", "version");
+
+    private final Schema schema;
+    private final long fingerprint;
+    private final List<String> columns;
+    private final Set<String> columnSet;
+
+    private CdcSchema(Schema schema, List<String> columns) {
+        this.schema = schema;
+        this.fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+        this.columns = List.copyOf(columns);
+        this.columnSet = new HashSet<>(columns);
+    }
+
+    /**
+     * Derives the schema for a table from its columns.
+     *
+     * @param tenantId Tenant the table belongs to
+     * @param table Table name
+     * @param columns Columns in field order
+     * @return The derived schema
+     */
+    public static CdcSchema derive(String tenantId, String table, Collection<String> columns) {
+        String namespace = NAMESPACE_PREFIX + "." + toAvroName(tenantId) + "." + toAvroName(table);
+        Schema nullableString = Schema.createUnion(Schema.create(Schema.Type.NULL), Schema.create(Schema.Type.STRING));
+
+        List<Schema.Field> stateFields = new ArrayList<>(columns.size());
+        Set<String> usedNames = new HashSet<>();
+        for (String column : columns) {
+            String name = toAvroName(column);
+            String candidate = name;
+            for (int i = 1; !usedNames.add(candidate); i++) {
+                candidate = name + "_" + i;
+            }
+            Schema.Field field = new Schema.Field(candidate, nullableString, null, JsonProperties.NULL_VALUE);
+            field.addProp(COLUMN_PROPERTY, column);
+            stateFields.add(field);
+        }
+        Schema state = Schema.createRecord("State", null, namespace, false, stateFields);
+        Schema nullableState = Schema.createUnion(Schema.create(Schema.Type.NULL), state);
+
+        List<Schema.Field> envelopeFields = new ArrayList<>(ENVELOPE_FIELDS.size() + 4);
+        ENVELOPE_FIELDS.forEach(name ->
+            envelopeFields.add(new Schema.Field(name, nullableString, null, JsonProperties.NULL_VALUE)));
+        envelopeFields.add(new Schema.Field("before", nullableState, null, JsonProperties.NULL_VALUE));
+        envelopeFields.add(new Schema.Field("after", nullableState, null, JsonProperties.NULL_VALUE));
+        envelopeFields.add(new Schema.Field("changes", nullableChanges(namespace, nullableString), null, JsonProperties.NULL_VALUE));
+        envelopeFields.add(new Schema.Field("outOfOrder",
+            Schema.createUnion(Schema.create(Schema.Type.NULL), Schema.create(Schema.Type.BOOLEAN)), null, JsonProperties.NULL_VALUE));
+        Schema envelope = Schema.createRecord("CdcEnvelope", null, namespace, false, envelopeFields);
+
+        return new CdcSchema(envelope, new ArrayList<>(columns));
+    }
+
+    private static Schema nullableChanges(String namespace, Schema nullableString) {
+        List<String> types = new ArrayList<>();
+        for (FieldChange.Type type : FieldChange.Type.values()) {
+            types.add(type.name());
+        }
+        Schema change = Schema.createRecord("FieldChange", null, namespace, false, List.of(
+            new Schema.Field("path", Schema.create(Schema.Type.STRING)),
+            new Schema.Field("type", Schema.createEnum("ChangeType", null, namespace, types)),
+            new Schema.Field("oldValue", nullableString, null, JsonProperties.NULL_VALUE),
+            new Schema.Field("newValue", nullableString, null, JsonProperties.NULL_VALUE)));
+        return Schema.createUnion(Schema.create(Schema.Type.NULL), Schema.createArray(change));
+    }
+
+    /**
+     * Rebuilds the column order from a previously registered schema.
+     *
+     * @param schema Envelope schema as stored in the registry
+     * @return The schema with its columns
+     */
+    public static CdcSchema fromSchema(Schema schema) {
+        Schema state = schema.getField("after").schema().getTypes().get(1);
+        List<String> columns = new ArrayList<>(state.getFields().size());
+        state.getFields().forEach(field -> {
+            String column = field.getProp(COLUMN_PROPERTY);
+            columns.add(column != null ? column : field.name());
+        });
+        return new CdcSchema(schema, columns);
+    }
+
+    /**
+     * @return Whether the schema has every envelope field the serializer writes, schemas registered
+     * before an envelope field was added have to be derived again from their columns
+     */
+    public boolean hasCurrentEnvelope() {
+        return schema.getField("changes") != null && schema.getField("outOfOrder") != null;
+    }
+
+    public boolean covers(Map<String, String> state) {
+        return state == null || columnSet.containsAll(state.keySet());
+    }
+
+    /**
+     * Evolves the schema so it also covers the given states. Existing columns keep their position.
+     *
+     * @return This schema when nothing is missing, otherwise a new version with the columns appended
+     */
+    public CdcSchema withColumnsOf(String tenantId, String table, Map<String, String> before, Map<String, String> after) {
+        if (covers(before) && covers(after)) {
+            return this;
+        }
+        // Sorted so instances that see the same new columns derive the same schema
+        Set<String> added = new TreeSet<>();
+        if (before != null) {
+            before.keySet().stream().filter(column -> !columnSet.contains(column)).forEach(added::add);
+        }
+        if (after != null) {
+            after.keySet().stream().filter(column -> !columnSet.contains(column)).forEach(added::add);
+        }
+        List<String> merged = new ArrayList<>(columns);
+        merged.addAll(added);
+        return derive(tenantId, table, merged);
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    static String toAvroName(String value) {
+        if (value == null || value.isEmpty()) {
+            return "_";
+        }
+        StringBuilder name = new StringBuilder(value.length() + 1);
+        char first = value.charAt(0);
+        if (!isNameStart(first)) {
+            name.append('_');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            name.append(isNameStart(c) || (c >= '0' && c <= '9') ? c : '_');
+        }
+        return name.toString();
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+}
@@ -0,0 +1,60 @@
+package com.lily.metadataProcessingService.schema;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the CDC schema of every (tenant, table) in memory.
+ * A schema is derived (or loaded from the registry) the first time a table is seen and only
+ * rebuilt when an event brings a column the schema does not have yet.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CdcSchemaCache {
+
+    private final LocalSchemaRegistry schemaRegistry;
+    private final Map<String, CdcSchema> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a schema that covers all columns of the given states.
+     *
+     * @param tenantId Tenant the table belongs to
+     * @param table Table name
+     * @param before State before the change, may be null
+     * @param after State after the change, may be null
+     * @return The cached schema, evolved and registered when the states had new columns
+     */
+    public CdcSchema schemaFor(String tenantId, String table, Map<String, String> before, Map<String, String> after) {
+        String subject = subject(tenantId, table);
+        CdcSchema current = schemas.get(subject);
+        if (current != null && current.covers(before) && current.covers(after)) {
+            return current;
+        }
+        return schemas.compute(subject, (key, existing) -> {
+            CdcSchema base = existing != null
+                ? existing
+                : schemaRegistry.latest(key).map(CdcSchema::fromSchema).orElse(null);
+            if (base != null && !base.hasCurrentEnvelope()) {
+                base = CdcSchema.derive(tenantId, table, base.getColumns());
+                schemaRegistry.register(key, base.getSchema());
+            }
+            CdcSchema next = (base != null ? base : CdcSchema.derive(tenantId, table, List.of()))
+                .withColumnsOf(tenantId, table, before, after);
+            if (next != base) {
+                log.info("Schema of {} now has {} columns", key, next.getColumns().size());
+                schemaRegistry.register(key, next.getSchema());
+            }
+            return next;
+        });
+    }
+
+    static String subject(String tenantId, String table) {
+        return tenantId + ":" + table;
+    }
+}
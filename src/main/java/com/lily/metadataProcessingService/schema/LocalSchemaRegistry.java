@@ -0,0 +1,115 @@
+package com.lily.metadataProcessingService.schema;
+
+import com.lily.metadataProcessingService.config.OutboundConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * File based stand-in for a schema registry.
+ * Schemas are stored by fingerprint as {@code <dir>/<fingerprint>.avsc}, which is also what the
+ * outbound messages carry, and {@code <dir>/subjects/<subject>.latest} points to the latest
+ * fingerprint of a subject. Consumers can resolve a writer schema by reading the file for the fingerprint.
+ */
+@Slf4j
+@Component
+public class LocalSchemaRegistry {
+
+    private final Path directory;
+    private final Path subjectsDirectory;
+    private final Map<Long, Schema> schemasByFingerprint = new ConcurrentHashMap<>();
+
+    public LocalSchemaRegistry(OutboundConfig outboundConfig) {
+        this.directory = Path.of(outboundConfig.getSchemaRegistryDir());
+        this.subjectsDirectory = directory.resolve("subjects");
+    }
+
+    /**
+     * Registers a schema and makes it the latest version of the subject.
+     *
+     * @param subject Subject the schema belongs to
+     * @param schema The schema
+     * @return Fingerprint (CRC-64-AVRO of the canonical form) of the schema
+     */
+    public long register(String subject, Schema schema) {
+        long fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+        try {
+            Files.createDirectories(subjectsDirectory);
+            Path schemaFile = schemaFile(fingerprint);
+            if (!Files.exists(schemaFile)) {
+                writeAtomically(schemaFile, schema.toString(true));
+            }
+            writeAtomically(subjectFile(subject), Long.toHexString(fingerprint));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to register schema for subject " + subject, e);
+        }
+        schemasByFingerprint.put(fingerprint, schema);
+        log.info("Registered schema {} for subject {}", Long.toHexString(fingerprint), subject);
+        return fingerprint;
+    }
+
+    /**
+     * @param subject The subject
+     * @return Latest registered schema of the subject, empty when the subject is unknown
+     */
+    public Optional<Schema> latest(String subject) {
+        Path subjectFile = subjectFile(subject);
+        if (!Files.exists(subjectFile)) {
+            return Optional.empty();
+        }
+        try {
+            long fingerprint = Long.parseUnsignedLong(Files.readString(subjectFile).trim(), 16);
+            return byFingerprint(fingerprint);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read latest schema of subject " + subject, e);
+        }
+    }
+
+    /**
+     * @param fingerprint Fingerprint carried by an outbound message
+     * @return The schema, empty when it was never registered
+     */
+    public Optional<Schema> byFingerprint(long fingerprint) {
+        Schema cached = schemasByFingerprint.get(fingerprint);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Path schemaFile = schemaFile(fingerprint);
+        if (!Files.exists(schemaFile)) {
+            return Optional.empty();
+        }
+        try {
+            Schema schema = new Schema.Parser().parse(schemaFile.toFile());
+            schemasByFingerprint.put(fingerprint, schema);
+            return Optional.of(schema);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read schema " + Long.toHexString(fingerprint), e);
+        }
+    }
+
+    private Path schemaFile(long fingerprint) {
+        return directory.resolve(Long.toHexString(fingerprint) + ".avsc");
+    }
+
+    private Path subjectFile(String subject) {
+        return subjectsDirectory.resolve(URLEncoder.encode(subject, StandardCharsets.UTF_8) + ".latest");
+    }
+
+    private void writeAtomically(Path target, String content) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        Files.writeString(temp, content);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,172 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.config.AdmissionConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control in front of the ingestion executor.
+ * Keeps an AIMD concurrency limit: it grows by one while requests finish under the target latency
+ * and the limit is in use, and shrinks by the backoff ratio when a request is slow or fails.
+ * It also caps the bytes of payload held by in-flight requests.
+ * HTTP callers are rejected when full, Kafka callers wait and the inbound listener containers are paused
+ * until in-flight work drops below the resume ratio.
+ */
+@Slf4j
+@Component
+public class AdmissionController {
+
+    private final AdmissionConfig config;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private long inFlightBytes;
+    private boolean listenersPaused;
+
+    public AdmissionController(AdmissionConfig config,
+                               KafkaListenerEndpointRegistry listenerRegistry,
+                               MeterRegistry meterRegistry) {
+        this.config = config;
+        this.listenerRegistry = listenerRegistry;
+        this.limit = config.getInitialLimit();
+        Gauge.builder("metadata.admission.limit", this, c -> c.limit).register(meterRegistry);
+        Gauge.builder("metadata.admission.inflight", this, c -> c.inFlight).register(meterRegistry);
+        Gauge.builder("metadata.admission.inflight.bytes", this, c -> c.inFlightBytes).register(meterRegistry);
+    }
+
+    /**
+     * Admits a request without waiting.
+     *
+     * @param bytes Estimated payload size of the request
+     * @return Permit to release when the work is done, or null when the service is full
+     */
+    public Permit tryAcquire(long bytes) {
+        lock.lock();
+        try {
+            return hasRoom(bytes) ? admit(bytes) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits a request, waiting for room. Pauses the inbound Kafka listeners while waiting
+     * so no more records are polled until in-flight work drains.
+     *
+     * @param bytes Estimated payload size of the request
+     * @return Permit to release when the work is done
+     */
+    public Permit acquire(long bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            while (!hasRoom(bytes)) {
+                if (!listenersPaused) {
+                    pauseListeners();
+                }
+                released.await(100, TimeUnit.MILLISECONDS);
+            }
+            return admit(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRetryAfterSeconds() {
+        return config.getRetryAfterSeconds();
+    }
+
+    private boolean hasRoom(long bytes) {
+        if (inFlight == 0) {
+            // Always let one request through, even if it is larger than the whole budget
+            return true;
+        }
+        return inFlight < (int) limit && inFlightBytes + bytes <= config.getMaxInFlightBytes();
+    }
+
+    private Permit admit(long bytes) {
+        inFlight++;
+        inFlightBytes += bytes;
+        return new Permit(bytes, System.nanoTime());
+    }
+
+    private void onRelease(Permit permit, boolean succeeded) {
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - permit.startNanos);
+        lock.lock();
+        try {
+            if (!succeeded || latencyMs > config.getTargetLatencyMs()) {
+                limit = Math.max(config.getMinLimit(), limit * config.getBackoffRatio());
+            } else if (inFlight * 2 >= limit) {
+                limit = Math.min(config.getMaxLimit(), limit + 1);
+            }
+            inFlight--;
+            inFlightBytes -= permit.bytes;
+            released.signalAll();
+
+            if (listenersPaused
+                && inFlight < limit * config.getResumeRatio()
+                && inFlightBytes < config.getMaxInFlightBytes() * config.getResumeRatio()) {
+                resumeListeners();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pauseListeners() {
+        log.warn("Admission limit reached (inFlight={}, bytes={}, limit={}). Pausing Kafka listeners",
+            inFlight, inFlightBytes, (int) limit);
+        inboundContainers().forEach(MessageListenerContainer::pause);
+        listenersPaused = true;
+    }
+
+    private void resumeListeners() {
+        log.info("Admission has room again (inFlight={}, bytes={}, limit={}). Resuming Kafka listeners",
+            inFlight, inFlightBytes, (int) limit);
+        inboundContainers().forEach(MessageListenerContainer::resume);
+        listenersPaused = false;
+    }
+
+    private List<MessageListenerContainer> inboundContainers() {
+        return config.getPausedListenerIds().stream()
+            .map(listenerRegistry::getListenerContainer)
+            .filter(Objects::nonNull)
+            .toList();
+    }
+
+    /**
+     * A slot in the admission controller. Must be released exactly once.
+     */
+    public class Permit {
+        private final long bytes;
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long bytes, long startNanos) {
+            this.bytes = bytes;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * May be called from the thread that completes the work's publish, not the one that acquired it.
+         */
+        public void release(boolean succeeded) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(this, succeeded);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.config.ProcessingConfig;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import com.lily.metadataProcessingService.producer.FailedRecordPublisher;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.lily.metadataProcessingService.common.RetryHeaders.ORIGINAL_TOPIC;
+import static com.lily.metadataProcessingService.producer.FailedRecordPublisher.headerValue;
+
+/**
+ * Replays records from the dead-letter topic back to the topic they were first consumed from.
+ * Replayed records start over with a fresh retry budget. A dead-letter record is only committed once its
+ * replay was acknowledged, the replay stops at the first one that was not.
+ * Records of other topics are skipped when replaying a single topic, and records that do not say which topic
+ * they came from are moved to the parking topic, so neither holds back the records behind them.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeadLetterReplayService {
+
+    private static final String REPLAY_GROUP_ID = "metadata-dlq-replay";
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(2);
+
+    private final ConsumerFactory<String, String> consumerFactory;
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final FailedRecordPublisher failedRecordPublisher;
+    private final ProcessingConfig processingConfig;
+
+    @Value("${spring.kafka.topic.parking}")
+    private String parkingTopic;
+
+    /**
+     * Replays up to {@code maxRecords} dead-letter records.
+     *
+     * @param maxRecords Max number of records to replay
+     * @param originalTopic Only replay records of this topic, all topics when null
+     * @return Number of records replayed
+     * @throws ProcessingException when a replayed record was not acknowledged, records replayed before it are committed
+     */
+    public synchronized int replay(int maxRecords, String originalTopic) {
+        int replayed = 0;
+        try (Consumer<String, String> consumer = consumerFactory.createConsumer(REPLAY_GROUP_ID, "replay")) {
+            consumer.subscribe(List.of(failedRecordPublisher.getDeadLetterTopic()));
+            Set<TopicPartition> stopped = new HashSet<>();
+            while (replayed < maxRecords) {
+                ConsumerRecords<String, String> records = consumer.poll(POLL_TIMEOUT);
+                if (records.isEmpty()) {
+                    break;
+                }
+                // Commit per partition only up to the first record that was not handled, and stop
+                // reading that partition once the limit is reached, so records past it stay in the topic
+                List<Replay> sent = new ArrayList<>();
+                int pending = 0;
+                for (ConsumerRecord<String, String> record : records) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    if (stopped.contains(partition)) {
+                        continue;
+                    }
+                    if (replayed + pending >= maxRecords) {
+                        stopped.add(partition);
+                        consumer.pause(List.of(partition));
+                        continue;
+                    }
+                    String targetTopic = headerValue(record.headers(), ORIGINAL_TOPIC);
+                    if (targetTopic == null) {
+                        log.warn("Dead-letter record {}@{} has no original topic, moving it to {}",
+                            partition, record.offset(), parkingTopic);
+                        ProducerRecord<String, String> parked = new ProducerRecord<>(parkingTopic, record.key(), record.value());
+                        record.headers().forEach(parked.headers()::add);
+                        sent.add(new Replay(partition, record.offset(), kafkaTemplate.send(parked), false));
+                        continue;
+                    }
+                    if (originalTopic != null && !originalTopic.equals(targetTopic)) {
+                        sent.add(new Replay(partition, record.offset(), CompletableFuture.completedFuture(null), false));
+                        continue;
+                    }
+                    ProducerRecord<String, String> replayRecord =
+                        new ProducerRecord<>(targetTopic, record.key(), record.value());
+                    record.headers().forEach(header -> {
+                        if (!header.key().startsWith("x-")) {
+                            replayRecord.headers().add(header);
+                        }
+                    });
+                    sent.add(new Replay(partition, record.offset(), kafkaTemplate.send(replayRecord), true));
+                    pending++;
+                }
+                kafkaTemplate.flush();
+
+                // Per partition, commit up to the first replay the broker did not acknowledge
+                Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+                Set<TopicPartition> failed = new HashSet<>();
+                Exception failure = null;
+                for (Replay replay : sent) {
+                    if (failed.contains(replay.partition)) {
+                        continue;
+                    }
+                    try {
+                        replay.result.get(processingConfig.getPublishTimeoutMs(), TimeUnit.MILLISECONDS);
+                        commits.put(replay.partition, new OffsetAndMetadata(replay.offset + 1));
+                        if (replay.counted) {
+                            replayed++;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failed.add(replay.partition);
+                        failure = e;
+                    } catch (ExecutionException | TimeoutException e) {
+                        failed.add(replay.partition);
+                        failure = e;
+                    }
+                }
+                if (!commits.isEmpty()) {
+                    consumer.commitSync(commits);
+                }
+                if (failure != null) {
+                    throw new ProcessingException("Dead-letter replay stopped after " + replayed
+                        + " records, a replayed or parked record was not acknowledged", failure);
+                }
+            }
+        }
+        log.info("Replayed {} records from dead-letter topic", replayed);
+        return replayed;
+    }
+
+    /**
+     * @param counted Whether the record was replayed, skipped and parked records are not counted
+     */
+    private record Replay(TopicPartition partition, long offset, CompletableFuture<SendResult<String, String>> result,
+                          boolean counted) {
+    }
+}
@@ -0,0 +1,109 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.archive.HistoryArchive;
+import com.lily.metadataProcessingService.archive.HistorySegmentWriter;
+import com.lily.metadataProcessingService.config.HistoryConfig;
+import com.lily.metadataProcessingService.repository.HistoryPartitionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.YearMonth;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps metadata_history partitioned by month.
+ * Each run makes sure the current month and {@code partitionMonthsAhead} following months have a partition,
+ * detaches partitions that fell out of {@code retentionMonths}, exports every detached partition into the
+ * local {@link HistoryArchive} and only then drops it. A partition whose export fails stays detached and
+ * is exported again on the next run. Every step is tried on its own, one failing partition does not hold up the rest.
+ *
+ * Runs hold a database advisory lock, so with several replicas only one of them maintains partitions at a time.
+ * The archive is a local directory though, so partitions are only exported and dropped when
+ * {@code archiveOnPersistentVolume} declares it a persistent volume, otherwise they are kept detached in the database.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class HistoryPartitionManager {
+
+    private final HistoryPartitionRepository partitionRepository;
+    private final HistoryArchive historyArchive;
+    private final HistoryConfig config;
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${metadata.history.partition-check-interval-ms:3600000}")
+    public void maintainPartitions() {
+        if (!config.isPartitioningEnabled()) {
+            return;
+        }
+        try {
+            if (!partitionRepository.runExclusively(this::maintain)) {
+                log.debug("History partitions are maintained by another instance");
+            }
+        } catch (Exception e) {
+            log.error("Failed to maintain history partitions: {}", e.getMessage(), e);
+        }
+    }
+
+    private void maintain() {
+        YearMonth current = YearMonth.now();
+        for (int ahead = 0; ahead <= config.getPartitionMonthsAhead(); ahead++) {
+            YearMonth month = current.plusMonths(ahead);
+            try {
+                int moved = partitionRepository.createPartition(month);
+                if (moved > 0) {
+                    log.info("Moved {} rows of {} out of the default history partition", moved, month);
+                }
+            } catch (Exception e) {
+                log.error("Failed to create the history partition of {}: {}", month, e.getMessage(), e);
+            }
+        }
+
+        YearMonth oldestKept = current.minusMonths(config.getRetentionMonths());
+        for (String partition : new TreeSet<>(partitionRepository.attachedPartitions())) {
+            if (HistoryPartitionRepository.monthOf(partition).isBefore(oldestKept)) {
+                try {
+                    log.info("Detaching history partition {}", partition);
+                    partitionRepository.detachPartition(partition);
+                } catch (Exception e) {
+                    log.error("Failed to detach history partition {}: {}", partition, e.getMessage(), e);
+                }
+            }
+        }
+
+        Set<String> detached = new TreeSet<>(partitionRepository.detachedPartitions());
+        if (detached.isEmpty()) {
+            return;
+        }
+        if (!config.isArchiveOnPersistentVolume()) {
+            log.warn("Keeping detached history partitions {}, the archive directory is not declared persistent", detached);
+            return;
+        }
+        for (String partition : detached) {
+            archive(partition);
+        }
+    }
+
+    private void archive(String partition) {
+        if (!historyArchive.contains(partition)) {
+            long start = System.currentTimeMillis();
+            try (HistorySegmentWriter segment = historyArchive.newSegment(partition)) {
+                partitionRepository.exportPartition(partition, config.getExportFetchSize(), segment::append);
+                segment.finish();
+                log.info("Archived history partition {} with {} rows in {}ms",
+                    partition, segment.rowCount(), System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("Failed to archive history partition {}, keeping it detached: {}", partition, e.getMessage(), e);
+                return;
+            }
+        }
+        try {
+            partitionRepository.dropPartition(partition);
+            log.info("Dropped archived history partition {}", partition);
+        } catch (Exception e) {
+            log.error("Failed to drop archived history partition {}: {}", partition, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.archive.HistoryArchive;
+import com.lily.metadataProcessingService.dto.MetadataHistoryEntry;
+import com.lily.metadataProcessingService.repository.MetadataHistoryRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lineage of an entity across the live metadata_history partitions and the local archive.
+ */
+@Service
+@RequiredArgsConstructor
+public class HistoryQueryService {
+
+    private final MetadataHistoryRepository historyRepository;
+    private final HistoryArchive historyArchive;
+
+    /**
+     * @return Changes of the entity with a timestamp in [from, to), ordered by version
+     */
+    public List<MetadataHistoryEntry> findHistory(String entityKey, Instant from, Instant to) {
+        List<MetadataHistoryEntry> history = new ArrayList<>();
+        for (Object[] row : historyArchive.findByEntityKey(entityKey, from.toEpochMilli(), to.toEpochMilli())) {
+            history.add(fromArchive(row));
+        }
+        history.addAll(historyRepository.findByEntityKey(entityKey, from, to));
+        history.sort(Comparator.comparingLong(MetadataHistoryEntry::getVersion));
+        return history;
+    }
+
+    /**
+     * Maps a row in {@link HistoryArchive#COLUMNS} order.
+     */
+    private MetadataHistoryEntry fromArchive(Object[] row) {
+        return MetadataHistoryEntry.builder()
+            .eventId((String) row[0])
+            .entityKey((String) row[1])
+            .tenantId((String) row[2])
+            .operation((String) row[3])
+            .version(row[4] != null ? (Long) row[4] : 0)
+            .timestamp(row[5] != null ? Instant.ofEpochMilli((Long) row[5]) : null)
+            .user((String) row[6])
+            .beforeState(historyRepository.readState((String) row[7]))
+            .afterState(historyRepository.readState((String) row[8]))
+            .changes(historyRepository.readChanges((String) row[9]))
+            .build();
+    }
+}
@@ -1,14 +1,28 @@
 package com.lily.metadataProcessingService.service;
 
 import com.lily.metadataProcessingService.common.MetadataStatus;
+import com.lily.metadataProcessingService.config.ApplicationProperties.TopicConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
 import com.lily.metadataProcessingService.dto.MetadataRequest;
 import com.lily.metadataProcessingService.dto.MetadataStatusResponse;
+import com.lily.metadataProcessingService.exception.AdmissionRejectedException;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+import com.lily.metadataProcessingService.rule.ProcessingRules;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static com.lily.metadataProcessingService.util.CommonUtil.estimatePayloadBytes;
 
 /**
  * Handles the initial step and queueing of metadata.
@@ -22,19 +36,37 @@ public class IngestionService {
 
     private final ProcessingService processingService;
     private final StatusTrackingService statusTrackingService;
-    private final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private final AdmissionController admissionController;
+    private final PriorityScheduler priorityScheduler;
+    private final ProcessingRules processingRules;
 
+    /**
+     * Queues metadata for asynchronous processing.
+     * The request is admitted only when the admission controller has room for it.
+     *
+     * @param request The metadata request to process
+     * @throws AdmissionRejectedException if the service is at its concurrency or memory limit
+     */
     public void ingestMetadata(MetadataRequest request) {
         log.info("Starting metadata ingestion for eventId: {}", request.getEventId());
+
+        AdmissionController.Permit permit = admissionController.tryAcquire(estimatePayloadBytes(request.getPayload()));
+        if (permit == null) {
+            log.warn("Rejecting metadata, service is at capacity. EventId: {}", request.getEventId());
+            throw new AdmissionRejectedException("Too many metadata requests in flight",
+                admissionController.getRetryAfterSeconds());
+        }
         
         statusTrackingService.updateStatus(request.getEventId(), 
             MetadataStatus.PENDING, "Started processing");
         
         try {
             log.debug("Queueing metadata for processing. EventId: {}", request.getEventId());
-            executorService.submit(() -> processingService.processMetadata(request));
+            priorityScheduler.submit(resolvePriority(request),
+                () -> releaseOnPublish(permit, () -> processingService.processMetadata(request)));
             log.info("Successfully queued metadata. EventId: {}", request.getEventId());
         } catch (Exception e) {
+            permit.release(false);
             log.error("Failed to ingest metadata. EventId: {}, Error: {}", 
                 request.getEventId(), e.getMessage(), e);
             statusTrackingService.updateStatus(request.getEventId(), 
@@ -43,6 +75,125 @@ public class IngestionService {
         }
     }
 
+    /**
+     * Admits and processes metadata on the calling thread.
+     * Used by listeners that process records inline, waits for admission so it must never run on a scheduler worker.
+     *
+     * @param request The metadata request to process
+     * @return Future completed once the output was published, see {@link ProcessingService#processMetadata}
+     */
+    public CompletableFuture<Void> ingestAndProcess(MetadataRequest request) {
+        return processAdmitted(request, admit(request));
+    }
+
+    /**
+     * Waits until the admission controller has room for a request.
+     * Called on the listener thread before the record is queued, a scheduler worker never waits for admission:
+     * workers parked here while the permits belong to queued work would never be released.
+     *
+     * @param request The metadata request to admit
+     * @return Permit handed to {@link #processAdmitted}
+     */
+    public AdmissionController.Permit admit(MetadataRequest request) {
+        return acquire(estimatePayloadBytes(request.getPayload()));
+    }
+
+    /**
+     * Processes metadata that was already admitted on the calling thread, the permit is released once the output
+     * is published.
+     *
+     * @param request The metadata request to process
+     * @param permit Permit from {@link #admit}
+     * @return Future completed once the output was published, see {@link ProcessingService#processMetadata}
+     */
+    public CompletableFuture<Void> processAdmitted(MetadataRequest request, AdmissionController.Permit permit) {
+        log.info("Starting inline metadata ingestion for eventId: {}", request.getEventId());
+        return releaseOnPublish(permit, () -> {
+            statusTrackingService.updateStatus(request.getEventId(),
+                MetadataStatus.PENDING, "Started processing");
+            return processingService.processMetadata(request);
+        });
+    }
+
+    /**
+     * Processes a batch of Kafka records once the whole batch is admitted.
+     * The batch runs on the priority scheduler at the highest priority of its records
+     * and the calling listener thread waits for it to finish.
+     *
+     * @param records The records delivered by the batch listener
+     * @param config Batch settings of the source topic
+     * @return Error message of every record that failed, keyed by event id
+     */
+    public Map<String, String> ingestBatch(List<ConsumerRecord<String, MetadataRequest>> records, TopicConfig config) {
+        long bytes = 0;
+        ProcessingPriority priority = ProcessingPriority.LOW;
+        for (ConsumerRecord<String, MetadataRequest> record : records) {
+            bytes += estimatePayloadBytes(record.value().getPayload());
+            RequestContext context = RequestContext.of(TenantContext.tenantOf(record.headers()), record.value().getEventId());
+            ProcessingPriority recordPriority = TenantContext.get(context, () -> resolvePriority(record.value()));
+            if (recordPriority.ordinal() < priority.ordinal()) {
+                priority = recordPriority;
+            }
+        }
+        AdmissionController.Permit permit = acquire(bytes);
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        priorityScheduler.submit(priority,
+                () -> runWithPermit(permit, () -> failures.putAll(processingService.processBatch(records, config))))
+            .join();
+        return failures;
+    }
+
+    /**
+     * Resolves the scheduling priority of a request from the rule of its event type.
+     * Runs on listener threads, so a rule that is not cached yet does not hold them up.
+     *
+     * @param request The metadata request
+     * @return Priority of the rule, MEDIUM when the rule has none or is still loading
+     */
+    public ProcessingPriority resolvePriority(MetadataRequest request) {
+        ProcessingPriority priority = processingRules.getCachedRule(request.getEventType())
+            .map(CompiledRule::getPriority)
+            .orElse(null);
+        return priority != null ? priority : ProcessingPriority.MEDIUM;
+    }
+
+    private AdmissionController.Permit acquire(long bytes) {
+        try {
+            return admissionController.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while waiting for admission", e);
+        }
+    }
+
+    private void runWithPermit(AdmissionController.Permit permit, Runnable work) {
+        boolean succeeded = false;
+        try {
+            work.run();
+            succeeded = true;
+        } finally {
+            permit.release(succeeded);
+        }
+    }
+
+    /**
+     * Holds the permit until the output of the work is published, not just handed to the producer,
+     * so in-flight bytes and the latency the admission limit adapts to include the publish.
+     */
+    private CompletableFuture<Void> releaseOnPublish(AdmissionController.Permit permit,
+                                                     Supplier<CompletableFuture<Void>> work) {
+        CompletableFuture<Void> published = null;
+        try {
+            published = work.get();
+        } finally {
+            if (published == null) {
+                permit.release(false);
+            }
+        }
+        published.whenComplete((ignored, error) -> permit.release(error == null));
+        return published;
+    }
+
     public MetadataStatusResponse getStatusResponse(String requestId) {
         log.info("Fetching status for id, requestId: {}", requestId);
         return statusTrackingService.getStatus(requestId);
@@ -0,0 +1,225 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.config.HistoryConfig;
+import com.lily.metadataProcessingService.dto.FieldChange;
+import com.lily.metadataProcessingService.dto.MetadataHistoryEntry;
+import com.lily.metadataProcessingService.repository.MetadataHistoryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static com.lily.metadataProcessingService.util.CommonUtil.estimatePayloadBytes;
+
+/**
+ * Write-behind persistence of CDC history.
+ * Processing threads only put entries on a queue bounded by the estimated bytes of its entries. A single writer
+ * thread takes them off in batches and writes each batch with one multi-row insert, so the hot path never waits
+ * for the database. When the database is unavailable the writer keeps retrying the same batch with backoff,
+ * the queue fills up meanwhile and {@link #reserve} starts blocking, which slows processing down instead of
+ * losing history.
+ *
+ * An entry is reserved while its event is processed and only queued once the event was published, so an event
+ * that fails and comes back through a retry tier has one history row, not one per attempt.
+ *
+ * Metrics: {@code metadata.history.flush} (write latency), {@code metadata.history.batch} (rows per write),
+ * {@code metadata.history.queue} (queue depth), {@code metadata.history.queue.bytes} (reserved bytes)
+ * and {@code metadata.history.flush.failures}.
+ */
+@Slf4j
+@Service
+public class MetadataHistoryWriter {
+
+    private final MetadataHistoryRepository historyRepository;
+    private final HistoryConfig config;
+    private final BlockingQueue<Queued> queue = new LinkedBlockingQueue<>();
+    private final Semaphore queuedBytes;
+    private final int maxQueuedBytes;
+    private final Thread writerThread;
+    private final Timer flushTimer;
+    private final DistributionSummary batchSize;
+    private final Counter failureCounter;
+    private volatile boolean running = true;
+
+    public MetadataHistoryWriter(MetadataHistoryRepository historyRepository, HistoryConfig config, MeterRegistry meterRegistry) {
+        this.historyRepository = historyRepository;
+        this.config = config;
+        this.maxQueuedBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, config.getMaxQueuedBytes()));
+        this.queuedBytes = new Semaphore(maxQueuedBytes);
+        this.flushTimer = Timer.builder("metadata.history.flush").register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("metadata.history.batch").register(meterRegistry);
+        this.failureCounter = Counter.builder("metadata.history.flush.failures").register(meterRegistry);
+        meterRegistry.gauge("metadata.history.queue", queue, BlockingQueue::size);
+        meterRegistry.gauge("metadata.history.queue.bytes", queuedBytes, bytes -> maxQueuedBytes - bytes.availablePermits());
+        this.writerThread = Thread.ofPlatform().name("metadata-history-writer").daemon().start(this::run);
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Reserves room in the queue for a history entry, blocking while the queue is full.
+     * The entry is built and sized only when history is enabled.
+     *
+     * @return Reservation to {@link Reservation#append()} once the event was published, or to {@link Reservation#discard()}
+     * @throws IllegalStateException when the queue stayed full for {@code offerTimeoutMs}
+     */
+    public Reservation reserve(Supplier<MetadataHistoryEntry> entry) {
+        if (!isEnabled()) {
+            return new Reservation(null, 0);
+        }
+        MetadataHistoryEntry built = entry.get();
+        // An entry larger than the whole budget still gets in, alone
+        int bytes = (int) Math.min(maxQueuedBytes, estimateBytes(built));
+        try {
+            if (!queuedBytes.tryAcquire(bytes, config.getOfferTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("History queue full for " + config.getOfferTimeoutMs() + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing history", e);
+        }
+        return new Reservation(built, bytes);
+    }
+
+    private static long estimateBytes(MetadataHistoryEntry entry) {
+        long bytes = 256 + estimatePayloadBytes(entry.getBeforeState()) + estimatePayloadBytes(entry.getAfterState());
+        if (entry.getChanges() != null) {
+            for (FieldChange change : entry.getChanges()) {
+                bytes += 64 + estimatePayloadBytes(change.getPath())
+                    + estimatePayloadBytes(change.getOldValue()) + estimatePayloadBytes(change.getNewValue());
+            }
+        }
+        return bytes;
+    }
+
+    private void run() {
+        int maxRows = Math.max(1, Math.min(config.getFlushBatchSize(), MetadataHistoryRepository.MAX_ROWS_PER_INSERT));
+        List<Queued> batch = new ArrayList<>(maxRows);
+        while (running || !queue.isEmpty()) {
+            try {
+                fill(batch, maxRows);
+                if (!batch.isEmpty()) {
+                    writeWithRetry(batch.stream().map(Queued::entry).toList());
+                    queuedBytes.release(batch.stream().mapToInt(Queued::bytes).sum());
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // Woken up by shutdown, the loop drains what is left
+            }
+        }
+    }
+
+    /**
+     * Waits for a full batch, but no longer than {@code flushIntervalMs} after the first entry arrived.
+     */
+    private void fill(List<Queued> batch, int maxRows) throws InterruptedException {
+        Queued first = queue.poll(config.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getFlushIntervalMs());
+        while (batch.size() < maxRows) {
+            queue.drainTo(batch, maxRows - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxRows || remaining <= 0 || !running) {
+                return;
+            }
+            Queued next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void writeWithRetry(List<MetadataHistoryEntry> batch) {
+        long backoffMs = config.getRetryBackoffMs();
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                historyRepository.insertAll(batch);
+                flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                batchSize.record(batch.size());
+                return;
+            } catch (Exception e) {
+                failureCounter.increment();
+                if (!running) {
+                    log.error("Dropping {} history entries on shutdown, write failed: {}", batch.size(), e.getMessage());
+                    return;
+                }
+                log.warn("Failed to write {} history entries, retrying in {}ms: {}", batch.size(), backoffMs, e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException interrupted) {
+                    // Shutdown, one more attempt before giving up
+                }
+                backoffMs = Math.min(backoffMs * 2, config.getMaxRetryBackoffMs());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("{} history entries were not written on shutdown", queue.size());
+        }
+    }
+
+    /**
+     * Room reserved in the queue for one entry. Exactly one of {@link #append()} and {@link #discard()} takes effect,
+     * neither blocks, so they can run in a send callback.
+     */
+    public class Reservation {
+        private final MetadataHistoryEntry entry;
+        private final int bytes;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Reservation(MetadataHistoryEntry entry, int bytes) {
+            this.entry = entry;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Queues the entry, once the event it belongs to was published.
+         */
+        public void append() {
+            if (done.compareAndSet(false, true) && entry != null) {
+                queue.add(new Queued(entry, bytes));
+            }
+        }
+
+        /**
+         * Gives the room back without writing the entry, the event was not published.
+         */
+        public void discard() {
+            if (done.compareAndSet(false, true)) {
+                queuedBytes.release(bytes);
+            }
+        }
+    }
+
+    private record Queued(MetadataHistoryEntry entry, int bytes) {
+    }
+}
@@ -0,0 +1,136 @@
+package com.lily.metadataProcessingService.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.config.MetadataStoreConfig;
+import com.lily.metadataProcessingService.dto.MetadataQuery;
+import com.lily.metadataProcessingService.repository.MetadataQueryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Streams metadata_store rows as NDJSON, one object per line.
+ * Rows are written as they come off the cursor, the stored metadata JSON is copied as is without
+ * being parsed. When the page is limited and full, a last line {@code {"nextCursor": "..."}} holds the
+ * position to continue from.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MetadataQueryService {
+
+    private static final int FLUSH_EVERY_ROWS = 256;
+
+    private final MetadataQueryRepository queryRepository;
+    private final MetadataStoreConfig config;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Checks the query before any output is written, so problems can still be answered with a 400.
+     *
+     * @throws IllegalArgumentException when the query is not valid
+     */
+    public void validate(MetadataQuery query) {
+        if (query.getTenantId() == null || query.getTenantId().isBlank()) {
+            throw new IllegalArgumentException("tenantId is required");
+        }
+        if (query.getLimit() != null && (query.getLimit() <= 0 || query.getLimit() > config.getQueryMaxLimit())) {
+            throw new IllegalArgumentException("limit must be between 1 and " + config.getQueryMaxLimit());
+        }
+        if (query.getContains() != null) {
+            JsonNode contains;
+            try {
+                contains = objectMapper.readTree(query.getContains());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("contains is not valid JSON");
+            }
+            if (contains == null || !contains.isObject()) {
+                throw new IllegalArgumentException("contains must be a JSON object");
+            }
+        }
+    }
+
+    /**
+     * Writes the matching rows to the output as NDJSON.
+     */
+    public void stream(MetadataQuery query, OutputStream output) {
+        long start = System.currentTimeMillis();
+        try (JsonGenerator generator = jsonFactory.createGenerator(output, JsonEncoding.UTF8)) {
+            generator.setRootValueSeparator(null);
+            Object[] last = new Object[2];
+            int[] rows = new int[1];
+            queryRepository.stream(query, config.getQueryFetchSize(), rs -> {
+                try {
+                    Timestamp updatedAt = rs.getTimestamp("updated_at");
+                    generator.writeStartObject();
+                    generator.writeStringField("id", rs.getString("id"));
+                    generator.writeStringField("entityKey", rs.getString("entity_key"));
+                    generator.writeStringField("tenantId", rs.getString("tenant_id"));
+                    generator.writeStringField("eventType", rs.getString("event_type"));
+                    generator.writeNumberField("version", rs.getLong("version"));
+                    generator.writeStringField("updatedAt", updatedAt != null ? updatedAt.toInstant().toString() : null);
+                    generator.writeFieldName("metadata");
+                    generator.writeRawValue(rs.getString("metadata"));
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                    if (++rows[0] % FLUSH_EVERY_ROWS == 0) {
+                        generator.flush();
+                    }
+                    last[0] = updatedAt != null ? updatedAt.toInstant() : null;
+                    last[1] = rs.getString("id");
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to write query result", e);
+                }
+            });
+            if (query.getLimit() != null && rows[0] == query.getLimit() && last[0] != null) {
+                generator.writeStartObject();
+                generator.writeStringField("nextCursor", encodeCursor((Instant) last[0], UUID.fromString((String) last[1])));
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+            log.info("Streamed {} metadata rows for tenant {} in {}ms",
+                rows[0], query.getTenantId(), System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write query result", e);
+        }
+    }
+
+    /**
+     * Opaque page position: the updated_at and id of the last row, base64url encoded.
+     */
+    public static String encodeCursor(Instant updatedAt, UUID id) {
+        String cursor = updatedAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sets the keyset position of a query from a cursor returned by an earlier page.
+     *
+     * @throws IllegalArgumentException when the cursor is malformed
+     */
+    public static void applyCursor(MetadataQuery query, String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf('|');
+            query.setAfterUpdatedAt(Instant.parse(decoded.substring(0, separator)));
+            query.setAfterId(UUID.fromString(decoded.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
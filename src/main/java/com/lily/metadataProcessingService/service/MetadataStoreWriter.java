@@ -0,0 +1,146 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.config.MetadataStoreConfig;
+import com.lily.metadataProcessingService.dto.EntityState;
+import com.lily.metadataProcessingService.repository.MetadataStateRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persists the latest state of published entities to metadata_store with multi-row upserts.
+ * Batches from the batch pipeline are written right away, one statement per chunk. States of single
+ * events are collected per entity and written by {@link #flush()}, so a hot entity costs one row per
+ * flush instead of one round trip per event. Either way only the highest version of an entity is written.
+ * Until a state is written it only exists here, so previous-state loaders read through {@link #findLatestStates}.
+ *
+ * Metrics: {@code metadata.store.upsert} (statement latency) and {@code metadata.store.upsert.rows}.
+ */
+@Slf4j
+@Service
+public class MetadataStoreWriter {
+
+    private final MetadataStateRepository stateRepository;
+    private final MetadataStoreConfig config;
+    private final Map<String, EntityState> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Timer upsertTimer;
+    private final DistributionSummary upsertRows;
+
+    public MetadataStoreWriter(MetadataStateRepository stateRepository, MetadataStoreConfig config, MeterRegistry meterRegistry) {
+        this.stateRepository = stateRepository;
+        this.config = config;
+        this.upsertTimer = Timer.builder("metadata.store.upsert").register(meterRegistry);
+        this.upsertRows = DistributionSummary.builder("metadata.store.upsert.rows").register(meterRegistry);
+        meterRegistry.gauge("metadata.store.pending", pending, Map::size);
+    }
+
+    /**
+     * Writes the states of a batch. States that fail to write are kept for the next {@link #flush()}.
+     *
+     * @param states States in processing order, an entity may appear more than once
+     */
+    public void upsertAll(Collection<EntityState> states) {
+        try {
+            write(latestPerEntity(states));
+        } catch (Exception e) {
+            log.error("Failed to upsert {} entity states, retrying with the next flush: {}", states.size(), e.getMessage());
+            states.forEach(this::submit);
+        }
+    }
+
+    /**
+     * Queues the state of a single event for the next {@link #flush()}.
+     */
+    public void submit(EntityState state) {
+        pending.merge(state.getEntityKey(), state, MetadataStoreWriter::newer);
+    }
+
+    /**
+     * Latest known states of entities: states still waiting for a flush, the others from metadata_store.
+     * A state evicted from a previous-state cache before it was flushed would otherwise come back as the
+     * older row, or as no state at all.
+     *
+     * @return States of the entities that have one
+     */
+    public Map<String, Map<String, Object>> findLatestStates(Collection<String> entityKeys) {
+        Map<String, Map<String, Object>> states = new HashMap<>(entityKeys.size());
+        List<String> written = new ArrayList<>(entityKeys.size());
+        // Pending is read first: a state is only removed from it once it was written
+        for (String entityKey : entityKeys) {
+            EntityState state = pending.get(entityKey);
+            if (state != null) {
+                states.put(entityKey, state.getState());
+            } else {
+                written.add(entityKey);
+            }
+        }
+        if (!written.isEmpty()) {
+            states.putAll(stateRepository.findLatestStates(written));
+        }
+        return states;
+    }
+
+    @Scheduled(fixedDelayString = "${metadata.store.flush-interval-ms:500}")
+    public void flush() {
+        if (pending.isEmpty() || !flushLock.tryLock()) {
+            return;
+        }
+        try {
+            List<EntityState> states = new ArrayList<>(pending.values());
+            write(states);
+            // Only drop what was written, states that moved on meanwhile go out with the next flush
+            states.forEach(state -> pending.remove(state.getEntityKey(), state));
+        } catch (Exception e) {
+            log.error("Failed to flush entity states, {} stay pending: {}", pending.size(), e.getMessage());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void write(List<EntityState> states) {
+        int chunkSize = Math.max(1, Math.min(config.getUpsertChunkSize(), MetadataStateRepository.MAX_ROWS_PER_UPSERT));
+        for (int from = 0; from < states.size(); from += chunkSize) {
+            List<EntityState> chunk = states.subList(from, Math.min(from + chunkSize, states.size()));
+            long start = System.nanoTime();
+            stateRepository.upsertLatestStates(chunk);
+            upsertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            upsertRows.record(chunk.size());
+        }
+    }
+
+    /**
+     * One state per entity, the highest version. An upsert cannot touch the same row twice.
+     */
+    private static List<EntityState> latestPerEntity(Collection<EntityState> states) {
+        Map<String, EntityState> latest = new LinkedHashMap<>(states.size() * 2);
+        states.forEach(state -> latest.merge(state.getEntityKey(), state, MetadataStoreWriter::newer));
+        return new ArrayList<>(latest.values());
+    }
+
+    private static EntityState newer(EntityState current, EntityState candidate) {
+        return candidate.getVersion() >= current.getVersion() ? candidate : current;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        if (!pending.isEmpty()) {
+            log.warn("States of {} entities were not written to metadata_store on shutdown", pending.size());
+        }
+    }
+}
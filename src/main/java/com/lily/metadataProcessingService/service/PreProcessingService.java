@@ -2,7 +2,8 @@ package com.lily.metadataProcessingService.service;
 
 import com.lily.metadataProcessingService.dto.Metadata;
 import com.lily.metadataProcessingService.dto.MetadataRequest;
-import com.lily.metadataProcessingService.model.rules.MetadataRule;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import com.lily.metadataProcessingService.processor.FormatDetector;
 import com.lily.metadataProcessingService.processor.MetadataProcessor;
 import com.lily.metadataProcessingService.processor.ProcessorRegistry;
 import com.lily.metadataProcessingService.util.EncryptionUtil;
@@ -10,30 +11,60 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class PreProcessingService {
 
+    /** Descriptor field of a record retried apart from the multi-record event it was read from, the event's format */
+    public static final String SOURCE_FORMAT_KEY = "sourceFormat";
+    /** Descriptor field of such a record, the id of the event it was read from */
+    public static final String SOURCE_EVENT_KEY = "sourceEventId";
+
     private final ProcessorRegistry processorRegistry;
+    private final FormatDetector formatDetector;
     private final EncryptionUtil encryptionUtil;
 
-    public Metadata convertToCommonDto(MetadataRequest request, MetadataRule rules) {
-        String dataType = getInputMetadataType(request);
-        MetadataProcessor processor = processorRegistry.getProcessor(dataType);
-        return processor.process(request, rules);
+    /**
+     * Format of the request, sniffed from the first bytes of its content (see {@link FormatDetector}), and its raw body.
+     * Detected once per request and handed to the other steps.
+     */
+    public FormatDetector.Detection detectFormat(MetadataRequest request) {
+        return formatDetector.detect(request);
+    }
+
+    public Metadata convertToCommonDto(MetadataRequest request, FormatDetector.Detection detection, CompiledRule rules) {
+        MetadataProcessor processor = processorFor(detection);
+        return processor.process(request, detection.content(), rules);
+    }
+
+    /**
+     * Converts every record of an event carrying many of them, see {@link MetadataProcessor#processAll}.
+     *
+     * @return Number of records read
+     */
+    public long convertAllToCommonDto(MetadataRequest request, FormatDetector.Detection detection, CompiledRule rules,
+                                      int chunkSize, Consumer<List<Metadata>> sink) {
+        return processorFor(detection).processAll(request, detection.content(), rules, chunkSize, sink);
+    }
+
+    /**
+     * @return Whether the request carries many records (e.g. a CSV file) rather than one
+     */
+    public boolean isMultiRecord(FormatDetector.Detection detection) {
+        return processorFor(detection).isMultiRecord();
     }
 
-    private String getInputMetadataType(MetadataRequest request) {
-        // checks the metadata type, verifies if file is json, excel, csv etc.
-        // check content disposition or parse an initial chunk to get the details
-        return "json";
+    private MetadataProcessor processorFor(FormatDetector.Detection detection) {
+        return processorRegistry.getProcessor(detection.format());
     }
 
-    public Metadata enrichMetaData(Metadata metadata, MetadataRule rule) {
+    public Metadata enrichMetaData(Metadata metadata, CompiledRule rule) {
         deDuplicateMetaData(metadata, rule);
         addMissingMetaData(metadata, rule);
         maskMetaData(metadata, rule);
@@ -41,34 +72,64 @@ public class PreProcessingService {
         return metadata;
     }
 
-    private void deDuplicateMetaData(Metadata metadata, MetadataRule rule) {
+    private void deDuplicateMetaData(Metadata metadata, CompiledRule rule) {
         // based on rules check that there are no duplicate metadata
         // use hashmap to check if there are duplicate values
         // or use an external logic based on rule to identify
     }
 
-    private void addMissingMetaData (Metadata metadata, MetadataRule rule) {
+    private void addMissingMetaData (Metadata metadata, CompiledRule rule) {
         // enrich metadata by adding missing fields
         // calculate fields based on current data
     }
 
-    private void maskMetaData(Metadata metadata, MetadataRule rule) {
-        // mask user sensitive data like name, id, email
+    /**
+     * Masks the fields of every rule mask whose condition holds for the payload.
+     * The payload is copied before the first change, it may be shared or immutable.
+     */
+    private void maskMetaData(Metadata metadata, CompiledRule rule) {
+        Map<String, Object> payload = metadata.getPayload();
+        if (payload == null || rule.getMasks().isEmpty()) {
+            return;
+        }
+        Map<String, Object> masked = null;
+        for (CompiledRule.Mask mask : rule.getMasks()) {
+            if (!mask.appliesTo(payload)) {
+                continue;
+            }
+            for (String field : mask.fields()) {
+                Object value = payload.get(field);
+                if (value != null) {
+                    if (masked == null) {
+                        masked = new HashMap<>(payload);
+                    }
+                    masked.put(field, encryptionUtil.maskSensitiveData(value.toString()));
+                }
+            }
+        }
+        if (masked != null) {
+            metadata.setPayload(masked);
+        }
     }
 
-    private void encryptMetaData(Metadata metadata, MetadataRule rule) {
+    private void encryptMetaData(Metadata metadata, CompiledRule rule) {
         // iterate over the metadata and check against rule if it needs to be encrypted
         String data = encryptionUtil.maskSensitiveData("someUser@email.com");
     }
 
-    public boolean isSchemaValid(Metadata metaData, MetadataRule rule) {
+    public boolean isSchemaValid(Metadata metaData, CompiledRule rule) {
         // validate schema based on header interpreted and rule
         return true;
     }
 
-    public boolean isMessageTypeAllowedInEvent(MetadataRequest request, MetadataRule rule) {
-        List<String> allowedFormats = Arrays.asList(rule.getAllowedInputFormats().split(","));
-        // compare with current format
-        return true;
+    /**
+     * A record retried apart from its event is structured, it is checked against the format of that event.
+     */
+    public boolean isMessageTypeAllowedInEvent(MetadataRequest request, FormatDetector.Detection detection, CompiledRule rule) {
+        if (detection.content() == null && request.getMetadata() instanceof Map<?, ?> descriptor
+                && descriptor.get(SOURCE_FORMAT_KEY) instanceof String sourceFormat) {
+            return rule.allowsInputFormat(sourceFormat);
+        }
+        return rule.allowsInputFormat(detection.format().getType());
     }
 }
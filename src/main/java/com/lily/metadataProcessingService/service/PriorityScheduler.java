@@ -0,0 +1,210 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.config.SchedulerConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs processing work in order of {@link ProcessingPriority}.
+ * Each priority has its own queue. Workers dequeue with smooth weighted round robin,
+ * so HIGH gets most of the capacity but MEDIUM and LOW keep a guaranteed share.
+ * Work that waited longer than the aging threshold is picked first, so a flood of
+ * higher priority work can delay LOW work but never starve it.
+ */
+@Slf4j
+@Component
+public class PriorityScheduler {
+
+    private static final ProcessingPriority[] PRIORITIES = ProcessingPriority.values();
+
+    private final SchedulerConfig config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<ProcessingPriority, ArrayDeque<ScheduledTask>> queues = new EnumMap<>(ProcessingPriority.class);
+    private final Map<ProcessingPriority, Integer> weights = new EnumMap<>(ProcessingPriority.class);
+    private final Map<ProcessingPriority, Integer> currentWeights = new EnumMap<>(ProcessingPriority.class);
+    private final Map<ProcessingPriority, Timer> waitTimers = new EnumMap<>(ProcessingPriority.class);
+    private final Counter agedCounter;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public PriorityScheduler(SchedulerConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        weights.put(ProcessingPriority.HIGH, config.getHighWeight());
+        weights.put(ProcessingPriority.MEDIUM, config.getMediumWeight());
+        weights.put(ProcessingPriority.LOW, config.getLowWeight());
+        for (ProcessingPriority priority : PRIORITIES) {
+            ArrayDeque<ScheduledTask> queue = new ArrayDeque<>();
+            queues.put(priority, queue);
+            currentWeights.put(priority, 0);
+            Gauge.builder("metadata.scheduler.queue.depth", queue, ArrayDeque::size)
+                .tag("priority", priority.name())
+                .register(meterRegistry);
+            waitTimers.put(priority, Timer.builder("metadata.scheduler.wait")
+                .tag("priority", priority.name())
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry));
+        }
+        this.agedCounter = Counter.builder("metadata.scheduler.aged").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < config.getWorkers(); i++) {
+            workers.add(Thread.ofVirtual().name("priority-worker-" + i).start(this::runWorker));
+        }
+        log.info("Started priority scheduler with {} workers", config.getWorkers());
+    }
+
+    /**
+     * Queues work at the given priority.
+     * The request context of the caller is captured and bound again when the work runs.
+     *
+     * @param priority Priority of the work, MEDIUM when null
+     * @param task The work to run
+     * @return Future completed when the work has run
+     */
+    public CompletableFuture<Void> submit(ProcessingPriority priority, Runnable task) {
+        return submit(priority, TenantContext.current(), task);
+    }
+
+    /**
+     * Queues work at the given priority, to run with the given request context.
+     * Used when work is queued from a thread that does not have the context of the work bound.
+     *
+     * @param context Context to run the work with, its priority is set to the priority of the work
+     */
+    public CompletableFuture<Void> submit(ProcessingPriority priority, RequestContext context, Runnable task) {
+        ProcessingPriority effective = priority != null ? priority : ProcessingPriority.MEDIUM;
+        RequestContext scheduledContext = context != null
+            ? context.withPriority(effective)
+            : new RequestContext(null, null, effective);
+        ScheduledTask scheduled = new ScheduledTask(task, effective, scheduledContext, System.nanoTime(),
+            new CompletableFuture<>());
+        lock.lock();
+        try {
+            queues.get(effective).addLast(scheduled);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return scheduled.future;
+    }
+
+    private void runWorker() {
+        while (running) {
+            ScheduledTask next;
+            try {
+                next = take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            waitTimers.get(next.priority).record(System.nanoTime() - next.enqueuedNanos, TimeUnit.NANOSECONDS);
+            try {
+                TenantContext.run(next.context, next.task);
+                next.future.complete(null);
+            } catch (Throwable e) {
+                next.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private ScheduledTask take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (isEmpty()) {
+                notEmpty.await();
+            }
+            ScheduledTask aged = pollAged();
+            if (aged != null) {
+                agedCounter.increment();
+                return aged;
+            }
+            return pollWeighted();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the longest waiting head of the MEDIUM and LOW queues if it passed the aging threshold.
+     */
+    private ScheduledTask pollAged() {
+        long threshold = TimeUnit.MILLISECONDS.toNanos(config.getAgingThresholdMs());
+        long now = System.nanoTime();
+        ProcessingPriority oldest = null;
+        long oldestWait = threshold;
+        for (ProcessingPriority priority : PRIORITIES) {
+            if (priority == ProcessingPriority.HIGH) {
+                continue;
+            }
+            ScheduledTask head = queues.get(priority).peekFirst();
+            if (head != null && now - head.enqueuedNanos > oldestWait) {
+                oldest = priority;
+                oldestWait = now - head.enqueuedNanos;
+            }
+        }
+        return oldest != null ? queues.get(oldest).pollFirst() : null;
+    }
+
+    /**
+     * Smooth weighted round robin over the non-empty queues.
+     */
+    private ScheduledTask pollWeighted() {
+        ProcessingPriority selected = null;
+        int total = 0;
+        for (ProcessingPriority priority : PRIORITIES) {
+            if (queues.get(priority).isEmpty()) {
+                continue;
+            }
+            int weight = weights.get(priority);
+            total += weight;
+            int current = currentWeights.get(priority) + weight;
+            currentWeights.put(priority, current);
+            if (selected == null || current > currentWeights.get(selected)) {
+                selected = priority;
+            }
+        }
+        currentWeights.put(selected, currentWeights.get(selected) - total);
+        return queues.get(selected).pollFirst();
+    }
+
+    private boolean isEmpty() {
+        for (ArrayDeque<ScheduledTask> queue : queues.values()) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+
+    private record ScheduledTask(Runnable task, ProcessingPriority priority, RequestContext context,
+                                 long enqueuedNanos, CompletableFuture<Void> future) {
+    }
+}
@@ -1,28 +1,56 @@
 package com.lily.metadataProcessingService.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.lily.metadataProcessingService.cache.MetadataCache;
+import com.lily.metadataProcessingService.cdc.CdcDiff;
+import com.lily.metadataProcessingService.cdc.CdcDiffEngine;
+import com.lily.metadataProcessingService.cdc.CdcOutputMode;
 import com.lily.metadataProcessingService.common.MetadataStatus;
 import com.lily.metadataProcessingService.config.ApplicationProperties.TopicConfig;
+import com.lily.metadataProcessingService.config.CdcConfig;
+import com.lily.metadataProcessingService.config.ProcessingConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.dto.CdcEvent;
+import com.lily.metadataProcessingService.dto.EntityState;
 import com.lily.metadataProcessingService.dto.Metadata;
+import com.lily.metadataProcessingService.dto.MetadataHistoryEntry;
 import com.lily.metadataProcessingService.dto.MetadataRequest;
 import com.lily.metadataProcessingService.exception.ProcessingException;
-import com.lily.metadataProcessingService.model.rules.MetadataRule;
+import com.lily.metadataProcessingService.model.rules.CompiledRule;
+import com.lily.metadataProcessingService.processor.FormatDetector;
+import com.lily.metadataProcessingService.producer.CdcCoalescer;
+import com.lily.metadataProcessingService.producer.FailedRecordPublisher;
 import com.lily.metadataProcessingService.producer.MetadataProducer;
-import com.lily.metadataProcessingService.repository.MetadataRepository;
 import com.lily.metadataProcessingService.rule.ProcessingRules;
+import com.lily.metadataProcessingService.state.EntityKeys;
+import com.lily.metadataProcessingService.state.EntityVersionSequencer;
+import com.lily.metadataProcessingService.state.PreviousStateStore;
+import com.lily.metadataProcessingService.state.VersionAssignment;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.lily.metadataProcessingService.common.Constants.*;
-import static com.lily.metadataProcessingService.util.CommonUtil.convertToStringMap;
 
 /**
  * Does the actual work of processing metadata.
@@ -37,12 +65,23 @@ import static com.lily.metadataProcessingService.util.CommonUtil.convertToString
 @RequiredArgsConstructor
 public class ProcessingService {
 
-    private final MetadataRepository repository;
     private final ProcessingRules processingRules;
     private final PreProcessingService preProcessingService;
     private final MetadataProducer metadataProducer;
     private final StatusTrackingService statusTrackingService;
-    private final MetadataCache metadataCache;
+    private final PreviousStateStore previousStateStore;
+    private final CdcDiffEngine cdcDiffEngine;
+    private final CdcConfig cdcConfig;
+    private final EntityVersionSequencer versionSequencer;
+    private final CdcCoalescer cdcCoalescer;
+    private final MetadataHistoryWriter historyWriter;
+    private final MetadataStoreWriter storeWriter;
+    private final ProcessingConfig processingConfig;
+    private final FailedRecordPublisher failedRecordPublisher;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${spring.kafka.topic.inbound}")
+    private String inboundTopic;
 
     /**
      * Main method to process incoming metadata requests.
@@ -50,35 +89,78 @@ public class ProcessingService {
      * 1. Gets the appropriate processing rules
      * 2. Converts the metadata to our format
      * 3. Generates change data capture (CDC)
-     * 4. Sends the processed data to Kafka
+     * 4. Sends the processed data to Kafka (through the coalescer when enabled), the send callback records the final status
+     * 5. Once published, queues the history entry and the latest state of the entity for metadata_store
      *
      * @param request The incoming metadata request to process
+     * @return Future completed once the broker acknowledged the output, completed exceptionally when the send failed.
+     *         Callers must not treat the request as done (commit its offset) before.
      * @throws ProcessingException if any step of processing fails
      */
-    public void processMetadata(MetadataRequest request) {
+    public CompletableFuture<Void> processMetadata(MetadataRequest request) {
         String eventId = request.getEventId();
         log.info("Starting metadata processing for eventId: {}", eventId);
 
+        // Set once the new state is in the store and history room is reserved, so a failure before the hand-off undoes them
+        String writtenKey = null;
+        Map<String, Object> writtenState = null;
+        MetadataHistoryWriter.Reservation history = null;
         try {
             statusTrackingService.updateStatus(eventId, MetadataStatus.PROCESSING, "Processing started");
             
             log.debug("Fetching processing rules for eventType: {}", request.getEventType());
-            MetadataRule rule = processingRules.getRule(request.getEventType());
+            CompiledRule rule = processingRules.getRule(request.getEventType());
+            FormatDetector.Detection detection = preProcessingService.detectFormat(request);
+            if (preProcessingService.isMultiRecord(detection)) {
+                // Records are published and acknowledged batch by batch before this returns
+                processRecords(request, detection, rule);
+                return CompletableFuture.completedFuture(null);
+            }
 
             log.debug("Converting metadata to internal format. EventId: {}", eventId);
-            Metadata processedData = convertToProcessableData(request, rule);
+            Metadata processedData = convertToProcessableData(request, detection, rule);
 
             log.debug("Generating change data capture. EventId: {}", eventId);
-            String cdc = inferCdcFromMetaData(processedData, rule);
+            String entityKey = EntityKeys.of(rule.getTenantId(), processedData);
+            VersionAssignment version = versionSequencer.next(entityKey, eventTimeMillis(request));
+            Map<String, Object> previousState = previousStateStore.get(entityKey);
+            CdcEvent cdc = inferCdcFromMetaData(processedData, rule, previousState, version);
 
-            log.debug("Sending processed metadata to output. EventId: {}", eventId);
-            metadataProducer.sendOutboundKafkaMessage(processedData, cdc);
+            // Written now so the next event of the entity diffs against it, rolled back if the publish fails
+            Map<String, Object> newState = stateOf(processedData);
+            previousStateStore.put(entityKey, newState);
+            writtenKey = entityKey;
+            writtenState = newState;
+            // Built now, a coalesced event is never published on its own; written once it or its window is published
+            MetadataHistoryWriter.Reservation reserved = reserveHistory(eventId, entityKey, rule, previousState, newState, cdc);
+            history = reserved;
 
-            log.info("Successfully completed metadata processing. EventId: {}", eventId);
-            statusTrackingService.updateStatus(eventId, MetadataStatus.COMPLETED, "Processing completed");
+            // Status moves to COMPLETED or FAILED in the send callback
+            log.debug("Sending processed metadata to output. EventId: {}", eventId);
+            EntityState entityState = entityState(entityKey, rule, request.getEventType(), cdc, newState);
+            CompletableFuture<?> published = cdcCoalescer.isEnabled()
+                ? cdcCoalescer.submit(eventId, entityKey, previousState, newState, cdc, rule, outputMode(rule))
+                : metadataProducer.sendOutboundKafkaMessage(eventId, cdc, rule, newState);
+            CompletableFuture<Void> stored = published.whenComplete((result, error) -> {
+                if (error != null) {
+                    previousStateStore.rollback(entityKey, newState);
+                    reserved.discard();
+                } else {
+                    reserved.append();
+                    storeWriter.submit(entityState);
+                }
+            }).thenApply(result -> null);
+            // A coalesced update is only done once its window is published, it sits in memory until then
+            return stored;
         } catch (Exception e) {
             log.error("Failed to process metadata. EventId: {}, Error: {}", 
                 eventId, e.getMessage(), e);
+            if (writtenState != null) {
+                previousStateStore.rollback(writtenKey, writtenState);
+            }
+            if (history != null) {
+                history.discard();
+            }
             statusTrackingService.updateStatus(eventId, MetadataStatus.FAILED, e.getMessage());
             throw new ProcessingException("Failed to process metadata", e);
         }
@@ -89,16 +171,17 @@ public class ProcessingService {
      * Uses the provided rule to determine how to convert the data.
      *
      * @param request The original metadata request
+     * @param detection Format and raw body of the request
      * @param rule The processing rule to apply
      * @return Converted metadata in our internal format
      */
-    private Metadata convertToProcessableData(MetadataRequest request, MetadataRule rule) {
+    private Metadata convertToProcessableData(MetadataRequest request, FormatDetector.Detection detection, CompiledRule rule) {
         try {
-            if (!preProcessingService.isMessageTypeAllowedInEvent(request, rule)) {
+            if (!preProcessingService.isMessageTypeAllowedInEvent(request, detection, rule)) {
                 throw new RuntimeException("Metadata message content does not match allowed source for this event type");
             }
 
-            Metadata preProcessedMetaData = preProcessingService.convertToCommonDto(request, rule);
+            Metadata preProcessedMetaData = preProcessingService.convertToCommonDto(request, detection, rule);
 
             if (!preProcessingService.isSchemaValid(preProcessedMetaData, rule)) {
                 throw new RuntimeException("Metadata schema is not valid for this event type");
@@ -117,74 +200,440 @@ public class ProcessingService {
      *
      * @param metadata The processed metadata
      * @param rule The rule used for processing
-     * @return A string representing the changes made
+     * @param previousState Latest known state of the entity, empty for new entities
+     * @param version Version assigned to this change of the entity
+     * @return The CDC event describing the changes made
      */
-    private String inferCdcFromMetaData(Metadata metadata, MetadataRule rule) {
+    private CdcEvent inferCdcFromMetaData(Metadata metadata, CompiledRule rule, Map<String, Object> previousState,
+                                          VersionAssignment version) {
         // business logic on how to infer cdc or lineage
-        return generateCDC(metadata);
+        return generateCDC(metadata, previousState, outputMode(rule), version);
     }
 
-    public String generateCDC(Metadata metadata) {
+    private CdcEvent generateCDC(Metadata metadata, Map<String, Object> oldMetadata, CdcOutputMode mode,
+                                 VersionAssignment version) {
+        Map<String, Object> newMetadata = stateOf(metadata);
+
+        // Determine operation type
+        boolean isInsert = oldMetadata == null || oldMetadata.isEmpty();
+        String operation = isInsert ? "INSERT" : "UPDATE";
+
+        // Extract common metadata fields
+        String table = stringValue(newMetadata, "table", UNKNOWN);
+        String primaryKey = stringValue(newMetadata, "primaryKey", UNKNOWN);
+        String primaryKeyValue = stringValue(newMetadata, "primaryKeyValue", UNKNOWN);
+        String user = stringValue(newMetadata, "user", SYSTEM_USER);
+
+        // Single pass over both states, before/after are only built in FULL mode
+        CdcDiff diff = cdcDiffEngine.diff(oldMetadata, newMetadata, mode);
+
+        // Build CDC structure with lineage tracking (history of each transaction)
+        return CdcEvent.builder()
+            .operation(operation)
+            .table(table)
+            .primaryKey(primaryKey)
+            .primaryKeyValue(primaryKeyValue)
+            .timestamp(Instant.now().toString())
+            .user(user)
+            .before(diff.getBefore())
+            .after(diff.getAfter())
+            .changes(diff.getChanges())
+            .version(Long.toString(version.getVersion()))
+            .outOfOrder(version.isOutOfOrder())
+            .build();
+    }
+
+    private static EntityState entityState(String entityKey, CompiledRule rule, String eventType, CdcEvent cdc,
+                                           Map<String, Object> newState) {
+        return new EntityState(entityKey, rule != null ? rule.getTenantId() : null,
+            eventType != null ? eventType : UNKNOWN, Long.parseLong(cdc.getVersion()), newState);
+    }
+
+    /**
+     * Reserves the metadata_history entry of a change. Every published CDC event is recorded, including the ones
+     * the coalescer merges; the entry is appended once the event (or its window) was published and discarded
+     * when the publish fails, the retried event records it then.
+     */
+    private MetadataHistoryWriter.Reservation reserveHistory(String eventId, String entityKey, CompiledRule rule,
+                                                             Map<String, Object> previousState,
+                                                             Map<String, Object> newState, CdcEvent cdc) {
+        return historyWriter.reserve(() -> MetadataHistoryEntry.builder()
+            .eventId(eventId)
+            .entityKey(entityKey)
+            .tenantId(rule != null ? rule.getTenantId() : null)
+            .operation(cdc.getOperation())
+            .version(Long.parseLong(cdc.getVersion()))
+            .beforeState(previousState == null || previousState.isEmpty() ? null : previousState)
+            .afterState(newState)
+            .changes(cdc.getChanges())
+            .timestamp(Instant.now())
+            .user(cdc.getUser())
+            .build());
+    }
+
+    /**
+     * Output mode of a rule, the {@code cdcOutputMode} configuration key overrides the default mode.
+     */
+    private CdcOutputMode outputMode(CompiledRule rule) {
+        return rule != null && rule.getCdcOutputMode() != null ? rule.getCdcOutputMode() : cdcConfig.getOutputMode();
+    }
+
+    private static Map<String, Object> stateOf(Metadata metadata) {
+        return metadata.getPayload() != null ? metadata.getPayload() : Map.of();
+    }
+
+    /**
+     * Event time of a request in epoch millis, from the request timestamp (ISO-8601 or epoch millis)
+     * or else the payload timestamp. -1 when neither is usable, such events are never flagged as out of order.
+     */
+    private static long eventTimeMillis(MetadataRequest request) {
+        Object timestamp = request.getTimestamp();
+        if (timestamp == null && request.getPayload() != null) {
+            timestamp = request.getPayload().get("timestamp");
+        }
+        if (timestamp instanceof Number number) {
+            return number.longValue();
+        }
+        if (timestamp == null || timestamp.toString().isBlank()) {
+            return -1;
+        }
+        String value = timestamp.toString().trim();
         try {
-            Map<String,String> newMetadata = convertToStringMap(metadata.getPayload());
-            Map<String,String> oldMetadata = fetchPreviousMetadata(metadata);
-
-            ObjectMapper objectMapper = new ObjectMapper();
-            Map<String, Object> cdcEvent = new HashMap<>();
-
-                // Determine operation type
-                boolean isInsert = (oldMetadata == null || oldMetadata.isEmpty());
-                String operation = isInsert ? "INSERT" : "UPDATE";
-
-                // Extract common metadata fields
-                String table = newMetadata.getOrDefault("table", UNKNOWN);
-                String primaryKey = newMetadata.getOrDefault("primaryKey", UNKNOWN);
-                String primaryKeyValue = newMetadata.getOrDefault("primaryKeyValue", UNKNOWN);
-                String user = newMetadata.getOrDefault("user", SYSTEM_USER);
-                String version = oldMetadata.getOrDefault("VERSION", DEFAULT_VERSION);
-
-                Map<String, String> beforeState = (isInsert) ? null : new HashMap<>(oldMetadata);
-                Map<String, String> afterState = new HashMap<>(newMetadata);
-
-                if (beforeState != null) {
-                    beforeState.remove("operation");
-                    beforeState.remove("timestamp");
-                    beforeState.remove("user");
-                }
-                afterState.remove("operation");
-                afterState.remove("timestamp");
-                afterState.remove("user");
-
-                // Build CDC structure with lineage tracking (history of each transaction)
-                cdcEvent.put("operation", operation);
-                cdcEvent.put("table", table);
-                cdcEvent.put("primaryKey", primaryKey);
-                cdcEvent.put("primaryKeyValue", primaryKeyValue);
-                cdcEvent.put("timestamp", Instant.now().toString());
-                cdcEvent.put("user", user);
-                cdcEvent.put("before", beforeState);
-                cdcEvent.put("after", afterState);
-                cdcEvent.put("version", version + 1);
-
-                // TODO: Store event in db as history
-
-                return objectMapper.writeValueAsString(cdcEvent);
-            } catch (Exception e) {
-                throw new RuntimeException("Error generating CDC JSON", e);
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Instant.parse(value).toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                return -1;
             }
+        }
     }
 
-    private Map<String, String> fetchPreviousMetadata(Metadata metadata) {
-        // Use cache instead of direct DB call
-        // return metadataCache.getPreviousMetadata(metadata.getId());
-        return new HashMap<>();
+    private static String stringValue(Map<String, Object> state, String key, String defaultValue) {
+        Object value = state.get(key);
+        return value != null ? value.toString() : defaultValue;
     }
 
-    public void processBatch(List<ConsumerRecord<String, MetadataRequest>> kafkaRecords, TopicConfig config) {
+    /**
+     * Processes a batch of Kafka records in chunks of {@code config.batchSize}.
+     * Each chunk goes through the batch pipeline, so rules, previous state, publishing
+     * and status updates are done once per chunk instead of once per record.
+     *
+     * @param kafkaRecords The records delivered by the batch listener
+     * @param config Batch size of the source topic
+     * @return Error message of every record that failed, keyed by event id
+     */
+    public Map<String, String> processBatch(List<ConsumerRecord<String, MetadataRequest>> kafkaRecords, TopicConfig config) {
         log.info("Processing batch of {} records with config: batchSize={}, timeout={}ms", 
             kafkaRecords.size(), config.getBatchSize(), config.getTimeoutMs());
-        
-        kafkaRecords.forEach(requestRecord -> processMetadata(requestRecord.value()));
+
+        int chunkSize = config.getBatchSize() > 0 ? config.getBatchSize() : kafkaRecords.size();
+
+        Map<String, String> failures = new LinkedHashMap<>();
+        for (int from = 0; from < kafkaRecords.size(); from += chunkSize) {
+            // Rules are resolved per tenant, so each chunk is processed once per tenant with that tenant bound
+            Map<String, List<MetadataRequest>> chunkByTenant = new LinkedHashMap<>();
+            for (ConsumerRecord<String, MetadataRequest> record : kafkaRecords.subList(from, Math.min(from + chunkSize, kafkaRecords.size()))) {
+                chunkByTenant.computeIfAbsent(TenantContext.tenantOf(record.headers()), tenant -> new ArrayList<>())
+                    .add(record.value());
+            }
+            chunkByTenant.forEach((tenant, chunk) -> failures.putAll(
+                TenantContext.get(RequestContext.of(tenant, null), () -> processRequestBatch(chunk))));
+        }
+        return failures;
     }
-}
 
+    /**
+     * Batch version of {@link #processMetadata(MetadataRequest)}.
+     * This method:
+     * 1. Marks the whole batch as processing
+     * 2. Resolves rules once per distinct event type
+     * 3. Converts every request, failing only the records that cannot be converted
+     * 4. Looks up the previous state and version of all entities in one call each, later events of an entity see the earlier ones
+     * 5. Generates CDC for the batch and sends it without waiting per record, or hands it to the coalescer when enabled
+     * 6. Upserts the latest state of every published entity into metadata_store in one statement per chunk
+     * 7. Updates the status of completed and failed records in bulk
+     *
+     * Outbound sends are waited for up to {@code metadata.processing.publish-timeout-ms}.
+     *
+     * @param requests The requests of a single chunk
+     * @return Error message of every record that failed, keyed by event id
+     */
+    public Map<String, String> processRequestBatch(List<MetadataRequest> requests) {
+        if (requests.isEmpty()) {
+            return Map.of();
+        }
+        List<String> eventIds = requests.stream().map(MetadataRequest::getEventId).toList();
+        statusTrackingService.updateStatuses(eventIds, MetadataStatus.PROCESSING, "Batch processing started");
+
+        // Tenant is fixed for the calling thread, so the event type is enough to tell rules apart
+        Map<String, CompiledRule> rulesByEventType = new HashMap<>();
+        List<String> processedIds = new ArrayList<>(requests.size());
+        List<CompiledRule> processedRules = new ArrayList<>(requests.size());
+        List<Metadata> processedData = new ArrayList<>(requests.size());
+        List<MetadataRequest> processedRequests = new ArrayList<>(requests.size());
+        Map<String, String> failures = new LinkedHashMap<>();
+
+        for (MetadataRequest request : requests) {
+            try {
+                CompiledRule rule = rulesByEventType.computeIfAbsent(request.getEventType(), processingRules::getRule);
+                FormatDetector.Detection detection = preProcessingService.detectFormat(request);
+                if (preProcessingService.isMultiRecord(detection)) {
+                    // Its records go through this pipeline in chunks of their own, and it completes with them
+                    processRecords(request, detection, rule);
+                    continue;
+                }
+                processedData.add(convertToProcessableData(request, detection, rule));
+                processedRules.add(rule);
+                processedIds.add(request.getEventId());
+                processedRequests.add(request);
+            } catch (Exception e) {
+                log.error("Failed to convert metadata in batch. EventId: {}, Error: {}",
+                    request.getEventId(), e.getMessage());
+                failures.put(request.getEventId(), e.getMessage());
+            }
+        }
+
+        PublishResult published = publishConverted(processedIds, processedRules, processedData, processedRequests,
+            failures);
+
+        statusTrackingService.updateStatuses(published.completedIds(), MetadataStatus.COMPLETED, "Processing completed");
+        failures.forEach((eventId, message) ->
+            statusTrackingService.updateStatus(eventId, MetadataStatus.FAILED, message));
+
+        log.info("Completed batch of {} records. Completed: {}, Coalesced: {}, Failed: {}",
+            requests.size(), published.completedIds().size(), published.coalesced(), failures.size());
+        return failures;
+    }
+
+    /**
+     * Processes an event carrying many records (a CSV file).
+     * Records are read in chunks of {@code metadata.processing.record-chunk-size}, and each chunk goes through
+     * the batch pipeline before the next one is read, so the event is never held in memory as a whole.
+     * Records are published as {@code eventId#n}. A record that fails is sent on its own to the retry tiers
+     * (see {@link #retryRecord}) instead of failing the event, a retry of the event would publish all of its
+     * records again. The event completes once every record was published or handed to a retry tier.
+     * With the coalescer enabled, records complete when their window closes and the coalescer tracks them.
+     *
+     * @throws ProcessingException when the content is not allowed or cannot be read, or a failed record could not
+     * be sent to a retry tier
+     */
+    private void processRecords(MetadataRequest request, FormatDetector.Detection detection, CompiledRule rule) {
+        String eventId = request.getEventId();
+        statusTrackingService.updateStatus(eventId, MetadataStatus.PROCESSING, "Processing records");
+        if (!preProcessingService.isMessageTypeAllowedInEvent(request, detection, rule)) {
+            throw new ProcessingException("Metadata message content does not match allowed source for this event type");
+        }
+
+        AtomicLong read = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        Map<String, String> firstFailure = new LinkedHashMap<>(2);
+        long records = preProcessingService.convertAllToCommonDto(request, detection, rule, processingConfig.getRecordChunkSize(), chunk -> {
+            List<String> ids = new ArrayList<>(chunk.size());
+            List<Metadata> data = new ArrayList<>(chunk.size());
+            Map<String, String> failures = new LinkedHashMap<>();
+            // Payloads as read, before enrichment, a retried record is enriched again
+            Map<String, Map<String, Object>> rowPayloads = new HashMap<>(chunk.size() * 4 / 3 + 1);
+            for (Metadata record : chunk) {
+                String recordId = eventId + "#" + read.incrementAndGet();
+                rowPayloads.put(recordId, record.getPayload());
+                try {
+                    if (!preProcessingService.isSchemaValid(record, rule)) {
+                        throw new ProcessingException("Metadata schema is not valid for this event type");
+                    }
+                    data.add(preProcessingService.enrichMetaData(record, rule));
+                    ids.add(recordId);
+                } catch (Exception e) {
+                    failures.put(recordId, e.getMessage());
+                }
+            }
+            PublishResult result = publishConverted(ids, Collections.nCopies(ids.size(), rule), data,
+                Collections.nCopies(ids.size(), request), failures);
+            failures.forEach((recordId, error) -> retryRecord(request, detection, recordId, rowPayloads.get(recordId), error));
+            failed.addAndGet(failures.size());
+            if (firstFailure.isEmpty() && !failures.isEmpty()) {
+                Map.Entry<String, String> first = failures.entrySet().iterator().next();
+                firstFailure.put(first.getKey(), first.getValue());
+            }
+            log.debug("Processed {} records of {}. Published: {}, Coalesced: {}, Failed: {}",
+                chunk.size(), eventId, result.completedIds().size(), result.coalesced(), failures.size());
+        });
+
+        String message = failed.get() == 0
+            ? "Processed " + records + " records"
+            : "Processed " + records + " records, " + failed.get() + " failed and sent to retry, first " + firstFailure;
+        statusTrackingService.updateStatus(eventId, MetadataStatus.COMPLETED, message);
+        log.info("Completed {} records of eventId: {}. Failed: {}", records, eventId, failed.get());
+    }
+
+    /**
+     * Sends a failed record of a multi-record event to the retry tiers as an event of its own: its id is the record id
+     * and its payload the record as read, so the retry converts it with the structured JSON path and keeps the entity.
+     * The descriptor names the format of the event it came from, see {@link PreProcessingService#SOURCE_FORMAT_KEY}.
+     * It goes out as if consumed from the inbound topic, where single events come from.
+     *
+     * @throws ProcessingException when it could not be sent, the event must then fail so none of its records is lost
+     */
+    private void retryRecord(MetadataRequest request, FormatDetector.Detection detection, String recordId,
+                             Map<String, Object> payload, String error) {
+        Map<String, Object> descriptor = new HashMap<>();
+        descriptor.put(PreProcessingService.SOURCE_FORMAT_KEY, detection.format().getType());
+        descriptor.put(PreProcessingService.SOURCE_EVENT_KEY, request.getEventId());
+        MetadataRequest record = new MetadataRequest(request.getEventType(), recordId, request.getTimestamp(),
+            payload, descriptor);
+        String value;
+        try {
+            value = objectMapper.writeValueAsString(record);
+        } catch (JsonProcessingException e) {
+            throw new ProcessingException("Cannot serialize failed record " + recordId, e);
+        }
+        failedRecordPublisher.publishFailure(inboundTopic, recordId, value, 0, new ProcessingException(error));
+    }
+
+    /**
+     * CDC, publish and store steps of a batch for records that are already converted.
+     * The lists run in parallel, one entry per record.
+     *
+     * @param failures Gets the error message of every record that failed, keyed by id
+     * @return Ids of the published records (coalesced ones are completed by the coalescer) and how many were coalesced
+     */
+    private PublishResult publishConverted(List<String> processedIds, List<CompiledRule> processedRules,
+                                           List<Metadata> processedData, List<MetadataRequest> processedRequests,
+                                           Map<String, String> failures) {
+        if (processedData.isEmpty()) {
+            return new PublishResult(List.of(), 0);
+        }
+        List<String> entityKeys = new ArrayList<>(processedData.size());
+        for (int i = 0; i < processedData.size(); i++) {
+            entityKeys.add(EntityKeys.of(processedRules.get(i).getTenantId(), processedData.get(i)));
+        }
+        Set<String> distinctKeys = new HashSet<>(entityKeys);
+        Map<String, Map<String, Object>> previousStates = new HashMap<>(previousStateStore.getAll(distinctKeys));
+        versionSequencer.preload(distinctKeys);
+
+        List<ProducerRecord<String, byte[]>> outboundMessages = new ArrayList<>(processedData.size());
+        List<String> outboundIds = new ArrayList<>(processedData.size());
+        List<String> outboundKeys = new ArrayList<>(processedData.size());
+        List<Map<String, Object>> outboundStates = new ArrayList<>(processedData.size());
+        List<EntityState> outboundEntityStates = new ArrayList<>(processedData.size());
+        List<MetadataHistoryWriter.Reservation> outboundHistory = new ArrayList<>(processedData.size());
+        boolean coalesce = cdcCoalescer.isEnabled();
+        List<String> coalescedIds = new ArrayList<>();
+        List<CompletableFuture<Void>> windowsPublished = new ArrayList<>();
+        for (int i = 0; i < processedData.size(); i++) {
+            Metadata metadata = processedData.get(i);
+            CompiledRule rule = processedRules.get(i);
+            String entityKey = entityKeys.get(i);
+            MetadataHistoryWriter.Reservation history = null;
+            Map<String, Object> written = null;
+            Map<String, Object> previousState = previousStates.get(entityKey);
+            try {
+                VersionAssignment version = versionSequencer.next(entityKey, eventTimeMillis(processedRequests.get(i)));
+                CdcOutputMode mode = outputMode(rule);
+                CdcEvent cdc = generateCDC(metadata, previousState, mode, version);
+                Map<String, Object> newState = stateOf(metadata);
+                MetadataHistoryWriter.Reservation reserved =
+                    reserveHistory(processedIds.get(i), entityKey, rule, previousState, newState, cdc);
+                history = reserved;
+                EntityState entityState = entityState(entityKey, rule, processedRequests.get(i).getEventType(), cdc, newState);
+
+                // Later events of the same entity in this batch diff against this state. Written before the hand-off,
+                // a window can complete (and roll it back) before submit returns
+                previousStates.put(entityKey, newState);
+                previousStateStore.put(entityKey, newState);
+                written = newState;
+                if (coalesce) {
+                    // Published when the entity's window closes, the coalescer records the final status
+                    windowsPublished.add(cdcCoalescer.submit(processedIds.get(i), entityKey, previousState, newState, cdc, rule, mode)
+                        .whenComplete((result, error) -> {
+                            if (error != null) {
+                                previousStateStore.rollback(entityKey, newState);
+                                reserved.discard();
+                            } else {
+                                reserved.append();
+                                storeWriter.submit(entityState);
+                            }
+                        }));
+                    coalescedIds.add(processedIds.get(i));
+                } else {
+                    outboundMessages.add(metadataProducer.createOutboundMessage(processedIds.get(i), cdc, rule, newState));
+                    outboundIds.add(processedIds.get(i));
+                    outboundKeys.add(entityKey);
+                    outboundStates.add(newState);
+                    outboundEntityStates.add(entityState);
+                    outboundHistory.add(reserved);
+                }
+            } catch (Exception e) {
+                log.error("Failed to generate CDC in batch. EventId: {}, Error: {}",
+                    processedIds.get(i), e.getMessage());
+                failures.put(processedIds.get(i), e.getMessage());
+                if (written != null) {
+                    previousStateStore.rollback(entityKey, written);
+                    if (previousState != null) {
+                        previousStates.put(entityKey, previousState);
+                    } else {
+                        previousStates.remove(entityKey);
+                    }
+                }
+                if (history != null) {
+                    history.discard();
+                }
+            }
+        }
+
+        List<String> completedIds = new ArrayList<>(outboundIds.size());
+        List<EntityState> publishedStates = new ArrayList<>(outboundIds.size());
+        // The send deadline, the topic's linger only decides when the batch was flushed
+        List<Throwable> sendResults = metadataProducer.publishBatch(outboundMessages, processingConfig.getPublishTimeoutMs());
+        for (int i = 0; i < outboundIds.size(); i++) {
+            Throwable error = sendResults.get(i);
+            if (error == null) {
+                completedIds.add(outboundIds.get(i));
+                publishedStates.add(outboundEntityStates.get(i));
+                outboundHistory.get(i).append();
+            } else {
+                failures.put(outboundIds.get(i), error.getMessage());
+                previousStateStore.rollback(outboundKeys.get(i), outboundStates.get(i));
+                outboundHistory.get(i).discard();
+            }
+        }
+
+        storeWriter.upsertAll(publishedStates);
+        // The batch is committed once this returns, so it waits for the windows its coalesced records went into:
+        // a window opened by this batch closes within the window time and then has the publish timeout to be sent
+        awaitWindows(coalescedIds, windowsPublished, cdcCoalescer.getWindowMs() + processingConfig.getPublishTimeoutMs(),
+            failures);
+        return new PublishResult(completedIds, coalescedIds.size());
+    }
+
+    /**
+     * Waits up to {@code timeoutMs} for the coalesce windows of records, a record whose window failed
+     * or is still open after that counts as failed.
+     */
+    private void awaitWindows(List<String> ids, List<CompletableFuture<Void>> windowsPublished, long timeoutMs,
+                              Map<String, String> failures) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(windowsPublished.toArray(new CompletableFuture[0]))
+                .get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Timed out after {}ms waiting for coalesce windows of {} records", timeoutMs, ids.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // individual failures are reported per record below
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            CompletableFuture<Void> window = windowsPublished.get(i);
+            if (!window.isDone()) {
+                failures.put(ids.get(i), "Coalesce window not published within " + timeoutMs + "ms");
+            } else if (window.isCompletedExceptionally()) {
+                failures.put(ids.get(i), window.exceptionNow().getMessage());
+            }
+        }
+    }
+
+    private record PublishResult(List<String> completedIds, int coalesced) {}
+}
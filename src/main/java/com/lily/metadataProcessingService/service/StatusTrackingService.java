@@ -5,6 +5,8 @@ import com.lily.metadataProcessingService.dto.MetadataStatusResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -18,6 +20,17 @@ public class StatusTrackingService {
         log.info("Status updated for eventId: {} to: {}", eventId, status);
     }
     
+    public void updateStatuses(Collection<String> eventIds, MetadataStatus status, String message) {
+        if (eventIds.isEmpty()) {
+            return;
+        }
+        Map<String, MetadataStatusResponse> updates = new HashMap<>(eventIds.size() * 2);
+        eventIds.forEach(eventId ->
+            updates.put(eventId, new MetadataStatusResponse(eventId, status.toString(), message)));
+        taskStatus.putAll(updates);
+        log.info("Status updated for {} events to: {}", eventIds.size(), status);
+    }
+
     public MetadataStatusResponse getStatus(String eventId) {
         return taskStatus.get(eventId);
     }
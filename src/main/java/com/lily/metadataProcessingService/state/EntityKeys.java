@@ -0,0 +1,26 @@
+package com.lily.metadataProcessingService.state;
+
+import com.lily.metadataProcessingService.dto.Metadata;
+
+import java.util.Map;
+
+import static com.lily.metadataProcessingService.common.Constants.UNKNOWN;
+
+/**
+ * Builds the key an entity's state is stored under: tenant, table and primary key value.
+ */
+public final class EntityKeys {
+
+    private EntityKeys() {}
+
+    public static String of(String tenantId, Metadata metadata) {
+        Map<String, Object> payload = metadata.getPayload() != null ? metadata.getPayload() : Map.of();
+        Object primaryKeyValue = payload.get("primaryKeyValue");
+        if (primaryKeyValue == null) {
+            // Without a primary key the metadata id is the only stable identity
+            return tenantId + ":" + UNKNOWN + ":" + metadata.getId();
+        }
+        Object table = payload.getOrDefault("table", UNKNOWN);
+        return tenantId + ":" + table + ":" + primaryKeyValue;
+    }
+}
@@ -0,0 +1,205 @@
+package com.lily.metadataProcessingService.state;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.lily.metadataProcessingService.config.VersionSequencerConfig;
+import com.lily.metadataProcessingService.repository.EntityVersionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out strictly increasing versions per entity, unique across all instances of the service.
+ * Versions are reserved in ranges of {@code reservationSize} from entity_version, whose row holds the end of the
+ * last range any instance reserved, the upsert reserving a range is atomic. Every tracked entity has its own slot
+ * holding the rest of its range, advanced with compare-and-set, so concurrent updates of one entity get distinct,
+ * ordered versions while updates of different entities never contend and the database is only asked once per range.
+ * An instance taking over an entity (rebalance, restart) reserves a new range above everything reserved before, so
+ * versions keep increasing across the handover. The slot also remembers the latest event timestamp, an event older
+ * than that is flagged as out of order, the timestamps are written to entity_version in batches by {@link #flush()}.
+ * Versions have gaps (the unused rest of a range when a slot is evicted or the instance stops, a failed publish)
+ * but never repeat or go backwards.
+ */
+@Slf4j
+@Component
+public class EntityVersionSequencer {
+
+    private static final long NO_TIMESTAMP = -1;
+
+    private final EntityVersionRepository versionRepository;
+    private final VersionSequencerConfig config;
+    private final LoadingCache<String, AtomicReference<Sequence>> slots;
+    // Latest event timestamp per entity that is not written yet, only ever merged upwards
+    private final ConcurrentHashMap<String, Long> pendingFlush = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Counter outOfOrderCounter;
+    private final Counter reservationCounter;
+    private final Timer flushTimer;
+
+    public EntityVersionSequencer(EntityVersionRepository versionRepository, VersionSequencerConfig config,
+                                  MeterRegistry meterRegistry) {
+        this.versionRepository = versionRepository;
+        this.config = config;
+        this.slots = Caffeine.newBuilder()
+            .maximumSize(config.getMaxTrackedEntities())
+            .build(new SlotLoader());
+        this.outOfOrderCounter = Counter.builder("metadata.versions.out_of_order").register(meterRegistry);
+        this.reservationCounter = Counter.builder("metadata.versions.reservations").register(meterRegistry);
+        this.flushTimer = Timer.builder("metadata.versions.flush").register(meterRegistry);
+        meterRegistry.gauge("metadata.versions.pending", pendingFlush, Map::size);
+    }
+
+    /**
+     * Assigns the next version of an entity, reserving a new range first when the current one is used up.
+     *
+     * @param entityKey Key from {@link EntityKeys}
+     * @param eventTimestamp Event time in epoch millis, negative when unknown
+     * @return The version and whether an event with a later timestamp was already versioned
+     */
+    public VersionAssignment next(String entityKey, long eventTimestamp) {
+        AtomicReference<Sequence> slot = slots.get(entityKey);
+        Sequence current;
+        Sequence advanced;
+        do {
+            current = slot.get();
+            if (current.version >= current.end) {
+                current = reserve(entityKey, slot);
+            }
+            advanced = new Sequence(current.version + 1, current.end, Math.max(current.timestamp, eventTimestamp));
+        } while (!slot.compareAndSet(current, advanced));
+
+        if (advanced.timestamp > current.timestamp) {
+            pendingFlush.merge(entityKey, advanced.timestamp, Math::max);
+        }
+        // A slot evicted meanwhile only loses the rest of its range, its replacement reserves a range above it
+        boolean outOfOrder = eventTimestamp >= 0 && eventTimestamp < current.timestamp;
+        if (outOfOrder) {
+            outOfOrderCounter.increment();
+        }
+        return new VersionAssignment(advanced.version, outOfOrder);
+    }
+
+    /**
+     * Reserves the ranges of all given entities that are not tracked yet, with one statement.
+     * Meant to be called before {@link #next(String, long)} for the entities of a batch.
+     */
+    public void preload(Collection<String> entityKeys) {
+        slots.getAll(entityKeys);
+    }
+
+    /**
+     * Replaces the used up range of a slot, one thread reserves while the others wait for its range.
+     */
+    private Sequence reserve(String entityKey, AtomicReference<Sequence> slot) {
+        synchronized (slot) {
+            Sequence current = slot.get();
+            if (current.version < current.end) {
+                return current;
+            }
+            long[] reserved = versionRepository.reserveVersions(List.of(entityKey), reservationSize()).get(entityKey);
+            reservationCounter.increment();
+            Sequence renewed = new Sequence(reserved[0] - reservationSize(), reserved[0],
+                Math.max(current.timestamp, reserved[1]));
+            slot.set(renewed);
+            return renewed;
+        }
+    }
+
+    private long reservationSize() {
+        return Math.max(1, config.getReservationSize());
+    }
+
+    /**
+     * Writes the pending event timestamps. Timestamps that fail to write stay pending for the next run.
+     */
+    @Scheduled(fixedDelayString = "${metadata.versions.flush-interval-ms:1000}")
+    public void flush() {
+        if (pendingFlush.isEmpty() || !flushLock.tryLock()) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            List<Map.Entry<String, Long>> pending = new ArrayList<>(pendingFlush.entrySet().size());
+            pendingFlush.forEach((key, timestamp) -> pending.add(Map.entry(key, timestamp)));
+            int batchSize = Math.max(1, config.getFlushBatchSize());
+            for (int from = 0; from < pending.size(); from += batchSize) {
+                List<Map.Entry<String, Long>> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+                Map<String, Long> timestamps = new HashMap<>(batch.size());
+                batch.forEach(entry -> timestamps.put(entry.getKey(), entry.getValue()));
+                versionRepository.saveEventTimestamps(timestamps);
+                // Only drop what was written, timestamps that moved on meanwhile go out with the next run
+                batch.forEach(entry -> pendingFlush.remove(entry.getKey(), entry.getValue()));
+            }
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.debug("Flushed event timestamps of {} entities", pending.size());
+        } catch (Exception e) {
+            log.error("Failed to flush event timestamps, {} entities stay pending: {}", pendingFlush.size(), e.getMessage());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        if (!pendingFlush.isEmpty()) {
+            log.warn("Event timestamps of {} entities were not written on shutdown", pendingFlush.size());
+        }
+    }
+
+    /**
+     * Last version handed out of an entity, the end of its reserved range and the latest event timestamp seen for it.
+     */
+    private record Sequence(long version, long end, long timestamp) {
+    }
+
+    /**
+     * Starts slots with a freshly reserved range, and the unwritten timestamp if there is one.
+     * Pending is read first: a timestamp is only removed from it once written, so it is never missed in both places.
+     */
+    private class SlotLoader implements CacheLoader<String, AtomicReference<Sequence>> {
+
+        @Override
+        public AtomicReference<Sequence> load(String key) {
+            return loadAll(Set.of(key)).get(key);
+        }
+
+        @Override
+        public Map<String, AtomicReference<Sequence>> loadAll(Set<? extends String> keys) {
+            Map<String, Long> pending = new HashMap<>();
+            keys.forEach(key -> {
+                Long timestamp = pendingFlush.get(key);
+                if (timestamp != null) {
+                    pending.put(key, timestamp);
+                }
+            });
+            long size = reservationSize();
+            Map<String, long[]> reserved = versionRepository.reserveVersions(new ArrayList<>(keys), size);
+            reservationCounter.increment(reserved.size());
+
+            Map<String, AtomicReference<Sequence>> loaded = new HashMap<>(keys.size());
+            for (String key : keys) {
+                long[] range = reserved.get(key);
+                long timestamp = Math.max(range[1], pending.getOrDefault(key, NO_TIMESTAMP));
+                loaded.put(key, new AtomicReference<>(new Sequence(range[0] - size, range[0], timestamp)));
+            }
+            return loaded;
+        }
+    }
+}
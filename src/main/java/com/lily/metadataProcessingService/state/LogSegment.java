@@ -0,0 +1,216 @@
+package com.lily.metadataProcessingService.state;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory mapped log file holding state records.
+ * Record layout: record length, key length, value length (-1 for a tombstone) and CRC32C of
+ * key + value as ints, followed by the key and value bytes. The file is pre-sized, so the end of
+ * the data is the first record with a zero length.
+ */
+final class LogSegment {
+
+    static final int HEADER_BYTES = 16;
+    static final int TOMBSTONE = -1;
+
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int writeOffset;
+    private long liveBytes;
+
+    private LogSegment(int id, Path path, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens a segment, creating it with the given size if it does not exist yet.
+     * Existing segments keep their own size.
+     */
+    static LogSegment open(Path directory, int id, int size) {
+        Path path = directory.resolve(fileName(id));
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int capacity = channel.size() > 0 ? (int) Math.min(channel.size(), Integer.MAX_VALUE) : size;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new LogSegment(id, path, channel, buffer, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open state segment " + path, e);
+        }
+    }
+
+    static String fileName(int id) {
+        return String.format("segment-%08d.log", id);
+    }
+
+    static int parseId(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length()));
+    }
+
+    static boolean isSegmentFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith("segment-") && name.endsWith(".log");
+    }
+
+    /**
+     * Appends a record at the write offset.
+     *
+     * @param value Value bytes, null for a tombstone
+     * @return Offset of the record, -1 when the segment has no room left
+     */
+    int append(byte[] key, byte[] value) {
+        int valueLength = value != null ? value.length : TOMBSTONE;
+        int recordLength = HEADER_BYTES + key.length + Math.max(valueLength, 0);
+        if (writeOffset + recordLength > capacity) {
+            return -1;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(key);
+        if (value != null) {
+            crc.update(value);
+        }
+        int offset = writeOffset;
+        buffer.putInt(offset + 4, key.length);
+        buffer.putInt(offset + 8, valueLength);
+        buffer.putInt(offset + 12, (int) crc.getValue());
+        buffer.put(offset + HEADER_BYTES, key);
+        if (value != null) {
+            buffer.put(offset + HEADER_BYTES + key.length, value);
+        }
+        // Length last, a record only becomes visible to a recovery scan once it is complete
+        buffer.putInt(offset, recordLength);
+        writeOffset = offset + recordLength;
+        return offset;
+    }
+
+    /**
+     * Validates the record at an offset.
+     *
+     * @return Offset of the next record, -1 when there is no valid record at the offset
+     */
+    int nextValid(int offset) {
+        if (offset + HEADER_BYTES > capacity) {
+            return -1;
+        }
+        int recordLength = buffer.getInt(offset);
+        int keyLength = buffer.getInt(offset + 4);
+        int valueLength = buffer.getInt(offset + 8);
+        if (recordLength <= 0 || keyLength < 0 || valueLength < TOMBSTONE
+                || recordLength != HEADER_BYTES + keyLength + Math.max(valueLength, 0)
+                || offset + recordLength > capacity) {
+            return -1;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + HEADER_BYTES, recordLength - HEADER_BYTES));
+        if ((int) crc.getValue() != buffer.getInt(offset + 12)) {
+            return -1;
+        }
+        return offset + recordLength;
+    }
+
+    /**
+     * Zeroes everything from the offset on, used after recovery found a torn record there.
+     */
+    void clearFrom(int offset) {
+        byte[] zeros = new byte[64 * 1024];
+        for (int position = offset; position < capacity; position += zeros.length) {
+            buffer.put(position, zeros, 0, Math.min(zeros.length, capacity - position));
+        }
+    }
+
+    int recordSize(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getInt(offset + 4) != key.length) {
+            return false;
+        }
+        int start = offset + HEADER_BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    byte[] readKey(int offset) {
+        byte[] key = new byte[buffer.getInt(offset + 4)];
+        buffer.get(offset + HEADER_BYTES, key);
+        return key;
+    }
+
+    /**
+     * @return Value bytes of the record, null for a tombstone
+     */
+    byte[] readValue(int offset) {
+        int valueLength = buffer.getInt(offset + 8);
+        if (valueLength == TOMBSTONE) {
+            return null;
+        }
+        byte[] value = new byte[valueLength];
+        buffer.get(offset + HEADER_BYTES + buffer.getInt(offset + 4), value);
+        return value;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close state segment " + path, e);
+        }
+    }
+
+    void delete() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete state segment " + path, e);
+        }
+    }
+
+    int id() {
+        return id;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int writeOffset() {
+        return writeOffset;
+    }
+
+    void writeOffset(int writeOffset) {
+        this.writeOffset = writeOffset;
+    }
+
+    long liveBytes() {
+        return liveBytes;
+    }
+
+    void addLiveBytes(long bytes) {
+        liveBytes += bytes;
+    }
+}
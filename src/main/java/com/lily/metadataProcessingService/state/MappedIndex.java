@@ -0,0 +1,271 @@
+package com.lily.metadataProcessingService.state;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Open addressing hash index from entity key to record location, in a memory mapped file.
+ * Each slot holds the 64 bit key hash (0 means empty) and the record location
+ * (segment id in the high int, offset in the low int), probed linearly. Hashes can collide,
+ * so a matching hash is confirmed against the key stored in the record.
+ * Entries are never removed, a deleted entity points at a tombstone record instead.
+ *
+ * The header keeps a clean shutdown flag and the write position of the active segment,
+ * so a clean restart can use the index as is instead of rebuilding it from the segments.
+ */
+final class MappedIndex {
+
+    /** Checks whether the record at a location holds the given key. */
+    interface KeyMatcher {
+        boolean matches(long location, byte[] key);
+    }
+
+    static final long NOT_FOUND = -1;
+
+    private static final long MAGIC = 0x4D44535449445831L;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 16;
+    private static final long MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / SLOT_BYTES;
+    private static final double MAX_LOAD = 0.7;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private int size;
+
+    private MappedIndex(Path path, FileChannel channel, MappedByteBuffer buffer, int capacity, int size) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.size = size;
+    }
+
+    /**
+     * Opens an existing index.
+     *
+     * @return The index, null when the file is missing, from another version or was not closed cleanly
+     */
+    static MappedIndex openIfClean(Path path) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION
+                    || buffer.getInt(12) != 1) {
+                channel.close();
+                return null;
+            }
+            int capacity = (int) buffer.getLong(16);
+            return new MappedIndex(path, channel, buffer, capacity, (int) buffer.getLong(24));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open state index " + path, e);
+        }
+    }
+
+    /**
+     * Creates an empty index, replacing any existing file.
+     *
+     * @param minCapacity Minimum number of slots, rounded up to a power of two
+     */
+    static MappedIndex create(Path path, long minCapacity) {
+        long capacity = Long.highestOneBit(Math.max(16, minCapacity - 1)) << 1;
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("State index cannot grow beyond " + MAX_CAPACITY + " slots");
+        }
+        try {
+            Files.deleteIfExists(path);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity * SLOT_BYTES);
+            buffer.putLong(0, MAGIC);
+            buffer.putInt(8, VERSION);
+            buffer.putLong(16, capacity);
+            return new MappedIndex(path, channel, buffer, (int) capacity, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create state index " + path, e);
+        }
+    }
+
+    long get(long hash, byte[] key, KeyMatcher matcher) {
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long slotHash = buffer.getLong(slotPosition(slot));
+            if (slotHash == 0) {
+                return NOT_FOUND;
+            }
+            if (slotHash == hash) {
+                long location = buffer.getLong(slotPosition(slot) + 8);
+                if (matcher.matches(location, key)) {
+                    return location;
+                }
+            }
+        }
+    }
+
+    /**
+     * Points a key at a new location.
+     *
+     * @return Previous location of the key, {@link #NOT_FOUND} when the key is new
+     */
+    long put(long hash, byte[] key, long location, KeyMatcher matcher) {
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            int position = slotPosition(slot);
+            long slotHash = buffer.getLong(position);
+            if (slotHash == 0) {
+                buffer.putLong(position + 8, location);
+                buffer.putLong(position, hash);
+                size++;
+                return NOT_FOUND;
+            }
+            if (slotHash == hash) {
+                long previous = buffer.getLong(position + 8);
+                if (matcher.matches(previous, key)) {
+                    buffer.putLong(position + 8, location);
+                    return previous;
+                }
+            }
+        }
+    }
+
+    boolean needsResize() {
+        return size + 1 > capacity * MAX_LOAD;
+    }
+
+    /**
+     * Copies all entries into an index of twice the size, which then replaces this one on disk.
+     * Keys are unique already, so entries are placed by hash without looking at the records.
+     */
+    MappedIndex resize() {
+        Path resizedPath = path.resolveSibling(path.getFileName() + ".resize");
+        MappedIndex resized = create(resizedPath, (long) capacity * 2);
+        for (int slot = 0; slot < capacity; slot++) {
+            long hash = hashAt(slot);
+            if (hash != 0) {
+                resized.insertNew(hash, locationAt(slot));
+            }
+        }
+        close(false);
+        try {
+            Files.move(resizedPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to replace state index " + path, e);
+        }
+        return resized.withPath(path);
+    }
+
+    private void insertNew(long hash, long location) {
+        int slot = (int) hash & mask;
+        while (buffer.getLong(slotPosition(slot)) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        buffer.putLong(slotPosition(slot) + 8, location);
+        buffer.putLong(slotPosition(slot), hash);
+        size++;
+    }
+
+    private MappedIndex withPath(Path newPath) {
+        return new MappedIndex(newPath, channel, buffer, capacity, size);
+    }
+
+    long hashAt(int slot) {
+        return buffer.getLong(slotPosition(slot));
+    }
+
+    long locationAt(int slot) {
+        return buffer.getLong(slotPosition(slot) + 8);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int activeSegment() {
+        return buffer.getInt(32);
+    }
+
+    int activeOffset() {
+        return buffer.getInt(36);
+    }
+
+    /**
+     * Marks the index as in use, so a crash before {@link #close(boolean)} forces a rebuild.
+     */
+    void markDirty() {
+        buffer.putInt(12, 0);
+        buffer.force(0, HEADER_BYTES);
+    }
+
+    void force() {
+        buffer.putLong(24, size);
+        buffer.force();
+    }
+
+    /**
+     * @param clean Whether to record the active segment position and mark the index as cleanly closed
+     */
+    void close(boolean clean, int activeSegment, int activeOffset) {
+        buffer.putInt(32, activeSegment);
+        buffer.putInt(36, activeOffset);
+        close(clean);
+    }
+
+    private void close(boolean clean) {
+        buffer.putLong(24, size);
+        buffer.force();
+        if (clean) {
+            buffer.putInt(12, 1);
+            buffer.force(0, HEADER_BYTES);
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close state index " + path, e);
+        }
+    }
+
+    static long location(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * 64 bit FNV-1a over the key bytes with a final avalanche, never 0 since 0 marks an empty slot.
+     */
+    static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+}
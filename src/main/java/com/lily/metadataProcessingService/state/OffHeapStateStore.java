@@ -0,0 +1,407 @@
+package com.lily.metadataProcessingService.state;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.config.StateStoreConfig;
+import com.lily.metadataProcessingService.service.MetadataStoreWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Previous-state store that keeps the latest state of every entity off heap, in memory mapped files.
+ * States are appended as JSON to fixed size log segments and found through a memory mapped open
+ * addressing index, so heap use does not grow with the number of entities. Segments whose data was
+ * mostly superseded are compacted by copying their live records to the active segment.
+ *
+ * After a clean shutdown the index is reused as is. After a crash it is rebuilt by replaying the
+ * segments in write order, stopping at the first torn record. Entities not in the store are looked
+ * up in metadata_store through the states not flushed yet, like the Caffeine store does. What was loaded
+ * is only stored for entities still missing by then, and entities without a row are stored as an empty
+ * state, so new entities do not go to the database on every event.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "metadata.state", name = "store", havingValue = "offheap")
+public class OffHeapStateStore implements PreviousStateStore {
+
+    private static final TypeReference<Map<String, Object>> STATE_TYPE = new TypeReference<>() {};
+    private static final Map<String, Object> NO_STATE = Map.of();
+    private static final String INDEX_FILE = "index.bin";
+    private static final int COMPACTION_RECORDS_PER_LOCK = 1024;
+
+    private final StateStoreConfig.OffHeap config;
+    private final MetadataStoreWriter storeWriter;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, LogSegment> segments = new TreeMap<>();
+    private final MappedIndex.KeyMatcher keyMatcher = this::keyMatches;
+    private final Path directory;
+
+    private MappedIndex index;
+    private LogSegment active;
+    private Counter compactions;
+
+    public OffHeapStateStore(StateStoreConfig config, MetadataStoreWriter storeWriter, MeterRegistry meterRegistry) {
+        this.config = config.getOffHeap();
+        this.storeWriter = storeWriter;
+        this.meterRegistry = meterRegistry;
+        this.directory = Path.of(this.config.getDirectory());
+    }
+
+    @PostConstruct
+    public void open() {
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(LogSegment::isSegmentFile)
+                    .map(LogSegment::parseId)
+                    .sorted()
+                    .forEach(id -> segments.put(id, LogSegment.open(directory, id, config.getSegmentSizeBytes())));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open state store in " + directory, e);
+        }
+
+        index = MappedIndex.openIfClean(directory.resolve(INDEX_FILE));
+        if (index != null && !segments.isEmpty() && index.activeSegment() == segments.lastKey()) {
+            active = segments.lastEntry().getValue();
+            active.writeOffset(index.activeOffset());
+            log.info("Opened state store with {} entities in {}ms", index.size(), System.currentTimeMillis() - start);
+        } else {
+            rebuildIndex();
+            log.info("Rebuilt state store index with {} entities in {}ms", index.size(), System.currentTimeMillis() - start);
+        }
+        index.markDirty();
+        computeLiveBytes();
+
+        Gauge.builder("metadata.state.offheap.entities", this, store -> store.index.size()).register(meterRegistry);
+        Gauge.builder("metadata.state.offheap.segments", segments, TreeMap::size).register(meterRegistry);
+        Gauge.builder("metadata.state.offheap.disk", this, OffHeapStateStore::diskBytes).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("metadata.state.offheap.live", this, OffHeapStateStore::liveBytes).baseUnit("bytes").register(meterRegistry);
+        compactions = Counter.builder("metadata.state.offheap.compactions").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            segments.values().forEach(LogSegment::close);
+            index.close(true, active.id(), active.writeOffset());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> get(String entityKey) {
+        return getAll(List.of(entityKey)).getOrDefault(entityKey, Map.of());
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getAll(Collection<String> entityKeys) {
+        Map<String, byte[]> found = new HashMap<>(entityKeys.size());
+        List<String> missing = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (String entityKey : entityKeys) {
+                byte[] value = read(entityKey.getBytes(StandardCharsets.UTF_8));
+                if (value != null) {
+                    found.put(entityKey, value);
+                } else {
+                    missing.add(entityKey);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!missing.isEmpty()) {
+            // Entities written before the store existed, or rolled back, come from the database
+            found.putAll(storeIfAbsent(missing, storeWriter.findLatestStates(missing)));
+        }
+        Map<String, Map<String, Object>> states = new HashMap<>(found.size());
+        found.forEach((entityKey, value) -> {
+            Map<String, Object> state = decode(value);
+            if (!state.isEmpty()) {
+                states.put(entityKey, state);
+            }
+        });
+        return states;
+    }
+
+    /**
+     * Stores states loaded from the database for the entities that are still missing. An entity written while
+     * the database was read keeps that newer state, it is returned instead.
+     *
+     * @param persisted Loaded states, entities without one are stored as {@link #NO_STATE}
+     * @return Value of every entity as stored now
+     */
+    private Map<String, byte[]> storeIfAbsent(List<String> entityKeys, Map<String, Map<String, Object>> persisted) {
+        Map<String, byte[]> loaded = new HashMap<>(entityKeys.size());
+        for (String entityKey : entityKeys) {
+            loaded.put(entityKey, encode(persisted.getOrDefault(entityKey, NO_STATE)));
+        }
+        Map<String, byte[]> stored = new HashMap<>(entityKeys.size());
+        lock.writeLock().lock();
+        try {
+            loaded.forEach((entityKey, value) -> {
+                byte[] key = entityKey.getBytes(StandardCharsets.UTF_8);
+                byte[] current = read(key);
+                if (current == null) {
+                    write(key, value);
+                    stored.put(entityKey, value);
+                } else {
+                    stored.put(entityKey, current);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return stored;
+    }
+
+    @Override
+    public void put(String entityKey, Map<String, Object> state) {
+        byte[] value = encode(state);
+        lock.writeLock().lock();
+        try {
+            write(entityKey.getBytes(StandardCharsets.UTF_8), value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void rollback(String entityKey, Map<String, Object> state) {
+        byte[] key = entityKey.getBytes(StandardCharsets.UTF_8);
+        byte[] value = encode(state);
+        lock.writeLock().lock();
+        try {
+            // Only drop our own write, a tombstone makes the next lookup go to the database
+            if (Arrays.equals(read(key), value)) {
+                write(key, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes dirty pages of the index and segments to disk.
+     */
+    @Scheduled(fixedDelayString = "${metadata.state.off-heap.sync-interval-ms:1000}")
+    public void sync() {
+        lock.readLock().lock();
+        try {
+            segments.values().forEach(LogSegment::force);
+            index.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the sealed segment with the least live data, if it is below the compaction threshold.
+     */
+    @Scheduled(fixedDelayString = "${metadata.state.off-heap.compaction-interval-ms:30000}")
+    public void compact() {
+        LogSegment candidate = null;
+        lock.readLock().lock();
+        try {
+            for (LogSegment segment : segments.values()) {
+                if (segment == active) {
+                    continue;
+                }
+                double liveRatio = (double) segment.liveBytes() / segment.capacity();
+                if (liveRatio < config.getCompactionThreshold()
+                        && (candidate == null || segment.liveBytes() < candidate.liveBytes())) {
+                    candidate = segment;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (candidate != null) {
+            compact(candidate);
+        }
+    }
+
+    private void compact(LogSegment segment) {
+        long start = System.currentTimeMillis();
+        long liveBefore = segment.liveBytes();
+        int offset = 0;
+        while (offset >= 0) {
+            // Copy in small steps so readers and writers are not blocked for the whole segment
+            lock.writeLock().lock();
+            try {
+                for (int i = 0; i < COMPACTION_RECORDS_PER_LOCK && offset >= 0; i++) {
+                    int next = segment.nextValid(offset);
+                    if (next < 0) {
+                        offset = -1;
+                        break;
+                    }
+                    byte[] key = segment.readKey(offset);
+                    long location = MappedIndex.location(segment.id(), offset);
+                    if (index.get(MappedIndex.hash(key), key, keyMatcher) == location) {
+                        write(key, segment.readValue(offset));
+                    }
+                    offset = next;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            // New copies have to be on disk before the old ones go away
+            active.force();
+            index.force();
+            segments.remove(segment.id());
+            segment.delete();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactions.increment();
+        log.info("Compacted state segment {} ({} live bytes) in {}ms",
+            segment.id(), liveBefore, System.currentTimeMillis() - start);
+    }
+
+    private byte[] read(byte[] key) {
+        long location = index.get(MappedIndex.hash(key), key, keyMatcher);
+        if (location == MappedIndex.NOT_FOUND) {
+            return null;
+        }
+        return segments.get(MappedIndex.segmentOf(location)).readValue(MappedIndex.offsetOf(location));
+    }
+
+    /**
+     * Appends a record and points the index at it. Callers hold the write lock.
+     *
+     * @param value Value bytes, null for a tombstone
+     */
+    private void write(byte[] key, byte[] value) {
+        int offset = active.append(key, value);
+        if (offset < 0) {
+            active.force();
+            active = LogSegment.open(directory, active.id() + 1, config.getSegmentSizeBytes());
+            segments.put(active.id(), active);
+            offset = active.append(key, value);
+            if (offset < 0) {
+                int size = key.length + (value != null ? value.length : 0);
+                throw new IllegalArgumentException("State of " + size + " bytes does not fit in a segment of "
+                    + config.getSegmentSizeBytes() + " bytes");
+            }
+        }
+        active.addLiveBytes(active.recordSize(offset));
+
+        if (index.needsResize()) {
+            index = index.resize();
+            index.markDirty();
+        }
+        long previous = index.put(MappedIndex.hash(key), key, MappedIndex.location(active.id(), offset), keyMatcher);
+        if (previous != MappedIndex.NOT_FOUND) {
+            LogSegment previousSegment = segments.get(MappedIndex.segmentOf(previous));
+            previousSegment.addLiveBytes(-previousSegment.recordSize(MappedIndex.offsetOf(previous)));
+        }
+    }
+
+    private boolean keyMatches(long location, byte[] key) {
+        LogSegment segment = segments.get(MappedIndex.segmentOf(location));
+        return segment != null && segment.keyEquals(MappedIndex.offsetOf(location), key);
+    }
+
+    /**
+     * Replays all segments in write order into a new index, later records of a key win.
+     * The active segment is truncated at its first torn record.
+     */
+    private void rebuildIndex() {
+        long records = segments.values().stream().mapToLong(segment -> segment.capacity() / 256).sum();
+        index = MappedIndex.create(directory.resolve(INDEX_FILE), Math.max(config.getInitialIndexCapacity(), records));
+        if (segments.isEmpty()) {
+            segments.put(0, LogSegment.open(directory, 0, config.getSegmentSizeBytes()));
+        }
+        for (LogSegment segment : segments.values()) {
+            int offset = 0;
+            for (int next = segment.nextValid(offset); next > 0; next = segment.nextValid(offset)) {
+                byte[] key = segment.readKey(offset);
+                if (index.needsResize()) {
+                    index = index.resize();
+                }
+                index.put(MappedIndex.hash(key), key, MappedIndex.location(segment.id(), offset), keyMatcher);
+                offset = next;
+            }
+            segment.writeOffset(offset);
+        }
+        active = segments.lastEntry().getValue();
+        active.clearFrom(active.writeOffset());
+    }
+
+    private void computeLiveBytes() {
+        for (int slot = 0; slot < index.capacity(); slot++) {
+            if (index.hashAt(slot) != 0) {
+                long location = index.locationAt(slot);
+                LogSegment segment = segments.get(MappedIndex.segmentOf(location));
+                segment.addLiveBytes(segment.recordSize(MappedIndex.offsetOf(location)));
+            }
+        }
+    }
+
+    private double diskBytes() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong(LogSegment::capacity).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double liveBytes() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong(LogSegment::liveBytes).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private byte[] encode(Map<String, Object> state) {
+        try {
+            return objectMapper.writeValueAsBytes(state);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode entity state", e);
+        }
+    }
+
+    private Map<String, Object> decode(byte[] value) {
+        try {
+            return objectMapper.readValue(value, STATE_TYPE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode entity state", e);
+        }
+    }
+}
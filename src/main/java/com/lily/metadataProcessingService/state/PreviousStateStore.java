@@ -0,0 +1,32 @@
+package com.lily.metadataProcessingService.state;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Source of the latest known state of every entity, used as the "before" side of CDC.
+ * States are written when CDC is generated, so the next event of the entity sees them,
+ * and rolled back when the event could not be published.
+ */
+public interface PreviousStateStore {
+
+    /**
+     * @param entityKey Key from {@link EntityKeys#of}
+     * @return Latest state, empty when the entity is unknown
+     */
+    Map<String, Object> get(String entityKey);
+
+    /**
+     * Bulk version of {@link #get(String)}.
+     *
+     * @return Latest state of every known entity, unknown entities are left out
+     */
+    Map<String, Map<String, Object>> getAll(Collection<String> entityKeys);
+
+    void put(String entityKey, Map<String, Object> state);
+
+    /**
+     * Drops a state written by {@link #put}, unless a newer state replaced it in the meantime.
+     */
+    void rollback(String entityKey, Map<String, Object> state);
+}
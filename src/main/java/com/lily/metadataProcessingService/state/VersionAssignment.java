@@ -0,0 +1,15 @@
+package com.lily.metadataProcessingService.state;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Version handed out for one change of an entity.
+ * Out of order means the event is older than a change that already got a version.
+ */
+@Getter
+@AllArgsConstructor
+public class VersionAssignment {
+    private final long version;
+    private final boolean outOfOrder;
+}
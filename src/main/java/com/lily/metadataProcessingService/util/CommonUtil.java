@@ -1,5 +1,6 @@
 package com.lily.metadataProcessingService.util;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -16,4 +17,32 @@ public class CommonUtil {
                         entry -> entry.getValue() != null ? entry.getValue().toString() : "null"
                 ));
     }
+
+    /**
+     * Rough estimate of the heap held by a parsed payload, used for in-flight memory budgets.
+     * Counts string characters, map entries and collection elements with a fixed per-object overhead.
+     */
+    public static long estimatePayloadBytes(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence text) {
+            return 40L + 2L * text.length();
+        }
+        if (value instanceof Map<?, ?> map) {
+            long size = 64;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                size += 32 + estimatePayloadBytes(entry.getKey()) + estimatePayloadBytes(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection<?> collection) {
+            long size = 64;
+            for (Object element : collection) {
+                size += 8 + estimatePayloadBytes(element);
+            }
+            return size;
+        }
+        return 24;
+    }
 }
@@ -5,7 +5,7 @@ import org.springframework.stereotype.Component;
 @Component
 public class EncryptionUtil {
     public String maskSensitiveData(String data) {
-        return data == null ? "****" : data.substring(0, 2) + "****" + data.substring(data.length() - 2);
+        return data == null || data.length() < 5 ? "****" : data.substring(0, 2) + "****" + data.substring(data.length() - 2);
     }
 }
 
@@ -0,0 +1,219 @@
+package com.lily.metadataProcessingService.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.config.OAuthConfig;
+import com.lily.metadataProcessingService.dto.TokenValidation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.AlgorithmParameters;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Verifies signed JWTs locally against a cached JSON Web Key Set, with no network hop per token.
+ * The key set is loaded from {@code auth.oauth.jwks-uri} (http(s) or file) and refreshed periodically,
+ * or early when a token references an unknown key id.
+ */
+@Slf4j
+@Component
+public class JwtTokenVerifier {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Base64.Decoder BASE64_URL = Base64.getUrlDecoder();
+    private static final long MIN_FORCED_REFRESH_MS = 30_000;
+
+    private final OAuthConfig oAuthConfig;
+    private final RestTemplate restTemplate;
+
+    private volatile Map<String, PublicKey> keys = Map.of();
+    private volatile long keysLoadedAt;
+
+    public JwtTokenVerifier(OAuthConfig oAuthConfig, RestTemplateBuilder restTemplateBuilder) {
+        this.oAuthConfig = oAuthConfig;
+        this.restTemplate = restTemplateBuilder.build();
+    }
+
+    public boolean isEnabled() {
+        return oAuthConfig.isLocalJwtVerification() && oAuthConfig.getJwksUri() != null;
+    }
+
+    public static boolean looksLikeJwt(String token) {
+        int first = token.indexOf('.');
+        return first > 0 && token.indexOf('.', first + 1) > first + 1;
+    }
+
+    /**
+     * Verifies signature, expiry, not-before and the optional issuer/audience claims.
+     *
+     * @param token The compact serialized JWT
+     * @return Active validation with the token expiry and tenant claim, or inactive when any check fails
+     */
+    public TokenValidation verify(String token) {
+        try {
+            String[] parts = token.split("\\.");
+            if (parts.length != 3) {
+                return TokenValidation.inactive();
+            }
+            JsonNode header = objectMapper.readTree(BASE64_URL.decode(parts[0]));
+            JsonNode claims = objectMapper.readTree(BASE64_URL.decode(parts[1]));
+
+            String algorithm = header.path("alg").asText();
+            String javaAlgorithm = toJavaAlgorithm(algorithm);
+            PublicKey key = findKey(header.path("kid").asText(null));
+            if (javaAlgorithm == null || key == null) {
+                log.warn("Cannot verify JWT locally. alg={}, keyFound={}", algorithm, key != null);
+                return TokenValidation.inactive();
+            }
+
+            Signature signature = Signature.getInstance(javaAlgorithm);
+            signature.initVerify(key);
+            signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!signature.verify(BASE64_URL.decode(parts[2]))) {
+                return TokenValidation.inactive();
+            }
+            return checkClaims(claims);
+        } catch (Exception e) {
+            log.error("Local JWT verification failed: {}", e.getMessage());
+            return TokenValidation.inactive();
+        }
+    }
+
+    private TokenValidation checkClaims(JsonNode claims) {
+        long now = Instant.now().getEpochSecond();
+        if (!claims.has("exp") || claims.get("exp").asLong() <= now) {
+            return TokenValidation.inactive();
+        }
+        if (claims.has("nbf") && claims.get("nbf").asLong() > now) {
+            return TokenValidation.inactive();
+        }
+        if (oAuthConfig.getIssuer() != null && !oAuthConfig.getIssuer().equals(claims.path("iss").asText())) {
+            return TokenValidation.inactive();
+        }
+        if (oAuthConfig.getAudience() != null && !hasAudience(claims.path("aud"), oAuthConfig.getAudience())) {
+            return TokenValidation.inactive();
+        }
+        JsonNode tenant = claims.path(oAuthConfig.getTenantClaim());
+        return new TokenValidation(true, Instant.ofEpochSecond(claims.get("exp").asLong()),
+            tenant.isValueNode() && !tenant.isNull() ? tenant.asText() : null);
+    }
+
+    private boolean hasAudience(JsonNode aud, String expected) {
+        if (aud.isArray()) {
+            for (JsonNode value : aud) {
+                if (expected.equals(value.asText())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return expected.equals(aud.asText());
+    }
+
+    private String toJavaAlgorithm(String algorithm) {
+        return switch (algorithm) {
+            case "RS256" -> "SHA256withRSA";
+            case "RS384" -> "SHA384withRSA";
+            case "RS512" -> "SHA512withRSA";
+            case "ES256" -> "SHA256withECDSAinP1363Format";
+            case "ES384" -> "SHA384withECDSAinP1363Format";
+            default -> null;
+        };
+    }
+
+    private PublicKey findKey(String keyId) {
+        long now = System.currentTimeMillis();
+        if (now - keysLoadedAt > oAuthConfig.getJwksRefreshMs()) {
+            refreshKeys();
+        }
+        PublicKey key = lookup(keyId);
+        if (key == null && now - keysLoadedAt > MIN_FORCED_REFRESH_MS) {
+            // Unknown kid usually means the server rotated keys
+            refreshKeys();
+            key = lookup(keyId);
+        }
+        return key;
+    }
+
+    private PublicKey lookup(String keyId) {
+        Map<String, PublicKey> current = keys;
+        if (keyId == null) {
+            return current.size() == 1 ? current.values().iterator().next() : null;
+        }
+        return current.get(keyId);
+    }
+
+    private synchronized void refreshKeys() {
+        try {
+            JsonNode jwks = objectMapper.readTree(loadKeySet());
+            Map<String, PublicKey> loaded = new HashMap<>();
+            for (JsonNode jwk : jwks.path("keys")) {
+                PublicKey key = toPublicKey(jwk);
+                if (key != null) {
+                    loaded.put(jwk.path("kid").asText(String.valueOf(loaded.size())), key);
+                }
+            }
+            keys = Map.copyOf(loaded);
+            log.info("Loaded {} signing keys from {}", loaded.size(), oAuthConfig.getJwksUri());
+        } catch (Exception e) {
+            log.error("Failed to load JWKS from {}: {}", oAuthConfig.getJwksUri(), e.getMessage());
+        } finally {
+            keysLoadedAt = System.currentTimeMillis();
+        }
+    }
+
+    private String loadKeySet() throws Exception {
+        URI uri = URI.create(oAuthConfig.getJwksUri());
+        if ("file".equals(uri.getScheme())) {
+            return Files.readString(Path.of(uri));
+        }
+        return restTemplate.getForObject(uri, String.class);
+    }
+
+    private PublicKey toPublicKey(JsonNode jwk) throws Exception {
+        String keyType = jwk.path("kty").asText();
+        if ("RSA".equals(keyType)) {
+            RSAPublicKeySpec spec = new RSAPublicKeySpec(
+                unsigned(jwk.path("n").asText()), unsigned(jwk.path("e").asText()));
+            return KeyFactory.getInstance("RSA").generatePublic(spec);
+        }
+        if ("EC".equals(keyType)) {
+            String curve = switch (jwk.path("crv").asText()) {
+                case "P-256" -> "secp256r1";
+                case "P-384" -> "secp384r1";
+                default -> null;
+            };
+            if (curve == null) {
+                return null;
+            }
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec(curve));
+            ECPoint point = new ECPoint(unsigned(jwk.path("x").asText()), unsigned(jwk.path("y").asText()));
+            ECPublicKeySpec spec = new ECPublicKeySpec(point, parameters.getParameterSpec(ECParameterSpec.class));
+            return KeyFactory.getInstance("EC").generatePublic(spec);
+        }
+        return null;
+    }
+
+    private BigInteger unsigned(String base64Url) {
+        return new BigInteger(1, BASE64_URL.decode(base64Url));
+    }
+}
@@ -1,37 +1,140 @@
 package com.lily.metadataProcessingService.util;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.lily.metadataProcessingService.config.OAuthConfig;
+import com.lily.metadataProcessingService.dto.TokenValidation;
+import com.lily.metadataProcessingService.exception.TenantAccessException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Validates OAuth tokens for inbound records and HTTP requests, and binds their tenant to the token.
+ * Results are cached by token hash until the token expires (capped by {@code auth.oauth.max-cache-ttl-seconds}),
+ * and concurrent misses for the same token share one in-flight validation.
+ */
 @Service
 @Slf4j
 public class OAuthTokenValidator {
 
-    private static final String OAUTH_SERVER_URL = "https://auth.example.com/introspect";
+    private final TokenIntrospectionClient introspectionClient;
+    private final JwtTokenVerifier jwtTokenVerifier;
+    private final OAuthConfig oAuthConfig;
+    private final AsyncCache<String, TokenValidation> validationCache;
 
-    public boolean validateToken(String token) {
-        try {
-            RestTemplate restTemplate = new RestTemplate();
-            HttpHeaders headers = new HttpHeaders();
-            headers.set("Authorization", "Bearer " + token);
+    public OAuthTokenValidator(TokenIntrospectionClient introspectionClient,
+                               JwtTokenVerifier jwtTokenVerifier,
+                               OAuthConfig oAuthConfig) {
+        this.introspectionClient = introspectionClient;
+        this.jwtTokenVerifier = jwtTokenVerifier;
+        this.oAuthConfig = oAuthConfig;
+        this.validationCache = Caffeine.newBuilder()
+            .maximumSize(oAuthConfig.getCacheMaxSize())
+            .expireAfter(new TokenExpiry())
+            .buildAsync();
+    }
 
-            HttpEntity<String> entity = new HttpEntity<>(headers);
-            ResponseEntity<String> response = restTemplate.postForEntity(OAUTH_SERVER_URL, entity, String.class);
+    public boolean validateToken(String token) {
+        return validate(token).isActive();
+    }
 
-            return response.getStatusCode().is2xxSuccessful();
+    /**
+     * @param token The bearer token, may be null
+     * @return Validation of the token with its tenant claim, inactive when the token is missing or cannot be validated
+     */
+    public TokenValidation validate(String token) {
+        if (token == null || token.isBlank()) {
+            return TokenValidation.inactive();
+        }
+        try {
+            CompletableFuture<TokenValidation> validation = validationCache.get(hash(token),
+                (key, executor) -> CompletableFuture.supplyAsync(() -> verify(token), executor));
+            return validation.join();
         } catch (Exception e) {
             log.error("OAuth token validation failed: {}", e.getMessage());
-            return false;
+            return TokenValidation.inactive();
         }
     }
 
+    /**
+     * Picks the tenant a request runs as. The tenant claim of the token wins, a tenant named by the
+     * client (Kafka or HTTP header) is only accepted when it matches the claim.
+     *
+     * @param validation Active validation of the request's token
+     * @param requestedTenant Tenant named by the client, null when none
+     * @return The tenant to bind, null when neither the token nor the client names one
+     * @throws TenantAccessException when the client names a tenant the token is not scoped to
+     */
+    public String resolveTenant(TokenValidation validation, String requestedTenant) {
+        String tokenTenant = validation.getTenantId();
+        if (tokenTenant != null) {
+            if (requestedTenant != null && !requestedTenant.equals(tokenTenant)) {
+                throw new TenantAccessException("Tenant " + requestedTenant + " does not match the tenant of the token");
+            }
+            return tokenTenant;
+        }
+        if (requestedTenant != null && !oAuthConfig.isAllowUnscopedTokens()) {
+            throw new TenantAccessException("Token has no " + oAuthConfig.getTenantClaim() + " claim, cannot act for tenant " + requestedTenant);
+        }
+        return requestedTenant;
+    }
+
     public boolean hasPermission(String token, String eventType) {
         // compare against rule to check if token as required permission for event type
         return true;
     }
-}
 
+    private TokenValidation verify(String token) {
+        if (jwtTokenVerifier.isEnabled() && JwtTokenVerifier.looksLikeJwt(token)) {
+            return jwtTokenVerifier.verify(token);
+        }
+        return introspectionClient.introspect(token);
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Keeps active tokens until they expire and inactive ones for a short negative TTL.
+     */
+    private class TokenExpiry implements Expiry<String, TokenValidation> {
+
+        @Override
+        public long expireAfterCreate(String key, TokenValidation value, long currentTime) {
+            long maxTtlNanos = Duration.ofSeconds(oAuthConfig.getMaxCacheTtlSeconds()).toNanos();
+            if (!value.isActive()) {
+                return Math.min(maxTtlNanos, Duration.ofSeconds(oAuthConfig.getNegativeCacheTtlSeconds()).toNanos());
+            }
+            if (value.getExpiresAt() == null) {
+                return maxTtlNanos;
+            }
+            long untilExpiry = Duration.between(Instant.now(), value.getExpiresAt()).toNanos();
+            return Math.max(0, Math.min(maxTtlNanos, untilExpiry));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, TokenValidation value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, TokenValidation value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
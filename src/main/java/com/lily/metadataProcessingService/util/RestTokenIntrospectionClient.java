@@ -0,0 +1,76 @@
+package com.lily.metadataProcessingService.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lily.metadataProcessingService.config.OAuthConfig;
+import com.lily.metadataProcessingService.dto.TokenValidation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Introspects tokens against the configured OAuth server.
+ * A single RestTemplate is shared by all calls.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "auth.oauth.introspection-client", havingValue = "rest", matchIfMissing = true)
+public class RestTokenIntrospectionClient implements TokenIntrospectionClient {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final RestTemplate restTemplate;
+    private final OAuthConfig oAuthConfig;
+
+    public RestTokenIntrospectionClient(RestTemplateBuilder restTemplateBuilder, OAuthConfig oAuthConfig) {
+        this.oAuthConfig = oAuthConfig;
+        Duration timeout = Duration.ofMillis(oAuthConfig.getIntrospectionTimeoutMs());
+        this.restTemplate = restTemplateBuilder
+            .connectTimeout(timeout)
+            .readTimeout(timeout)
+            .build();
+    }
+
+    @Override
+    public TokenValidation introspect(String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Bearer " + token);
+
+        HttpEntity<String> entity = new HttpEntity<>(headers);
+        ResponseEntity<String> response = restTemplate.postForEntity(
+            oAuthConfig.getIntrospectionUrl(), entity, String.class);
+
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            return TokenValidation.inactive();
+        }
+        return parseResponse(response.getBody());
+    }
+
+    /**
+     * Reads the RFC 7662 {@code active} and {@code exp} claims and the tenant claim when the server returns them.
+     * A 2xx response without a body is treated as active, matching the previous behaviour.
+     */
+    private TokenValidation parseResponse(String body) {
+        if (body == null || body.isBlank()) {
+            return new TokenValidation(true, null);
+        }
+        try {
+            JsonNode node = objectMapper.readTree(body);
+            boolean active = !node.has("active") || node.get("active").asBoolean();
+            Instant expiresAt = node.has("exp") ? Instant.ofEpochSecond(node.get("exp").asLong()) : null;
+            JsonNode tenant = node.path(oAuthConfig.getTenantClaim());
+            return new TokenValidation(active, expiresAt, tenant.isValueNode() && !tenant.isNull() ? tenant.asText() : null);
+        } catch (Exception e) {
+            log.debug("Introspection response is not JSON, treating 2xx as active: {}", e.getMessage());
+            return new TokenValidation(true, null);
+        }
+    }
+}
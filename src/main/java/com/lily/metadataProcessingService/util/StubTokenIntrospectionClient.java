@@ -0,0 +1,29 @@
+package com.lily.metadataProcessingService.util;
+
+import com.lily.metadataProcessingService.config.OAuthConfig;
+import com.lily.metadataProcessingService.dto.TokenValidation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Offline stand-in for the introspection endpoint.
+ * Accepts the tokens listed in {@code auth.oauth.stub-tokens}, or any non blank token when the list is empty.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "auth.oauth.introspection-client", havingValue = "stub")
+public class StubTokenIntrospectionClient implements TokenIntrospectionClient {
+
+    private final OAuthConfig oAuthConfig;
+
+    @Override
+    public TokenValidation introspect(String token) {
+        boolean active = oAuthConfig.getStubTokens().isEmpty()
+            ? token != null && !token.isBlank()
+            : oAuthConfig.getStubTokens().contains(token);
+        return new TokenValidation(active, Instant.now().plusSeconds(oAuthConfig.getMaxCacheTtlSeconds()));
+    }
+}
@@ -0,0 +1,12 @@
+package com.lily.metadataProcessingService.util;
+
+import com.lily.metadataProcessingService.dto.TokenValidation;
+
+/**
+ * Asks an authorization server whether a token is active.
+ * The implementation is picked with {@code auth.oauth.introspection-client} so tests and
+ * local runs can swap the remote endpoint for a stub.
+ */
+public interface TokenIntrospectionClient {
+    TokenValidation introspect(String token);
+}
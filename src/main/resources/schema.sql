@@ -1,31 +1,50 @@
 -- Table to store metadata
+-- One row per entity with its latest state, upserted by entity_key
 CREATE TABLE metadata_store (
     id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    entity_key TEXT,
+    tenant_id TEXT,
     event_type TEXT NOT NULL,
     metadata JSONB NOT NULL,
     created_at TIMESTAMP DEFAULT NOW(),
     updated_at TIMESTAMP DEFAULT NOW(),
-    version INTEGER DEFAULT 1
+    version BIGINT DEFAULT 1,
+    CONSTRAINT uq_metadata_store_entity_key UNIQUE (entity_key)
 );
 
 -- Indexes for fast lookups
 CREATE INDEX index_metadata_jsonb ON metadata_store USING GIN (metadata);
 CREATE INDEX index_event_type ON metadata_store (event_type);
+-- Keyset order of the streaming query API
+CREATE INDEX index_metadata_tenant_updated ON metadata_store (tenant_id, updated_at, id);
 
 -- Table to track metadata change history
+-- Written in batches by the history writer, one row per generated CDC event.
+-- Partitioned by month: the partition manager creates metadata_history_yYYYYmMM partitions ahead of time,
+-- detaches the ones past retention and moves them to the local archive. The default partition only
+-- catches rows outside every monthly partition.
 CREATE TABLE metadata_history (
-    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    id UUID NOT NULL DEFAULT gen_random_uuid(),
     metadata_id UUID REFERENCES metadata_store(id) ON DELETE CASCADE,
+    event_id TEXT,
+    entity_key TEXT,
+    tenant_id TEXT,
+    version BIGINT,
     before_state JSONB,
     after_state JSONB NOT NULL,
+    changes JSONB,
     operation TEXT NOT NULL CHECK (operation IN ('INSERT', 'UPDATE', 'DELETE')),
-    timestamp TIMESTAMP DEFAULT NOW(),
-    user TEXT DEFAULT 'system'
-);
+    timestamp TIMESTAMP NOT NULL DEFAULT NOW(),
+    "user" TEXT DEFAULT 'system',
+    PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+CREATE TABLE metadata_history_default PARTITION OF metadata_history DEFAULT;
 
 -- Indexes for CDC queries
 CREATE INDEX index_metadata_history_metadata_id ON metadata_history (metadata_id);
 CREATE INDEX index_metadata_history_operation ON metadata_history (operation);
+CREATE INDEX index_metadata_history_entity_key ON metadata_history (entity_key, version);
 
 -- New tables for metadata rules
 CREATE TABLE metadata_rules (
@@ -47,3 +66,11 @@ CREATE TABLE metadata_rules (
 -- Indexes for better query performance
 CREATE INDEX idx_metadata_rules_tenant ON metadata_rules(tenant_id);
 CREATE INDEX idx_metadata_rules_source ON metadata_rules(source_id, source_type);
+
+-- End of the last version range reserved per entity (by any instance) and its latest event timestamp
+CREATE TABLE entity_version (
+    entity_key TEXT PRIMARY KEY,
+    version BIGINT NOT NULL,
+    event_ts BIGINT NOT NULL DEFAULT -1,
+    updated_at TIMESTAMP DEFAULT NOW()
+);
@@ -0,0 +1,172 @@
+package com.lily.metadataProcessingService.cdc;
+
+import com.lily.metadataProcessingService.config.CdcConfig;
+import com.lily.metadataProcessingService.dto.FieldChange;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class CdcDiffEngineTest {
+
+    private final CdcDiffEngine engine = new CdcDiffEngine(new CdcConfig());
+
+    @Test
+    void equalStatesHaveNoChanges() {
+        Map<String, Object> state = Map.of(
+            "name", "orders",
+            "size", 10,
+            "owner", Map.of("email", "a@example.com", "tags", List.of("x", "y")));
+
+        CdcDiff diff = engine.diff(state, copy(state), CdcOutputMode.FULL);
+
+        assertThat(diff.getChanges()).isEmpty();
+        assertThat(diff.getBefore()).containsOnlyKeys("name", "size", "owner");
+        assertThat(diff.getAfter()).isEqualTo(diff.getBefore());
+    }
+
+    @Test
+    void topLevelAddedRemovedAndChanged() {
+        CdcDiff diff = engine.diff(
+            Map.of("name", "orders", "size", 10, "schema", "sales"),
+            Map.of("name", "orders_v2", "size", 10, "owner", "bob"),
+            CdcOutputMode.CHANGES_ONLY);
+
+        assertThat(diff.getChanges())
+            .extracting(FieldChange::getPath, FieldChange::getType, FieldChange::getOldValue, FieldChange::getNewValue)
+            .containsExactlyInAnyOrder(
+                tuple("name", FieldChange.Type.CHANGED, "orders", "orders_v2"),
+                tuple("owner", FieldChange.Type.ADDED, null, "bob"),
+                tuple("schema", FieldChange.Type.REMOVED, "sales", null));
+    }
+
+    @Test
+    void nestedChangesAreReportedWithTheirPath() {
+        Map<String, Object> oldState = Map.of("owner", Map.of(
+            "name", "alice",
+            "contacts", List.of(Map.of("email", "a@example.com"), Map.of("email", "b@example.com"))));
+        Map<String, Object> newState = Map.of("owner", Map.of(
+            "name", "alice",
+            "contacts", List.of(Map.of("email", "a@example.com"), Map.of("email", "c@example.com"))));
+
+        CdcDiff diff = engine.diff(oldState, newState, CdcOutputMode.CHANGES_ONLY);
+
+        assertThat(diff.getChanges())
+            .extracting(FieldChange::getPath, FieldChange::getType, FieldChange::getOldValue, FieldChange::getNewValue)
+            .containsExactly(tuple("owner.contacts[1].email", FieldChange.Type.CHANGED, "b@example.com", "c@example.com"));
+    }
+
+    @Test
+    void listsAreComparedByPosition() {
+        CdcDiff diff = engine.diff(
+            Map.of("tags", List.of("a", "b", "c")),
+            Map.of("tags", List.of("a", "x")),
+            CdcOutputMode.CHANGES_ONLY);
+
+        assertThat(diff.getChanges())
+            .extracting(FieldChange::getPath, FieldChange::getType)
+            .containsExactly(
+                tuple("tags[1]", FieldChange.Type.CHANGED),
+                tuple("tags[2]", FieldChange.Type.REMOVED));
+    }
+
+    @Test
+    void addedContainerIsReportedLeafByLeaf() {
+        CdcDiff diff = engine.diff(
+            Map.of("owner", "alice"),
+            Map.of("owner", Map.of("name", "alice", "emails", List.of("a@example.com"))),
+            CdcOutputMode.CHANGES_ONLY);
+
+        // A string became an object: the old leaf is removed, every new leaf is added
+        assertThat(diff.getChanges())
+            .extracting(FieldChange::getPath, FieldChange::getType)
+            .containsExactlyInAnyOrder(
+                tuple("owner", FieldChange.Type.REMOVED),
+                tuple("owner.name", FieldChange.Type.ADDED),
+                tuple("owner.emails[0]", FieldChange.Type.ADDED));
+    }
+
+    @Test
+    void emptyContainersAreLeaves() {
+        CdcDiff diff = engine.diff(Map.of(), Map.of("tags", List.of(), "attributes", Map.of()), CdcOutputMode.CHANGES_ONLY);
+
+        assertThat(diff.getChanges())
+            .extracting(FieldChange::getPath, FieldChange::getType)
+            .containsExactlyInAnyOrder(
+                tuple("tags", FieldChange.Type.ADDED),
+                tuple("attributes", FieldChange.Type.ADDED));
+    }
+
+    @Test
+    void numericTypeDriftIsNotAChange() {
+        CdcDiff diff = engine.diff(
+            Map.of("size", 1, "ratio", 1.50, "count", "7"),
+            Map.of("size", 1L, "ratio", 1.5f, "count", 7),
+            CdcOutputMode.CHANGES_ONLY);
+
+        assertThat(diff.getChanges()).isEmpty();
+    }
+
+    @Test
+    void nullValuesDifferFromMissingFields() {
+        Map<String, Object> oldState = new HashMap<>();
+        oldState.put("description", null);
+        Map<String, Object> newState = new HashMap<>();
+        newState.put("description", "orders table");
+        newState.put("comment", null);
+
+        CdcDiff diff = engine.diff(oldState, newState, CdcOutputMode.CHANGES_ONLY);
+
+        assertThat(diff.getChanges())
+            .extracting(FieldChange::getPath, FieldChange::getType, FieldChange::getOldValue, FieldChange::getNewValue)
+            .containsExactlyInAnyOrder(
+                tuple("description", FieldChange.Type.CHANGED, null, "orders table"),
+                tuple("comment", FieldChange.Type.ADDED, null, null));
+    }
+
+    @Test
+    void ignoredFieldsAreLeftOutOfChangesAndStates() {
+        CdcDiff diff = engine.diff(
+            Map.of("name", "orders", "timestamp", 1L, "user", "alice"),
+            Map.of("name", "orders", "timestamp", 2L, "operation", "UPDATE"),
+            CdcOutputMode.FULL);
+
+        assertThat(diff.getChanges()).isEmpty();
+        assertThat(diff.getBefore()).containsOnlyKeys("name");
+        assertThat(diff.getAfter()).containsOnlyKeys("name");
+    }
+
+    @Test
+    void statesAreOnlyBuiltInFullMode() {
+        Map<String, Object> oldState = Map.of("name", "orders", "size", 10);
+        Map<String, Object> newState = Map.of("name", "orders", "size", 11);
+
+        CdcDiff changesOnly = engine.diff(oldState, newState, CdcOutputMode.CHANGES_ONLY);
+        CdcDiff full = engine.diff(oldState, newState, CdcOutputMode.FULL);
+
+        assertThat(changesOnly.getBefore()).isNull();
+        assertThat(changesOnly.getAfter()).isNull();
+        assertThat(full.getBefore()).containsEntry("size", "10");
+        assertThat(full.getAfter()).containsEntry("size", "11");
+        assertThat(full.getChanges()).isEqualTo(changesOnly.getChanges());
+    }
+
+    @Test
+    void newEntityHasNoBeforeState() {
+        CdcDiff diff = engine.diff(null, Map.of("name", "orders"), CdcOutputMode.FULL);
+
+        assertThat(diff.getBefore()).isNull();
+        assertThat(diff.getAfter()).containsEntry("name", "orders");
+        assertThat(diff.getChanges())
+            .extracting(FieldChange::getPath, FieldChange::getType)
+            .containsExactly(tuple("name", FieldChange.Type.ADDED));
+    }
+
+    private static Map<String, Object> copy(Map<String, Object> state) {
+        return new HashMap<>(state);
+    }
+}
@@ -0,0 +1,151 @@
+package com.lily.metadataProcessingService.consumer;
+
+import com.lily.metadataProcessingService.config.ProcessingConfig;
+import com.lily.metadataProcessingService.config.SchedulerConfig;
+import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+import com.lily.metadataProcessingService.service.PriorityScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class KeyOrderedProcessorTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("inbound", 0);
+
+    private PriorityScheduler scheduler;
+    private KeyOrderedProcessor processor;
+    private Consumer<?, ?> consumer;
+    private final Map<TopicPartition, Long> commits = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        SchedulerConfig schedulerConfig = new SchedulerConfig();
+        schedulerConfig.setWorkers(4);
+        scheduler = new PriorityScheduler(schedulerConfig, new SimpleMeterRegistry());
+        scheduler.start();
+        processor = new KeyOrderedProcessor(new ProcessingConfig(), scheduler);
+
+        consumer = mock(Consumer.class);
+        doAnswer(invocation -> {
+            Map<TopicPartition, OffsetAndMetadata> offsets = invocation.getArgument(0);
+            offsets.forEach((partition, offset) -> commits.put(partition, offset.offset()));
+            return null;
+        }).when(consumer).commitAsync(any(Map.class), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void recordsOfOneKeyRunInOrderWhileOtherKeysRun() throws Exception {
+        CountDownLatch firstBlocked = new CountDownLatch(1);
+        CountDownLatch otherKeyRan = new CountDownLatch(1);
+        List<Long> order = new CopyOnWriteArrayList<>();
+
+        processor.submit(record(0), "a", ProcessingPriority.MEDIUM, () -> {
+            awaitLatch(firstBlocked);
+            order.add(0L);
+            return CompletableFuture.completedFuture(null);
+        });
+        for (long offset = 1; offset <= 3; offset++) {
+            long current = offset;
+            processor.submit(record(offset), "a", ProcessingPriority.MEDIUM, () -> {
+                order.add(current);
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+        processor.submit(record(4), "b", ProcessingPriority.MEDIUM, () -> {
+            otherKeyRan.countDown();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        // Key b is not held up by the blocked head of key a
+        assertThat(otherKeyRan.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).isEmpty();
+
+        firstBlocked.countDown();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> order.size() == 4);
+        assertThat(order).containsExactly(0L, 1L, 2L, 3L);
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(committed()).isEqualTo(5));
+    }
+
+    @Test
+    void offsetIsCommittedOnlyOnceOutputIsPublished() {
+        CompletableFuture<Void> published = new CompletableFuture<>();
+        processor.submit(record(0), "a", ProcessingPriority.HIGH, () -> published);
+        processor.submit(record(1), "b", ProcessingPriority.HIGH, () -> CompletableFuture.completedFuture(null));
+
+        // Record 1 is done, record 0 still holds the partition back
+        await().atMost(5, TimeUnit.SECONDS).pollDelay(50, TimeUnit.MILLISECONDS)
+            .untilAsserted(() -> assertThat(committed()).isEqualTo(0));
+
+        published.complete(null);
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(committed()).isEqualTo(2));
+    }
+
+    @Test
+    void failedRecordRewindsItsPartitionAndDoesNotBlockItsLane() {
+        processor.submit(record(0), "a", ProcessingPriority.LOW,
+            () -> CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+        CountDownLatch nextRan = new CountDownLatch(1);
+        processor.submit(record(1), "a", ProcessingPriority.LOW, () -> {
+            nextRan.countDown();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> nextRan.getCount() == 0);
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            processor.commitReady(consumer);
+            verify(consumer).seek(PARTITION, 0);
+        });
+        assertThat(commits.getOrDefault(PARTITION, 0L)).isZero();
+    }
+
+    @Test
+    void skippedRecordsDoNotHoldBackCommits() {
+        processor.skip(record(0));
+        processor.submit(record(1), null, ProcessingPriority.MEDIUM, () -> CompletableFuture.completedFuture(null));
+
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(committed()).isEqualTo(2));
+    }
+
+    private long committed() {
+        processor.commitReady(consumer);
+        return commits.getOrDefault(PARTITION, -1L);
+    }
+
+    private static ConsumerRecord<String, String> record(long offset) {
+        return new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, "key", "value");
+    }
+
+    private static void awaitLatch(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
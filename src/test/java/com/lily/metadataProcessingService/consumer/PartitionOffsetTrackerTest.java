@@ -0,0 +1,89 @@
+package com.lily.metadataProcessingService.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartitionOffsetTrackerTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("inbound", 0);
+
+    private final PartitionOffsetTracker tracker = new PartitionOffsetTracker();
+
+    @Test
+    void commitStopsAtLowestPendingOffset() {
+        register(10, 11, 12);
+        tracker.complete(PARTITION, 11);
+        tracker.complete(PARTITION, 12);
+
+        assertThat(tracker.drainCommittable()).containsEntry(PARTITION, new OffsetAndMetadata(10));
+
+        tracker.complete(PARTITION, 10);
+        assertThat(tracker.drainCommittable()).containsEntry(PARTITION, new OffsetAndMetadata(13));
+    }
+
+    @Test
+    void committedOffsetIsOnlyReturnedOnce() {
+        register(0);
+        tracker.complete(PARTITION, 0);
+
+        assertThat(tracker.drainCommittable()).containsEntry(PARTITION, new OffsetAndMetadata(1));
+        assertThat(tracker.drainCommittable()).isEmpty();
+    }
+
+    @Test
+    void failedRecordRewindsAndHoldsBackCommits() {
+        register(5, 6, 7);
+        tracker.complete(PARTITION, 5);
+        tracker.fail(PARTITION, 7);
+        tracker.fail(PARTITION, 6);
+        tracker.complete(PARTITION, 7);
+
+        assertThat(tracker.drainRewinds()).isEqualTo(Map.of(PARTITION, 6L));
+        assertThat(tracker.drainRewinds()).isEmpty();
+        assertThat(tracker.drainCommittable()).containsEntry(PARTITION, new OffsetAndMetadata(6));
+
+        // The record is read again after the rewind and succeeds this time
+        register(6, 7);
+        tracker.complete(PARTITION, 6);
+        tracker.complete(PARTITION, 7);
+        assertThat(tracker.drainCommittable()).containsEntry(PARTITION, new OffsetAndMetadata(8));
+    }
+
+    @Test
+    void partitionsAreTrackedSeparately() {
+        TopicPartition other = new TopicPartition("inbound", 1);
+        register(0);
+        tracker.register(other, 0);
+        tracker.complete(other, 0);
+
+        Map<TopicPartition, OffsetAndMetadata> committable = tracker.drainCommittable();
+
+        assertThat(committable).containsEntry(PARTITION, new OffsetAndMetadata(0));
+        assertThat(committable).containsEntry(other, new OffsetAndMetadata(1));
+    }
+
+    @Test
+    void forgottenPartitionsAreNoLongerCommitted() {
+        register(0, 1);
+
+        tracker.forget(List.of(PARTITION));
+
+        assertThat(tracker.pendingCount()).isZero();
+        assertThat(tracker.drainCommittable()).isEmpty();
+        tracker.complete(PARTITION, 0);
+        tracker.fail(PARTITION, 1);
+        assertThat(tracker.drainRewinds()).isEmpty();
+    }
+
+    private void register(long... offsets) {
+        for (long offset : offsets) {
+            tracker.register(PARTITION, offset);
+        }
+    }
+}
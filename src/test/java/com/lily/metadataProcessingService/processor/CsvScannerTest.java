@@ -0,0 +1,131 @@
+package com.lily.metadataProcessingService.processor;
+
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvScannerTest {
+
+    // Smaller than most rows, so every test also reads across buffer refills
+    private static final int BUFFER_SIZE = 4;
+
+    @Test
+    void quotedFieldsKeepDelimitersQuotesAndLineBreaks() throws IOException {
+        List<List<String>> rows = texts("id,comment\n1,\"a, \"\"quoted\"\"\nvalue\"\n");
+
+        assertThat(rows).containsExactly(
+            List.of("id", "comment"),
+            List.of("1", "a, \"quoted\"\nvalue"));
+    }
+
+    @Test
+    void escapeCharacterInsideQuotes() throws IOException {
+        CsvScanner scanner = scanner("\"say \\\"hi\\\"\",\"back\\\\slash\"\n", ',', '\\');
+
+        assertThat(scanner.next()).isTrue();
+        assertThat(scanner.text(0)).isEqualTo("say \"hi\"");
+        assertThat(scanner.text(1)).isEqualTo("back\\slash");
+    }
+
+    @Test
+    void crlfAndLfLineEndsAndBlankLines() throws IOException {
+        List<List<String>> rows = texts("a,b\r\n\r\n1,2\n\n3,4\r5,6");
+
+        assertThat(rows).containsExactly(List.of("a", "b"), List.of("1", "2"), List.of("3", "4"), List.of("5", "6"));
+    }
+
+    @Test
+    void utf8BomIsSkipped() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] body = "name,city\nJosé,Zürich\n".getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[bom.length + body.length];
+        System.arraycopy(bom, 0, content, 0, bom.length);
+        System.arraycopy(body, 0, content, bom.length, body.length);
+
+        List<List<String>> rows = texts(new CsvScanner(new ByteArrayInputStream(content), BUFFER_SIZE, (byte) ',', (byte) '"', -1, 1 << 20));
+
+        assertThat(rows).containsExactly(List.of("name", "city"), List.of("José", "Zürich"));
+    }
+
+    @Test
+    void valuesAreTypedFromTheirBytes() throws IOException {
+        CsvScanner scanner = scanner("42,-7,+3,3.5,1e3,-2.5E-2,007,0,TRUE,false,,\"\",\"12\",1.,abc,1234567890123456789\n", ',', -1);
+
+        assertThat(scanner.next()).isTrue();
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < scanner.size(); i++) {
+            values.add(scanner.value(i));
+        }
+        assertThat(values).containsExactly(42L, -7L, 3L, 3.5, 1000.0, -0.025, "007", 0L, true, false, null, "", "12",
+            "1.", "abc", "1234567890123456789");
+    }
+
+    @Test
+    void otherDelimiterAndLineNumbers() throws IOException {
+        CsvScanner scanner = scanner("a;\"multi\nline\"\nb;c\n", ';', -1);
+
+        assertThat(scanner.next()).isTrue();
+        assertThat(scanner.line()).isEqualTo(2);
+        assertThat(scanner.next()).isTrue();
+        assertThat(scanner.text(1)).isEqualTo("c");
+        assertThat(scanner.line()).isEqualTo(3);
+        assertThat(scanner.next()).isFalse();
+    }
+
+    @Test
+    void emptyQuotedRowIsNotSkipped() throws IOException {
+        CsvScanner scanner = scanner("\"\"\n", ',', -1);
+
+        assertThat(scanner.next()).isTrue();
+        assertThat(scanner.size()).isEqualTo(1);
+        assertThat(scanner.value(0)).isEqualTo("");
+    }
+
+    @Test
+    void unclosedQuoteFails() {
+        CsvScanner scanner = scanner("a,b\n1,\"open\n2,3\n", ',', -1);
+
+        assertThatThrownBy(() -> {
+            while (scanner.next()) {
+                // read until the broken row
+            }
+        }).isInstanceOf(ProcessingException.class).hasMessageContaining("line 2");
+    }
+
+    @Test
+    void rowLargerThanLimitFails() {
+        CsvScanner scanner = new CsvScanner(new ByteArrayInputStream(("x".repeat(5000) + "\n").getBytes(StandardCharsets.UTF_8)),
+            BUFFER_SIZE, (byte) ',', (byte) '"', -1, 2048);
+
+        assertThatThrownBy(scanner::next).isInstanceOf(ProcessingException.class).hasMessageContaining("2048");
+    }
+
+    private static CsvScanner scanner(String content, char delimiter, int escape) {
+        return new CsvScanner(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), BUFFER_SIZE,
+            (byte) delimiter, (byte) '"', escape, 1 << 20);
+    }
+
+    private static List<List<String>> texts(String content) throws IOException {
+        return texts(scanner(content, ',', -1));
+    }
+
+    private static List<List<String>> texts(CsvScanner scanner) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        while (scanner.next()) {
+            List<String> row = new ArrayList<>();
+            for (int i = 0; i < scanner.size(); i++) {
+                row.add(scanner.text(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
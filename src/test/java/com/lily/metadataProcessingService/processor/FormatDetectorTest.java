@@ -0,0 +1,163 @@
+package com.lily.metadataProcessingService.processor;
+
+import com.lily.metadataProcessingService.config.FormatDetectionConfig;
+import com.lily.metadataProcessingService.dto.MetadataRequest;
+import com.lily.metadataProcessingService.exception.ProcessingException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FormatDetectorTest {
+
+    @TempDir
+    Path directory;
+
+    private FormatDetectionConfig config;
+    private FormatDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        config = new FormatDetectionConfig();
+        config.setSniffBytes(64);
+        detector = new FormatDetector(config);
+    }
+
+    @Test
+    void sniffsTextFormats() {
+        assertThat(format("{\"id\": 1}")).isEqualTo(InputFormat.JSON);
+        assertThat(format("  \n[{\"id\": 1}, {\"id\": 2}]")).isEqualTo(InputFormat.JSON);
+        assertThat(format("{\"id\": 1}\n{\"id\": 2}\n")).isEqualTo(InputFormat.NDJSON);
+        assertThat(format("{\n  \"id\": 1\n}\n{\n  \"id\": 2\n}\n")).isEqualTo(InputFormat.JSON);
+        assertThat(format("<?xml version=\"1.0\"?><table/>")).isEqualTo(InputFormat.XML);
+        assertThat(format("id;name\n1;orders\n")).isEqualTo(InputFormat.CSV);
+        assertThat(format("id,\"name, full\"\n1,\"orders, daily\"\n")).isEqualTo(InputFormat.CSV);
+        assertThat(format("just some words")).isEqualTo(InputFormat.UNKNOWN);
+        assertThat(format("")).isEqualTo(InputFormat.UNKNOWN);
+    }
+
+    @Test
+    void jsonWhoseFirstValueDoesNotEndInThePrefixIsASingleDocument() {
+        String longFirstLine = "{\"description\": \"" + "x".repeat(100) + "\"}\n{\"id\": 2}\n";
+
+        assertThat(format(longFirstLine)).isEqualTo(InputFormat.JSON);
+    }
+
+    @Test
+    void sniffsBinaryFormatsFromMagicNumbers() {
+        assertThat(format(new byte[]{'P', 'A', 'R', '1', 0, 0})).isEqualTo(InputFormat.PARQUET);
+        assertThat(format(new byte[]{'O', 'b', 'j', 1, 0})).isEqualTo(InputFormat.AVRO);
+        assertThat(format(new byte[]{'O', 'R', 'C', 0})).isEqualTo(InputFormat.ORC);
+        assertThat(format(new byte[]{(byte) 0x1F, (byte) 0x8B, 8})).isEqualTo(InputFormat.GZIP);
+        assertThat(format(new byte[]{'P', 'K', 3, 4, 0})).isEqualTo(InputFormat.ZIP);
+    }
+
+    @Test
+    void bomsAreSkipped() {
+        byte[] utf8 = concat(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, "{\"id\": 1}".getBytes(StandardCharsets.UTF_8));
+        byte[] utf16 = "[1, 2]".getBytes(StandardCharsets.UTF_16);
+
+        assertThat(format(utf8)).isEqualTo(InputFormat.JSON);
+        assertThat(format(utf16)).isEqualTo(InputFormat.JSON);
+    }
+
+    @Test
+    void structuredPayloadIsJson() {
+        FormatDetector.Detection detection = detector.detect(request("events", Map.of("id", 1), null));
+
+        assertThat(detection.format()).isEqualTo(InputFormat.JSON);
+        assertThat(detection.content()).isNull();
+    }
+
+    @Test
+    void declaredFormatIsOnlyTakenWhenThePrefixAgrees() {
+        assertThat(detector.detect(request("declared", content("{\"id\": 1}"), Map.of("format", "ndjson"))).format())
+            .isEqualTo(InputFormat.NDJSON);
+        assertThat(detector.detect(request("declared-csv", content("{\"id\": 1}"), Map.of("contentType", "text/csv"))).format())
+            .isEqualTo(InputFormat.JSON);
+    }
+
+    @Test
+    void cachedJsonIsDroppedForNdjsonAndBack() {
+        assertThat(detectAs("stream", "{\"id\": 1}")).isEqualTo(InputFormat.JSON);
+        assertThat(detectAs("stream", "{\"id\": 1}\n{\"id\": 2}\n")).isEqualTo(InputFormat.NDJSON);
+        // A first line longer than the prefix cannot be told apart, the cached format is kept
+        assertThat(detectAs("stream", "{\"description\": \"" + "x".repeat(100) + "\"}\n")).isEqualTo(InputFormat.NDJSON);
+        // So is a single one-line value, it is valid either way
+        assertThat(detectAs("stream", "{\"id\": 3}")).isEqualTo(InputFormat.NDJSON);
+        // A value spread over lines is not NDJSON
+        assertThat(detectAs("stream", "{\n  \"id\": 4\n}")).isEqualTo(InputFormat.JSON);
+    }
+
+    @Test
+    void cachedCsvNeedsADelimiter() {
+        assertThat(detectAs("rows", "id,name\n1,orders\n")).isEqualTo(InputFormat.CSV);
+        assertThat(detectAs("rows", "id,name\n2,customers\n")).isEqualTo(InputFormat.CSV);
+        assertThat(detectAs("rows", "no delimiter here")).isEqualTo(InputFormat.UNKNOWN);
+        assertThat(detectAs("rows", "<table/>")).isEqualTo(InputFormat.XML);
+    }
+
+    @Test
+    void delimiterOfContent() {
+        assertThat(detector.delimiter("a|b|c\n1|2|3\n")).isEqualTo('|');
+        assertThat(detector.delimiter("a\tb\n1\t2\n")).isEqualTo('\t');
+        // The second line splits into a different number of fields
+        assertThat(detector.delimiter("a,b,c\n1,2\n")).isEqualTo(-1);
+    }
+
+    @Test
+    void contentFilesAreReadBelowTheContentDirectoryOnly() throws Exception {
+        Path inbound = Files.createDirectory(directory.resolve("inbound"));
+        Files.writeString(inbound.resolve("rows.csv"), "id,name\n1,orders\n");
+        Path outside = Files.writeString(directory.resolve("secret.csv"), "id,secret\n1,x\n");
+        Files.createSymbolicLink(inbound.resolve("link.csv"), outside);
+
+        assertThatThrownBy(() -> detector.detect(request("files", Map.of("contentPath", "rows.csv"), null)))
+            .isInstanceOf(ProcessingException.class).hasMessageContaining("content-dir");
+
+        config.setContentDir(inbound.toString());
+        FormatDetector.Detection detection = detector.detect(request("files", Map.of("contentPath", "rows.csv"), null));
+        assertThat(detection.format()).isEqualTo(InputFormat.CSV);
+        assertThat(detection.content()).isEqualTo(inbound.resolve("rows.csv").toRealPath());
+
+        assertThatThrownBy(() -> detector.detect(request("files", Map.of("contentPath", "../secret.csv"), null)))
+            .isInstanceOf(ProcessingException.class);
+        assertThatThrownBy(() -> detector.detect(request("files", Map.of("contentPath", "link.csv"), null)))
+            .isInstanceOf(ProcessingException.class);
+        assertThatThrownBy(() -> detector.detect(request("files", Map.of("contentPath", "missing.csv"), null)))
+            .isInstanceOf(ProcessingException.class);
+    }
+
+    private InputFormat format(Object content) {
+        return FormatDetector.sniff(FormatDetector.prefixOf(content, config.getSniffBytes()));
+    }
+
+    private InputFormat detectAs(String eventType, String content) {
+        return detector.detect(request(eventType, content(content), null)).format();
+    }
+
+    private static Map<String, Object> content(String content) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put(FormatDetector.CONTENT_KEY, content);
+        return payload;
+    }
+
+    private static MetadataRequest request(String eventType, Map<String, Object> payload, Object metadata) {
+        return new MetadataRequest(eventType, "event-1", "2024-01-01T00:00:00Z", payload, metadata);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
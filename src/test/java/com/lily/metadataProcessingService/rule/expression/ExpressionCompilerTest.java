@@ -0,0 +1,138 @@
+package com.lily.metadataProcessingService.rule.expression;
+
+import com.lily.metadataProcessingService.exception.ExpressionException;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExpressionCompilerTest {
+
+    private static final Map<String, Object> PAYLOAD = payload();
+
+    @Test
+    void comparesNumbersByValueWhateverTheirType() {
+        assertThat(test("size > 1000")).isTrue();
+        assertThat(test("size == 1500.0")).isTrue();
+        assertThat(test("ratio < 1")).isTrue();
+        assertThat(test("ratio >= 0.5")).isTrue();
+        assertThat(test("count != 3")).isFalse();
+        assertThat(test("size <= -1")).isFalse();
+    }
+
+    @Test
+    void stringOperators() {
+        assertThat(test("table startsWith 'fin_'")).isTrue();
+        assertThat(test("table endsWith \"_orders\"")).isTrue();
+        assertThat(test("table contains 'ord'")).isTrue();
+        assertThat(test("owner.email matches '.*@example\\\\.com'")).isTrue();
+        assertThat(test("table < 'zzz'")).isTrue();
+        assertThat(test("'it\\'s' == quoted")).isTrue();
+    }
+
+    @Test
+    void booleanOperatorsAndPrecedence() {
+        assertThat(test("table startsWith 'fin_' && size > 1000")).isTrue();
+        assertThat(test("table startsWith 'crm_' and size > 1000")).isFalse();
+        assertThat(test("false || true && false")).isFalse();
+        assertThat(test("(false || true) && true")).isTrue();
+        assertThat(test("not classification == 'PII' or active")).isTrue();
+        assertThat(test("!active")).isFalse();
+    }
+
+    @Test
+    void inListsMatchNumbersOfAnyType() {
+        assertThat(test("lower(schema) in ['sales', 'finance']")).isTrue();
+        assertThat(test("schema in ['sales', 'finance']")).isFalse();
+        assertThat(test("count in [1, 2, 3]")).isTrue();
+        assertThat(test("ratio in [0.75]")).isTrue();
+        assertThat(test("'finance' in tags")).isTrue();
+        assertThat(test("schema in []")).isFalse();
+    }
+
+    @Test
+    void pathsReadNestedMapsAndMissingFieldsAreNull() {
+        assertThat(evaluate("payload.owner.email")).isEqualTo("jane@example.com");
+        assertThat(evaluate("owner.email")).isEqualTo("jane@example.com");
+        assertThat(evaluate("owner.phone")).isNull();
+        assertThat(evaluate("table.name")).isNull();
+        assertThat(test("owner.phone == null")).isTrue();
+        assertThat(test("missing > 1")).isFalse();
+    }
+
+    @Test
+    void functions() {
+        assertThat(test("exists(owner.email)")).isTrue();
+        assertThat(test("exists(nothing)")).isTrue();
+        assertThat(test("exists(owner.phone)")).isFalse();
+        assertThat(evaluate("size(tags)")).isEqualTo(2L);
+        assertThat(evaluate("size(table)")).isEqualTo(10L);
+        assertThat(evaluate("size(owner)")).isEqualTo(1L);
+        assertThat(evaluate("lower(schema)")).isEqualTo("finance");
+    }
+
+    @Test
+    void mismatchedTypesAndNonBooleansAreFalse() {
+        assertThat(test("table > 5")).isFalse();
+        assertThat(test("size startsWith '1'")).isFalse();
+        assertThat(test("table")).isFalse();
+        assertThat(test("'true'")).isFalse();
+    }
+
+    @Test
+    void constantSubExpressionsAreFolded() {
+        CompiledExpression expression = ExpressionCompiler.compile("1 < 2 && 'a' in ['a', 'b']");
+
+        assertThat(expression.test(Map.of())).isTrue();
+        assertThat(expression.source()).isEqualTo("1 < 2 && 'a' in ['a', 'b']");
+    }
+
+    @Test
+    void invalidExpressionsFailToCompile() {
+        assertThatThrownBy(() -> ExpressionCompiler.compile(" ")).isInstanceOf(ExpressionException.class);
+        assertThatThrownBy(() -> ExpressionCompiler.compile("size >")).isInstanceOf(ExpressionException.class);
+        assertThatThrownBy(() -> ExpressionCompiler.compile("(size > 1")).isInstanceOf(ExpressionException.class);
+        assertThatThrownBy(() -> ExpressionCompiler.compile("table matches schema"))
+            .isInstanceOf(ExpressionException.class).hasMessageContaining("string literal");
+        assertThatThrownBy(() -> ExpressionCompiler.compile("table matches '['"))
+            .isInstanceOf(ExpressionException.class).hasMessageContaining("Invalid regex");
+        assertThatThrownBy(() -> ExpressionCompiler.compile("exists('a')")).isInstanceOf(ExpressionException.class);
+        assertThatThrownBy(() -> ExpressionCompiler.compile("unknown(size)"))
+            .isInstanceOf(ExpressionException.class).hasMessageContaining("Unknown function");
+        assertThatThrownBy(() -> ExpressionCompiler.compile("schema in [table]"))
+            .isInstanceOf(ExpressionException.class).hasMessageContaining("literals");
+        assertThatThrownBy(() -> ExpressionCompiler.compile("table == 'open"))
+            .isInstanceOf(ExpressionException.class).hasMessageContaining("position 9");
+        assertThatThrownBy(() -> ExpressionCompiler.compile("size # 1")).isInstanceOf(ExpressionException.class);
+    }
+
+    private static boolean test(String expression) {
+        return ExpressionCompiler.compile(expression).test(PAYLOAD);
+    }
+
+    private static Object evaluate(String expression) {
+        return ExpressionCompiler.compile(expression).evaluate(PAYLOAD);
+    }
+
+    private static Map<String, Object> payload() {
+        Map<String, Object> owner = new HashMap<>();
+        owner.put("email", "jane@example.com");
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("table", "fin_orders");
+        payload.put("size", 1500);
+        payload.put("count", 3L);
+        payload.put("ratio", 0.75f);
+        payload.put("schema", "Finance");
+        payload.put("classification", "PUBLIC");
+        payload.put("active", true);
+        payload.put("quoted", "it's");
+        payload.put("tags", List.of("finance", "orders"));
+        payload.put("owner", owner);
+        payload.put("nothing", null);
+        return payload;
+    }
+}
@@ -0,0 +1,128 @@
+package com.lily.metadataProcessingService.service;
+
+import com.lily.metadataProcessingService.config.SchedulerConfig;
+import com.lily.metadataProcessingService.context.RequestContext;
+import com.lily.metadataProcessingService.context.TenantContext;
+import com.lily.metadataProcessingService.model.rules.ProcessingPriority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PrioritySchedulerTest {
+
+    private SchedulerConfig config;
+    private PriorityScheduler scheduler;
+    private final List<ProcessingPriority> ran = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        config = new SchedulerConfig();
+        // One worker started after the queues are filled, so the order work runs in is the order it was picked
+        config.setWorkers(1);
+        config.setAgingThresholdMs(60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void backlogIsSharedByWeight() {
+        scheduler = new PriorityScheduler(config, new SimpleMeterRegistry());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            for (ProcessingPriority priority : ProcessingPriority.values()) {
+                futures.add(scheduler.submit(priority, () -> ran.add(priority)));
+            }
+        }
+
+        runAll(futures);
+
+        // Weights 6/3/1: every round of ten picks while all queues are busy
+        List<ProcessingPriority> firstRound = ran.subList(0, 10);
+        assertThat(firstRound).filteredOn(ProcessingPriority.HIGH::equals).hasSize(6);
+        assertThat(firstRound).filteredOn(ProcessingPriority.MEDIUM::equals).hasSize(3);
+        assertThat(firstRound).filteredOn(ProcessingPriority.LOW::equals).hasSize(1);
+        // Smooth round robin interleaves instead of running all HIGH work first
+        assertThat(ran.subList(0, 3)).contains(ProcessingPriority.MEDIUM);
+        assertThat(ran).hasSize(60);
+    }
+
+    @Test
+    void agedLowPriorityWorkRunsBeforeNewerHighPriorityWork() throws Exception {
+        config.setAgingThresholdMs(20);
+        scheduler = new PriorityScheduler(config, new SimpleMeterRegistry());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(scheduler.submit(ProcessingPriority.LOW, () -> ran.add(ProcessingPriority.LOW)));
+        TimeUnit.MILLISECONDS.sleep(50);
+        for (int i = 0; i < 10; i++) {
+            futures.add(scheduler.submit(ProcessingPriority.HIGH, () -> ran.add(ProcessingPriority.HIGH)));
+        }
+
+        runAll(futures);
+
+        assertThat(ran.get(0)).isEqualTo(ProcessingPriority.LOW);
+    }
+
+    @Test
+    void lowPriorityWorkWaitsWhileNotAged() {
+        scheduler = new PriorityScheduler(config, new SimpleMeterRegistry());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(scheduler.submit(ProcessingPriority.LOW, () -> ran.add(ProcessingPriority.LOW)));
+        for (int i = 0; i < 5; i++) {
+            futures.add(scheduler.submit(ProcessingPriority.HIGH, () -> ran.add(ProcessingPriority.HIGH)));
+        }
+
+        runAll(futures);
+
+        assertThat(ran.get(0)).isEqualTo(ProcessingPriority.HIGH);
+        assertThat(ran).contains(ProcessingPriority.LOW);
+    }
+
+    @Test
+    void workRunsWithContextAndEffectivePriority() {
+        scheduler = new PriorityScheduler(config, new SimpleMeterRegistry());
+        scheduler.start();
+        List<RequestContext> seen = new CopyOnWriteArrayList<>();
+
+        scheduler.submit(ProcessingPriority.HIGH, RequestContext.of("tenant-a", "event-1"),
+            () -> seen.add(TenantContext.current())).join();
+        scheduler.submit(null, null, () -> seen.add(TenantContext.current())).join();
+
+        assertThat(seen.get(0)).isEqualTo(new RequestContext("tenant-a", "event-1", ProcessingPriority.HIGH));
+        assertThat(seen.get(1).priority()).isEqualTo(ProcessingPriority.MEDIUM);
+    }
+
+    @Test
+    void failedWorkCompletesItsFutureExceptionally() {
+        scheduler = new PriorityScheduler(config, new SimpleMeterRegistry());
+        scheduler.start();
+
+        CompletableFuture<Void> failed = scheduler.submit(ProcessingPriority.MEDIUM, () -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertThatThrownBy(failed::join).hasCauseInstanceOf(IllegalStateException.class);
+        // The worker survives the failure
+        scheduler.submit(ProcessingPriority.MEDIUM, () -> ran.add(ProcessingPriority.MEDIUM)).join();
+        assertThat(ran).containsExactly(ProcessingPriority.MEDIUM);
+    }
+
+    private void runAll(List<CompletableFuture<Void>> futures) {
+        scheduler.start();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).orTimeout(5, TimeUnit.SECONDS).join();
+    }
+}
@@ -0,0 +1,144 @@
+package com.lily.metadataProcessingService.state;
+
+import com.lily.metadataProcessingService.config.StateStoreConfig;
+import com.lily.metadataProcessingService.service.MetadataStoreWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OffHeapStateStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private StateStoreConfig config;
+    private MetadataStoreWriter storeWriter;
+
+    @BeforeEach
+    void setUp() {
+        config = new StateStoreConfig();
+        config.getOffHeap().setDirectory(directory.toString());
+        config.getOffHeap().setSegmentSizeBytes(4096);
+        config.getOffHeap().setInitialIndexCapacity(64);
+        storeWriter = mock(MetadataStoreWriter.class);
+        when(storeWriter.findLatestStates(anyCollection())).thenReturn(Map.of());
+    }
+
+    @Test
+    void reopenAfterCrashKeepsLatestStates() {
+        OffHeapStateStore store = open();
+        store.put("a", state(1));
+        store.put("b", state(1));
+        store.put("a", state(2));
+        // No close(): the index is left dirty and has to be rebuilt from the segments
+
+        OffHeapStateStore reopened = open();
+
+        assertThat(reopened.get("a")).isEqualTo(state(2));
+        assertThat(reopened.get("b")).isEqualTo(state(1));
+        verify(storeWriter, never()).findLatestStates(anyCollection());
+    }
+
+    @Test
+    void reopenAfterCleanCloseKeepsLatestStates() {
+        OffHeapStateStore store = open();
+        store.put("a", state(1));
+        store.put("a", state(2));
+        store.close();
+
+        OffHeapStateStore reopened = open();
+
+        assertThat(reopened.get("a")).isEqualTo(state(2));
+        verify(storeWriter, never()).findLatestStates(anyCollection());
+    }
+
+    @Test
+    void reopenAfterCompactionKeepsLatestStates() throws Exception {
+        OffHeapStateStore store = open();
+        store.put("stable", state(0));
+        for (int version = 1; version <= 200; version++) {
+            store.put("hot", state(version));
+        }
+        long segmentsBefore = segmentCount();
+        store.compact();
+        assertThat(segmentCount()).isLessThan(segmentsBefore);
+
+        assertThat(open().get("stable")).isEqualTo(state(0));
+        OffHeapStateStore reopened = open();
+        assertThat(reopened.get("hot")).isEqualTo(state(200));
+        assertThat(reopened.get("stable")).isEqualTo(state(0));
+        verify(storeWriter, never()).findLatestStates(anyCollection());
+    }
+
+    @Test
+    void databaseStateDoesNotReplaceStateWrittenWhileLoading() {
+        OffHeapStateStore store = open();
+        when(storeWriter.findLatestStates(List.of("a"))).thenAnswer(invocation -> {
+            // The entity is processed while its row is read
+            store.put("a", state(2));
+            return Map.of("a", state(1));
+        });
+
+        assertThat(store.get("a")).isEqualTo(state(2));
+        assertThat(store.get("a")).isEqualTo(state(2));
+    }
+
+    @Test
+    void entitiesWithoutRowAreLookedUpOnce() {
+        OffHeapStateStore store = open();
+
+        assertThat(store.get("new")).isEmpty();
+        assertThat(store.getAll(List.of("new"))).isEmpty();
+        verify(storeWriter, times(1)).findLatestStates(anyCollection());
+
+        store.put("new", state(1));
+        assertThat(store.get("new")).isEqualTo(state(1));
+    }
+
+    @Test
+    void rollbackGoesBackToDatabaseState() {
+        OffHeapStateStore store = open();
+        when(storeWriter.findLatestStates(List.of("a"))).thenReturn(Map.of("a", state(1)));
+        store.put("a", state(2));
+
+        store.rollback("a", state(2));
+
+        assertThat(store.get("a")).isEqualTo(state(1));
+    }
+
+    private OffHeapStateStore open() {
+        OffHeapStateStore store = new OffHeapStateStore(config, storeWriter, new SimpleMeterRegistry());
+        store.open();
+        return store;
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(LogSegment::isSegmentFile).count();
+        }
+    }
+
+    private static Map<String, Object> state(int version) {
+        Map<String, Object> state = new HashMap<>();
+        state.put("id", "entity");
+        state.put("version", version);
+        state.put("padding", "x".repeat(64));
+        return state;
+    }
+}
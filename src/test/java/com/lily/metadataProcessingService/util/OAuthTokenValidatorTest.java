@@ -0,0 +1,69 @@
+package com.lily.metadataProcessingService.util;
+
+import com.lily.metadataProcessingService.config.OAuthConfig;
+import com.lily.metadataProcessingService.dto.TokenValidation;
+import com.lily.metadataProcessingService.exception.TenantAccessException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OAuthTokenValidatorTest {
+
+    private final OAuthConfig config = new OAuthConfig();
+    private final TokenIntrospectionClient introspectionClient = mock(TokenIntrospectionClient.class);
+    private final OAuthTokenValidator validator =
+        new OAuthTokenValidator(introspectionClient, mock(JwtTokenVerifier.class), config);
+
+    @Test
+    void tokenTenantIsBoundWhenNoTenantIsRequested() {
+        assertThat(validator.resolveTenant(scopedTo("acme"), null)).isEqualTo("acme");
+    }
+
+    @Test
+    void requestedTenantMustMatchTheToken() {
+        assertThat(validator.resolveTenant(scopedTo("acme"), "acme")).isEqualTo("acme");
+        assertThatThrownBy(() -> validator.resolveTenant(scopedTo("acme"), "globex"))
+            .isInstanceOf(TenantAccessException.class);
+    }
+
+    @Test
+    void unscopedTokenCannotNameATenantUnlessAllowed() {
+        TokenValidation unscoped = new TokenValidation(true, null);
+
+        assertThat(validator.resolveTenant(unscoped, null)).isNull();
+        assertThatThrownBy(() -> validator.resolveTenant(unscoped, "acme"))
+            .isInstanceOf(TenantAccessException.class);
+
+        config.setAllowUnscopedTokens(true);
+        assertThat(validator.resolveTenant(unscoped, "acme")).isEqualTo("acme");
+    }
+
+    @Test
+    void validationKeepsTheTenantClaimAndIsCached() {
+        when(introspectionClient.introspect("token")).thenReturn(scopedTo("acme"));
+
+        assertThat(validator.validate("token").getTenantId()).isEqualTo("acme");
+        assertThat(validator.validate("token").isActive()).isTrue();
+        verify(introspectionClient, times(1)).introspect("token");
+    }
+
+    @Test
+    void missingTokenIsInactiveWithoutIntrospection() {
+        assertThat(validator.validate(null).isActive()).isFalse();
+        assertThat(validator.validate(" ").isActive()).isFalse();
+        verify(introspectionClient, never()).introspect(anyString());
+    }
+
+    private static TokenValidation scopedTo(String tenant) {
+        return new TokenValidation(true, Instant.now().plusSeconds(60), tenant);
+    }
+}